@@ -4,6 +4,7 @@ import com.datasqrl.ai.models.AbstractChatProvider;
 import com.datasqrl.ai.models.ChatSession;
 import com.datasqrl.ai.models.ContextWindow;
 import com.datasqrl.ai.models.ModelAnalyzer;
+import com.datasqrl.ai.models.StreamingFunctionCallParser;
 import com.datasqrl.ai.tool.Context;
 import com.datasqrl.ai.tool.ModelObservability;
 import com.datasqrl.ai.tool.ModelObservability.ModelInvocation;
@@ -15,6 +16,8 @@ import com.datasqrl.ai.models.ChatMessageEncoder;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -23,9 +26,13 @@ import org.json.JSONObject;
 import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
 import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelRequest;
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelResponse;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamResponseHandler;
+import software.amazon.awssdk.services.bedrockruntime.model.PayloadPart;
 
 @Slf4j
 public class BedrockChatProvider extends
@@ -33,9 +40,9 @@ public class BedrockChatProvider extends
 
   private final BedrockModelConfiguration config;
   private final BedrockRuntimeClient client;
+  private final BedrockRuntimeAsyncClient asyncClient;
   private final ChatMessageEncoder<BedrockChatMessage> encoder;
   private final String systemPrompt;
-  ModelInvocation invocation = null;
 
   private final String FUNCTION_CALLING_PROMPT = "To call a function, respond only with JSON text in the following format: "
       + "{\"function\": \"$FUNCTION_NAME\","
@@ -59,6 +66,10 @@ public class BedrockChatProvider extends
         .region(Region.of(config.getRegion()))
         .credentialsProvider(credentialsProvider)
         .build();
+    this.asyncClient = BedrockRuntimeAsyncClient.builder()
+        .region(Region.of(config.getRegion()))
+        .credentialsProvider(credentialsProvider)
+        .build();
     this.encoder = switch (config.getModelType()) {
       case LLAMA3_70B, LLAMA3_8B -> new Llama3MessageEncoder();
     };
@@ -66,19 +77,21 @@ public class BedrockChatProvider extends
 
   @Override
   public GenericChatMessage chat(String message, Context context) {
-    ChatSession<BedrockChatMessage, BedrockFunctionCall> session = new ChatSession<>(backend, context, systemPrompt, bindings);
+    ChatSession<BedrockChatMessage, BedrockFunctionCall> session = new ChatSession<>(this, context, systemPrompt);
     BedrockChatMessage chatMessage = new BedrockChatMessage(BedrockChatRole.USER, message, "");
     session.addMessage(chatMessage);
 
     int retryCount = 0;
     while (true) {
+      context.getCancellationToken().throwIfCancelled();
       ContextWindow<BedrockChatMessage> contextWindow = session.getContextWindow();
       String prompt = contextWindow.getMessages().stream()
           .map(this.encoder::encodeMessage)
           .collect(Collectors.joining("\n"));
       log.info("Calling Bedrock with model {}", config.getModelName());
       context.nextInvocation();
-      String generatedResponse = promptBedrock(client, config.getModelName(), prompt);
+      ModelInvocation invocation = observability.start();
+      String generatedResponse = promptBedrock(invocation, prompt);
       BedrockChatMessage responseMessage = encoder.decodeMessage(generatedResponse, BedrockChatRole.ASSISTANT.getRole());
       GenericChatMessage genericResponse = session.addMessage(responseMessage);
       BedrockFunctionCall functionCall = responseMessage.getFunctionCall();
@@ -128,8 +141,68 @@ public class BedrockChatProvider extends
     return systemPrompt + "\n" + functionText + "\n";
   }
 
-  private String promptBedrock(BedrockRuntimeClient client, String modelId, String prompt) {
+  private String promptBedrock(ModelInvocation invocation, String prompt) {
     ModelAnalyzer<BedrockChatMessage> tokenCounter = bindings.getTokenCounter();
+    InvokeModelRequest invokeModelRequest = buildRequest(config.getModelName(), prompt);
+    InvokeModelResponse invokeModelResponse;
+    try {
+      invokeModelResponse = client.invokeModel(invokeModelRequest);
+    } catch (Exception e) {
+      invocation.fail(e);
+      throw e;
+    }
+    String generatedResponse = getGeneratedResponse(invokeModelResponse);
+    invocation.stop(tokenCounter.countTokens(prompt), tokenCounter.countTokens(generatedResponse));
+    return generatedResponse;
+  }
+
+  /**
+   * Runs the agent loop without blocking: Bedrock is called through the asynchronous runtime client and
+   * functions are executed asynchronously. The response is streamed, so that a function call is dispatched
+   * as soon as it has been generated and the function executes while the model finishes the response.
+   */
+  @Override
+  public CompletableFuture<GenericChatMessage> chatAsync(String message, Context context) {
+    BedrockChatMessage chatMessage = new BedrockChatMessage(BedrockChatRole.USER, message, "");
+    return runAgentLoopAsync(chatMessage, context, systemPrompt, (session, contextWindow) -> {
+      String prompt = contextWindow.getMessages().stream()
+          .map(this.encoder::encodeMessage)
+          .collect(Collectors.joining("\n"));
+      log.info("Calling Bedrock with model {}", config.getModelName());
+      ModelAnalyzer<BedrockChatMessage> tokenCounter = bindings.getTokenCounter();
+      ModelInvocation invocation = observability.start();
+      StreamingFunctionCallParser parser = new StreamingFunctionCallParser(session::dispatchFunctionCall);
+      InvokeModelWithResponseStreamResponseHandler handler = InvokeModelWithResponseStreamResponseHandler.builder()
+          .subscriber(InvokeModelWithResponseStreamResponseHandler.Visitor.builder()
+              .onChunk(chunk -> parser.append(getGeneratedChunk(chunk)))
+              .build())
+          .build();
+      InvokeModelWithResponseStreamRequest request = InvokeModelWithResponseStreamRequest.builder()
+          .modelId(config.getModelName())
+          .body(buildRequestBody(prompt))
+          .build();
+      return asyncClient.invokeModelWithResponseStream(request, handler).handle((response, e) -> {
+        if (e != null) {
+          invocation.fail(e instanceof Exception exception ? exception : new RuntimeException(e));
+          throw new CompletionException(e);
+        }
+        String generatedResponse = parser.getText();
+        log.debug("Bedrock Response: {}", generatedResponse);
+        invocation.stop(tokenCounter.countTokens(prompt), tokenCounter.countTokens(generatedResponse));
+        BedrockChatMessage responseMessage = encoder.decodeMessage(generatedResponse, BedrockChatRole.ASSISTANT.getRole());
+        return new ModelResponse<>(responseMessage, responseMessage.getFunctionCall(), invocation);
+      });
+    });
+  }
+
+  private InvokeModelRequest buildRequest(String modelId, String prompt) {
+    return InvokeModelRequest.builder()
+        .modelId(modelId)
+        .body(buildRequestBody(prompt))
+        .build();
+  }
+
+  private SdkBytes buildRequestBody(String prompt) {
     JSONObject request = new JSONObject()
         .put("prompt", prompt)
         .put("top_p", config.getTopP())
@@ -137,23 +210,17 @@ public class BedrockChatProvider extends
     if (config.hasMaxOutputTokens()) {
       request.put("max_gen_len", config.getMaxOutputTokens());
     }
-    InvokeModelRequest invokeModelRequest = InvokeModelRequest.builder()
-        .modelId(modelId)
-        .body(SdkBytes.fromUtf8String(request.toString()))
-        .build();
     log.debug("Bedrock prompt: {}", prompt);
-    InvokeModelResponse invokeModelResponse;
-    invocation = observability.start();
-    try {
-      invokeModelResponse = client.invokeModel(invokeModelRequest);
-    } catch (Exception e) {
-      invocation.fail(e);
-      throw e;
-    }
+    return SdkBytes.fromUtf8String(request.toString());
+  }
+
+  private static String getGeneratedResponse(InvokeModelResponse invokeModelResponse) {
     JSONObject jsonObject = new JSONObject(invokeModelResponse.body().asUtf8String());
-    String generatedResponse = jsonObject.get("generation").toString();
-    invocation.stop(tokenCounter.countTokens(prompt), tokenCounter.countTokens(generatedResponse));
     log.debug("Bedrock Response: {}", jsonObject);
-    return generatedResponse;
+    return jsonObject.get("generation").toString();
+  }
+
+  private static String getGeneratedChunk(PayloadPart chunk) {
+    return new JSONObject(chunk.bytes().asUtf8String()).optString("generation", "");
   }
 }
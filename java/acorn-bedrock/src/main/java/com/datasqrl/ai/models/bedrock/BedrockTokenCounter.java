@@ -8,7 +8,7 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
-public record BedrockTokenCounter(HuggingFaceTokenizer tokenizer) implements ModelAnalyzer<BedrockChatMessage> {
+public record BedrockTokenCounter(String name, HuggingFaceTokenizer tokenizer) implements ModelAnalyzer<BedrockChatMessage> {
 
   @Override
   public int countTokens(BedrockChatMessage message) {
@@ -31,14 +31,20 @@ public record BedrockTokenCounter(HuggingFaceTokenizer tokenizer) implements Mod
     return countTokens(jsonString);
   }
 
+  @Override
+  public String getTokenizerName() {
+    return BedrockChatProviderFactory.PROVIDER_NAME + ":" + name;
+  }
+
   public static BedrockTokenCounter of(BedrockModelConfiguration modelConfig) {
     try {
       HuggingFaceTokenizer huggingFaceTokenizer = HuggingFaceTokenizer.newInstance(modelConfig.getTokenizerName());
-      return new BedrockTokenCounter(huggingFaceTokenizer);
+      return new BedrockTokenCounter(modelConfig.getTokenizerName(), huggingFaceTokenizer);
     } catch (Exception e) {
       log.warn("Unrecognized tokenizer name: {}. Using [{}] tokenizer as backup.",
           modelConfig.getTokenizerName(), BedrockModelConfiguration.DEFAULT_MODEL.getTokenizerName());
-      return new BedrockTokenCounter(HuggingFaceTokenizer.newInstance(BedrockModelConfiguration.DEFAULT_MODEL.getTokenizerName()));
+      String defaultName = BedrockModelConfiguration.DEFAULT_MODEL.getTokenizerName();
+      return new BedrockTokenCounter(defaultName, HuggingFaceTokenizer.newInstance(defaultName));
     }
   }
 }
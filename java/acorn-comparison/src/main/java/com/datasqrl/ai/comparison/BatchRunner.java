@@ -0,0 +1,232 @@
+package com.datasqrl.ai.comparison;
+
+import com.datasqrl.ai.comparison.config.ComparisonConfiguration;
+import com.datasqrl.ai.models.ChatProvider;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.trace.TraceContext;
+import com.datasqrl.ai.util.ErrorHandling;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs a large number of independent conversations against a {@link ChatProvider}. Conversations are read from a
+ * JSON lines file with one conversation per line:
+ * <pre>{"id": "c1", "context": {"userId": "u1"}, "messages": ["first question", "follow-up question"]}</pre>
+ * The messages of a conversation are sent one after another like {@link SessionRunner} does, while up to
+ * {@code parallelism} conversations run concurrently. The {@code id} defaults to the line number and the
+ * {@code context} is optional. Conversations that keep chat history need distinct context values.
+ *
+ * The result of each conversation is appended to the output JSON lines file as soon as the conversation completes,
+ * so the output is in completion order. The output file is also the checkpoint: when the runner is started again
+ * with the same output file, conversations that already completed successfully are skipped and a partially written
+ * last line is discarded. Failed conversations are removed from the output and run again. This allows a crashed run
+ * to resume without repeating completed conversations.
+ */
+@Slf4j
+public class BatchRunner {
+
+  private final ChatProvider chatProvider;
+  private final int parallelism;
+  private final ObjectMapper mapper = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  public BatchRunner(ChatProvider chatProvider, int parallelism) {
+    ErrorHandling.checkArgument(parallelism > 0, "Invalid parallelism: %s", parallelism);
+    this.chatProvider = chatProvider;
+    this.parallelism = parallelism;
+  }
+
+  public Summary run(Path input, Path output) throws IOException, InterruptedException {
+    Set<String> completed = readCheckpoint(output);
+    if (!completed.isEmpty()) log.info("Resuming batch run with {} completed conversations", completed.size());
+    AtomicInteger succeeded = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+    int skipped = 0;
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    //Bounds the number of conversations that are read ahead of the running ones
+    Semaphore pending = new Semaphore(2 * parallelism);
+    long start = System.nanoTime();
+    try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+        BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)) {
+      String line;
+      int lineNo = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNo++;
+        if (line.isBlank()) continue;
+        Conversation conversation = parseConversation(line, lineNo);
+        if (completed.contains(conversation.id())) {
+          skipped++;
+          continue;
+        }
+        pending.acquire();
+        executor.execute(() -> {
+          try {
+            ConversationResult result = runConversation(conversation);
+            (result.isFailed() ? failed : succeeded).incrementAndGet();
+            write(writer, result);
+          } catch (RuntimeException e) {
+            log.error("Could not complete conversation {}", conversation.id(), e);
+          } finally {
+            pending.release();
+          }
+        });
+      }
+      executor.shutdown();
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        log.info("Batch progress: {} completed, {} failed", succeeded.get(), failed.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Summary summary = new Summary(succeeded.get(), failed.get(), skipped,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    log.info("Batch run finished: {}", summary);
+    return summary;
+  }
+
+  private Conversation parseConversation(String line, int lineNo) {
+    Conversation conversation;
+    try {
+      conversation = mapper.readValue(line, Conversation.class);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid conversation on line " + lineNo, e);
+    }
+    ErrorHandling.checkArgument(conversation.messages() != null && !conversation.messages().isEmpty(),
+        "Conversation on line %s has no messages", lineNo);
+    return new Conversation(conversation.id() == null ? "line-" + lineNo : conversation.id(),
+        conversation.context() == null ? Map.of() : conversation.context(), conversation.messages());
+  }
+
+  private ConversationResult runConversation(Conversation conversation) {
+    long start = System.nanoTime();
+    TraceContext context = TraceContext.of(conversation.context());
+    List<Turn> turns = new ArrayList<>(conversation.messages().size());
+    for (String message : conversation.messages()) {
+      try {
+        GenericChatMessage response = chatProvider.chat(message, context);
+        turns.add(new Turn(message, response.getContent(), null));
+      } catch (Exception e) {
+        log.error("Query of conversation {} failed", conversation.id(), e);
+        turns.add(new Turn(message, null, e.toString()));
+      }
+      context = context.nextRequest();
+    }
+    return new ConversationResult(conversation.id(), turns, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  private void write(BufferedWriter writer, ConversationResult result) {
+    try {
+      String json = mapper.writeValueAsString(result);
+      synchronized (writer) {
+        writer.write(json);
+        writer.newLine();
+        writer.flush();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write result of conversation " + result.id(), e);
+    }
+  }
+
+  /**
+   * Reads the ids of the successfully completed conversations from the output file and truncates an incomplete
+   * last line. Results of failed conversations are removed from the file, so that they are replaced by the result
+   * of the next attempt.
+   */
+  private Set<String> readCheckpoint(Path output) throws IOException {
+    Set<String> completed = new HashSet<>();
+    if (!Files.exists(output)) return completed;
+    try (RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw")) {
+      long end = file.length();
+      while (end > 0) {
+        file.seek(end - 1);
+        if (file.read() == '\n') break;
+        end--;
+      }
+      if (end < file.length()) {
+        log.warn("Discarding incomplete last line of {}", output);
+        file.setLength(end);
+      }
+    }
+    List<String> succeeded = new ArrayList<>();
+    int failed = 0;
+    try (BufferedReader reader = Files.newBufferedReader(output, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) continue;
+        ConversationResult result = mapper.readValue(line, ConversationResult.class);
+        if (result.isFailed()) {
+          failed++;
+        } else {
+          completed.add(result.id());
+          succeeded.add(line);
+        }
+      }
+    }
+    if (failed > 0) {
+      log.info("Retrying {} failed conversations", failed);
+      Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+      Files.write(tmp, succeeded, StandardCharsets.UTF_8);
+      Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    return completed;
+  }
+
+  public record Conversation(String id, Map<String, Object> context, List<String> messages) {
+
+  }
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public record Turn(String message, String response, String error) {
+
+  }
+
+  public record ConversationResult(String id, List<Turn> turns, long durationMs) {
+
+    boolean isFailed() {
+      return turns.stream().anyMatch(turn -> turn.error() != null);
+    }
+
+  }
+
+  public record Summary(int completed, int failed, int skipped, long durationMs) {
+
+  }
+
+  public static void main(String... args) throws Exception {
+    if (args == null || args.length < 5 || args.length > 6)
+      throw new IllegalArgumentException("Please provide a model config file, a use case config file, a tools file, "
+          + "an input file, an output file, and optionally the parallelism");
+    int parallelism = args.length == 6 ? Integer.parseInt(args[5]) : 8;
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    ComparisonConfiguration configuration = ComparisonConfiguration.fromFile(Path.of(args[0]), Path.of(args[1]),
+        Path.of(args[2]), meterRegistry);
+    BatchRunner runner = new BatchRunner(configuration.getChatProvider(), parallelism);
+    runner.run(Path.of(args[3]), Path.of(args[4]));
+    meterRegistry.close();
+  }
+
+}
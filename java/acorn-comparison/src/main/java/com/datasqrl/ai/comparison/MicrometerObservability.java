@@ -7,12 +7,16 @@ import com.google.common.base.Stopwatch;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.Timer;
 import lombok.AllArgsConstructor;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @Value
@@ -23,14 +27,18 @@ public class MicrometerObservability implements ModelObservability, ToolObservab
   MeterRegistry meterRegistry;
   Timer modelLatencyTimer;
   DistributionSummary inputTokenCounter;
+  DistributionSummary prefixTokenCounter;
   DistributionSummary outputTokenCounter;
   Counter failedModelCounter;
   Timer toolLatencyTimer;
   Counter failedToolCounter;
   Counter toolInvalidCounter;
+  String applicationName;
+  Map<String, AtomicInteger> concurrencyLimits = new ConcurrentHashMap<>();
 
   public MicrometerObservability(MeterRegistry meterRegistry, String applicationName) {
     this.meterRegistry = meterRegistry;
+    this.applicationName = applicationName;
     this.modelLatencyTimer = Timer.builder("model.execution.time")
         .tags(APP_NAME_TAG, applicationName)
         .publishPercentileHistogram()
@@ -39,6 +47,9 @@ public class MicrometerObservability implements ModelObservability, ToolObservab
     this.inputTokenCounter = DistributionSummary.builder("model.tokens.input")
         .tags(APP_NAME_TAG, applicationName)
         .register(meterRegistry);
+    this.prefixTokenCounter = DistributionSummary.builder("model.tokens.input.prefix")
+        .tags(APP_NAME_TAG, applicationName)
+        .register(meterRegistry);
     this.outputTokenCounter = DistributionSummary.builder("model.tokens.output")
         .tags(APP_NAME_TAG, applicationName)
         .register(meterRegistry);
@@ -71,6 +82,8 @@ public class MicrometerObservability implements ModelObservability, ToolObservab
     s.append("model.execution.time.max").append(", ");
     s.append("model.tokens.input.count").append(", ");
     s.append("model.tokens.input.mean").append(", ");
+    s.append("model.tokens.input.prefix.count").append(", ");
+    s.append("model.tokens.input.prefix.mean").append(", ");
     s.append("model.tokens.output.count").append(", ");
     s.append("model.tokens.output.mean").append(", ");
     s.append("model.execution.failed").append(", ");
@@ -81,6 +94,8 @@ public class MicrometerObservability implements ModelObservability, ToolObservab
     s.append(modelLatencyTimer.max(TimeUnit.MILLISECONDS)).append(", ");
     s.append(inputTokenCounter.totalAmount()).append(", ");
     s.append(inputTokenCounter.mean()).append(", ");
+    s.append(prefixTokenCounter.totalAmount()).append(", ");
+    s.append(prefixTokenCounter.mean()).append(", ");
     s.append(outputTokenCounter.totalAmount()).append(", ");
     s.append(outputTokenCounter.mean()).append(", ");
     s.append(failedModelCounter.count()).append(", ");
@@ -103,6 +118,12 @@ public class MicrometerObservability implements ModelObservability, ToolObservab
       log.info("Request: {} ms, {} tokens, Response: {} tokens", timer.elapsed().getSeconds(), numInputTokens, numOutputTokens);
     }
 
+    @Override
+    public void stop(int numInputTokens, int numPrefixTokens, int numOutputTokens) {
+      prefixTokenCounter.record(numPrefixTokens);
+      stop(numInputTokens, numOutputTokens);
+    }
+
     @Override
     public void fail(Exception e) {
       failedModelCounter.increment();
@@ -115,11 +136,59 @@ public class MicrometerObservability implements ModelObservability, ToolObservab
   }
 
 
+  @Override
+  public void resultEncoded(String functionName, int numTokens, int numEncodedTokens) {
+    meterRegistry.summary("tool.result.tokens.saved", APP_NAME_TAG, applicationName, "tool", functionName)
+        .record(numTokens - numEncodedTokens);
+  }
+
+  @Override
+  public void functionCallRepaired(String functionName, boolean repaired) {
+    meterRegistry.counter("tool.call.repair", APP_NAME_TAG, applicationName, "tool", String.valueOf(functionName),
+        "outcome", repaired ? "repaired" : "retry").increment();
+  }
+
   @Override
   public ToolCall start(String toolName) {
     return new StandardToolCall();
   }
 
+  @Override
+  public void concurrencyLimitChanged(String apiName, int limit) {
+    concurrencyLimits.computeIfAbsent(apiName, name -> meterRegistry.gauge("tool.api.concurrency.limit",
+        Tags.of(APP_NAME_TAG, applicationName, "api", name), new AtomicInteger()))
+        .set(limit);
+  }
+
+  @Override
+  public void callRejected(String apiName, RejectionReason reason) {
+    meterRegistry.counter("tool.api.rejected", APP_NAME_TAG, applicationName, "api", apiName,
+        "reason", reason.name().toLowerCase()).increment();
+  }
+
+  @Override
+  public void circuitStateChanged(String apiName, CircuitState state) {
+    meterRegistry.counter("tool.api.circuit", APP_NAME_TAG, applicationName, "api", apiName,
+        "state", state.name().toLowerCase()).increment();
+  }
+
+  @Override
+  public void hedgeIssued(String apiName) {
+    meterRegistry.counter("tool.api.hedge", APP_NAME_TAG, applicationName, "api", apiName,
+        "outcome", "issued").increment();
+  }
+
+  @Override
+  public void hedgeWon(String apiName) {
+    meterRegistry.counter("tool.api.hedge", APP_NAME_TAG, applicationName, "api", apiName,
+        "outcome", "won").increment();
+  }
+
+  @Override
+  public void callCoalesced(String toolName) {
+    meterRegistry.counter("tool.call.coalesced", APP_NAME_TAG, applicationName, "tool", toolName).increment();
+  }
+
   public class StandardToolCall implements ToolCall {
 
     Stopwatch timer = Stopwatch.createStarted();
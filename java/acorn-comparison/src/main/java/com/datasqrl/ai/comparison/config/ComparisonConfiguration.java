@@ -12,6 +12,7 @@ import com.datasqrl.ai.models.ChatProviderFactory;
 import com.datasqrl.ai.tool.ModelObservability;
 import com.datasqrl.ai.tool.RuntimeFunctionDefinition;
 import com.datasqrl.ai.tool.ToolManager;
+import com.datasqrl.ai.tool.ToolObservability;
 import com.datasqrl.ai.tool.ToolsBackend;
 import com.datasqrl.ai.tool.ToolsBackendFactory;
 import com.datasqrl.ai.util.ConfigurationUtil;
@@ -46,6 +47,7 @@ public class ComparisonConfiguration {
   Configuration modelConfiguration;
   List<RuntimeFunctionDefinition> toolFunctions;
   ModelObservability observability;
+  ToolObservability toolObservability;
 
   private RuntimeFunctionDefinition loadFunction(String functionName) {
     String functionClassName = functionName;
@@ -73,10 +75,10 @@ public class ComparisonConfiguration {
 
   public ToolManager getToolManager() {
     Map<String,APIExecutor> apiExecutors = APIExecutorFactory.getAPIExecutors(baseConfiguration.subset(
-        API_PREFIX));
+        API_PREFIX), toolObservability);
     ErrorHandling.checkArgument(!apiExecutors.isEmpty(), "Need to configure at least one API in the configuration file under field `%s`",
         API_PREFIX);
-    ToolsBackend backend = ToolsBackendFactory.of(toolFunctions, apiExecutors, Set.copyOf(getContext()));
+    ToolsBackend backend = ToolsBackendFactory.of(toolFunctions, apiExecutors, Set.copyOf(getContext()), toolObservability);
     //Add functions
     baseConfiguration.getList(FUNCTIONS_KEY).stream().map(String.class::cast)
         .map(this::loadFunction).forEach(backend::addFunction);
@@ -131,6 +133,7 @@ public class ComparisonConfiguration {
     } else {
       tools = ToolsBackendFactory.readTools(toolsContent);
     }
-    return new ComparisonConfiguration(baseConfig, modelConfig, tools, new MicrometerObservability(meterRegistry, "acorn"));
+    MicrometerObservability observability = new MicrometerObservability(meterRegistry, "acorn");
+    return new ComparisonConfiguration(baseConfig, modelConfig, tools, observability, observability);
   }
 }
@@ -0,0 +1,100 @@
+package com.datasqrl.ai.comparison;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datasqrl.ai.comparison.BatchRunner.ConversationResult;
+import com.datasqrl.ai.models.ChatProvider;
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BatchRunnerTest {
+
+  private static final int CONVERSATIONS = 50;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void testResume() throws Exception {
+    Path input = directory.resolve("input.jsonl");
+    Path output = directory.resolve("output.jsonl");
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < CONVERSATIONS; i++) {
+      lines.add(String.format("{\"id\": \"c%d\", \"context\": {\"userId\": \"u%d\"}, \"messages\": [\"hello %d\", \"%s\"]}",
+          i, i, i, i == 7 ? "fail" : "bye " + i));
+    }
+    Files.write(input, lines);
+    //Output of a crashed run: 9 completed conversations, a failed one, and an incomplete line
+    StringBuilder previous = new StringBuilder();
+    for (int i = 0; i < 10; i++) {
+      String turns = i == 1 ? "[{\"message\":\"hello 2\",\"error\":\"timeout\"}]" : "[]";
+      previous.append(String.format("{\"id\":\"c%d\",\"turns\":%s,\"durationMs\":1}\n", i * 2, turns));
+    }
+    previous.append("{\"id\":\"c1\",\"tu");
+    Files.writeString(output, previous);
+
+    Set<String> users = ConcurrentHashMap.newKeySet();
+    AtomicInteger active = new AtomicInteger();
+    AtomicInteger maxActive = new AtomicInteger();
+    ChatProvider provider = new ChatProvider() {
+      @Override
+      public GenericChatMessage chat(String message, Context context) {
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(5);
+          if (message.equals("fail")) throw new IllegalStateException("model failed");
+          users.add((String) context.get("userId"));
+          return GenericChatMessage.builder().role("assistant").content("echo " + message).build();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        } finally {
+          active.decrementAndGet();
+        }
+      }
+
+      @Override
+      public List<GenericChatMessage> getHistory(Context sessionContext, boolean includeFunctionCalls) {
+        return List.of();
+      }
+    };
+
+    BatchRunner.Summary summary = new BatchRunner(provider, 4).run(input, output);
+    assertEquals(9, summary.skipped());
+    assertEquals(40, summary.completed());
+    assertEquals(1, summary.failed());
+    assertEquals(41, users.size());
+    assertTrue(maxActive.get() > 1 && maxActive.get() <= 4, "Parallelism: " + maxActive.get());
+
+    Set<String> ids = new HashSet<>();
+    for (String line : Files.readAllLines(output)) {
+      ConversationResult result = mapper.readValue(line, ConversationResult.class);
+      assertTrue(ids.add(result.id()), "Duplicate result: " + result.id());
+      if (result.id().equals("c3")) {
+        assertEquals("echo bye 3", result.turns().get(1).response());
+      }
+    }
+    assertEquals(CONVERSATIONS, ids.size());
+
+    //Only the failed conversation of a completed run is repeated
+    summary = new BatchRunner(provider, 4).run(input, output);
+    assertEquals(CONVERSATIONS - 1, summary.skipped());
+    assertEquals(0, summary.completed());
+    assertEquals(1, summary.failed());
+    assertEquals(CONVERSATIONS, Files.readAllLines(output).size());
+  }
+
+}
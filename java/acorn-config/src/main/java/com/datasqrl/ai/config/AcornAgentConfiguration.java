@@ -6,27 +6,43 @@ import com.datasqrl.ai.api.GraphQLSchemaConverter;
 import com.datasqrl.ai.function.UDFConverter;
 import com.datasqrl.ai.function.UserDefinedFunction;
 import com.datasqrl.ai.function.builtin.BuiltinFunctions;
+import com.datasqrl.ai.models.AbstractChatProvider;
 import com.datasqrl.ai.models.ChatProvider;
 import com.datasqrl.ai.models.ChatProviderFactory;
+import com.datasqrl.ai.models.HistoryCompactor;
+import com.datasqrl.ai.models.ModelAnalyzer;
+import com.datasqrl.ai.models.ResultTruncator;
+import com.datasqrl.ai.tool.FunctionType;
 import com.datasqrl.ai.tool.ModelObservability;
 import com.datasqrl.ai.tool.RuntimeFunctionDefinition;
 import com.datasqrl.ai.tool.ToolManager;
+import com.datasqrl.ai.tool.ToolObservability;
+import com.datasqrl.ai.tool.ToolSelector;
 import com.datasqrl.ai.tool.ToolsBackend;
 import com.datasqrl.ai.tool.ToolsBackendFactory;
 import com.datasqrl.ai.util.ConfigurationUtil;
 import com.datasqrl.ai.util.ErrorHandling;
 import com.datasqrl.ai.util.JsonUtil;
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.Value;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.JSONConfiguration;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Value
 public class AcornAgentConfiguration {
@@ -38,16 +54,53 @@ public class AcornAgentConfiguration {
   public static final String PROMPT_KEY = "prompt";
   public static final String FUNCTIONS_KEY = "functions";
   public static final String CONTEXT_KEY = "context";
+  public static final String CATALOG_KEY = "catalog";
+  public static final String TOOL_SELECTION_PREFIX = "tool_selection";
+  public static final String MAX_TOOLS_KEY = "max_tools";
+  public static final String QUERY_MESSAGES_KEY = "query_messages";
+  public static final String RECENT_MESSAGES_KEY = "recent_messages";
+  public static final String HISTORY_COMPACTION_PREFIX = "history_compaction";
+  public static final String RETAIN_RATIO_KEY = "retain_ratio";
+  public static final String MAX_RESULT_SHARE_KEY = "max_result_share";
 
   Configuration baseConfiguration;
   Configuration modelConfiguration;
   List<RuntimeFunctionDefinition> toolFunctions;
   ModelObservability observability;
+  ToolObservability toolObservability;
+  /**
+   * The snapshot of the converted tools or null if no catalog is configured
+   */
+  ToolCatalog catalog;
+  /**
+   * The token counts of the functions by tokenizer name, read from or added to the catalog once per tokenizer
+   */
+  @Getter(AccessLevel.NONE)
+  Map<String, Map<String, Integer>> tokenCounts = new ConcurrentHashMap<>();
 
+  private static boolean isClientFunctionFile(String functionName) {
+    return functionName.toLowerCase().endsWith(".json");
+  }
+
+  private static String getFunctionClassName(String functionName) {
+    //Names without package refer to builtin functions
+    return functionName.contains(".") ? functionName : BuiltinFunctions.PACKAGE_NAME + "." + functionName;
+  }
 
-  private RuntimeFunctionDefinition loadFunction(String functionName) {
-    String functionClassName = functionName;
-    if (functionName.toLowerCase().endsWith(".json")) {
+  private static Class<? extends UserDefinedFunction> getFunctionClass(String functionName) {
+    String functionClassName = getFunctionClassName(functionName);
+    Class<?> functionClass = null;
+    try {
+      functionClass = Class.forName(functionClassName);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalArgumentException("Could not locate user defined function: " +  functionClassName, e);
+    }
+    ErrorHandling.checkArgument(UserDefinedFunction.class.isAssignableFrom(functionClass), "Not a user defined function: %s", functionClassName);
+    return (Class<? extends UserDefinedFunction>) functionClass;
+  }
+
+  private static RuntimeFunctionDefinition loadFunction(String functionName) {
+    if (isClientFunctionFile(functionName)) {
       //It's a URL that points to a json file with the client function definition
       try {
         URL url = ConfigurationUtil.getResourceFile(functionName);
@@ -55,29 +108,60 @@ public class AcornAgentConfiguration {
       } catch (IllegalArgumentException e) {
         throw new IllegalArgumentException("Could not read function definition from resource: " + functionName, e);
       }
-    } else if (!functionName.contains(".")) {
-      //Assume it's a builtin function
-      functionClassName = BuiltinFunctions.PACKAGE_NAME + "." + functionName;
     }
-    Class<?> functionClass = null;
-    try {
-      functionClass = Class.forName(functionClassName);
-    } catch (ClassNotFoundException e) {
-      throw new IllegalArgumentException("Could not locate user defined function: " +  functionClassName, e);
+    return UDFConverter.getRuntimeFunctionDefinition(getFunctionClass(functionName));
+  }
+
+  /**
+   * Restores a function from its definition in the catalog. Only the executable of local functions needs to
+   * be looked up.
+   */
+  private static RuntimeFunctionDefinition restoreFunction(String functionName, RuntimeFunctionDefinition definition) {
+    return RuntimeFunctionDefinition.builder()
+        .type(definition.getType())
+        .function(definition.getFunction())
+        .api(definition.getApi())
+        .context(List.of())
+        .executable(definition.getType() == FunctionType.local
+            ? UDFConverter.getExecutableFunction(getFunctionClass(functionName)) : null)
+        .build();
+  }
+
+  /**
+   * Reads the source of the function for the catalog hash, i.e. the class file of user defined functions and the
+   * definition file of client functions.
+   */
+  private static byte[] readFunctionSource(String functionName) throws IOException {
+    URL url = isClientFunctionFile(functionName) ? ConfigurationUtil.getResourceFile(functionName)
+        : AcornAgentConfiguration.class.getClassLoader()
+            .getResource(getFunctionClassName(functionName).replace('.', '/') + ".class");
+    if (url == null) return new byte[0];
+    try (InputStream in = url.openStream()) {
+      return in.readAllBytes();
     }
-    ErrorHandling.checkArgument(UserDefinedFunction.class.isAssignableFrom(functionClass), "Not a user defined function: %s", functionClassName);
-    return UDFConverter.getRuntimeFunctionDefinition((Class<? extends UserDefinedFunction>)functionClass);
+  }
+
+  private static List<String> getFunctionNames(Configuration configuration) {
+    return configuration.getList(FUNCTIONS_KEY).stream().map(String.class::cast).toList();
   }
 
   public ToolManager getToolManager() {
     Map<String,APIExecutor> apiExecutors = APIExecutorFactory.getAPIExecutors(baseConfiguration.subset(
-        API_PREFIX));
+        API_PREFIX), toolObservability);
     ErrorHandling.checkArgument(!apiExecutors.isEmpty(), "Need to configure at least one API in the configuration file under field `%s`",
         API_PREFIX);
-    ToolsBackend backend = ToolsBackendFactory.of(toolFunctions, apiExecutors, Set.copyOf(getContext()));
+    ToolsBackend backend = ToolsBackendFactory.of(toolFunctions, apiExecutors, Set.copyOf(getContext()), toolObservability);
     //Add functions
-    baseConfiguration.getList(FUNCTIONS_KEY).stream().map(String.class::cast)
-        .map(this::loadFunction).forEach(backend::addFunction);
+    for (String functionName : getFunctionNames(baseConfiguration)) {
+      backend.addFunction(catalog != null
+          ? restoreFunction(functionName, catalog.getFunctions().get(functionName))
+          : loadFunction(functionName));
+    }
+    Configuration toolSelection = baseConfiguration.subset(TOOL_SELECTION_PREFIX);
+    if (!toolSelection.isEmpty()) {
+      backend.setToolSelector(new ToolSelector(toolSelection.getInt(MAX_TOOLS_KEY, 20),
+          toolSelection.getInt(QUERY_MESSAGES_KEY, 3), toolSelection.getInt(RECENT_MESSAGES_KEY, 10)));
+    }
     return backend;
   }
 
@@ -93,8 +177,61 @@ public class AcornAgentConfiguration {
   }
 
   public ChatProvider getChatProvider(ToolManager toolManager) {
-    return ChatProviderFactory.fromConfiguration(modelConfiguration)
+    ChatProvider chatProvider = ChatProviderFactory.fromConfiguration(modelConfiguration)
         .create(modelConfiguration, toolManager, getSystemPrompt(), observability);
+    if (catalog != null) applyTokenCounts(chatProvider, toolManager);
+    if (chatProvider instanceof AbstractChatProvider<?, ?> provider) {
+      Configuration compaction = baseConfiguration.subset(HISTORY_COMPACTION_PREFIX);
+      if (!compaction.isEmpty()) provider.setHistoryCompactor(getHistoryCompactor(compaction));
+      provider.setResultTruncator(new ResultTruncator(
+          baseConfiguration.getDouble(MAX_RESULT_SHARE_KEY, ResultTruncator.DEFAULT_MAX_SHARE)));
+    }
+    return chatProvider;
+  }
+
+  /**
+   * Creates the history compactor with the summarizer model configured under `model`, or the model of the agent
+   * if none is configured. The summarizer has no tools and does not store messages.
+   */
+  private HistoryCompactor getHistoryCompactor(Configuration compaction) {
+    Configuration summarizerConfiguration = compaction.subset(MODEL_PREFIX);
+    if (summarizerConfiguration.isEmpty()) summarizerConfiguration = modelConfiguration;
+    ChatProvider summarizer = ChatProviderFactory.fromConfiguration(summarizerConfiguration)
+        .create(summarizerConfiguration, ToolsBackendFactory.of(List.of(), Map.of()),
+            HistoryCompactor.SUMMARIZER_PROMPT, observability);
+    return new HistoryCompactor(summarizer, compaction.getDouble(RETAIN_RATIO_KEY, 0.5));
+  }
+
+  /**
+   * Sets the token counts of the functions for the tokenizer of the model. The counts are read from the catalog,
+   * or counted and added to the catalog if the catalog has no counts for the tokenizer yet. This happens once per
+   * tokenizer, later chat providers reuse the counts.
+   */
+  private void applyTokenCounts(ChatProvider chatProvider, ToolManager toolManager) {
+    if (!(chatProvider instanceof AbstractChatProvider<?, ?> provider)) return;
+    ModelAnalyzer<?> tokenCounter = provider.getBindings().getTokenCounter();
+    String tokenizer = tokenCounter.getTokenizerName();
+    Collection<RuntimeFunctionDefinition> functions = toolManager.getFunctions().values();
+    Map<String, Integer> counts = tokenCounts.computeIfAbsent(tokenizer, t -> {
+      Optional<Map<String, Integer>> stored = catalog.getTokenCounts(t)
+          .filter(c -> functions.stream().allMatch(function -> c.containsKey(function.getName())));
+      if (stored.isPresent()) return stored.get();
+      Map<String, Integer> computed = new HashMap<>();
+      functions.forEach(function -> computed.put(function.getName(), function.getNumTokens(tokenCounter)));
+      catalog.putTokenCounts(t, computed);
+      return computed;
+    });
+    functions.forEach(function -> {
+      Integer count = counts.get(function.getName());
+      if (count != null) function.setNumTokens(tokenizer, count);
+    });
+  }
+
+  /**
+   * @return The name of the configured model provider, e.g. `openai`
+   */
+  public String getModelProvider() {
+    return ChatProviderFactory.fromConfiguration(modelConfiguration).getProviderName();
   }
 
   public List<String> getContext() {
@@ -111,17 +248,43 @@ public class AcornAgentConfiguration {
     JSONConfiguration baseConfig = JsonUtil.getConfiguration(configPath);
     String toolsContent;
     toolsContent = Files.readString(toolsPath);
+    ToolCatalog catalog = null;
+    if (baseConfig.containsKey(CATALOG_KEY)) {
+      Path catalogPath = configPath.resolveSibling(baseConfig.getString(CATALOG_KEY));
+      List<byte[]> inputs = new ArrayList<>();
+      inputs.add(Files.readAllBytes(configPath));
+      inputs.add(toolsContent.getBytes(StandardCharsets.UTF_8));
+      inputs.add(String.valueOf(GraphQLSchemaConverter.VERSION).getBytes(StandardCharsets.UTF_8));
+      for (String functionName : getFunctionNames(baseConfig)) {
+        inputs.add(functionName.getBytes(StandardCharsets.UTF_8));
+        inputs.add(readFunctionSource(functionName));
+      }
+      String inputHash = ToolCatalog.hashInputs(inputs);
+      catalog = ToolCatalog.read(catalogPath, inputHash).orElse(null);
+      if (catalog == null) {
+        Map<String, RuntimeFunctionDefinition> functions = new HashMap<>();
+        getFunctionNames(baseConfig).forEach(functionName -> functions.put(functionName, loadFunction(functionName)));
+        catalog = ToolCatalog.create(catalogPath, inputHash, convertTools(baseConfig, toolsPath, toolsContent), functions);
+        catalog.write();
+      }
+    }
+    List<RuntimeFunctionDefinition> tools = catalog != null ? catalog.getTools()
+        : convertTools(baseConfig, toolsPath, toolsContent);
+    return new AcornAgentConfiguration(baseConfig, baseConfig.subset("model"), tools, ModelObservability.NOOP,
+        ToolObservability.NOOP, catalog);
+  }
+
+  private static List<RuntimeFunctionDefinition> convertTools(Configuration baseConfig, Path toolsPath,
+      String toolsContent) throws IOException {
     String extension = ConfigurationUtil.getFileExtension(toolsPath);
-    List<RuntimeFunctionDefinition> tools;
     if (extension.equalsIgnoreCase("graphql") || extension.equalsIgnoreCase("graphqls")) {
       GraphQLSchemaConverter converter = new GraphQLSchemaConverter(
           baseConfig.subset(CONVERTER_PREFIX),
           APIExecutorFactory.DEFAULT_NAME);
-      tools = converter.convert(toolsContent);
+      return converter.convert(toolsContent);
     } else {
-      tools = ToolsBackendFactory.readTools(toolsContent);
+      return ToolsBackendFactory.readTools(toolsContent);
     }
-    return new AcornAgentConfiguration(baseConfig, baseConfig.subset("model"), tools, ModelObservability.NOOP);
   }
 
 }
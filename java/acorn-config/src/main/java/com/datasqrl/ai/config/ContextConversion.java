@@ -1,5 +1,6 @@
 package com.datasqrl.ai.config;
 
+import com.datasqrl.ai.tool.CancellationToken;
 import com.datasqrl.ai.tool.Context;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
@@ -9,20 +10,24 @@ import java.util.Map;
 public class ContextConversion {
 
   public static Context getContextFromUserId(String userId, List<String> contextKeys) {
+    return getContextFromUserId(userId, contextKeys, CancellationToken.NONE);
+  }
+
+  public static Context getContextFromUserId(String userId, List<String> contextKeys, CancellationToken cancellationToken) {
     if (Strings.isNullOrEmpty(userId)) {
       Preconditions.checkArgument(contextKeys.isEmpty(), "Expected a user id for context: %s", contextKeys);
-      return Context.of();
+      return Context.of(Map.of(), cancellationToken);
     }
-    if (contextKeys.isEmpty()) return Context.of();
+    if (contextKeys.isEmpty()) return Context.of(Map.of(), cancellationToken);
     Preconditions.checkArgument(contextKeys.size()==1, "Expected a single context key: %s", contextKeys);
     String key = contextKeys.get(0);
     try {
       Long numericValue = Long.parseLong(userId);
-      return Context.of(Map.of(key, numericValue));
+      return Context.of(Map.of(key, numericValue), cancellationToken);
     } catch (NumberFormatException e) {
       //do nothing
     }
-    return Context.of(Map.of(key, userId));
+    return Context.of(Map.of(key, userId), cancellationToken);
   }
 
 }
@@ -0,0 +1,147 @@
+package com.datasqrl.ai.config;
+
+import com.datasqrl.ai.tool.RuntimeFunctionDefinition;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A snapshot of the converted tools of an agent, so that an agent can be started without converting the tools
+ * file, generating the schemas of user defined functions, and counting tokens again.
+ *
+ * The snapshot contains the function definitions converted from the tools file, the definitions of the functions
+ * configured under `functions` (without their executables, which are restored from the function classes), and the
+ * number of tokens of each function per tokenizer. It is keyed by a hash of all inputs and ignored when the hash
+ * does not match.
+ */
+@Data
+@NoArgsConstructor
+@Slf4j
+public class ToolCatalog {
+
+  /**
+   * Version of the snapshot format, snapshots of other versions are ignored
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * Version of acorn from the jar manifest, snapshots created by other versions are rebuilt since the conversion
+   * of the tools may have changed. Not available when running from the classes directory.
+   */
+  static final String ACORN_VERSION = Optional.ofNullable(ToolCatalog.class.getPackage().getImplementationVersion())
+      .orElse("");
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private int version;
+  private String inputHash;
+  private List<RuntimeFunctionDefinition> tools;
+  /**
+   * The configured functions keyed by their entry in the configuration
+   */
+  private Map<String, RuntimeFunctionDefinition> functions;
+  /**
+   * The number of tokens per function name keyed by tokenizer
+   */
+  private Map<String, Map<String, Integer>> tokenCounts = new ConcurrentHashMap<>();
+  @JsonIgnore
+  private Path file;
+
+  public static ToolCatalog create(Path file, String inputHash, List<RuntimeFunctionDefinition> tools,
+      Map<String, RuntimeFunctionDefinition> functions) {
+    ToolCatalog catalog = new ToolCatalog();
+    catalog.setVersion(VERSION);
+    catalog.setInputHash(inputHash);
+    catalog.setTools(tools);
+    catalog.setFunctions(functions);
+    catalog.setFile(file);
+    return catalog;
+  }
+
+  /**
+   * Reads the snapshot from the given file.
+   *
+   * @return The snapshot or empty if the file does not exist, cannot be read, or was created for different inputs
+   */
+  public static Optional<ToolCatalog> read(Path file, String inputHash) {
+    if (!Files.isRegularFile(file)) return Optional.empty();
+    ToolCatalog catalog;
+    try {
+      catalog = mapper.readValue(file.toFile(), ToolCatalog.class);
+    } catch (IOException e) {
+      log.warn("Could not read tool catalog {}, rebuilding it", file, e);
+      return Optional.empty();
+    }
+    if (catalog.getVersion() != VERSION || !inputHash.equals(catalog.getInputHash())) {
+      log.info("Tool catalog {} is out of date, rebuilding it", file);
+      return Optional.empty();
+    }
+    catalog.setFile(file);
+    catalog.setTokenCounts(new ConcurrentHashMap<>(catalog.getTokenCounts()));
+    return Optional.of(catalog);
+  }
+
+  /**
+   * Writes the snapshot to its file. The file is replaced atomically, so concurrent readers see either the
+   * previous or the new snapshot. Failures are logged since the snapshot only speeds up the next start.
+   */
+  public synchronized void write() {
+    try {
+      Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      mapper.writeValue(tmp.toFile(), this);
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Could not write tool catalog {}", file, e);
+    }
+  }
+
+  public Optional<Map<String, Integer>> getTokenCounts(String tokenizer) {
+    return Optional.ofNullable(tokenCounts.get(tokenizer));
+  }
+
+  /**
+   * Adds the token counts for the given tokenizer and writes the snapshot.
+   */
+  public void putTokenCounts(String tokenizer, Map<String, Integer> counts) {
+    tokenCounts.put(tokenizer, counts);
+    write();
+  }
+
+  /**
+   * Computes the hash of the given inputs that identifies a snapshot.
+   */
+  public static String hashInputs(List<byte[]> inputs) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    digest.update(String.valueOf(VERSION).getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    digest.update(ACORN_VERSION.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    for (byte[] input : inputs) {
+      //Prefix each input with its length, so that moving bytes between inputs changes the hash
+      digest.update(String.valueOf(input.length).getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(input);
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+}
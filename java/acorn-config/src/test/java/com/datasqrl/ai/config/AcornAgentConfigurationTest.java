@@ -1,10 +1,17 @@
 package com.datasqrl.ai.config;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.datasqrl.ai.tool.FunctionType;
+import com.datasqrl.ai.tool.RuntimeFunctionDefinition;
+import com.datasqrl.ai.tool.ToolManager;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class AcornAgentConfigurationTest {
 
@@ -25,4 +32,30 @@ public class AcornAgentConfigurationTest {
     assertEquals(7, config2.getToolManager().getFunctions().size());
   }
 
+  @Test
+  public void testToolCatalog(@TempDir Path directory) throws IOException {
+    Path tools = directory.resolve("nutshop-schema.graphqls");
+    Files.copy(GRAPHQL_RESOURCES.resolve("nutshop-schema.graphqls"), tools);
+    Path config = directory.resolve("nutshop.config.json");
+    Files.writeString(config, Files.readString(CONFIG_RESOURCES.resolve("nutshop.config.json"))
+        .replaceFirst("\\{", "{\n  \"catalog\": \"tools.catalog.json\","));
+    Path catalogFile = directory.resolve("tools.catalog.json");
+
+    AcornAgentConfiguration built = AcornAgentConfiguration.fromFile(config, tools);
+    assertTrue(Files.isRegularFile(catalogFile));
+    AcornAgentConfiguration loaded = AcornAgentConfiguration.fromFile(config, tools);
+    assertEquals(built.getCatalog().getInputHash(), loaded.getCatalog().getInputHash());
+    assertEquals(built.getToolFunctions(), loaded.getToolFunctions());
+    ToolManager toolManager = loaded.getToolManager();
+    assertEquals(7, toolManager.getFunctions().size());
+    RuntimeFunctionDefinition currentTime = toolManager.getFunctions().get("CurrentTime");
+    assertEquals(FunctionType.local, currentTime.getType());
+    assertTrue(currentTime.getExecutable() != null);
+
+    //Changing the tools invalidates the catalog
+    Files.writeString(tools, Files.readString(tools) + "\n");
+    AcornAgentConfiguration changed = AcornAgentConfiguration.fromFile(config, tools);
+    assertNotEquals(built.getCatalog().getInputHash(), changed.getCatalog().getInputHash());
+  }
+
 }
@@ -1,5 +1,6 @@
 package com.datasqrl.ai.api;
 
+import com.datasqrl.ai.util.BlockingExecutor;
 import com.fasterxml.jackson.databind.JsonNode;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
@@ -36,7 +37,17 @@ public interface APIExecutor {
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
-    });
+    }, BlockingExecutor.get());
+  }
+
+  /**
+   * Establishes connections to the API ahead of the first query, e.g. after the tools have been reloaded.
+   * Implementations must not have side effects on the API. The default implementation does nothing.
+   *
+   * @return A future that completes once the API has been warmed up
+   */
+  default CompletableFuture<Void> warmUp() {
+    return CompletableFuture.completedFuture(null);
   }
 
 }
@@ -1,13 +1,14 @@
 package com.datasqrl.ai.api;
 
 
+import com.datasqrl.ai.tool.ToolObservability;
 import com.datasqrl.ai.util.ConfigurationUtil;
 import com.datasqrl.ai.util.ErrorHandling;
+import com.datasqrl.ai.util.Services;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.ServiceLoader;
-import java.util.ServiceLoader.Provider;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.MapConfiguration;
 
@@ -16,14 +17,89 @@ public interface APIExecutorFactory {
   String DEFAULT_NAME = "default";
   String TYPE_KEY = "type";
   String URL_KEY = "url";
+  String CONNECT_TIMEOUT_KEY = "connect_timeout_ms";
+  String READ_TIMEOUT_KEY = "read_timeout_ms";
+  String MAX_REQUESTS_PER_HOST_KEY = "max_requests_per_host";
+  String COMPRESSION_KEY = "compression";
+  String HTTP2_KEY = "http2";
+  String RESILIENCE_PREFIX = "resilience";
+  String MIN_CONCURRENCY_KEY = "min_concurrency";
+  String MAX_CONCURRENCY_KEY = "max_concurrency";
+  String INITIAL_CONCURRENCY_KEY = "initial_concurrency";
+  String LATENCY_TARGET_KEY = "latency_target_ms";
+  String MAX_WAIT_KEY = "max_wait_ms";
+  String FAILURE_THRESHOLD_KEY = "failure_threshold";
+  String OPEN_DURATION_KEY = "open_duration_ms";
+  String HEDGING_PREFIX = "hedging";
+  String PERCENTILE_KEY = "percentile";
+  String BUDGET_RATIO_KEY = "budget_ratio";
+  String MIN_DELAY_KEY = "min_delay_ms";
+  String MIN_SAMPLES_KEY = "min_samples";
 
 
   String getTypeName();
 
+  /**
+   * If multiple factories support the same type, the factory with the highest priority is used.
+   *
+   * @return The priority of this factory
+   */
+  default int getPriority() {
+    return 0;
+  }
+
   APIExecutor create(Configuration configuration, String name);
 
 
-  record BaseConfiguration(String name, String type, String url) {
+  record BaseConfiguration(String name, String type, String url, ConnectionConfiguration connection) {
+  }
+
+  /**
+   * Connection settings for an API that are shared by all HTTP based executors.
+   *
+   * @param connectTimeoutMs timeout for establishing a connection in milliseconds
+   * @param readTimeoutMs timeout for reading a response in milliseconds
+   * @param maxRequestsPerHost maximum number of concurrent requests against the API host
+   * @param compression whether request bodies are gzip compressed
+   * @param http2 whether HTTP/2 may be negotiated with the API host
+   */
+  record ConnectionConfiguration(int connectTimeoutMs, int readTimeoutMs, int maxRequestsPerHost,
+                                 boolean compression, boolean http2) {
+
+    public static final ConnectionConfiguration DEFAULT = new ConnectionConfiguration(10_000, 10_000, 5, false, true);
+
+  }
+
+  /**
+   * Settings for the bulkhead and circuit breaker that isolate calls against an API.
+   *
+   * @param minConcurrency lower bound for the adaptive concurrency limit
+   * @param maxConcurrency upper bound for the adaptive concurrency limit
+   * @param initialConcurrency concurrency limit at startup
+   * @param latencyTargetMs calls that take longer than this reduce the concurrency limit
+   * @param maxWaitMs how long a call waits for a permit before it is rejected
+   * @param failureThreshold number of consecutive failures that open the circuit
+   * @param openDurationMs how long the circuit stays open before a trial call is let through
+   */
+  record ResilienceConfiguration(int minConcurrency, int maxConcurrency, int initialConcurrency,
+                                 long latencyTargetMs, long maxWaitMs, int failureThreshold, long openDurationMs) {
+
+    public static final ResilienceConfiguration DEFAULT = new ResilienceConfiguration(1, 20, 10, 5_000, 1_000, 5, 30_000);
+
+  }
+
+  /**
+   * Settings for hedging idempotent queries against an API.
+   *
+   * @param percentile latency percentile of the API after which a hedged request is sent
+   * @param budgetRatio maximum fraction of queries that are hedged
+   * @param minDelayMs minimum delay in milliseconds before a hedged request is sent
+   * @param minSamples number of latency samples needed before queries are hedged
+   */
+  record HedgingConfiguration(double percentile, double budgetRatio, long minDelayMs, int minSamples) {
+
+    public static final HedgingConfiguration DEFAULT = new HedgingConfiguration(0.95, 0.05, 5, 20);
+
   }
 
   static BaseConfiguration readBaseConfiguration(Configuration configuration, String name) {
@@ -31,31 +107,107 @@ public interface APIExecutorFactory {
     ErrorHandling.checkArgument(type!=null && !type.isBlank(), "Need to configure `%s` for api `%s` in configuration file.", TYPE_KEY, name);
     String url = configuration.getString(URL_KEY);
     ErrorHandling.checkArgument(url!=null && !url.isBlank(), "Need to configure `%s` for api `%s` in configuration file.", URL_KEY, name);
-    return new BaseConfiguration(name, type, url);
+    return new BaseConfiguration(name, type, url, readConnectionConfiguration(configuration, name));
+  }
+
+  static ConnectionConfiguration readConnectionConfiguration(Configuration configuration, String name) {
+    ConnectionConfiguration defaults = ConnectionConfiguration.DEFAULT;
+    ConnectionConfiguration connection = new ConnectionConfiguration(
+        configuration.getInt(CONNECT_TIMEOUT_KEY, defaults.connectTimeoutMs()),
+        configuration.getInt(READ_TIMEOUT_KEY, defaults.readTimeoutMs()),
+        configuration.getInt(MAX_REQUESTS_PER_HOST_KEY, defaults.maxRequestsPerHost()),
+        configuration.getBoolean(COMPRESSION_KEY, defaults.compression()),
+        configuration.getBoolean(HTTP2_KEY, defaults.http2()));
+    ErrorHandling.checkArgument(connection.connectTimeoutMs() >= 0 && connection.readTimeoutMs() >= 0,
+        "Timeouts for api `%s` cannot be negative", name);
+    ErrorHandling.checkArgument(connection.maxRequestsPerHost() > 0,
+        "`%s` for api `%s` must be positive", MAX_REQUESTS_PER_HOST_KEY, name);
+    return connection;
+  }
+
+  static Optional<ResilienceConfiguration> readResilienceConfiguration(Configuration configuration, String name) {
+    Configuration resilience = configuration.subset(RESILIENCE_PREFIX);
+    if (resilience.isEmpty()) return Optional.empty();
+    ResilienceConfiguration defaults = ResilienceConfiguration.DEFAULT;
+    ResilienceConfiguration config = new ResilienceConfiguration(
+        resilience.getInt(MIN_CONCURRENCY_KEY, defaults.minConcurrency()),
+        resilience.getInt(MAX_CONCURRENCY_KEY, defaults.maxConcurrency()),
+        resilience.getInt(INITIAL_CONCURRENCY_KEY, defaults.initialConcurrency()),
+        resilience.getLong(LATENCY_TARGET_KEY, defaults.latencyTargetMs()),
+        resilience.getLong(MAX_WAIT_KEY, defaults.maxWaitMs()),
+        resilience.getInt(FAILURE_THRESHOLD_KEY, defaults.failureThreshold()),
+        resilience.getLong(OPEN_DURATION_KEY, defaults.openDurationMs()));
+    ErrorHandling.checkArgument(config.minConcurrency() > 0 && config.minConcurrency() <= config.maxConcurrency(),
+        "`%s` for api `%s` must be positive and not larger than `%s`", MIN_CONCURRENCY_KEY, name, MAX_CONCURRENCY_KEY);
+    ErrorHandling.checkArgument(config.latencyTargetMs() > 0 && config.maxWaitMs() >= 0 && config.openDurationMs() >= 0,
+        "Resilience timeouts for api `%s` cannot be negative", name);
+    ErrorHandling.checkArgument(config.failureThreshold() > 0,
+        "`%s` for api `%s` must be positive", FAILURE_THRESHOLD_KEY, name);
+    return Optional.of(config);
+  }
+
+  static Optional<HedgingConfiguration> readHedgingConfiguration(Configuration configuration, String name) {
+    Configuration hedging = configuration.subset(HEDGING_PREFIX);
+    if (hedging.isEmpty()) return Optional.empty();
+    HedgingConfiguration defaults = HedgingConfiguration.DEFAULT;
+    HedgingConfiguration config = new HedgingConfiguration(
+        hedging.getDouble(PERCENTILE_KEY, defaults.percentile()),
+        hedging.getDouble(BUDGET_RATIO_KEY, defaults.budgetRatio()),
+        hedging.getLong(MIN_DELAY_KEY, defaults.minDelayMs()),
+        hedging.getInt(MIN_SAMPLES_KEY, defaults.minSamples()));
+    ErrorHandling.checkArgument(config.percentile() > 0 && config.percentile() < 1,
+        "`%s` for api `%s` must be between 0 and 1", PERCENTILE_KEY, name);
+    ErrorHandling.checkArgument(config.budgetRatio() > 0 && config.budgetRatio() <= 1,
+        "`%s` for api `%s` must be between 0 and 1", BUDGET_RATIO_KEY, name);
+    ErrorHandling.checkArgument(config.minDelayMs() >= 0 && config.minSamples() >= 0,
+        "Hedging settings for api `%s` cannot be negative", name);
+    return Optional.of(config);
   }
 
   static Map<String, APIExecutor> getAPIExecutors(Configuration configuration) {
+    return getAPIExecutors(configuration, ToolObservability.NOOP);
+  }
+
+  static Map<String, APIExecutor> getAPIExecutors(Configuration configuration, ToolObservability observability) {
     Map<String, APIExecutor> apiExecutors = new HashMap<>();
     if (configuration.containsKey(TYPE_KEY) && configuration.containsKey(URL_KEY)) {
       //Read single API configuration
-      APIExecutor apiSpec = getAPIExecutor(configuration, DEFAULT_NAME);
+      APIExecutor apiSpec = getAPIExecutor(configuration, DEFAULT_NAME, observability);
       apiExecutors.put(DEFAULT_NAME.trim().toLowerCase(), apiSpec);
     } else {
       //Read multiple API configurations
       for (String key : ConfigurationUtil.getSubKeys(configuration)) {
         Configuration apiConfig = configuration.subset(key);
-        APIExecutor apiSpec = getAPIExecutor(apiConfig, key);
+        APIExecutor apiSpec = getAPIExecutor(apiConfig, key, observability);
         apiExecutors.put(key.trim().toLowerCase(), apiSpec);
       }
     }
     return apiExecutors;
   }
 
+  /**
+   * Creates the executor for the configured API and wraps it in a {@link ResilientAPIExecutor}
+   * and/or {@link HedgingAPIExecutor} if resilience or hedging has been configured for the API.
+   * Hedged requests pass through the resilience layer so they count against the concurrency limit.
+   */
+  static APIExecutor getAPIExecutor(Configuration apiConfig, String name, ToolObservability observability) {
+    APIExecutor executor = getAPIExecutor(apiConfig, name);
+    Optional<ResilienceConfiguration> resilience = readResilienceConfiguration(apiConfig, name);
+    if (resilience.isPresent()) {
+      executor = new ResilientAPIExecutor(name, executor, resilience.get(), observability);
+    }
+    Optional<HedgingConfiguration> hedging = readHedgingConfiguration(apiConfig, name);
+    if (hedging.isPresent()) {
+      executor = new HedgingAPIExecutor(name, executor, hedging.get(), observability);
+    }
+    return executor;
+  }
+
   static APIExecutor getAPIExecutor(Configuration apiConfig, String name) {
     BaseConfiguration baseAPIConfig = readBaseConfiguration(apiConfig, name);
-    Optional<APIExecutorFactory> providerFact = ServiceLoader.load(APIExecutorFactory.class).stream()
-        .map(Provider::get).filter(cpf -> cpf.getTypeName().equalsIgnoreCase(baseAPIConfig.type()))
-        .findFirst();
+    Optional<APIExecutorFactory> providerFact = Services.load(APIExecutorFactory.class).stream()
+        .filter(cpf -> cpf.getTypeName().equalsIgnoreCase(baseAPIConfig.type()))
+        .max(Comparator.comparingInt(APIExecutorFactory::getPriority));
     ErrorHandling.checkArgument(providerFact.isPresent(), "Could not find API executor for API `%s`: %s", APIExecutorFactory.TYPE_KEY, baseAPIConfig.type());
     return providerFact.get().create(apiConfig, name);
   }
@@ -1,6 +1,7 @@
 package com.datasqrl.ai.api;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -17,10 +18,36 @@ public class APIQuery {
   private String query;
   private String path;
   private String method;
+  /**
+   * Maximum time in milliseconds to wait for the result of the query. No timeout if null.
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private Integer timeout;
+  /**
+   * Whether the query can safely be executed more than once, which allows requests to be hedged.
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private Boolean idempotent;
+
+  public APIQuery(String name, String query, String path, String method) {
+    this(name, query, path, method, null, null);
+  }
 
   @JsonIgnore
   public String getNameOrDefault() {
     return name==null?APIExecutorFactory.DEFAULT_NAME:name;
   }
 
+  /**
+   * @return true if this is a GraphQL mutation or a REST call with a method other than GET or HEAD
+   */
+  @JsonIgnore
+  public boolean isMutation() {
+    if (method != null) {
+      String restMethod = method.trim().toUpperCase();
+      return !restMethod.equals("GET") && !restMethod.equals("HEAD");
+    }
+    return query != null && query.stripLeading().startsWith("mutation");
+  }
+
 }
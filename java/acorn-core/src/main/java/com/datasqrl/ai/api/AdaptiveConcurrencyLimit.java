@@ -0,0 +1,179 @@
+package com.datasqrl.ai.api;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * A concurrency limit that adapts to the observed latency of an API by additive increase and
+ * multiplicative decrease (AIMD).
+ *
+ * The limit grows by one for every successful call that completes within the latency target
+ * while the limit is actually being used, and shrinks by the backoff ratio whenever a call fails
+ * or exceeds the latency target. Callers that cannot acquire a permit wait up to a configurable
+ * time before they are rejected. Asynchronous callers wait without blocking a thread.
+ */
+public class AdaptiveConcurrencyLimit {
+
+  public static final double BACKOFF_RATIO = 0.9;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long latencyTargetNanos;
+  private final IntConsumer onLimitChange;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition permitReleased = lock.newCondition();
+  private final Queue<CompletableFuture<Boolean>> waiters = new ArrayDeque<>();
+
+  private volatile double limit;
+  private int inFlight = 0;
+
+  public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long latencyTargetMs,
+      IntConsumer onLimitChange) {
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMs);
+    this.onLimitChange = onLimitChange;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+  }
+
+  /**
+   * Acquires a permit, waiting at most the given time for one to become available.
+   *
+   * @param maxWaitMs maximum time to wait in milliseconds
+   * @return true if a permit was acquired, false if the wait timed out
+   */
+  public boolean acquire(long maxWaitMs) throws InterruptedException {
+    long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+    lock.lock();
+    try {
+      while (inFlight >= getLimit()) {
+        if (remainingNanos <= 0) return false;
+        remainingNanos = permitReleased.awaitNanos(remainingNanos);
+      }
+      inFlight++;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Acquires a permit without blocking. If no permit is available, the returned future completes
+   * once a permit is released or with false after the given time. Cancelling the future gives up the wait.
+   *
+   * @param maxWaitMs maximum time to wait in milliseconds
+   * @return A future that completes with true if a permit was acquired, false if the wait timed out
+   */
+  public CompletableFuture<Boolean> acquireAsync(long maxWaitMs) {
+    CompletableFuture<Boolean> waiter = new CompletableFuture<>();
+    lock.lock();
+    try {
+      if (inFlight < getLimit()) {
+        inFlight++;
+        return CompletableFuture.completedFuture(true);
+      }
+      if (maxWaitMs <= 0) return CompletableFuture.completedFuture(false);
+      waiters.add(waiter);
+    } finally {
+      lock.unlock();
+    }
+    CompletableFuture.delayedExecutor(maxWaitMs, TimeUnit.MILLISECONDS).execute(() -> {
+      lock.lock();
+      try {
+        waiters.remove(waiter);
+      } finally {
+        lock.unlock();
+      }
+      waiter.complete(false);
+    });
+    return waiter;
+  }
+
+  /**
+   * Releases a previously acquired permit and adjusts the limit.
+   *
+   * @param latencyNanos the observed latency of the call
+   * @param dropped whether the call failed or timed out
+   */
+  public void release(long latencyNanos, boolean dropped) {
+    int before, after;
+    List<CompletableFuture<Boolean>> granted;
+    lock.lock();
+    try {
+      before = getLimit();
+      if (dropped || latencyNanos > latencyTargetNanos) {
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+      } else if (inFlight * 2 >= limit) {
+        limit = Math.min(maxLimit, limit + 1);
+      }
+      inFlight--;
+      after = getLimit();
+      granted = grantWaiters();
+      permitReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    if (before != after) onLimitChange.accept(after);
+    complete(granted);
+  }
+
+  /**
+   * Releases a previously acquired permit without adjusting the limit, e.g. when the call
+   * was abandoned before it was sent.
+   */
+  public void release() {
+    List<CompletableFuture<Boolean>> granted;
+    lock.lock();
+    try {
+      inFlight--;
+      granted = grantWaiters();
+      permitReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    complete(granted);
+  }
+
+  private List<CompletableFuture<Boolean>> grantWaiters() {
+    List<CompletableFuture<Boolean>> granted = new ArrayList<>();
+    while (inFlight < getLimit() && !waiters.isEmpty()) {
+      CompletableFuture<Boolean> waiter = waiters.poll();
+      if (waiter.isDone()) continue;
+      inFlight++;
+      granted.add(waiter);
+    }
+    return granted;
+  }
+
+  /**
+   * Completes the waiters outside the lock since they continue with the call. A waiter that
+   * timed out or was cancelled in the meantime hands its permit back.
+   */
+  private void complete(List<CompletableFuture<Boolean>> granted) {
+    for (CompletableFuture<Boolean> waiter : granted) {
+      if (!waiter.complete(true)) release();
+    }
+  }
+
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
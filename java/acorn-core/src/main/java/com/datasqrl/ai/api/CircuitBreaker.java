@@ -0,0 +1,122 @@
+package com.datasqrl.ai.api;
+
+import com.datasqrl.ai.tool.ToolObservability.CircuitState;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A circuit breaker that opens after a number of consecutive failures and rejects all calls
+ * while open. After the open duration has elapsed, a single trial call is let through
+ * (half-open): if it succeeds the circuit closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+
+  private final int failureThreshold;
+  private final long openDurationNanos;
+  private final LongSupplier nanoClock;
+  private final Consumer<CircuitState> onStateChange;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private CircuitState state = CircuitState.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openedAtNanos = 0;
+  private boolean trialInFlight = false;
+
+  public CircuitBreaker(int failureThreshold, long openDurationMs, Consumer<CircuitState> onStateChange) {
+    this(failureThreshold, openDurationMs, System::nanoTime, onStateChange);
+  }
+
+  CircuitBreaker(int failureThreshold, long openDurationMs, LongSupplier nanoClock,
+      Consumer<CircuitState> onStateChange) {
+    this.failureThreshold = failureThreshold;
+    this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMs);
+    this.nanoClock = nanoClock;
+    this.onStateChange = onStateChange;
+  }
+
+  /**
+   * @return true if a call is permitted, false if the circuit is open and the call should fail fast.
+   * Every permitted call must be followed by a call to {@link #onSuccess()}, {@link #onFailure()},
+   * or {@link #onIgnored()}.
+   */
+  public boolean tryAcquire() {
+    CircuitState newState = null;
+    lock.lock();
+    try {
+      if (state == CircuitState.OPEN && nanoClock.getAsLong() - openedAtNanos >= openDurationNanos) {
+        newState = state = CircuitState.HALF_OPEN;
+        trialInFlight = false;
+      }
+      switch (state) {
+        case CLOSED:
+          return true;
+        case HALF_OPEN:
+          if (trialInFlight) return false;
+          trialInFlight = true;
+          return true;
+        default:
+          return false;
+      }
+    } finally {
+      lock.unlock();
+      if (newState != null) onStateChange.accept(newState);
+    }
+  }
+
+  public void onSuccess() {
+    CircuitState newState = null;
+    lock.lock();
+    try {
+      consecutiveFailures = 0;
+      if (state == CircuitState.HALF_OPEN) {
+        newState = state = CircuitState.CLOSED;
+        trialInFlight = false;
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (newState != null) onStateChange.accept(newState);
+  }
+
+  public void onFailure() {
+    CircuitState newState = null;
+    lock.lock();
+    try {
+      consecutiveFailures++;
+      if (state == CircuitState.HALF_OPEN
+          || (state == CircuitState.CLOSED && consecutiveFailures >= failureThreshold)) {
+        newState = state = CircuitState.OPEN;
+        openedAtNanos = nanoClock.getAsLong();
+        trialInFlight = false;
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (newState != null) onStateChange.accept(newState);
+  }
+
+  /**
+   * Releases a permitted call that was never executed without counting it as success or failure.
+   */
+  public void onIgnored() {
+    lock.lock();
+    try {
+      if (state == CircuitState.HALF_OPEN) trialInFlight = false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public CircuitState getState() {
+    lock.lock();
+    try {
+      return state;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
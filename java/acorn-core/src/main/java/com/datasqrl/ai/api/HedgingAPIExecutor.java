@@ -0,0 +1,186 @@
+package com.datasqrl.ai.api;
+
+import com.datasqrl.ai.api.APIExecutorFactory.HedgingConfiguration;
+import com.datasqrl.ai.tool.ToolObservability;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Wraps an {@link APIExecutor} to hedge idempotent queries: if a query has not returned within the
+ * observed latency percentile of the API, a second identical request is sent. The result of whichever
+ * request finishes first is used and the other request is cancelled.
+ *
+ * The number of hedged requests is capped by a budget that grows by a configured fraction of
+ * each query, so hedging never adds more than that fraction of extra load on the API.
+ */
+@Slf4j
+@Getter
+public class HedgingAPIExecutor implements APIExecutor {
+
+  public static final int LATENCY_WINDOW_SIZE = 1000;
+  public static final double MAX_BUDGET = 10.0;
+
+  private final String name;
+  private final APIExecutor delegate;
+  private final HedgingConfiguration configuration;
+  private final ToolObservability observability;
+  private final LatencyWindow latencies;
+
+  private final ReentrantLock budgetLock = new ReentrantLock();
+  private double budget = 0;
+
+  public HedgingAPIExecutor(String name, APIExecutor delegate, HedgingConfiguration configuration,
+      ToolObservability observability) {
+    this.name = name;
+    this.delegate = delegate;
+    this.configuration = configuration;
+    this.observability = observability;
+    this.latencies = new LatencyWindow(LATENCY_WINDOW_SIZE, configuration.minSamples());
+  }
+
+  @Override
+  public void validate(APIQuery query) throws IllegalArgumentException {
+    delegate.validate(query);
+  }
+
+  @Override
+  public CompletableFuture<Void> warmUp() {
+    return delegate.warmUp();
+  }
+
+  @Override
+  public String executeQuery(APIQuery query, JsonNode arguments) throws IOException {
+    if (!isHedgeable(query)) return timed(query, arguments);
+    CompletableFuture<String> future = executeQueryAsync(query, arguments);
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while executing query against API: " + name, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException && cause.getCause() instanceof IOException) cause = cause.getCause();
+      if (cause instanceof IOException ioException) throw ioException;
+      if (cause instanceof RuntimeException runtimeException) throw runtimeException;
+      throw new IOException("Query against API [" + name + "] failed", cause);
+    }
+  }
+
+  @Override
+  public CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) throws IOException {
+    CompletableFuture<String> primary = timedAsync(query, arguments);
+    if (!isHedgeable(query)) return primary;
+    depositBudget();
+    OptionalLong percentile = latencies.getPercentile(configuration.percentile());
+    if (percentile.isEmpty()) return primary;
+    long delayMs = Math.max(configuration.minDelayMs(), TimeUnit.NANOSECONDS.toMillis(percentile.getAsLong()));
+
+    CompletableFuture<String> result = new CompletableFuture<>();
+    AtomicReference<CompletableFuture<String>> hedge = new AtomicReference<>();
+    AtomicInteger outstanding = new AtomicInteger(1);
+    AtomicBoolean settled = new AtomicBoolean(false);
+    primary.whenComplete((value, e) -> {
+      if (e == null) {
+        if (settled.compareAndSet(false, true)) {
+          cancel(hedge.get());
+          result.complete(value);
+        }
+      } else if (outstanding.decrementAndGet() == 0) {
+        result.completeExceptionally(e);
+      }
+    });
+    CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS).execute(() -> {
+      // Reserve the hedge before withdrawing budget, so no budget is spent once the primary has failed
+      if (settled.get() || outstanding.getAndUpdate(n -> n == 0 ? 0 : n + 1) == 0) return;
+      if (!withdrawBudget()) {
+        if (outstanding.decrementAndGet() == 0) primary.whenComplete((value, e) -> result.completeExceptionally(e));
+        return;
+      }
+      observability.hedgeIssued(name);
+      CompletableFuture<String> hedgeFuture;
+      try {
+        hedgeFuture = timedAsync(query, arguments);
+      } catch (IOException | RuntimeException e) {
+        log.debug("Could not send hedged request to API [{}]", name, e);
+        hedgeFuture = CompletableFuture.failedFuture(e);
+      }
+      hedge.set(hedgeFuture);
+      hedgeFuture.whenComplete((value, e) -> {
+        if (e == null) {
+          if (settled.compareAndSet(false, true)) {
+            observability.hedgeWon(name);
+            cancel(primary);
+            result.complete(value);
+          }
+        } else if (outstanding.decrementAndGet() == 0) {
+          result.completeExceptionally(e);
+        }
+      });
+      if (settled.get()) cancel(hedgeFuture);
+    });
+    //Abort outstanding requests when the caller gives up on the result
+    result.whenComplete((value, e) -> {
+      if (result.isCancelled()) {
+        cancel(primary);
+        cancel(hedge.get());
+      }
+    });
+    return result;
+  }
+
+  private static boolean isHedgeable(APIQuery query) {
+    return Boolean.TRUE.equals(query.getIdempotent());
+  }
+
+  private static void cancel(CompletableFuture<String> future) {
+    if (future != null && !future.isDone()) future.cancel(true);
+  }
+
+  private String timed(APIQuery query, JsonNode arguments) throws IOException {
+    long start = System.nanoTime();
+    String result = delegate.executeQuery(query, arguments);
+    latencies.record(System.nanoTime() - start);
+    return result;
+  }
+
+  private CompletableFuture<String> timedAsync(APIQuery query, JsonNode arguments) throws IOException {
+    long start = System.nanoTime();
+    CompletableFuture<String> future = delegate.executeQueryAsync(query, arguments);
+    future.whenComplete((value, e) -> {
+      if (e == null) latencies.record(System.nanoTime() - start);
+    });
+    return future;
+  }
+
+  private void depositBudget() {
+    budgetLock.lock();
+    try {
+      budget = Math.min(MAX_BUDGET, budget + configuration.budgetRatio());
+    } finally {
+      budgetLock.unlock();
+    }
+  }
+
+  private boolean withdrawBudget() {
+    budgetLock.lock();
+    try {
+      if (budget < 1) return false;
+      budget -= 1;
+      return true;
+    } finally {
+      budgetLock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,53 @@
+package com.datasqrl.ai.api;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the most recent latency samples of an API to compute latency percentiles.
+ */
+public class LatencyWindow {
+
+  private final long[] samples;
+  private final int minSamples;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private int next = 0;
+  private int size = 0;
+
+  public LatencyWindow(int capacity, int minSamples) {
+    this.samples = new long[capacity];
+    this.minSamples = Math.min(minSamples, capacity);
+  }
+
+  public void record(long latencyNanos) {
+    lock.lock();
+    try {
+      samples[next] = latencyNanos;
+      next = (next + 1) % samples.length;
+      size = Math.min(size + 1, samples.length);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @param percentile the percentile between 0 and 1
+   * @return the latency in nanoseconds at the given percentile or empty if not enough samples have been recorded
+   */
+  public OptionalLong getPercentile(double percentile) {
+    long[] sorted;
+    lock.lock();
+    try {
+      if (size == 0 || size < minSamples) return OptionalLong.empty();
+      sorted = Arrays.copyOf(samples, size);
+    } finally {
+      lock.unlock();
+    }
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile * sorted.length) - 1;
+    return OptionalLong.of(sorted[Math.max(0, Math.min(sorted.length - 1, index))]);
+  }
+
+}
@@ -0,0 +1,193 @@
+package com.datasqrl.ai.api;
+
+import com.datasqrl.ai.api.APIExecutorFactory.ResilienceConfiguration;
+import com.datasqrl.ai.tool.ToolObservability;
+import com.datasqrl.ai.tool.ToolObservability.RejectionReason;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Wraps an {@link APIExecutor} to isolate the calls against one API from all others.
+ *
+ * Calls are limited by an {@link AdaptiveConcurrencyLimit} (bulkhead) so that a slow API cannot
+ * tie up all request threads and are guarded by a {@link CircuitBreaker} so that calls against a
+ * failing API fail fast. Rejected calls fail with an {@link IOException} that has a message
+ * the language model can act on.
+ */
+@Slf4j
+@Getter
+public class ResilientAPIExecutor implements APIExecutor {
+
+  private final String name;
+  private final APIExecutor delegate;
+  private final ResilienceConfiguration configuration;
+  private final AdaptiveConcurrencyLimit concurrencyLimit;
+  private final CircuitBreaker circuitBreaker;
+  private final ToolObservability observability;
+
+  public ResilientAPIExecutor(String name, APIExecutor delegate, ResilienceConfiguration configuration,
+      ToolObservability observability) {
+    this(name, delegate, configuration, observability,
+        new CircuitBreaker(configuration.failureThreshold(), configuration.openDurationMs(),
+            state -> {
+              log.info("Circuit breaker for API [{}] is now {}", name, state);
+              observability.circuitStateChanged(name, state);
+            }));
+  }
+
+  ResilientAPIExecutor(String name, APIExecutor delegate, ResilienceConfiguration configuration,
+      ToolObservability observability, CircuitBreaker circuitBreaker) {
+    this.name = name;
+    this.delegate = delegate;
+    this.configuration = configuration;
+    this.observability = observability;
+    this.circuitBreaker = circuitBreaker;
+    this.concurrencyLimit = new AdaptiveConcurrencyLimit(configuration.initialConcurrency(),
+        configuration.minConcurrency(), configuration.maxConcurrency(), configuration.latencyTargetMs(),
+        limit -> observability.concurrencyLimitChanged(name, limit));
+  }
+
+  @Override
+  public void validate(APIQuery query) throws IllegalArgumentException {
+    delegate.validate(query);
+  }
+
+  @Override
+  public CompletableFuture<Void> warmUp() {
+    return delegate.warmUp();
+  }
+
+  @Override
+  public String executeQuery(APIQuery query, JsonNode arguments) throws IOException {
+    acquire();
+    long start = System.nanoTime();
+    try {
+      String result = delegate.executeQuery(query, arguments);
+      release(start, null);
+      return result;
+    } catch (IOException | RuntimeException e) {
+      release(start, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Waits for a permit without blocking and propagates cancellation of the returned future to the API call.
+   */
+  @Override
+  public CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) throws IOException {
+    checkCircuit();
+    CompletableFuture<String> result = new CompletableFuture<>();
+    CompletableFuture<Boolean> permit = concurrencyLimit.acquireAsync(configuration.maxWaitMs());
+    permit.whenComplete((acquired, e) -> {
+      if (e != null) { //Cancelled while waiting for a permit
+        circuitBreaker.onIgnored();
+        return;
+      }
+      if (!acquired) {
+        rejectOverloaded();
+        result.completeExceptionally(overloaded());
+        return;
+      }
+      if (result.isDone()) {
+        concurrencyLimit.release();
+        circuitBreaker.onIgnored();
+        return;
+      }
+      long start = System.nanoTime();
+      CompletableFuture<String> call;
+      try {
+        call = delegate.executeQueryAsync(query, arguments);
+      } catch (IOException | RuntimeException ex) {
+        release(start, ex);
+        result.completeExceptionally(ex);
+        return;
+      }
+      call.whenComplete((value, ex) -> {
+        release(start, ex);
+        if (ex == null) result.complete(value);
+        else result.completeExceptionally(ex);
+      });
+      result.whenComplete((value, ex) -> {
+        if (result.isCancelled()) call.cancel(true);
+      });
+    });
+    result.whenComplete((value, e) -> {
+      if (result.isCancelled()) permit.cancel(false);
+    });
+    return result;
+  }
+
+  private void acquire() throws IOException {
+    checkCircuit();
+    boolean acquired;
+    try {
+      acquired = concurrencyLimit.acquire(configuration.maxWaitMs());
+    } catch (InterruptedException e) {
+      circuitBreaker.onIgnored();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting to call API: " + name, e);
+    }
+    if (!acquired) {
+      rejectOverloaded();
+      throw overloaded();
+    }
+  }
+
+  private void checkCircuit() throws IOException {
+    if (!circuitBreaker.tryAcquire()) {
+      observability.callRejected(name, RejectionReason.CIRCUIT_OPEN);
+      throw new IOException(String.format("The API [%s] is currently unavailable because recent calls failed. "
+          + "Do not retry this function now; answer with the information you have or tell the user "
+          + "that the data is temporarily unavailable.", name));
+    }
+  }
+
+  private void rejectOverloaded() {
+    circuitBreaker.onIgnored();
+    observability.callRejected(name, RejectionReason.CONCURRENCY_LIMIT);
+  }
+
+  private IOException overloaded() {
+    return new IOException(String.format("The API [%s] is currently overloaded. "
+        + "Do not retry this function now; answer with the information you have or tell the user "
+        + "that the data is temporarily unavailable.", name));
+  }
+
+  private void release(long startNanos, Throwable failure) {
+    if (isCancellation(failure)) {
+      // Cancelled calls, e.g. hedges that lost or abandoned requests, say nothing about the health of the API
+      concurrencyLimit.release();
+      circuitBreaker.onIgnored();
+      return;
+    }
+    boolean dropped = isFailure(failure);
+    concurrencyLimit.release(System.nanoTime() - startNanos, dropped);
+    if (dropped) {
+      circuitBreaker.onFailure();
+    } else if (failure == null) {
+      circuitBreaker.onSuccess();
+    } else {
+      circuitBreaker.onIgnored();
+    }
+  }
+
+  private static boolean isCancellation(Throwable failure) {
+    if (failure instanceof CompletionException && failure.getCause() != null) failure = failure.getCause();
+    return failure instanceof CancellationException;
+  }
+
+  /**
+   * Invalid arguments are caused by the caller and don't indicate that the API is unhealthy.
+   */
+  private static boolean isFailure(Throwable failure) {
+    if (failure instanceof CompletionException && failure.getCause() != null) failure = failure.getCause();
+    return failure != null && !(failure instanceof IllegalArgumentException);
+  }
+
+}
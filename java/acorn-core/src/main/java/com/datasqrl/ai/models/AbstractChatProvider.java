@@ -3,12 +3,17 @@ package com.datasqrl.ai.models;
 import com.datasqrl.ai.tool.Context;
 import com.datasqrl.ai.tool.GenericChatMessage;
 import com.datasqrl.ai.tool.ModelObservability;
+import com.datasqrl.ai.tool.ModelObservability.ModelInvocation;
 import com.datasqrl.ai.tool.ToolManager;
 import java.util.List;
-import lombok.AllArgsConstructor;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 
-@AllArgsConstructor
+@Slf4j
 public abstract class AbstractChatProvider<Message, FunctionCall> implements ChatProvider {
 
   public static int DEFAULT_HISTORY_LIMIT = 50;
@@ -19,14 +24,137 @@ public abstract class AbstractChatProvider<Message, FunctionCall> implements Cha
   protected final ModelBindings<Message, FunctionCall> bindings;
   @Getter
   protected final ModelObservability observability;
+  protected final PromptPrefixCache prefixCache = new PromptPrefixCache();
+  /**
+   * Summarizes the history that no longer fits into the context window, or null to truncate the history
+   */
+  @Getter
+  @Setter
+  protected volatile HistoryCompactor historyCompactor;
+  /**
+   * Truncates function results that take up too much of the remaining context window
+   */
+  @Getter
+  @Setter
+  protected volatile ResultTruncator resultTruncator = new ResultTruncator(ResultTruncator.DEFAULT_MAX_SHARE);
+
+  protected AbstractChatProvider(ToolManager backend, ModelBindings<Message, FunctionCall> bindings,
+      ModelObservability observability) {
+    this.backend = backend;
+    this.bindings = bindings;
+    this.observability = observability;
+  }
 
 
   @Override
   public List<GenericChatMessage> getHistory(Context sessionContext, boolean includeFunctionCalls) {
-    return backend.getChatMessages(sessionContext, DEFAULT_HISTORY_LIMIT, GenericChatMessage.class).stream()
+    return convertHistory(backend.getChatMessages(sessionContext, DEFAULT_HISTORY_LIMIT, GenericChatMessage.class),
+        sessionContext, includeFunctionCalls);
+  }
+
+  @Override
+  public CompletableFuture<List<GenericChatMessage>> getHistoryAsync(Context sessionContext,
+      boolean includeFunctionCalls) {
+    return backend.getChatMessagesAsync(sessionContext, DEFAULT_HISTORY_LIMIT, GenericChatMessage.class)
+        .thenApply(messages -> convertHistory(messages, sessionContext, includeFunctionCalls));
+  }
+
+  @Override
+  public void prewarm() {
+    backend.prewarm();
+    ModelAnalyzer<Message> tokenCounter = bindings.getTokenCounter();
+    backend.getFunctions().values().forEach(function -> function.getNumTokens(tokenCounter));
+  }
+
+  private List<GenericChatMessage> convertHistory(List<GenericChatMessage> messages, Context sessionContext,
+      boolean includeFunctionCalls) {
+    return messages.stream()
         .map(bindings::convertMessage)
         .filter(message -> includeFunctionCalls || bindings.isUserOrAssistantMessage(message))
         .map(m -> bindings.convertMessage(m, sessionContext)).toList();
   }
 
+  /**
+   * The response of a single model invocation in the agent loop.
+   *
+   * @param message the response message of the model
+   * @param functionCall the function call requested by the model or null if the message is the answer
+   * @param invocation the observed model invocation
+   */
+  public record ModelResponse<Message, FunctionCall>(Message message, FunctionCall functionCall,
+                                                         ModelInvocation invocation) {
+
+  }
+
+  /**
+   * Runs the agent loop for the user message without blocking a thread while the model or a function
+   * is invoked. Each turn invokes the model with the current context window and, if the model requests
+   * a function call, executes it and continues with the next turn once the result is available.
+   *
+   * @param userMessage the message of the user
+   * @param context the session context
+   * @param systemPrompt the system prompt of the session
+   * @param invokeModel invokes the model asynchronously with the given context window
+   * @return A future for the final response, i.e. the text answer or the function call to execute on the client
+   */
+  protected CompletableFuture<GenericChatMessage> runAgentLoopAsync(Message userMessage, Context context,
+      String systemPrompt,
+      Function<ContextWindow<Message>, CompletableFuture<ModelResponse<Message, FunctionCall>>> invokeModel) {
+    return runAgentLoopAsync(userMessage, context, systemPrompt,
+        (session, contextWindow) -> invokeModel.apply(contextWindow));
+  }
+
+  /**
+   * Runs the agent loop like {@link #runAgentLoopAsync(Object, Context, String, Function)} for providers that stream
+   * the model response and start function calls with {@link ChatSession#dispatchFunctionCall} before the response
+   * is complete.
+   *
+   * @param invokeModel invokes the model asynchronously for the session with the given context window
+   */
+  protected CompletableFuture<GenericChatMessage> runAgentLoopAsync(Message userMessage, Context context,
+      String systemPrompt,
+      BiFunction<ChatSession<Message, FunctionCall>, ContextWindow<Message>,
+          CompletableFuture<ModelResponse<Message, FunctionCall>>> invokeModel) {
+    return ChatSession.createAsync(this, context, systemPrompt).thenCompose(session -> {
+      session.addMessage(userMessage);
+      return nextTurn(session, context, invokeModel, 0);
+    });
+  }
+
+  private CompletableFuture<GenericChatMessage> nextTurn(ChatSession<Message, FunctionCall> session, Context context,
+      BiFunction<ChatSession<Message, FunctionCall>, ContextWindow<Message>,
+          CompletableFuture<ModelResponse<Message, FunctionCall>>> invokeModel,
+      int retryCount) {
+    ContextWindow<Message> contextWindow;
+    try {
+      context.getCancellationToken().throwIfCancelled();
+      contextWindow = session.getContextWindow();
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    context.nextInvocation();
+    return invokeModel.apply(session, contextWindow).thenCompose(response -> {
+      GenericChatMessage genericResponse = session.addMessage(response.message());
+      if (response.functionCall() == null) {
+        // The text answer
+        return CompletableFuture.completedFuture(genericResponse);
+      }
+      return session.validateAndExecuteFunctionCallAsync(response.functionCall(), true)
+          .thenCompose(outcome -> switch (outcome.status()) {
+            case EXECUTE_ON_CLIENT -> CompletableFuture.completedFuture(genericResponse);
+            case VALIDATION_ERROR_RETRY -> {
+              response.invocation().toolCallInvalid(outcome.validationError());
+              if (retryCount >= FUNCTION_CALL_RETRIES_LIMIT) {
+                yield CompletableFuture.failedFuture(
+                    new RuntimeException("Too many function call retries for the same function."));
+              }
+              log.debug("Failed function call: {}", response.functionCall());
+              log.info("Function call failed. Retrying ...");
+              yield nextTurn(session, context, invokeModel, retryCount + 1);
+            }
+            default -> nextTurn(session, context, invokeModel, retryCount);
+          });
+    });
+  }
+
 }
@@ -15,6 +15,7 @@ public abstract class AbstractModelConfiguration implements ModelConfiguration {
   public static final String TOP_P_KEY = "top_p";
   public static final double TOP_P_DEFAULT = 0.9;
   public static final String TOKENIZER_KEY = "tokenizer";
+  public static final String URL_KEY = "url";
 
   public static final double INPUT_TOKEN_RATIO = 0.7;
 
@@ -3,12 +3,42 @@ package com.datasqrl.ai.models;
 import com.datasqrl.ai.tool.Context;
 import com.datasqrl.ai.tool.ToolsBackend;
 import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.util.BlockingExecutor;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface ChatProvider {
 
   GenericChatMessage chat(String message, Context context);
 
+  /**
+   * Processes the message like {@link #chat(String, Context)} without blocking the calling thread.
+   * The default implementation runs {@link #chat(String, Context)} on the {@link BlockingExecutor}.
+   *
+   * @return A future for the response message
+   */
+  default CompletableFuture<GenericChatMessage> chatAsync(String message, Context context) {
+    return CompletableFuture.supplyAsync(() -> chat(message, context), BlockingExecutor.get());
+  }
+
   List<GenericChatMessage> getHistory(Context sessionContext, boolean includeFunctionCalls);
 
+  /**
+   * Prepares the provider for the first requests, e.g. by counting the tokens of the functions and
+   * prewarming the tools. Called before a newly built provider serves requests. The default implementation does nothing.
+   */
+  default void prewarm() {
+  }
+
+  /**
+   * Retrieves the history like {@link #getHistory(Context, boolean)} without blocking the calling thread.
+   * The default implementation runs {@link #getHistory(Context, boolean)} on the {@link BlockingExecutor}.
+   *
+   * @return A future for the history messages
+   */
+  default CompletableFuture<List<GenericChatMessage>> getHistoryAsync(Context sessionContext,
+      boolean includeFunctionCalls) {
+    return CompletableFuture.supplyAsync(() -> getHistory(sessionContext, includeFunctionCalls), BlockingExecutor.get());
+  }
+
 }
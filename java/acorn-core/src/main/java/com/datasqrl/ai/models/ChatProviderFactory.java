@@ -4,10 +4,9 @@ import com.datasqrl.ai.tool.ModelObservability;
 import com.datasqrl.ai.tool.ToolManager;
 import com.datasqrl.ai.tool.ToolsBackend;
 import com.datasqrl.ai.util.ErrorHandling;
+import com.datasqrl.ai.util.Services;
 import java.util.Map;
 import java.util.Optional;
-import java.util.ServiceLoader;
-import java.util.ServiceLoader.Provider;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.MapConfiguration;
 
@@ -22,8 +21,8 @@ public interface ChatProviderFactory {
   static ChatProviderFactory fromConfiguration(Configuration modelConfiguration) {
     String provider = modelConfiguration.getString(MODEL_PROVIDER_KEY);
     ErrorHandling.checkArgument(provider!=null && !provider.isBlank(), "Need to configure `[%s]` in model configuration.", MODEL_PROVIDER_KEY);
-    Optional<ChatProviderFactory> providerFact = ServiceLoader.load(ChatProviderFactory.class).stream()
-        .map(Provider::get).filter(cpf -> cpf.getProviderName().equalsIgnoreCase(provider))
+    Optional<ChatProviderFactory> providerFact = Services.load(ChatProviderFactory.class).stream()
+        .filter(cpf -> cpf.getProviderName().equalsIgnoreCase(provider))
         .findFirst();
     ErrorHandling.checkArgument(providerFact.isPresent(), "Could not find model provider: " + provider);
     return providerFact.get();
@@ -1,16 +1,27 @@
 package com.datasqrl.ai.models;
 
+import com.datasqrl.ai.tool.CancellationToken;
 import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.FunctionCallRepair;
 import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.tool.ModelObservability;
+import com.datasqrl.ai.tool.ResultEncoder;
+import com.datasqrl.ai.tool.RuntimeFunctionDefinition;
 import com.datasqrl.ai.tool.ToolManager;
 import com.datasqrl.ai.tool.ToolsBackend;
 import com.datasqrl.ai.tool.FunctionValidation;
 import com.fasterxml.jackson.databind.JsonNode;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -18,24 +29,80 @@ import lombok.extern.slf4j.Slf4j;
 public class ChatSession<Message, FunctionCall> {
 
   private static final int MESSAGE_HISTORY_LIMIT = 100;
+  /**
+   * Function results that are shorter than this are not worth replacing with a reference
+   */
+  static final int MIN_DEDUPLICATION_LENGTH = 200;
+  /**
+   * The minimum number of tokens that function results are truncated against, even if the prompt prefix leaves less
+   */
+  static final int MIN_RESULT_TOKENS = 100;
 
   protected final ToolManager backend;
   protected final Context context;
   protected final String systemMessage;
   protected final ModelBindings<Message, FunctionCall> bindings;
+  protected final PromptPrefixCache prefixCache;
+  protected final HistoryCompactor historyCompactor;
+  protected final ResultTruncator resultTruncator;
+  protected final ModelObservability observability;
   protected final List<GenericChatMessage> messages = new ArrayList<>();
+  /**
+   * The number of tokens that the most recent context window had available for the history, i.e. without the prompt
+   * prefix and the summary. Older messages are dropped to make room for function results, so results are truncated
+   * against this budget. 0 if no context window has been created yet.
+   */
+  private volatile int historyTokens;
+  /**
+   * The function call that was dispatched while the model was still generating its response
+   */
+  private volatile DispatchedFunctionCall<Message> dispatchedCall;
 
   public ChatSession(ToolManager backend, Context context, String systemMessage,
                      ModelBindings<Message, FunctionCall> bindings) {
+    this(backend, context, systemMessage, bindings, new PromptPrefixCache(), null,
+        new ResultTruncator(ResultTruncator.DEFAULT_MAX_SHARE), ModelObservability.NOOP,
+        backend.getChatMessages(context, MESSAGE_HISTORY_LIMIT, GenericChatMessage.class));
+  }
+
+  /**
+   * Creates a session that shares the prompt prefix cache, history compaction, and result truncation of the
+   * chat provider.
+   */
+  public ChatSession(AbstractChatProvider<Message, FunctionCall> provider, Context context, String systemMessage) {
+    this(provider.backend, context, systemMessage, provider.bindings, provider.prefixCache,
+        provider.getHistoryCompactor(), provider.getResultTruncator(), provider.getObservability(),
+        provider.backend.getChatMessages(context, MESSAGE_HISTORY_LIMIT, GenericChatMessage.class));
+  }
+
+  protected ChatSession(ToolManager backend, Context context, String systemMessage,
+                        ModelBindings<Message, FunctionCall> bindings, PromptPrefixCache prefixCache,
+                        HistoryCompactor historyCompactor, ResultTruncator resultTruncator,
+                        ModelObservability observability, List<GenericChatMessage> chatHistory) {
     this.backend = backend;
     this.context = context;
     this.systemMessage = systemMessage;
     this.bindings = bindings;
-    List<GenericChatMessage> chatHistory = backend.getChatMessages(context, MESSAGE_HISTORY_LIMIT, GenericChatMessage.class);
+    this.prefixCache = prefixCache;
+    this.historyCompactor = historyCompactor;
+    this.resultTruncator = resultTruncator;
+    this.observability = observability;
     log.info("Retrieved {} messages from history", chatHistory.size());
     messages.addAll(chatHistory);
   }
 
+  /**
+   * Creates a session like {@link #ChatSession(AbstractChatProvider, Context, String)} without blocking while
+   * the chat history is retrieved.
+   */
+  public static <Message, FunctionCall> CompletableFuture<ChatSession<Message, FunctionCall>> createAsync(
+      AbstractChatProvider<Message, FunctionCall> provider, Context context, String systemMessage) {
+    return provider.backend.getChatMessagesAsync(context, MESSAGE_HISTORY_LIMIT, GenericChatMessage.class)
+        .thenApply(chatHistory -> new ChatSession<>(provider.backend, context, systemMessage, provider.bindings,
+            provider.prefixCache, provider.getHistoryCompactor(), provider.getResultTruncator(),
+            provider.getObservability(), chatHistory));
+  }
+
   public GenericChatMessage addMessage(Message message) {
     GenericChatMessage convertedMsg = bindings.convertMessage(message, context);
     messages.add(convertedMsg);
@@ -45,39 +112,128 @@ public class ChatSession<Message, FunctionCall> {
 
   // TODO: Make this method return ContextWindow<Message>, otherwise it converts the messages twice for every run of the parent method
   protected ContextWindow<GenericChatMessage> getContextWindow(int maxTokens, ModelAnalyzer<Message> analyzer) {
-    GenericChatMessage systemMessage = bindings.convertMessage(bindings.createSystemMessage(this.systemMessage), context);
-    final AtomicInteger numTokens = new AtomicInteger(0);
-    numTokens.addAndGet(systemMessage.getNumTokens());
+    PromptPrefix prefix = prefixCache.get(this.systemMessage, backend.selectFunctions(messages), bindings, context);
+    final AtomicInteger numTokens = new AtomicInteger(prefix.getNumTokens());
     ContextWindow.ContextWindowBuilder<GenericChatMessage> builder = ContextWindow.builder();
-    backend.getFunctions().values().stream().map(f -> {
-      numTokens.addAndGet(f.getNumTokens(analyzer));
-      return f.getChatFunction();
-    }).forEach(builder::function);
+    builder.functions(prefix.getFunctions());
+    builder.numPrefixTokens(prefix.getNumTokens());
     if (numTokens.get() > maxTokens)
       throw new IllegalArgumentException("Function calls and system message too large for model: " + numTokens);
-    int numMessages = messages.size();
+    Function<GenericChatMessage, Integer> tokenCounter = msg -> analyzer.countTokens(bindings.convertMessage(msg));
+    //Messages covered by the most recent summary are replaced by the summary
+    GenericChatMessage summary = getSummary();
+    if (summary != null) numTokens.addAndGet(summary.getNumTokens(tokenCounter));
+    List<GenericChatMessage> history = messages.stream()
+        .filter(message -> !HistoryCompactor.isSummary(message) && !HistoryCompactor.isCovered(message, summary))
+        .toList();
+    int historyTokens = maxTokens - numTokens.get();
+    int numMessages = history.size();
     List<GenericChatMessage> resultMessages = new ArrayList<>();
-    ListIterator<GenericChatMessage> listIterator = messages.listIterator(numMessages);
+    ListIterator<GenericChatMessage> listIterator = history.listIterator(numMessages);
+    //Position of the oldest copy of each function result in the window, identical results are replaced by a reference
+    Map<String, Integer> functionResults = new HashMap<>();
+    int numReferences = 0;
     while (listIterator.hasPrevious()) {
       GenericChatMessage message = listIterator.previous();
-      numTokens.addAndGet(message.getNumTokens(msg -> analyzer.countTokens(bindings.convertMessage(msg))));
-      if (numTokens.get() > maxTokens) break;
+      Integer copy = isDeduplicable(message) ? functionResults.get(message.getContent()) : null;
+      if (copy == null) {
+        int messageTokens = message.getNumTokens(tokenCounter);
+        if (numTokens.get() + messageTokens > maxTokens) break;
+        numTokens.addAndGet(messageTokens);
+      } else {
+        //The later copy is replaced by a reference to this message, which keeps the full result
+        GenericChatMessage later = resultMessages.get(copy);
+        GenericChatMessage reference = newResultReference(later, message);
+        int messageTokens = message.getNumTokens(tokenCounter) - later.getNumTokens(tokenCounter)
+            + reference.getNumTokens(tokenCounter);
+        if (numTokens.get() + messageTokens > maxTokens) break;
+        numTokens.addAndGet(messageTokens);
+        resultMessages.set(copy, reference);
+        numReferences++;
+      }
+      if (isDeduplicable(message)) functionResults.put(message.getContent(), resultMessages.size());
       resultMessages.add(message);
       numMessages--;
     }
-    builder.message(systemMessage);
+    if (numReferences > 0) log.debug("Replaced {} repeated function results with references", numReferences);
+    builder.message(prefix.getSystemMessage());
+    if (summary != null) builder.message(summary);
     Collections.reverse(resultMessages);
     builder.messages(resultMessages);
     builder.numTokens(numTokens.get());
+    this.historyTokens = historyTokens;
     ContextWindow<GenericChatMessage> window = builder.build();
-    if (numMessages > 0) log.info("Truncated the first {} messages", numMessages);
+    if (numMessages > 0) {
+      log.info("Truncated the first {} messages", numMessages);
+      if (historyCompactor != null) compactHistory(summary, history, historyTokens, tokenCounter);
+    }
     return window;
   }
 
+  /**
+   * @return The most recent summary of the history or null if the history has not been compacted
+   */
+  private GenericChatMessage getSummary() {
+    GenericChatMessage latest = historyCompactor != null ? historyCompactor.getSummary(context) : null;
+    for (GenericChatMessage message : messages) {
+      if (HistoryCompactor.getCoveredUntil(message) != null) {
+        latest = HistoryCompactor.latest(latest, message);
+      }
+    }
+    return latest;
+  }
+
+  /**
+   * @return true if the message is a function result that is long enough to be replaced by a reference to an
+   * identical earlier result
+   */
+  static boolean isDeduplicable(GenericChatMessage message) {
+    return ("function".equalsIgnoreCase(message.getRole()) || "tool".equalsIgnoreCase(message.getRole()))
+        && message.getContent() != null && message.getContent().length() >= MIN_DEDUPLICATION_LENGTH;
+  }
+
+  /**
+   * Creates a copy of the function result message that refers to the identical earlier result instead of repeating
+   * it. The stored message is not modified.
+   */
+  static GenericChatMessage newResultReference(GenericChatMessage message, GenericChatMessage earlier) {
+    String content = "[Identical to the earlier result"
+        + (earlier.getName() == null ? "" : " of " + earlier.getName())
+        + (earlier.getTimestamp() == null ? "" : " at " + earlier.getTimestamp()) + "]";
+    return GenericChatMessage.builder().role(message.getRole()).name(message.getName()).content(content)
+        .context(message.getContext()).uuid(message.getUuid()).timestamp(message.getTimestamp()).build();
+  }
+
+  /**
+   * Summarizes the oldest messages of the history in the background, keeping the most recent messages within the
+   * retain ratio of the available tokens. The summary is saved and used by the following context windows of the
+   * conversation.
+   */
+  private void compactHistory(GenericChatMessage previousSummary, List<GenericChatMessage> history,
+      int historyTokens, Function<GenericChatMessage, Integer> tokenCounter) {
+    int retainTokens = (int) (historyTokens * historyCompactor.getRetainRatio());
+    int end = history.size();
+    for (int tokens = 0; end > 0; end--) {
+      tokens += history.get(end - 1).getNumTokens(tokenCounter);
+      if (tokens > retainTokens) break;
+    }
+    //Summaries cover the messages up to a timestamp, so the summarized messages need to end with a timestamped message
+    while (end > 0 && history.get(end - 1).getTimestampInstant() == null) end--;
+    if (end == 0) return;
+    historyCompactor.compact(context, previousSummary, List.copyOf(history.subList(0, end)), bindings, backend);
+  }
+
+  /**
+   * Creates the context window for the next turn. A function call that was dispatched in the previous turn and not
+   * used by it is cancelled.
+   */
   public ContextWindow<Message> getContextWindow() {
+    DispatchedFunctionCall<Message> dispatched = dispatchedCall;
+    dispatchedCall = null;
+    if (dispatched != null) dispatched.cancel();
     ContextWindow<GenericChatMessage> context = getContextWindow(bindings.getMaxInputTokens(), bindings.getTokenCounter());
     return new ContextWindow<>(context.getMessages().stream().map(bindings::convertMessage).toList(),
-        context.getFunctions(), context.getNumTokens());
+        context.getFunctions(), context.getNumTokens(), context.getNumPrefixTokens());
   }
 
   public FunctionValidation<Message> validateFunctionCall(FunctionCall chatFunctionCall) {
@@ -86,32 +242,82 @@ public class ChatSession<Message, FunctionCall> {
   }
 
   public Message executeFunctionCall(FunctionCall chatFunctionCall, Context context) {
-    String functionName = bindings.getFunctionName(chatFunctionCall);
-    JsonNode functionArguments = bindings.getFunctionArguments(chatFunctionCall);
+    return executeFunctionCall(bindings.getFunctionName(chatFunctionCall),
+        bindings.getFunctionArguments(chatFunctionCall), context);
+  }
+
+  private Message executeFunctionCall(String functionName, JsonNode functionArguments, Context context) {
     try {
       String functionResult = backend.executeFunctionCall(functionName, functionArguments, context);
-      return bindings.newFunctionResultMessage(functionName, functionResult);
+      return bindings.newFunctionResultMessage(functionName, processResult(functionName, functionResult));
+    } catch (CancellationException e) {
+      //The interaction was cancelled, abort instead of reporting the error to the model
+      throw e;
     } catch (Exception e) {
       return convertExceptionToMessage(e);
     }
   }
 
-  private Message convertExceptionToMessage(Exception exception) {
+  /**
+   * Executes the function call without blocking. Like {@link #executeFunctionCall(Object, Context)}, errors are
+   * returned to the model as messages and only cancellation fails the returned future.
+   */
+  public CompletableFuture<Message> executeFunctionCallAsync(FunctionCall chatFunctionCall, Context context) {
+    return executeFunctionCallAsync(bindings.getFunctionName(chatFunctionCall),
+        bindings.getFunctionArguments(chatFunctionCall), context);
+  }
+
+  private CompletableFuture<Message> executeFunctionCallAsync(String functionName, JsonNode functionArguments,
+      Context context) {
+    return backend.executeFunctionCallAsync(functionName, functionArguments, context)
+        .handle((functionResult, e) -> {
+          if (e == null) return bindings.newFunctionResultMessage(functionName, processResult(functionName, functionResult));
+          Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+          //The interaction was cancelled, abort instead of reporting the error to the model
+          if (cause instanceof CancellationException cancellation) throw cancellation;
+          return convertExceptionToMessage(cause);
+        });
+  }
+
+  /**
+   * Encodes the function result in the result format of the function and truncates it to the share of the context
+   * window that is available for the history, since older messages are dropped to make room for the result.
+   */
+  private String processResult(String functionName, String functionResult) {
+    RuntimeFunctionDefinition function = backend.getFunctions().get(functionName);
+    if (function != null && function.getResultFormat() != null) {
+      String encoded = ResultEncoder.encode(functionResult, function.getResultFormat());
+      if (!encoded.equals(functionResult)) {
+        ModelAnalyzer<Message> analyzer = bindings.getTokenCounter();
+        int numTokens = analyzer.countTokens(functionResult), numEncodedTokens = analyzer.countTokens(encoded);
+        log.debug("Encoded result of {} as {}: {} tokens saved", functionName, function.getResultFormat(),
+            numTokens - numEncodedTokens);
+        observability.resultEncoded(functionName, numTokens, numEncodedTokens);
+        functionResult = encoded;
+      }
+    }
+    int availableTokens = historyTokens > 0 ? historyTokens : bindings.getMaxInputTokens();
+    return resultTruncator.truncate(functionResult, Math.max(availableTokens, MIN_RESULT_TOKENS),
+        bindings.getTokenCounter());
+  }
+
+  private Message convertExceptionToMessage(Throwable exception) {
     String error = exception.getMessage() == null ? exception.toString() : exception.getMessage();
     return bindings.convertExceptionToMessage(error);
   }
 
   public FunctionExecutionOutcome<Message> validateAndExecuteFunctionCall(FunctionCall functionCall, boolean addResponseToSession) {
-    FunctionValidation<String> fctValid = backend.validateFunctionCall(bindings.getFunctionName(functionCall),
-        bindings.getFunctionArguments(functionCall));
+    ValidatedFunctionCall call = validate(functionCall);
+    FunctionValidation<String> fctValid = call.validation();
     if (fctValid.isValid()) {
       if (fctValid.isClientExecuted()) { //return as is - evaluated on frontend
         return new FunctionExecutionOutcome<>(FunctionExecutionOutcome.Status.EXECUTE_ON_CLIENT, null, null);
       } else {
-        String functionName = bindings.getFunctionName(functionCall);
-        log.info("Executing {} with arguments {}", functionName,
-            bindings.getFunctionArguments(functionCall).toPrettyString());
-        Message functionResponse = this.executeFunctionCall(functionCall, context);
+        String functionName = call.functionName();
+        log.info("Executing {} with arguments {}", functionName, call.arguments().toPrettyString());
+        CompletableFuture<Message> dispatched = takeDispatchedCall(functionName, call.arguments());
+        Message functionResponse = dispatched != null ? dispatched.join()
+            : this.executeFunctionCall(functionName, call.arguments(), context);
         log.info("Executed {} with results: {}", functionName, bindings.getTextContent(functionResponse));
         if (addResponseToSession) {
           this.addMessage(functionResponse);
@@ -119,12 +325,135 @@ public class ChatSession<Message, FunctionCall> {
         return new FunctionExecutionOutcome<>(FunctionExecutionOutcome.Status.EXECUTED, null, functionResponse);
       }
     } else {
-      Message retryResponse = bindings.newUserMessage("It looks like you tried to call a function, but this has failed with the following error: "
-          + fctValid.validationError().errorMessage() + ". Please retry to call the function again. Send ONLY the JSON as a response.");
+      return retry(fctValid, addResponseToSession);
+    }
+  }
+
+  /**
+   * Validates the function call and repairs it locally if it is invalid, so that the model only has to retry
+   * function calls that cannot be repaired. Calls of client executed functions are not repaired since the client
+   * receives the original call.
+   */
+  private ValidatedFunctionCall validate(FunctionCall functionCall) {
+    String functionName = bindings.getFunctionName(functionCall);
+    JsonNode arguments = bindings.getFunctionArguments(functionCall);
+    FunctionValidation<String> validation = backend.validateFunctionCall(functionName, arguments);
+    if (validation.isValid()) return new ValidatedFunctionCall(functionName, arguments, validation);
+    FunctionCallRepair repair = backend.repairFunctionCall(functionName, arguments);
+    if (repair != null) {
+      FunctionValidation<String> repairedValidation = backend.validateFunctionCall(repair.functionName(),
+          repair.arguments());
+      if (repairedValidation.isValid() && !repairedValidation.isClientExecuted()) {
+        log.info("Repaired call of {}: {}", functionName, String.join("; ", repair.repairs()));
+        observability.functionCallRepaired(repair.functionName(), true);
+        return new ValidatedFunctionCall(repair.functionName(), repair.arguments(), repairedValidation);
+      }
+    }
+    observability.functionCallRepaired(functionName, false);
+    return new ValidatedFunctionCall(functionName, arguments, validation);
+  }
+
+  private record ValidatedFunctionCall(String functionName, JsonNode arguments,
+                                       FunctionValidation<String> validation) {
+  }
+
+  private FunctionExecutionOutcome<Message> retry(FunctionValidation<String> fctValid, boolean addResponseToSession) {
+    Message retryResponse = bindings.newUserMessage("It looks like you tried to call a function, but this has failed with the following error: "
+        + fctValid.validationError().errorMessage() + ". Please retry to call the function again. Send ONLY the JSON as a response.");
+    if (addResponseToSession) {
+      this.addMessage(retryResponse);
+    }
+    return new FunctionExecutionOutcome<>(FunctionExecutionOutcome.Status.VALIDATION_ERROR_RETRY, fctValid.validationError(), retryResponse);
+  }
+
+  /**
+   * Validates and executes the function call like {@link #validateAndExecuteFunctionCall(Object, boolean)}
+   * without blocking while the function is executed.
+   */
+  public CompletableFuture<FunctionExecutionOutcome<Message>> validateAndExecuteFunctionCallAsync(
+      FunctionCall functionCall, boolean addResponseToSession) {
+    ValidatedFunctionCall call = validate(functionCall);
+    FunctionValidation<String> fctValid = call.validation();
+    if (!fctValid.isValid()) {
+      return CompletableFuture.completedFuture(retry(fctValid, addResponseToSession));
+    } else if (fctValid.isClientExecuted()) { //return as is - evaluated on frontend
+      return CompletableFuture.completedFuture(
+          new FunctionExecutionOutcome<>(FunctionExecutionOutcome.Status.EXECUTE_ON_CLIENT, null, null));
+    }
+    String functionName = call.functionName();
+    log.info("Executing {} with arguments {}", functionName, call.arguments().toPrettyString());
+    return executeOrJoinDispatched(functionName, call.arguments()).thenApply(functionResponse -> {
+      log.info("Executed {} with results: {}", functionName, bindings.getTextContent(functionResponse));
       if (addResponseToSession) {
-        this.addMessage(retryResponse);
+        this.addMessage(functionResponse);
       }
-      return new FunctionExecutionOutcome<>(FunctionExecutionOutcome.Status.VALIDATION_ERROR_RETRY, fctValid.validationError(), retryResponse);
+      return new FunctionExecutionOutcome<>(FunctionExecutionOutcome.Status.EXECUTED, null, functionResponse);
+    });
+  }
+
+  /**
+   * Starts the function call before the model response is complete, e.g. from a
+   * {@link StreamingFunctionCallParser}, so that the latency of the function overlaps with the generation of the
+   * response. Only valid calls of idempotent functions that are executed on the server are started, since the call
+   * is executed again when the complete response requests a different call. When the complete response requests the
+   * same call, {@link #validateAndExecuteFunctionCallAsync(Object, boolean)} uses the result of the dispatched call.
+   * Otherwise, the dispatched call is cancelled when the complete response requests a different call or at the
+   * latest when the context window of the next turn is created.
+   *
+   * @return true if the function call was started
+   */
+  public boolean dispatchFunctionCall(String functionName, JsonNode arguments) {
+    FunctionValidation<String> validation = backend.validateFunctionCall(functionName, arguments);
+    if (!validation.isValid() || validation.isClientExecuted()) return false;
+    RuntimeFunctionDefinition function = backend.getFunctions().get(functionName);
+    if (function == null || !function.isRepeatable()) return false;
+    log.info("Dispatching {} before the model response is complete", functionName);
+    //The dispatched call has its own token, so that it can be cancelled without cancelling the interaction
+    CancellationToken cancellationToken = CancellationToken.create();
+    CancellationToken.Registration onCancel = context.getCancellationToken()
+        .onCancel(() -> cancellationToken.cancel("Request was cancelled"));
+    CompletableFuture<Message> response = executeFunctionCallAsync(functionName, arguments,
+        context.withCancellationToken(cancellationToken));
+    response.whenComplete((message, e) -> onCancel.remove());
+    DispatchedFunctionCall<Message> previous = dispatchedCall;
+    dispatchedCall = new DispatchedFunctionCall<>(functionName, arguments, response, cancellationToken);
+    if (previous != null) previous.cancel();
+    return true;
+  }
+
+  /**
+   * @return The response of the dispatched function call if it is the same call, otherwise executes the call
+   */
+  private CompletableFuture<Message> executeOrJoinDispatched(String functionName, JsonNode arguments) {
+    CompletableFuture<Message> dispatched = takeDispatchedCall(functionName, arguments);
+    return dispatched != null ? dispatched : executeFunctionCallAsync(functionName, arguments, context);
+  }
+
+  /**
+   * Removes the dispatched function call and cancels it if it is not the given call.
+   *
+   * @return The response of the dispatched function call if it is the given call, otherwise null
+   */
+  private CompletableFuture<Message> takeDispatchedCall(String functionName, JsonNode arguments) {
+    DispatchedFunctionCall<Message> dispatched = dispatchedCall;
+    dispatchedCall = null;
+    if (dispatched == null) return null;
+    if (dispatched.functionName().equals(functionName) && dispatched.arguments().equals(arguments)) {
+      return dispatched.response();
+    }
+    log.info("Cancelling the dispatched call of {} since the response requested a different call",
+        dispatched.functionName());
+    dispatched.cancel();
+    return null;
+  }
+
+  private record DispatchedFunctionCall<Message>(String functionName, JsonNode arguments,
+                                                 CompletableFuture<Message> response,
+                                                 CancellationToken cancellationToken) {
+
+    void cancel() {
+      cancellationToken.cancel("Dispatched function call was not used");
+      response.cancel(true);
     }
   }
 
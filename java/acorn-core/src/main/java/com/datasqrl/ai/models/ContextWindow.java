@@ -15,5 +15,11 @@ public class ContextWindow<Message> {
   @Singular
   List<FunctionDefinition> functions;
   int numTokens;
+  /**
+   * The number of tokens of the system message and functions at the start of the context window
+   *
+   * @see PromptPrefix
+   */
+  int numPrefixTokens;
 
 }
@@ -0,0 +1,184 @@
+package com.datasqrl.ai.models;
+
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.tool.ToolManager;
+import com.datasqrl.ai.util.ErrorHandling;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compacts the chat history that no longer fits into the context window by summarizing it with a separate,
+ * typically cheaper, model. The summary is stored as a system message with the name {@link #SUMMARY_NAME}. Its
+ * content starts with the timestamp of the last message it covers, since the timestamp of the stored message is
+ * assigned when it is saved. Context windows use the most recent summary instead of the messages it covers.
+ *
+ * The compactor is shared by the sessions of a chat provider and keeps the most recent summary of each
+ * conversation, so that a conversation is compacted once and later requests use the summary before it can be
+ * retrieved with the chat history.
+ *
+ * The summarizer is a chat provider without functions and without a chat history.
+ */
+@Slf4j
+public class HistoryCompactor {
+
+  public static final String SUMMARY_NAME = "history_summary";
+  public static final String SUMMARY_PREFIX = "Summary of the earlier conversation until ";
+  public static final String SUMMARY_SEPARATOR = ":\n";
+  /**
+   * The maximum number of conversations for which the most recent summary is kept
+   */
+  public static final int MAX_CONVERSATIONS = 10000;
+
+  public static final String SUMMARIZER_PROMPT = "You summarize conversations between a user and an assistant. "
+      + "The summary replaces the conversation in the context of the assistant, so keep all facts, names, "
+      + "identifiers, numbers, and results of function calls that the assistant may need to answer follow-up "
+      + "questions. Keep unresolved questions of the user. Answer only with the summary.";
+
+  private final ChatProvider summarizer;
+  /**
+   * Fraction of the tokens available for the history that are kept as messages when the history is compacted.
+   * The remaining messages are summarized, so that the history is not compacted again on every turn.
+   */
+  @Getter
+  private final double retainRatio;
+  /**
+   * The most recent summaries by conversation, least recently used first
+   */
+  private final Map<Map<String, Object>, GenericChatMessage> summaries = Collections.synchronizedMap(
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Map<String, Object>, GenericChatMessage> eldest) {
+          return size() > MAX_CONVERSATIONS;
+        }
+      });
+  /**
+   * The conversations whose history is currently being summarized
+   */
+  private final Set<Map<String, Object>> compacting = ConcurrentHashMap.newKeySet();
+
+  public HistoryCompactor(ChatProvider summarizer, double retainRatio) {
+    ErrorHandling.checkArgument(retainRatio > 0 && retainRatio < 1, "Invalid retain ratio: %s", retainRatio);
+    this.summarizer = summarizer;
+    this.retainRatio = retainRatio;
+  }
+
+  public static boolean isSummary(GenericChatMessage message) {
+    return "system".equalsIgnoreCase(message.getRole()) && SUMMARY_NAME.equals(message.getName());
+  }
+
+  /**
+   * @return The timestamp of the last message covered by the summary, or null if the message is not a summary
+   */
+  public static Instant getCoveredUntil(GenericChatMessage summary) {
+    String content = summary.getContent();
+    if (!isSummary(summary) || content == null || !content.startsWith(SUMMARY_PREFIX)) return null;
+    int end = content.indexOf(SUMMARY_SEPARATOR, SUMMARY_PREFIX.length());
+    if (end < 0) return null;
+    try {
+      return Instant.parse(content.substring(SUMMARY_PREFIX.length(), end));
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return The summary that covers the most recent messages, or null if there is none
+   */
+  public static GenericChatMessage latest(GenericChatMessage first, GenericChatMessage second) {
+    if (first == null) return second;
+    if (second == null) return first;
+    return getCoveredUntil(first).isBefore(getCoveredUntil(second)) ? second : first;
+  }
+
+  /**
+   * @return Whether the message was summarized by the given summary
+   */
+  public static boolean isCovered(GenericChatMessage message, GenericChatMessage summary) {
+    if (summary == null) return false;
+    Instant timestamp = message.getTimestampInstant();
+    return timestamp != null && !timestamp.isAfter(getCoveredUntil(summary));
+  }
+
+  /**
+   * @return The most recent summary created for the conversation of the given context, or null if there is none
+   */
+  public GenericChatMessage getSummary(Context context) {
+    return summaries.get(getConversation(context));
+  }
+
+  /**
+   * Summarizes the given messages in the background, saves the summary through the backend, and keeps it as the
+   * most recent summary of the conversation. Nothing happens if the conversation is already being compacted.
+   *
+   * @param context the context of the request, the summarizer is cancelled with the request
+   * @param previousSummary the summary of the messages before the given ones or null
+   * @param messages the messages to summarize in chronological order, the last message must have a timestamp
+   */
+  public <Message> void compact(Context context, GenericChatMessage previousSummary,
+      List<GenericChatMessage> messages, ModelBindings<Message, ?> bindings, ToolManager backend) {
+    Map<String, Object> conversation = getConversation(context);
+    if (!compacting.add(conversation)) return;
+    summarize(previousSummary, messages, context).thenApply(text -> {
+      GenericChatMessage summary = bindings.convertMessage(bindings.createSystemMessage(text), context);
+      summary.setName(SUMMARY_NAME);
+      summaries.put(conversation, summary);
+      backend.saveChatMessage(summary);
+      log.info("Summarized {} messages of the chat history", messages.size());
+      return summary;
+    }).whenComplete((summary, e) -> {
+      compacting.remove(conversation);
+      if (e != null) log.warn("Could not summarize the chat history", e);
+    });
+  }
+
+  /**
+   * Summarizes the given messages together with the previous summary.
+   *
+   * @param previousSummary the summary of the messages before the given ones or null
+   * @param messages the messages to summarize in chronological order, the last message must have a timestamp
+   * @param context the context of the request whose cancellation token is passed to the summarizer
+   * @return A future for the text of the summary, which starts with the timestamp of the last message
+   */
+  public CompletableFuture<String> summarize(GenericChatMessage previousSummary, List<GenericChatMessage> messages,
+      Context context) {
+    String coveredUntil = messages.get(messages.size() - 1).getTimestampInstant().toString();
+    StringBuilder transcript = new StringBuilder();
+    if (previousSummary != null) {
+      transcript.append(previousSummary.getContent()).append("\n\n");
+    }
+    transcript.append("Conversation:\n");
+    for (GenericChatMessage message : messages) {
+      if (message.getContent() == null || message.getContent().isBlank()) continue;
+      transcript.append(message.getRole());
+      if (message.getName() != null) transcript.append(" (").append(message.getName()).append(')');
+      transcript.append(": ").append(message.getContent()).append('\n');
+    }
+    log.info("Summarizing {} messages of the chat history", messages.size());
+    return summarizer.chatAsync(transcript.toString(), Context.of(Map.of(), context.getCancellationToken()))
+        .thenApply(response -> Objects.requireNonNull(response.getContent(), "Summarizer returned no summary"))
+        .thenApply(summary -> SUMMARY_PREFIX + coveredUntil + SUMMARY_SEPARATOR + summary.strip());
+  }
+
+  /**
+   * @return The context variables that identify the conversation, i.e. without the request and invocation id
+   */
+  private static Map<String, Object> getConversation(Context context) {
+    Map<String, Object> conversation = new HashMap<>(context.asMap());
+    conversation.remove(Context.REQUEST_ID_KEY);
+    conversation.remove(Context.INVOCATION_KEY);
+    return conversation;
+  }
+
+}
@@ -8,4 +8,11 @@ public interface ModelAnalyzer<ChatMessage> {
   int countTokens(ChatMessage message);
 
   int countTokens(String generation);
+
+  /**
+   * @return The name of the tokenizer. Analyzers with the same tokenizer name produce the same token counts.
+   */
+  default String getTokenizerName() {
+    return getClass().getName();
+  }
 }
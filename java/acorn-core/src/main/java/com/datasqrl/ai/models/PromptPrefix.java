@@ -0,0 +1,28 @@
+package com.datasqrl.ai.models;
+
+import com.datasqrl.ai.tool.FunctionDefinition;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import java.util.List;
+import lombok.Value;
+
+/**
+ * The system message and function definitions that every request of a session starts with.
+ *
+ * Providers cache the processed prompt for a prefix that is byte identical to a previous request, so the
+ * functions are kept in a canonical order by name and the prefix is reused as long as the system prompt and
+ * the functions do not change.
+ *
+ * @see PromptPrefixCache
+ */
+@Value
+public class PromptPrefix {
+
+  String systemPrompt;
+  GenericChatMessage systemMessage;
+  List<FunctionDefinition> functions;
+  /**
+   * The number of tokens of the system message and the functions
+   */
+  int numTokens;
+
+}
@@ -0,0 +1,66 @@
+package com.datasqrl.ai.models;
+
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.FunctionDefinition;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.tool.RuntimeFunctionDefinition;
+import com.datasqrl.ai.util.ErrorHandling;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the {@link PromptPrefix} of a chat provider, so that the system message is converted and counted once
+ * and all sessions send the same prefix. Prefixes are cached by the system prompt and the names of the offered
+ * functions, so that sessions and turns with different function sets (e.g. with tool selection) each keep their
+ * prefix. The least recently used prefixes are evicted when the cache is full. A prefix is rebuilt when the
+ * definitions of its functions change.
+ */
+public class PromptPrefixCache {
+
+  public static final int DEFAULT_MAX_PREFIXES = 32;
+
+  private record Key(String systemPrompt, List<String> functionNames) {}
+
+  private final Map<Key, PromptPrefix> prefixes;
+
+  public PromptPrefixCache() {
+    this(DEFAULT_MAX_PREFIXES);
+  }
+
+  public PromptPrefixCache(int maxPrefixes) {
+    ErrorHandling.checkArgument(maxPrefixes > 0, "Invalid maximum number of prefixes: %s", maxPrefixes);
+    this.prefixes = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, PromptPrefix> eldest) {
+        return size() > maxPrefixes;
+      }
+    });
+  }
+
+  public <Message> PromptPrefix get(String systemPrompt, Collection<RuntimeFunctionDefinition> functions,
+      ModelBindings<Message, ?> bindings, Context context) {
+    List<RuntimeFunctionDefinition> sorted = functions.stream()
+        .sorted(Comparator.comparing(RuntimeFunctionDefinition::getName)).toList();
+    List<FunctionDefinition> chatFunctions = sorted.stream().map(RuntimeFunctionDefinition::getChatFunction).toList();
+    Key key = new Key(systemPrompt, sorted.stream().map(RuntimeFunctionDefinition::getName).toList());
+    PromptPrefix current = prefixes.get(key);
+    if (current != null && current.getFunctions().equals(chatFunctions)) {
+      return current;
+    }
+    GenericChatMessage systemMessage = bindings.convertMessage(bindings.createSystemMessage(systemPrompt), context);
+    //The prefix is shared by all sessions and must not carry the context of the session that created it
+    systemMessage.setContext(Map.of());
+    int numTokens = systemMessage.getNumTokens();
+    for (RuntimeFunctionDefinition function : sorted) {
+      numTokens += function.getNumTokens(bindings.getTokenCounter());
+    }
+    current = new PromptPrefix(systemPrompt, systemMessage, chatFunctions, numTokens);
+    prefixes.put(key, current);
+    return current;
+  }
+
+}
@@ -0,0 +1,139 @@
+package com.datasqrl.ai.models;
+
+import com.datasqrl.ai.util.ErrorHandling;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.StringWriter;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Truncates function results that would take up more than a share of the context window available for the chat
+ * history, so that a single large API response does not push the whole chat history out of the context window.
+ *
+ * JSON results are copied with a streaming parser until the budget is used up. Arrays are trimmed and end with a
+ * marker item that tells the model how many items were omitted, and long strings are cut off, so that the result
+ * stays valid JSON. Other results are cut off with a marker.
+ */
+@Slf4j
+public class ResultTruncator {
+
+  public static final double DEFAULT_MAX_SHARE = 0.5;
+  public static final ResultTruncator NONE = new ResultTruncator(1);
+
+  /**
+   * Estimate of the characters per token that is used to translate the token budget into a character budget
+   */
+  private static final int CHARS_PER_TOKEN = 4;
+  private static final int MAX_ATTEMPTS = 4;
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  /**
+   * The maximum share of the available context window that a function result can take up
+   */
+  @Getter
+  private final double maxShare;
+
+  public ResultTruncator(double maxShare) {
+    ErrorHandling.checkArgument(maxShare > 0 && maxShare <= 1, "Invalid share of the context window: %s", maxShare);
+    this.maxShare = maxShare;
+  }
+
+  /**
+   * @param result the function result
+   * @param remainingTokens the number of tokens available for the result in the context window
+   * @param analyzer counts the tokens of the result
+   * @return The result, truncated if it takes up more than the maximum share of the available tokens
+   */
+  public String truncate(String result, int remainingTokens, ModelAnalyzer<?> analyzer) {
+    if (maxShare >= 1 || result == null) return result;
+    int maxTokens = (int) (Math.max(remainingTokens, 0) * maxShare);
+    //Every token has at least one character
+    if (result.length() <= maxTokens) return result;
+    int maxChars = maxTokens * CHARS_PER_TOKEN;
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      String truncated = truncateChars(result, maxChars);
+      int numTokens = analyzer.countTokens(truncated);
+      if (numTokens <= maxTokens) {
+        if (truncated.length() < result.length()) {
+          log.info("Truncated function result from {} to {} characters", result.length(), truncated.length());
+        }
+        return truncated;
+      }
+      //Scale the character budget by the observed ratio of characters per token
+      maxChars = (int) ((long) maxChars * maxTokens / numTokens * 9 / 10);
+    }
+    return truncateChars(result, maxChars);
+  }
+
+  /**
+   * Truncates the result to approximately the given number of characters.
+   */
+  static String truncateChars(String result, int maxChars) {
+    if (result.length() <= maxChars) return result;
+    String trimmed = result.stripLeading();
+    if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+      try {
+        return truncateJson(result, maxChars);
+      } catch (IOException e) {
+        //Not valid JSON, truncate as text
+      }
+    }
+    return result.substring(0, maxChars) + "\n[" + (result.length() - maxChars) + " more characters omitted]";
+  }
+
+  private static String truncateJson(String json, int maxChars) throws IOException {
+    StringWriter writer = new StringWriter(maxChars + 64);
+    try (JsonParser parser = jsonFactory.createParser(json);
+         JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+      parser.nextToken();
+      copy(parser, generator, writer, maxChars);
+      if (parser.nextToken() != null) throw new IOException("Trailing content after JSON value");
+    }
+    return writer.toString();
+  }
+
+  /**
+   * Copies the current value of the parser to the generator and trims arrays once the output exceeds the budget.
+   */
+  private static void copy(JsonParser parser, JsonGenerator generator, StringWriter writer, int maxChars)
+      throws IOException {
+    JsonToken token = parser.currentToken();
+    if (token == JsonToken.START_OBJECT) {
+      generator.writeStartObject();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        generator.writeFieldName(parser.currentName());
+        parser.nextToken();
+        copy(parser, generator, writer, maxChars);
+      }
+      generator.writeEndObject();
+    } else if (token == JsonToken.START_ARRAY) {
+      generator.writeStartArray();
+      int omitted = 0;
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        generator.flush();
+        if (omitted > 0 || writer.getBuffer().length() > maxChars) {
+          parser.skipChildren();
+          omitted++;
+        } else {
+          copy(parser, generator, writer, maxChars);
+        }
+      }
+      if (omitted > 0) generator.writeString("... " + omitted + " more items omitted");
+      generator.writeEndArray();
+    } else if (token == JsonToken.VALUE_STRING) {
+      generator.flush();
+      String text = parser.getText();
+      int available = Math.max(maxChars - writer.getBuffer().length(), 0);
+      generator.writeString(text.length() <= available ? text
+          : text.substring(0, available) + "... " + (text.length() - available) + " more characters omitted");
+    } else {
+      generator.copyCurrentEvent(parser);
+    }
+  }
+
+}
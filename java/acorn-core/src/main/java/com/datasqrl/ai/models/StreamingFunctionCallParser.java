@@ -0,0 +1,128 @@
+package com.datasqrl.ai.models;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Parses a function call in the JSON text format `{"function": name, "parameters": {...}}` incrementally from the
+ * streamed output of a model. As soon as the function name and the complete parameters have been parsed, the
+ * listener is called with the function call, so that the function can be executed while the model is still
+ * finishing its response.
+ *
+ * Text before the first `{` is ignored. Output that is not a JSON object starting with the function or parameters
+ * field is not a function call and the parser stops. The complete response still needs to be decoded as usual.
+ */
+@Slf4j
+public class StreamingFunctionCallParser {
+
+  public static final String FUNCTION_FIELD = "function";
+  public static final String PARAMETERS_FIELD = "parameters";
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static final JsonFactory jsonFactory = mapper.getFactory();
+
+  private final BiConsumer<String, JsonNode> listener;
+  private final StringBuilder text = new StringBuilder();
+  private JsonParser parser;
+  private boolean done = false;
+  /**
+   * The nesting depth of the current token, where 1 is the function call object
+   */
+  private int depth = 0;
+  private String field;
+  private String functionName;
+  private JsonNode parameters;
+  private TokenBuffer parameterTokens;
+
+  /**
+   * @param listener called with the function name and parameters once the function call has been parsed
+   */
+  public StreamingFunctionCallParser(BiConsumer<String, JsonNode> listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Appends the next chunk of the streamed model output
+   */
+  public void append(String chunk) {
+    int start = text.length();
+    text.append(chunk);
+    if (done) return;
+    if (parser == null) {
+      int index = text.indexOf("{", start);
+      if (index < 0) return;
+      try {
+        parser = jsonFactory.createNonBlockingByteArrayParser();
+      } catch (IOException e) {
+        done = true;
+        return;
+      }
+      start = index;
+    }
+    byte[] bytes = text.substring(start).getBytes(StandardCharsets.UTF_8);
+    try {
+      ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, 0, bytes.length);
+      JsonToken token;
+      while (!done && (token = parser.nextToken()) != JsonToken.NOT_AVAILABLE && token != null) {
+        next(token);
+      }
+    } catch (IOException e) {
+      log.debug("Streamed output is not a function call: {}", e.getMessage());
+      done = true;
+    }
+  }
+
+  private void next(JsonToken token) throws IOException {
+    if (parameterTokens != null) {
+      parameterTokens.copyCurrentEvent(parser);
+      if (token.isStructStart()) depth++;
+      else if (token.isStructEnd() && --depth == 1) {
+        parameters = mapper.readTree(parameterTokens.asParser());
+        parameterTokens = null;
+      }
+    } else if (depth == 0) {
+      if (token != JsonToken.START_OBJECT) throw new IOException("Expected a JSON object");
+      depth++;
+    } else if (depth == 1 && token == JsonToken.FIELD_NAME) {
+      field = parser.currentName();
+      if (functionName == null && parameters == null && !field.equals(FUNCTION_FIELD)
+          && !field.equals(PARAMETERS_FIELD)) {
+        throw new IOException("Unexpected field: " + field);
+      }
+    } else if (depth == 1 && token == JsonToken.END_OBJECT) {
+      done = true;
+    } else if (depth == 1 && FUNCTION_FIELD.equals(field) && token == JsonToken.VALUE_STRING) {
+      functionName = parser.getText();
+    } else if (depth == 1 && PARAMETERS_FIELD.equals(field) && token == JsonToken.START_OBJECT) {
+      parameterTokens = new TokenBuffer(parser);
+      parameterTokens.copyCurrentEvent(parser);
+      depth++;
+    } else if (token.isStructStart()) {
+      //Skip the values of other fields
+      depth++;
+    } else if (token.isStructEnd()) {
+      depth--;
+    }
+    if (functionName != null && parameters != null && !done) {
+      done = true;
+      listener.accept(functionName, parameters);
+    }
+  }
+
+  /**
+   * @return The complete text that was streamed so far
+   */
+  public String getText() {
+    return text.toString();
+  }
+
+}
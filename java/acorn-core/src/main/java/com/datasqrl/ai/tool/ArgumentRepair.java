@@ -0,0 +1,260 @@
+package com.datasqrl.ai.tool;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Repairs common mistakes that language models make in the arguments of function calls, guided by the JSON schema
+ * of the function parameters. This allows invalid function calls to be executed without another round trip to the
+ * model.
+ *
+ * The repairs are deterministic: values are converted to the scalar type of the schema (e.g. numbers that are sent
+ * as strings), enum values and field names are matched ignoring case, single values are wrapped into arrays,
+ * JSON that is sent as a string is parsed, optional fields that are null are removed, and fields that belong into a
+ * nested object parameter are moved into it. Repaired arguments need to be validated again.
+ */
+public class ArgumentRepair {
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static final JsonNodeFactory nodes = JsonNodeFactory.instance;
+
+  /**
+   * @param schema the JSON schema of the function parameters
+   * @param arguments the arguments of the function call
+   * @param repairs collects a description of each repair
+   * @return A repaired copy of the arguments, or the given arguments if nothing was repaired
+   */
+  public static JsonNode repair(JsonNode schema, JsonNode arguments, List<String> repairs) {
+    return repair(schema, arguments, "", repairs);
+  }
+
+  private static JsonNode repair(JsonNode schema, JsonNode value, String path, List<String> repairs) {
+    if (schema == null || !schema.isObject() || value == null || value.isNull()) return value;
+    String type = getType(schema);
+    if (type == null) return value;
+    JsonNode repaired = switch (type) {
+      case "object" -> {
+        JsonNode object = parseJson(value, JsonNode::isObject);
+        if (object != value) repairs.add("parsed " + describe(path) + " as an object");
+        yield repairObject(schema, object, path, repairs);
+      }
+      case "array" -> repairArray(schema, value, path, repairs);
+      case "integer", "number" -> toNumber(value, type.equals("integer"));
+      case "boolean" -> toBoolean(value);
+      case "string" -> value.isNumber() || value.isBoolean() ? TextNode.valueOf(value.asText()) : value;
+      default -> value;
+    };
+    if (repaired != value && !type.equals("object") && !type.equals("array")) {
+      repairs.add("converted " + describe(path) + " to " + type);
+    }
+    JsonNode option = matchEnum(schema.get("enum"), repaired);
+    if (option != repaired) repairs.add("matched " + describe(path) + " to " + option);
+    return option;
+  }
+
+  private static JsonNode repairObject(JsonNode schema, JsonNode value, String path, List<String> repairs) {
+    if (!value.isObject()) return value;
+    JsonNode properties = schema.path("properties");
+    if (!properties.isObject() || properties.isEmpty()) return value;
+    Set<String> required = new HashSet<>();
+    schema.path("required").forEach(field -> required.add(field.asText()));
+    ObjectNode object = (ObjectNode) value;
+    //Arguments wrapped into an object with a single unknown field, e.g. {"arguments": {...}}
+    if (object.size() == 1) {
+      Map.Entry<String, JsonNode> field = object.fields().next();
+      JsonNode wrapped = parseJson(field.getValue(), JsonNode::isObject);
+      if (!properties.has(field.getKey()) && findProperty(properties, field.getKey()) == null && wrapped.isObject()) {
+        String wrapper = describe(append(path, field.getKey()));
+        if (wrapped != field.getValue()) repairs.add("parsed " + wrapper + " as an object");
+        repairs.add("unwrapped " + wrapper);
+        return repairObject(schema, wrapped, path, repairs);
+      }
+    }
+    ObjectNode result = nodes.objectNode();
+    boolean changed = false;
+    for (Iterator<Map.Entry<String, JsonNode>> fields = object.fields(); fields.hasNext(); ) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      String name = field.getKey();
+      JsonNode fieldValue = field.getValue();
+      if (!properties.has(name)) {
+        String property = findProperty(properties, name);
+        String wrapper = property == null ? findWrapper(properties, name) : null;
+        if (property != null && !object.has(property)) {
+          repairs.add("renamed " + describe(append(path, name)) + " to " + property);
+          name = property;
+          changed = true;
+        } else if (wrapper != null && !object.has(wrapper)) {
+          ObjectNode nested = result.has(wrapper) && result.get(wrapper).isObject()
+              ? (ObjectNode) result.get(wrapper) : result.putObject(wrapper);
+          nested.set(name, fieldValue);
+          repairs.add("moved " + describe(append(path, name)) + " into " + wrapper);
+          changed = true;
+          continue;
+        }
+      }
+      if (fieldValue.isNull() && !required.contains(name)) {
+        repairs.add("removed null " + describe(append(path, name)));
+        changed = true;
+        continue;
+      }
+      result.set(name, fieldValue);
+    }
+    for (Iterator<Map.Entry<String, JsonNode>> fields = result.fields(); fields.hasNext(); ) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      JsonNode repaired = repair(properties.get(field.getKey()), field.getValue(), append(path, field.getKey()),
+          repairs);
+      if (repaired != field.getValue()) {
+        field.setValue(repaired);
+        changed = true;
+      }
+    }
+    return changed ? result : value;
+  }
+
+  private static JsonNode repairArray(JsonNode schema, JsonNode value, String path, List<String> repairs) {
+    JsonNode array = parseJson(value, JsonNode::isArray);
+    if (!array.isArray()) {
+      repairs.add("wrapped " + describe(path) + " into an array");
+      array = nodes.arrayNode().add(value);
+    } else if (array != value) {
+      repairs.add("parsed " + describe(path) + " as an array");
+    }
+    JsonNode items = schema.get("items");
+    if (items == null) return array;
+    ArrayNode result = nodes.arrayNode();
+    boolean changed = array != value;
+    for (int i = 0; i < array.size(); i++) {
+      JsonNode item = array.get(i);
+      JsonNode repaired = repair(items, item, path + "[" + i + "]", repairs);
+      changed |= repaired != item;
+      result.add(repaired);
+    }
+    return changed ? result : value;
+  }
+
+  /**
+   * @return The single type of the schema ignoring null, or null if the schema does not have a single type
+   */
+  private static String getType(JsonNode schema) {
+    JsonNode type = schema.get("type");
+    if (type == null) return null;
+    if (type.isTextual()) return type.asText();
+    List<String> types = new ArrayList<>();
+    type.forEach(t -> {
+      if (!t.asText().equals("null")) types.add(t.asText());
+    });
+    return types.size() == 1 ? types.get(0) : null;
+  }
+
+  private static JsonNode parseJson(JsonNode value, Predicate<JsonNode> expected) {
+    if (!value.isTextual()) return value;
+    try {
+      JsonNode parsed = mapper.readTree(value.asText());
+      return parsed != null && expected.test(parsed) ? parsed : value;
+    } catch (IOException e) {
+      return value;
+    }
+  }
+
+  private static JsonNode toNumber(JsonNode value, boolean integer) {
+    BigDecimal number;
+    if (value.isTextual()) {
+      try {
+        number = new BigDecimal(value.asText().trim());
+      } catch (NumberFormatException e) {
+        return value;
+      }
+    } else if (integer && value.isFloatingPointNumber()) {
+      number = value.decimalValue();
+    } else {
+      return value;
+    }
+    //Create the same nodes as the JSON parser
+    try {
+      long exact = number.longValueExact();
+      return exact == (int) exact ? nodes.numberNode((int) exact) : nodes.numberNode(exact);
+    } catch (ArithmeticException e) {
+      return integer ? value : nodes.numberNode(number.doubleValue());
+    }
+  }
+
+  private static JsonNode toBoolean(JsonNode value) {
+    if (!value.isTextual()) return value;
+    String text = value.asText().trim();
+    if (text.equalsIgnoreCase("true")) return BooleanNode.TRUE;
+    if (text.equalsIgnoreCase("false")) return BooleanNode.FALSE;
+    return value;
+  }
+
+  private static JsonNode matchEnum(JsonNode values, JsonNode value) {
+    if (values == null || !values.isArray() || !value.isTextual()) return value;
+    JsonNode match = null;
+    for (JsonNode option : values) {
+      if (option.equals(value)) return value;
+      if (option.isTextual() && option.asText().equalsIgnoreCase(value.asText().trim())) {
+        if (match != null) return value;
+        match = option;
+      }
+    }
+    return match == null ? value : match;
+  }
+
+  /**
+   * @return The property whose name matches the given name ignoring case, underscores, and dashes, or null if
+   * there is no unique match
+   */
+  private static String findProperty(JsonNode properties, String name) {
+    String normalized = normalize(name);
+    String match = null;
+    for (Iterator<String> names = properties.fieldNames(); names.hasNext(); ) {
+      String property = names.next();
+      if (normalize(property).equals(normalized)) {
+        if (match != null) return null;
+        match = property;
+      }
+    }
+    return match;
+  }
+
+  /**
+   * @return The single object property that has a nested property with the given name, or null
+   */
+  private static String findWrapper(JsonNode properties, String name) {
+    String wrapper = null;
+    for (Iterator<Map.Entry<String, JsonNode>> fields = properties.fields(); fields.hasNext(); ) {
+      Map.Entry<String, JsonNode> property = fields.next();
+      if ("object".equals(getType(property.getValue())) && property.getValue().path("properties").has(name)) {
+        if (wrapper != null) return null;
+        wrapper = property.getKey();
+      }
+    }
+    return wrapper;
+  }
+
+  static String normalize(String name) {
+    return name.replace("_", "").replace("-", "").toLowerCase();
+  }
+
+  private static String append(String path, String field) {
+    return path.isEmpty() ? field : path + "." + field;
+  }
+
+  private static String describe(String path) {
+    return path.isEmpty() ? "arguments" : "[" + path + "]";
+  }
+
+}
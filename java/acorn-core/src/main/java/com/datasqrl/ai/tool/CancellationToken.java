@@ -0,0 +1,141 @@
+package com.datasqrl.ai.tool;
+
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carries the deadline and cancellation state of an agent interaction through the {@link Context}.
+ *
+ * A token is cancelled explicitly (e.g. when the client disconnects) or when its deadline passes.
+ * Chat providers check the token before each model invocation and the {@link ToolsBackend} uses it
+ * to bound and abort in-flight API calls.
+ */
+public class CancellationToken {
+
+  /**
+   * A token without a deadline that is never cancelled.
+   */
+  public static final CancellationToken NONE = new CancellationToken(false, 0);
+
+  private final boolean cancellable;
+  private final long deadlineNanos;
+  private final CompletableFuture<String> cancellation = new CompletableFuture<>();
+  private final Set<Registration> actions = ConcurrentHashMap.newKeySet();
+
+  private CancellationToken(boolean cancellable, long deadlineNanos) {
+    this.cancellable = cancellable;
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * @return A token without a deadline that can be cancelled explicitly
+   */
+  public static CancellationToken create() {
+    return new CancellationToken(true, 0);
+  }
+
+  /**
+   * @param timeout time after which the token is cancelled
+   * @return A token that is cancelled when the timeout has elapsed or when it is cancelled explicitly
+   */
+  public static CancellationToken withTimeout(Duration timeout) {
+    CancellationToken token = new CancellationToken(true, System.nanoTime() + Math.max(1, timeout.toNanos()));
+    CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS)
+        .execute(() -> token.cancel("Request exceeded its deadline of " + timeout.toMillis() + " ms"));
+    return token;
+  }
+
+  public boolean isCancellable() {
+    return cancellable;
+  }
+
+  public boolean hasDeadline() {
+    return deadlineNanos != 0;
+  }
+
+  /**
+   * Cancels this token and runs all registered cancellation actions. Has no effect if the token
+   * is already cancelled or not cancellable.
+   *
+   * @param reason why the token was cancelled
+   */
+  public void cancel(String reason) {
+    if (!cancellable || !cancellation.complete(reason)) return;
+    for (Registration registration : actions) {
+      registration.run();
+    }
+  }
+
+  public boolean isCancelled() {
+    if (cancellation.isDone()) return true;
+    if (hasDeadline() && System.nanoTime() - deadlineNanos >= 0) {
+      cancel("Request exceeded its deadline");
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @throws CancellationException if this token has been cancelled or its deadline has passed
+   */
+  public void throwIfCancelled() throws CancellationException {
+    if (isCancelled()) throw toException();
+  }
+
+  CancellationException toException() {
+    return new CancellationException(cancellation.getNow("Request was cancelled"));
+  }
+
+  /**
+   * @return The remaining time until the deadline in milliseconds or empty if there is no deadline
+   */
+  public OptionalLong getRemainingMillis() {
+    if (!hasDeadline()) return OptionalLong.empty();
+    return OptionalLong.of(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())));
+  }
+
+  /**
+   * Registers an action that is run when this token is cancelled. The action is run immediately
+   * if the token is already cancelled.
+   *
+   * @param action the action to run on cancellation
+   * @return The registration, which must be removed once the action is no longer needed so that
+   * long-lived tokens do not accumulate actions
+   */
+  public Registration onCancel(Runnable action) {
+    Registration registration = new Registration(action);
+    if (!cancellable) return registration;
+    actions.add(registration);
+    if (cancellation.isDone()) registration.run();
+    return registration;
+  }
+
+  /**
+   * An action registered with {@link #onCancel(Runnable)}. Each action runs at most once.
+   */
+  public class Registration {
+
+    private final Runnable action;
+
+    private Registration(Runnable action) {
+      this.action = action;
+    }
+
+    private void run() {
+      if (actions.remove(this)) action.run();
+    }
+
+    /**
+     * Removes the action from the token without running it
+     */
+    public void remove() {
+      actions.remove(this);
+    }
+  }
+
+}
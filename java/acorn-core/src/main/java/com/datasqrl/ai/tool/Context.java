@@ -33,13 +33,53 @@ public interface Context {
 
   void nextInvocation();
 
+  /**
+   * @return The token that carries the deadline and cancellation state of this interaction
+   */
+  default CancellationToken getCancellationToken() {
+    return CancellationToken.NONE;
+  }
+
+  /**
+   * @return A view of this context with the given cancellation token, e.g. to cancel part of an interaction on
+   * its own. Invocations are counted by this context.
+   */
+  default Context withCancellationToken(CancellationToken cancellationToken) {
+    Context parent = this;
+    return new Context() {
+      @Override
+      public Object get(String key) {
+        return parent.get(key);
+      }
+
+      @Override
+      public Map<String, Object> asMap() {
+        return parent.asMap();
+      }
+
+      @Override
+      public void nextInvocation() {
+        parent.nextInvocation();
+      }
+
+      @Override
+      public CancellationToken getCancellationToken() {
+        return cancellationToken;
+      }
+    };
+  }
+
   static Context of() {
     return of(Collections.emptyMap());
   }
 
   static Context of(Map<String, Object> secure) {
+    return of(secure, CancellationToken.NONE);
+  }
+
+  static Context of(Map<String, Object> secure, CancellationToken cancellationToken) {
     //Invocations are incremented before a model is called, hence we start with -1 (to indicate
     //model has not yet been called) so the first invocation is 0.
-    return new ContextImpl(UUID.randomUUID().toString(), -1, secure);
+    return new ContextImpl(UUID.randomUUID().toString(), -1, secure, cancellationToken);
   }
 }
@@ -28,6 +28,11 @@ public class ContextImpl implements Context {
   private final String requestId;
   private int invocationId;
   private final Map<String, Object> secure;
+  private final CancellationToken cancellationToken;
+
+  public ContextImpl(String requestId, int invocationId, Map<String, Object> secure) {
+    this(requestId, invocationId, secure, CancellationToken.NONE);
+  }
 
   public Object get(String key) {
     if (key.equalsIgnoreCase(REQUEST_ID_KEY)) return requestId;
@@ -0,0 +1,18 @@
+package com.datasqrl.ai.tool;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.List;
+
+/**
+ * A function call that was repaired locally after it failed validation.
+ *
+ * @param functionName the name of the function, which may differ from the name in the original call
+ * @param arguments the repaired arguments
+ * @param repairs descriptions of the repairs that were applied
+ */
+public record FunctionCallRepair(
+    String functionName,
+    JsonNode arguments,
+    List<String> repairs) {
+
+}
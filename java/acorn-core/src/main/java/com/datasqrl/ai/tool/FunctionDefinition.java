@@ -1,49 +1,58 @@
 package com.datasqrl.ai.tool;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import lombok.AllArgsConstructor;
 import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
 
 /**
  * Definition of a chat function that can be invoked by the language model.
  *
  * This is essentially a java definition of the json structure OpenAI and most LLMs use to represent
  * functions/tools.
+ *
+ * Definitions are immutable so they can be shared between sessions, use {@link #toBuilder()} to derive a modified
+ * definition.
  */
-@Data
-@Builder
-@AllArgsConstructor
-@NoArgsConstructor
+@Value
+@Builder(toBuilder = true)
+@Jacksonized
 public class FunctionDefinition {
 
-  private String name;
+  String name;
 
-  private String description;
+  String description;
 
-  private Parameters parameters;
+  Parameters parameters;
 
 
+  /**
+   * Removes the given context fields from the parameters. The remaining parameters are in a canonical order by
+   * name, so that the definition serializes identically across requests and prompt caches see a stable prefix.
+   * The returned definition does not share any mutable state with this definition.
+   */
   public FunctionDefinition removeContext(Set<String> context) {
     Predicate<String> fieldFilter = getFieldFilter(context);
     Parameters newParams = Parameters.builder()
         .type(parameters.getType())
         .required(parameters.getRequired().stream()
-            .filter(fieldFilter).toList())
+            .filter(fieldFilter).sorted().toList())
         .properties(parameters.getProperties().entrySet().stream()
             .filter(e -> fieldFilter.test(e.getKey()))
-            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)))
+            .collect(Collectors.collectingAndThen(
+                Collectors.toMap(Map.Entry::getKey, e -> e.getValue().copy(), (a, b) -> a, TreeMap::new),
+                Collections::unmodifiableSortedMap)))
         .build();
 
-    return FunctionDefinition.builder()
-        .name(getName())
-        .description(getDescription())
+    return toBuilder()
         .parameters(newParams)
         .build();
   }
@@ -53,26 +62,39 @@ public class FunctionDefinition {
     return field -> !contextFilter.contains(field.toLowerCase());
   }
 
-  @Data
-  @Builder
-  @AllArgsConstructor
-  @NoArgsConstructor
+  @Value
+  @Builder(toBuilder = true)
+  @Jacksonized
   public static class Parameters {
 
-    private String type;
-    private Map<String, Argument> properties = Map.of();
-    private List<String> required = List.of();
+    String type;
+    @Builder.Default
+    Map<String, Argument> properties = Map.of();
+    @Builder.Default
+    List<String> required = List.of();
 
   }
 
-  @Data
+  @Value
+  @Builder(toBuilder = true)
+  @Jacksonized
   public static class Argument {
 
-    private String type;
-    private String description;
-    private Argument items;
+    String type;
+    String description;
+    Argument items;
     @JsonProperty("enum")
-    private Set<?> enumValues;
+    Set<?> enumValues;
+
+    /**
+     * @return A deep copy of this argument with unmodifiable enum values in their original order
+     */
+    public Argument copy() {
+      return toBuilder()
+          .items(items != null ? items.copy() : null)
+          .enumValues(enumValues != null ? Collections.unmodifiableSet(new LinkedHashSet<>(enumValues)) : null)
+          .build();
+    }
   }
 
 }
@@ -4,10 +4,38 @@ public interface ModelObservability {
 
   ModelInvocation start();
 
+  /**
+   * Records that the result of a function call was re-encoded for the language model.
+   *
+   * @param numTokens the number of tokens of the result as returned by the function
+   * @param numEncodedTokens the number of tokens of the encoded result
+   */
+  default void resultEncoded(String functionName, int numTokens, int numEncodedTokens) {
+  }
+
+  /**
+   * Records a function call that failed validation and whether it was repaired locally. Calls that could not be
+   * repaired are sent back to the model to retry.
+   *
+   * @param repaired true if the call was repaired, false if the model has to retry
+   */
+  default void functionCallRepaired(String functionName, boolean repaired) {
+  }
+
   interface ModelInvocation {
 
     void stop(int numInputTokens, int numOutputTokens);
 
+    /**
+     * Records a successful invocation whose request starts with the system message and functions of the
+     * {@link com.datasqrl.ai.models.PromptPrefix}. Providers serve repeated prefixes from their prompt cache.
+     *
+     * @param numPrefixTokens the number of input tokens in the prompt prefix
+     */
+    default void stop(int numInputTokens, int numPrefixTokens, int numOutputTokens) {
+      stop(numInputTokens, numOutputTokens);
+    }
+
     void fail(Exception e);
 
     void toolCallInvalid(FunctionValidation.ValidationError<String> stringValidationError);
@@ -0,0 +1,119 @@
+package com.datasqrl.ai.tool;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Re-encodes JSON function results into a more token efficient format for the language model.
+ *
+ * Null values and the GraphQL `__typename` field are removed. Objects with a single field, like the `data` field
+ * of GraphQL results, are unwrapped, and if the remaining result is an array of objects, it is encoded as a table
+ * with a header row of the field names and one row per object. This avoids repeating the field names for every
+ * object. Other results are passed as compact JSON.
+ */
+public class ResultEncoder {
+
+  public static final String TYPENAME_FIELD = "__typename";
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  /**
+   * @param result the result of the function
+   * @param format the format to encode the result in
+   * @return The encoded result, or the given result if it is not a JSON object or array
+   */
+  public static String encode(String result, ResultFormat format) {
+    if (format == null || format == ResultFormat.json || result == null) return result;
+    JsonNode root;
+    try {
+      root = mapper.readTree(result);
+    } catch (IOException e) {
+      return result;
+    }
+    if (root == null || !root.isContainerNode()) return result;
+    root = strip(root);
+    JsonNode node = root;
+    StringBuilder path = new StringBuilder();
+    while (node.isObject() && node.size() == 1) {
+      Map.Entry<String, JsonNode> field = node.fields().next();
+      if (!path.isEmpty()) path.append('.');
+      path.append(field.getKey());
+      node = field.getValue();
+    }
+    if (!isTable(node)) return root.toString();
+    StringBuilder table = new StringBuilder();
+    if (!path.isEmpty()) table.append(path).append(":\n");
+    writeTable((ArrayNode) node, format == ResultFormat.csv ? ',' : '\t', table);
+    return table.toString();
+  }
+
+  /**
+   * @return A copy of the node without null values and `__typename` fields in objects
+   */
+  static JsonNode strip(JsonNode node) {
+    if (node.isObject()) {
+      ObjectNode stripped = mapper.createObjectNode();
+      for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+        Map.Entry<String, JsonNode> field = fields.next();
+        if (field.getValue().isNull() || field.getKey().equals(TYPENAME_FIELD)) continue;
+        stripped.set(field.getKey(), strip(field.getValue()));
+      }
+      return stripped;
+    } else if (node.isArray()) {
+      ArrayNode stripped = mapper.createArrayNode();
+      node.forEach(element -> stripped.add(strip(element)));
+      return stripped;
+    }
+    return node;
+  }
+
+  private static boolean isTable(JsonNode node) {
+    if (!node.isArray() || node.isEmpty()) return false;
+    for (JsonNode element : node) {
+      if (!element.isObject()) return false;
+    }
+    return true;
+  }
+
+  private static void writeTable(ArrayNode rows, char delimiter, StringBuilder table) {
+    Set<String> columns = new LinkedHashSet<>();
+    rows.forEach(row -> row.fieldNames().forEachRemaining(columns::add));
+    writeRow(columns, delimiter, table);
+    for (JsonNode row : rows) {
+      writeRow(columns.stream().map(column -> {
+        JsonNode value = row.get(column);
+        if (value == null) return "";
+        return value.isContainerNode() ? value.toString() : value.asText();
+      }).toList(), delimiter, table);
+    }
+  }
+
+  private static void writeRow(Iterable<String> values, char delimiter, StringBuilder table) {
+    boolean first = true;
+    for (String value : values) {
+      if (!first) table.append(delimiter);
+      first = false;
+      table.append(escape(value, delimiter));
+    }
+    table.append('\n');
+  }
+
+  private static String escape(String value, char delimiter) {
+    if (delimiter == '\t') {
+      return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+    if (value.indexOf(delimiter) < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+        && value.indexOf('\r') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+}
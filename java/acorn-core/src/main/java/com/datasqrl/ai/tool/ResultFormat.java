@@ -0,0 +1,23 @@
+package com.datasqrl.ai.tool;
+
+/**
+ * The format in which the results of a function are passed to the language model.
+ *
+ * @see ResultEncoder
+ */
+public enum ResultFormat {
+
+  /**
+   * The result is passed as returned by the function
+   */
+  json,
+  /**
+   * Arrays of objects are encoded as comma separated values with a header row
+   */
+  csv,
+  /**
+   * Arrays of objects are encoded as tab separated values with a header row
+   */
+  tsv
+
+}
@@ -3,14 +3,24 @@ package com.datasqrl.ai.tool;
 import com.datasqrl.ai.api.APIQuery;
 import com.datasqrl.ai.models.ModelAnalyzer;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.JsonNode;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
 /**
  * Data class that defines a function with additional metadata for how
@@ -28,32 +38,105 @@ public class RuntimeFunctionDefinition {
   private FunctionDefinition function;
   private List<String> context;
   private APIQuery api;
+  /**
+   * Whether identical concurrent calls of this function share a single API request. Defaults to true
+   * for queries and false for mutations.
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private Boolean coalesce;
+  /**
+   * Whether calls of this function can safely be executed more than once, e.g. when they are started before the
+   * model response is complete. Defaults to the idempotency of the API query. Local functions are only treated as
+   * idempotent if this is set.
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private Boolean idempotent;
+  /**
+   * The format in which results are passed to the language model. Defaults to the result as returned.
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private ResultFormat resultFormat;
   @JsonIgnore
   private Function<JsonNode, Object> executable;
+  /**
+   * The chat function derived from the current function and context, computed once and shared by all sessions
+   */
   @JsonIgnore
-  private Integer numTokens;
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
+  private final AtomicReference<ChatFunctionView> chatFunctionView = new AtomicReference<>();
 
   @JsonIgnore
   public String getName() {
     return function.getName();
   }
 
-  public int getNumTokens(ModelAnalyzer analyzer) {
-    if (numTokens==null) {
-      numTokens = analyzer.countTokens(getChatFunction());
-    }
-    return numTokens;
+  @JsonIgnore
+  public boolean isCoalesced() {
+    if (coalesce != null) return coalesce;
+    return api == null || !api.isMutation();
   }
 
+  /**
+   * @return true if the function can safely be executed more than once for the same call, i.e. the function or its
+   * API query is marked as idempotent, or the API query is not marked and not a mutation
+   */
+  @JsonIgnore
+  public boolean isRepeatable() {
+    if (idempotent != null) return idempotent;
+    if (api == null) return false;
+    if (api.getIdempotent() != null) return api.getIdempotent();
+    return !api.isMutation();
+  }
+
+  /**
+   * @return The number of tokens of the chat function for the given analyzer. Counts are cached per tokenizer,
+   * so that models with different tokenizers can share the function.
+   */
+  public int getNumTokens(ModelAnalyzer<?> analyzer) {
+    ChatFunctionView view = getChatFunctionView();
+    return view.numTokens().computeIfAbsent(analyzer.getTokenizerName(), t -> analyzer.countTokens(view.chatFunction()));
+  }
+
+  /**
+   * Sets the number of tokens of the chat function for the given tokenizer, e.g. from a previous count.
+   */
+  public void setNumTokens(String tokenizerName, int numTokens) {
+    getChatFunctionView().numTokens().put(tokenizerName, numTokens);
+  }
 
   /**
    *
    * @return A {@link FunctionDefinition} for this function that can be invoked by a language model.
+   * The definition is immutable and shared by all sessions.
    */
   @JsonIgnore
   public FunctionDefinition getChatFunction() {
-    return function.removeContext(context!=null?Set.copyOf(context):Set.of());
+    return getChatFunctionView().chatFunction();
   }
 
+  /**
+   * Returns the chat function view for the current function and context. The view is recomputed when the
+   * (immutable) function is replaced or the context changes.
+   */
+  private ChatFunctionView getChatFunctionView() {
+    ChatFunctionView view = chatFunctionView.get();
+    if (view == null || view.function() != function || !Objects.equals(view.context(), context)) {
+      view = new ChatFunctionView(function, context != null ? List.copyOf(context) : null,
+          function.removeContext(context != null ? Set.copyOf(context) : Set.of()), new ConcurrentHashMap<>());
+      chatFunctionView.set(view);
+    }
+    return view;
+  }
+
+  /**
+   * @param numTokens the token counts by tokenizer name
+   */
+  private record ChatFunctionView(FunctionDefinition function, List<String> context,
+                                  FunctionDefinition chatFunction, Map<String, Integer> numTokens) {
+
+  }
 
 }
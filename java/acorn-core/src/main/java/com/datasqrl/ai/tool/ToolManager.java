@@ -1,24 +1,80 @@
 package com.datasqrl.ai.tool;
 
+import com.datasqrl.ai.util.BlockingExecutor;
 import com.fasterxml.jackson.databind.JsonNode;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import lombok.NonNull;
 
 public interface ToolManager {
 
   Map<String, RuntimeFunctionDefinition> getFunctions();
 
+  /**
+   * Selects the functions that are offered to the model for the next turn of the conversation.
+   * The default implementation offers all functions.
+   *
+   * @param messages the messages of the session in chronological order
+   */
+  default Collection<RuntimeFunctionDefinition> selectFunctions(List<GenericChatMessage> messages) {
+    return getFunctions().values();
+  }
+
   FunctionValidation<String> validateFunctionCall(String functionName, JsonNode arguments);
 
+  /**
+   * Repairs a function call that failed validation without another round trip to the model, e.g. by matching the
+   * function name ignoring case or by converting arguments to the types of the parameter schema.
+   * The repaired call needs to be validated again. The default implementation does not repair function calls.
+   *
+   * @return The repaired function call or null if nothing could be repaired
+   */
+  default FunctionCallRepair repairFunctionCall(String functionName, JsonNode arguments) {
+    return null;
+  }
+
+  /**
+   * Prepares the tools for the first function calls, e.g. by compiling validators and connecting to the APIs.
+   * Called before a newly built tool manager serves requests. The default implementation does nothing.
+   */
+  default void prewarm() {
+  }
+
   String executeFunctionCall(String functionName, JsonNode arguments, @NonNull Context context) throws IOException;
 
+  /**
+   * Executes the function call without blocking the calling thread.
+   * The default implementation runs {@link #executeFunctionCall(String, JsonNode, Context)} on the {@link BlockingExecutor}.
+   *
+   * @return A future for the result that fails with the {@link IOException} of the function execution
+   */
+  default CompletableFuture<String> executeFunctionCallAsync(String functionName, JsonNode arguments,
+      @NonNull Context context) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return executeFunctionCall(functionName, arguments, context);
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, BlockingExecutor.get());
+  }
+
   CompletableFuture<String> saveChatMessage(ChatMessageInterface message);
 
   <ChatMessage extends ChatMessageInterface> List<ChatMessage> getChatMessages(
       @NonNull Context context, int limit, @NonNull Class<ChatMessage> clazz);
 
+  /**
+   * Retrieves saved chat messages without blocking the calling thread.
+   * The default implementation runs {@link #getChatMessages(Context, int, Class)} on the {@link BlockingExecutor}.
+   */
+  default <ChatMessage extends ChatMessageInterface> CompletableFuture<List<ChatMessage>> getChatMessagesAsync(
+      @NonNull Context context, int limit, @NonNull Class<ChatMessage> clazz) {
+    return CompletableFuture.supplyAsync(() -> getChatMessages(context, limit, clazz), BlockingExecutor.get());
+  }
 
 }
@@ -4,6 +4,65 @@ public interface ToolObservability {
 
   ToolCall start(String toolName);
 
+  /**
+   * Called when the adaptive concurrency limit of an API changes.
+   *
+   * @param apiName name of the API
+   * @param limit the new concurrency limit
+   */
+  default void concurrencyLimitChanged(String apiName, int limit) {
+
+  }
+
+  /**
+   * Called when a call against an API is rejected without executing it because the concurrency
+   * limit has been reached or the circuit breaker is open.
+   *
+   * @param apiName name of the API
+   * @param reason the reason for the rejection
+   */
+  default void callRejected(String apiName, RejectionReason reason) {
+
+  }
+
+  /**
+   * Called when the circuit breaker of an API changes state.
+   *
+   * @param apiName name of the API
+   * @param state the new state of the circuit breaker
+   */
+  default void circuitStateChanged(String apiName, CircuitState state) {
+
+  }
+
+  /**
+   * Called when a hedged request is sent to an API because the first request is slow.
+   *
+   * @param apiName name of the API
+   */
+  default void hedgeIssued(String apiName) {
+
+  }
+
+  /**
+   * Called when a hedged request returns before the original request.
+   *
+   * @param apiName name of the API
+   */
+  default void hedgeWon(String apiName) {
+
+  }
+
+  /**
+   * Called when a tool call joins an identical call that is already in flight instead of
+   * executing a separate request.
+   *
+   * @param toolName name of the tool
+   */
+  default void callCoalesced(String toolName) {
+
+  }
+
   interface ToolCall {
 
     void stop();
@@ -11,5 +70,24 @@ public interface ToolObservability {
     void fail(Exception e);
   }
 
+  enum RejectionReason {
+    CONCURRENCY_LIMIT, CIRCUIT_OPEN
+  }
+
+  enum CircuitState {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  public static final ToolObservability NOOP = toolName -> new ToolCall() {
+    @Override
+    public void stop() {
+
+    }
+
+    @Override
+    public void fail(Exception e) {
+
+    }
+  };
 
 }
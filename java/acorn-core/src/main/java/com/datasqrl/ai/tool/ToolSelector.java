@@ -0,0 +1,178 @@
+package com.datasqrl.ai.tool;
+
+import com.datasqrl.ai.tool.FunctionDefinition.Argument;
+import com.datasqrl.ai.util.ErrorHandling;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the functions that are offered to the model in a turn when there are too many functions to send all of
+ * them. The functions that were called in the recent messages of the session are always selected, and the remaining
+ * slots are filled with the functions that are most relevant to the recent user messages. Relevance is ranked with
+ * BM25 over the function name, description, and parameters.
+ *
+ * The index is built on first use and needs to be invalidated with {@link #invalidate()} when the functions change.
+ */
+public class ToolSelector {
+
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+  /**
+   * Name tokens are counted multiple times since the name is the most specific description of a function
+   */
+  private static final int NAME_WEIGHT = 3;
+
+  private static final Pattern CAMEL_CASE = Pattern.compile("(?<=[a-z0-9])(?=[A-Z])|(?<=[A-Z])(?=[A-Z][a-z])");
+  private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  private final int maxTools;
+  private final int queryMessages;
+  private final int recentMessages;
+
+  private volatile Index index;
+
+  /**
+   * @param maxTools maximum number of functions offered to the model in a turn
+   * @param queryMessages number of most recent user messages that relevance is ranked against
+   * @param recentMessages number of most recent messages in which called functions stay selected
+   */
+  public ToolSelector(int maxTools, int queryMessages, int recentMessages) {
+    ErrorHandling.checkArgument(maxTools > 0, "Invalid maximum number of tools: %s", maxTools);
+    ErrorHandling.checkArgument(queryMessages > 0, "Invalid number of query messages: %s", queryMessages);
+    ErrorHandling.checkArgument(recentMessages >= 0, "Invalid number of recent messages: %s", recentMessages);
+    this.maxTools = maxTools;
+    this.queryMessages = queryMessages;
+    this.recentMessages = recentMessages;
+  }
+
+  public void invalidate() {
+    index = null;
+  }
+
+  /**
+   * @param functions the available functions by name
+   * @param messages the messages of the session in chronological order
+   * @return The selected functions in the iteration order of the given functions
+   */
+  public List<RuntimeFunctionDefinition> select(Map<String, RuntimeFunctionDefinition> functions,
+      List<GenericChatMessage> messages) {
+    if (functions.size() <= maxTools) return List.copyOf(functions.values());
+    Set<String> selected = new LinkedHashSet<>();
+    //Functions that were called recently, most recent first
+    ListIterator<GenericChatMessage> iterator = messages.listIterator(messages.size());
+    for (int i = 0; i < recentMessages && iterator.hasPrevious() && selected.size() < maxTools; i++) {
+      GenericChatMessage message = iterator.previous();
+      if (message.getFunctionCall() != null && functions.containsKey(message.getFunctionCall().getName())) {
+        selected.add(message.getFunctionCall().getName());
+      }
+    }
+    //Functions that are relevant to the recent user messages
+    StringBuilder query = new StringBuilder();
+    iterator = messages.listIterator(messages.size());
+    for (int i = 0; i < queryMessages && iterator.hasPrevious(); ) {
+      GenericChatMessage message = iterator.previous();
+      if ("user".equalsIgnoreCase(message.getRole()) && message.getContent() != null) {
+        query.append(message.getContent()).append(' ');
+        i++;
+      }
+    }
+    for (String name : getIndex(functions).search(query.toString())) {
+      if (selected.size() >= maxTools) break;
+      if (functions.containsKey(name)) selected.add(name);
+    }
+    return functions.values().stream().filter(function -> selected.contains(function.getName())).toList();
+  }
+
+  private Index getIndex(Map<String, RuntimeFunctionDefinition> functions) {
+    Index current = index;
+    if (current == null) {
+      current = new Index(functions.values());
+      index = current;
+    }
+    return current;
+  }
+
+  static List<String> tokenize(String text) {
+    List<String> tokens = new ArrayList<>();
+    if (text == null) return tokens;
+    for (String word : NON_ALPHANUMERIC.split(CAMEL_CASE.matcher(text).replaceAll(" "))) {
+      if (word.length() < 2) continue;
+      String token = word.toLowerCase(Locale.ROOT);
+      //Strip plural suffixes, so that "orders" matches "order"
+      if (token.length() > 3 && token.endsWith("s") && !token.endsWith("ss")) {
+        token = token.substring(0, token.length() - 1);
+      }
+      tokens.add(token);
+    }
+    return tokens;
+  }
+
+  /**
+   * BM25 index over the functions
+   */
+  private static class Index {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Map<String, Integer>> termFrequencies = new ArrayList<>();
+    private final List<Integer> lengths = new ArrayList<>();
+    private final Map<String, Integer> documentFrequencies = new HashMap<>();
+    private final double averageLength;
+
+    Index(Collection<RuntimeFunctionDefinition> functions) {
+      long totalLength = 0;
+      for (RuntimeFunctionDefinition function : functions) {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < NAME_WEIGHT; i++) tokens.addAll(tokenize(function.getName()));
+        FunctionDefinition definition = function.getChatFunction();
+        tokens.addAll(tokenize(definition.getDescription()));
+        if (definition.getParameters() != null && definition.getParameters().getProperties() != null) {
+          for (Map.Entry<String, Argument> parameter : definition.getParameters().getProperties().entrySet()) {
+            tokens.addAll(tokenize(parameter.getKey()));
+            tokens.addAll(tokenize(parameter.getValue().getDescription()));
+          }
+        }
+        Map<String, Integer> frequencies = new HashMap<>();
+        tokens.forEach(token -> frequencies.merge(token, 1, Integer::sum));
+        frequencies.keySet().forEach(token -> documentFrequencies.merge(token, 1, Integer::sum));
+        names.add(function.getName());
+        termFrequencies.add(frequencies);
+        lengths.add(tokens.size());
+        totalLength += tokens.size();
+      }
+      averageLength = names.isEmpty() ? 0 : (double) totalLength / names.size();
+    }
+
+    /**
+     * @return The names of the functions that match the query, most relevant first
+     */
+    List<String> search(String query) {
+      Set<String> terms = new LinkedHashSet<>(tokenize(query));
+      List<Map.Entry<String, Double>> scores = new ArrayList<>();
+      for (int i = 0; i < names.size(); i++) {
+        double score = 0;
+        for (String term : terms) {
+          Integer frequency = termFrequencies.get(i).get(term);
+          if (frequency == null) continue;
+          int documentFrequency = documentFrequencies.get(term);
+          double idf = Math.log(1 + (names.size() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+          score += idf * frequency * (K1 + 1)
+              / (frequency + K1 * (1 - B + B * lengths.get(i) / averageLength));
+        }
+        if (score > 0) scores.add(Map.entry(names.get(i), score));
+      }
+      return scores.stream()
+          .sorted(Map.Entry.<String, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+          .map(Map.Entry::getKey).toList();
+    }
+
+  }
+
+}
@@ -3,6 +3,8 @@ package com.datasqrl.ai.tool;
 import com.datasqrl.ai.api.APIExecutor;
 import com.datasqrl.ai.api.APIQuery;
 import com.datasqrl.ai.util.ErrorHandling;
+import com.datasqrl.ai.util.JsonUtil;
+import com.datasqrl.ai.util.SingleFlight;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -14,16 +16,24 @@ import com.networknt.schema.SpecVersion;
 import com.networknt.schema.ValidationMessage;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
@@ -37,20 +47,46 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class ToolsBackend implements ToolManager {
 
+  private static final long WARM_UP_TIMEOUT_MS = 10_000;
+
+  /**
+   * Functions are read concurrently by all chat sessions, so they are kept in a concurrent map.
+   * The map is sorted by name, so that functions are offered to the model in a canonical order.
+   */
   @Getter
-  private final Map<String, RuntimeFunctionDefinition> functions = new HashMap<>();
+  private final Map<String, RuntimeFunctionDefinition> functions = new ConcurrentSkipListMap<>();
+
+  /**
+   * Compiled JSON schemas of the function parameters by function name
+   */
+  private final Map<String, JsonSchema> parameterSchemas = new ConcurrentHashMap<>();
 
-  Optional<RuntimeFunctionDefinition> saveChatFct = Optional.empty();
+  volatile Optional<RuntimeFunctionDefinition> saveChatFct = Optional.empty();
 
-  Optional<RuntimeFunctionDefinition> getChatsFct = Optional.empty();
+  volatile Optional<RuntimeFunctionDefinition> getChatsFct = Optional.empty();
 
   Map<String,APIExecutor> apiExecutors;
 
   ObjectMapper mapper;
 
+  ToolObservability observability;
+
+  private final SingleFlight<String, String> inFlightCalls = new SingleFlight<>();
+
+  /**
+   * Selects the functions offered to the model in each turn, or null to offer all functions
+   */
+  @Setter
+  private volatile ToolSelector toolSelector;
+
   public ToolsBackend(Map<String,APIExecutor> apiExecutors, ObjectMapper mapper) {
+    this(apiExecutors, mapper, ToolObservability.NOOP);
+  }
+
+  public ToolsBackend(Map<String,APIExecutor> apiExecutors, ObjectMapper mapper, ToolObservability observability) {
     this.apiExecutors = apiExecutors;
     this.mapper = mapper;
+    this.observability = observability;
   }
 
   private void validateFunction(RuntimeFunctionDefinition function) {
@@ -91,6 +127,8 @@ public class ToolsBackend implements ToolManager {
   public void addFunction(RuntimeFunctionDefinition function) {
     validateFunction(function);
     functions.put(function.getName(), function);
+    parameterSchemas.remove(function.getName());
+    if (toolSelector != null) toolSelector.invalidate();
   }
 
   public void setGlobalContext(Set<String> context) {
@@ -100,6 +138,48 @@ public class ToolsBackend implements ToolManager {
          fct.setContext(fct.getFunction().getParameters().getProperties().keySet().stream().filter(context::contains).toList());
       }
     });
+    parameterSchemas.clear();
+    if (toolSelector != null) toolSelector.invalidate();
+  }
+
+  @Override
+  public Collection<RuntimeFunctionDefinition> selectFunctions(List<GenericChatMessage> messages) {
+    ToolSelector selector = toolSelector;
+    return selector == null ? functions.values() : selector.select(functions, messages);
+  }
+
+  /**
+   * Compiles the parameter schemas of all functions and warms up the APIs, so that the first
+   * requests do not pay for it. Failures to warm up an API are logged and otherwise ignored.
+   */
+  @Override
+  public void prewarm() {
+    functions.values().forEach(this::getParameterSchema);
+    CompletableFuture<?>[] warmUps = apiExecutors.entrySet().stream()
+        .map(api -> api.getValue().warmUp().exceptionally(e -> {
+          log.warn("Could not warm up API [{}]: {}", api.getKey(), e.toString());
+          return null;
+        })).toArray(CompletableFuture[]::new);
+    try {
+      CompletableFuture.allOf(warmUps).get(WARM_UP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      log.warn("Warming up APIs did not complete: {}", e.toString());
+    }
+  }
+
+  @SneakyThrows
+  private JsonSchema getParameterSchema(RuntimeFunctionDefinition function) {
+    JsonSchema schema = parameterSchemas.get(function.getName());
+    if (schema == null) {
+      ObjectMapper mapper = new ObjectMapper();
+      mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+      String schemaText = mapper.writeValueAsString(function.getChatFunction().getParameters());
+      schema = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V202012).getSchema(schemaText);
+      parameterSchemas.put(function.getName(), schema);
+    }
+    return schema;
   }
 
 
@@ -144,29 +224,64 @@ public class ToolsBackend implements ToolManager {
   public <ChatMessage extends ChatMessageInterface> List<ChatMessage> getChatMessages(
       @NonNull Context context, int limit, @NonNull Class<ChatMessage> clazz) {
     if (getChatsFct.isEmpty()) return List.of();
-    ObjectNode arguments = mapper.createObjectNode();
-    arguments.put("limit", limit);
-    JsonNode variables = addOrOverrideContext(arguments, getChatsFct.get(), context);
     APIQuery query = getChatsFct.get().getApi();
-    mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-    mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    try {
+      String response = getExecutor(query).executeQuery(query, getChatMessagesArguments(context, limit));
+      return parseChatMessages(response, clazz);
+    } catch (IOException e) {
+      log.error("Could not read chat messages", e);
+      return List.of();
+    }
+  }
 
+  /**
+   * Retrieves saved chat messages like {@link #getChatMessages(Context, int, Class)} but does not block
+   * while the API is queried.
+   */
+  @Override
+  public <ChatMessage extends ChatMessageInterface> CompletableFuture<List<ChatMessage>> getChatMessagesAsync(
+      @NonNull Context context, int limit, @NonNull Class<ChatMessage> clazz) {
+    if (getChatsFct.isEmpty()) return CompletableFuture.completedFuture(List.of());
+    APIQuery query = getChatsFct.get().getApi();
+    CompletableFuture<String> response;
     try {
-      String response = getExecutor(query).executeQuery(query, variables);
-      JsonNode root = mapper.readTree(response);
-      JsonNode messages = root.path("data").path("messages");
-
-      List<ChatMessage> chatMessages = new ArrayList<>();
-      for (JsonNode node : messages) {
-        ChatMessage chatMessage = mapper.treeToValue(node, clazz);
-        chatMessages.add(chatMessage);
-      }
-      Collections.reverse(chatMessages); //newest should be last
-      return chatMessages;
+      response = getExecutor(query).executeQueryAsync(query, getChatMessagesArguments(context, limit));
     } catch (IOException e) {
+      log.error("Could not read chat messages", e);
+      return CompletableFuture.completedFuture(List.of());
+    }
+    return response.thenApply(result -> {
+      try {
+        return parseChatMessages(result, clazz);
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }).exceptionally(e -> {
       log.error("Could not read chat messages", e);
       return List.of();
+    });
+  }
+
+  private JsonNode getChatMessagesArguments(Context context, int limit) {
+    ObjectNode arguments = mapper.createObjectNode();
+    arguments.put("limit", limit);
+    return addOrOverrideContext(arguments, getChatsFct.get(), context);
+  }
+
+  private <ChatMessage extends ChatMessageInterface> List<ChatMessage> parseChatMessages(String response,
+      Class<ChatMessage> clazz) throws IOException {
+    mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    JsonNode root = mapper.readTree(response);
+    JsonNode messages = root.path("data").path("messages");
+
+    List<ChatMessage> chatMessages = new ArrayList<>();
+    for (JsonNode node : messages) {
+      ChatMessage chatMessage = mapper.treeToValue(node, clazz);
+      chatMessages.add(chatMessage);
     }
+    Collections.reverse(chatMessages); //newest should be last
+    return chatMessages;
   }
 
   /**
@@ -185,14 +300,9 @@ public class ToolsBackend implements ToolManager {
       error = new FunctionValidation.ValidationError<>("Not a valid function name: " + functionName,
           FunctionValidation.ValidationError.Type.FUNCTION_NOT_FOUND);
     } else {
-      ObjectMapper mapper = new ObjectMapper();
-      mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-      FunctionDefinition def = function.getChatFunction();
-      String schemaText = mapper.writeValueAsString(def.getParameters());
-      JsonSchemaFactory factory = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V202012);
-      JsonSchema schema = factory.getSchema(schemaText);
+      JsonSchema schema = getParameterSchema(function);
       if (arguments.isEmpty()) {
-        arguments = mapper.readTree("{}");
+        arguments = mapper.createObjectNode();
       }
       Set<ValidationMessage> schemaErrors = schema.validate(arguments);
       if (!schemaErrors.isEmpty()) {
@@ -204,6 +314,29 @@ public class ToolsBackend implements ToolManager {
     return new FunctionValidation<>(error == null, function != null && function.getType().isClientExecuted(), error);
   }
 
+  /**
+   * Repairs the function call with {@link ArgumentRepair} against the compiled parameter schema. Function names
+   * are matched ignoring case, underscores, dashes, and a namespace prefix like `functions.`.
+   */
+  @Override
+  public FunctionCallRepair repairFunctionCall(String functionName, JsonNode arguments) {
+    List<String> repairs = new ArrayList<>();
+    String name = functionName;
+    if (name != null && !functions.containsKey(name)) {
+      String simpleName = ArgumentRepair.normalize(name.substring(name.lastIndexOf('.') + 1));
+      List<String> matches = functions.keySet().stream()
+          .filter(candidate -> ArgumentRepair.normalize(candidate).equals(simpleName)).toList();
+      if (matches.size() != 1) return null;
+      name = matches.get(0);
+      repairs.add("renamed function " + functionName + " to " + name);
+    }
+    RuntimeFunctionDefinition function = functions.get(name);
+    if (function == null) return null;
+    if (arguments == null || arguments.isNull() || arguments.isMissingNode()) arguments = mapper.createObjectNode();
+    JsonNode repaired = ArgumentRepair.repair(getParameterSchema(function).getSchemaNode(), arguments, repairs);
+    return repairs.isEmpty() ? null : new FunctionCallRepair(name, repaired, repairs);
+  }
+
 
   /**
    * Executes the given function with the provided arguments and context.
@@ -215,19 +348,195 @@ public class ToolsBackend implements ToolManager {
    * @throws IOException
    */
   public String executeFunctionCall(String functionName, JsonNode arguments, @NonNull Context context) throws IOException {
+    RuntimeFunctionDefinition function = getExecutableFunction(functionName);
+    JsonNode variables = addOrOverrideContext(arguments, function, context);
+    APIQuery query = function.getApi();
+    ToolObservability.ToolCall toolCall = observability.start(functionName);
+    try {
+      String result = switch (function.getType()) {
+        case local -> function.getExecutable().apply(variables).toString();
+        case api -> function.isCoalesced()
+            ? coalesce(functionName, variables, context.getCancellationToken(),
+                () -> executeQuery(functionName, query, variables, context.getCancellationToken()))
+            : executeQuery(functionName, query, variables, context.getCancellationToken());
+        default ->
+            throw new IllegalArgumentException("Cannot execute function [" + functionName + "] of type: " + function.getType());
+      };
+      toolCall.stop();
+      return result;
+    } catch (IOException | RuntimeException e) {
+      toolCall.fail(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Executes the given function like {@link #executeFunctionCall(String, JsonNode, Context)} but does not
+   * block while API functions are executed. Local functions are executed on the calling thread.
+   *
+   * @return A future for the result as string
+   */
+  @Override
+  public CompletableFuture<String> executeFunctionCallAsync(String functionName, JsonNode arguments,
+      @NonNull Context context) {
+    RuntimeFunctionDefinition function;
+    JsonNode variables;
+    try {
+      function = getExecutableFunction(functionName);
+      variables = addOrOverrideContext(arguments, function, context);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    APIQuery query = function.getApi();
+    CancellationToken cancellationToken = context.getCancellationToken();
+    ToolObservability.ToolCall toolCall = observability.start(functionName);
+    CompletableFuture<String> result = switch (function.getType()) {
+      case local -> {
+        try {
+          yield CompletableFuture.completedFuture(function.getExecutable().apply(variables).toString());
+        } catch (RuntimeException e) {
+          yield CompletableFuture.failedFuture(e);
+        }
+      }
+      case api -> function.isCoalesced()
+          ? coalesceAsync(functionName, variables, cancellationToken,
+              () -> executeQueryAsync(functionName, query, variables, cancellationToken))
+          : executeQueryAsync(functionName, query, variables, cancellationToken);
+      default -> CompletableFuture.failedFuture(new IllegalArgumentException(
+          "Cannot execute function [" + functionName + "] of type: " + function.getType()));
+    };
+    result.whenComplete((value, e) -> {
+      if (e == null) toolCall.stop();
+      else toolCall.fail(unwrap(e) instanceof Exception exception ? exception : new RuntimeException(e));
+    });
+    return result;
+  }
+
+  private RuntimeFunctionDefinition getExecutableFunction(String functionName) {
     RuntimeFunctionDefinition function = functions.get(functionName);
     if (function == null) throw new IllegalArgumentException("Not a valid function name: " + functionName);
     if (function.getType().isClientExecuted())
       throw new IllegalArgumentException("Cannot execute client-side functions: " + functionName);
+    return function;
+  }
 
-    JsonNode variables = addOrOverrideContext(arguments, function, context);
-    APIQuery query = function.getApi();
-    return switch (function.getType()) {
-      case local -> function.getExecutable().apply(variables).toString();
-      case api -> getExecutor(query).executeQuery(query, variables);
-      default ->
-          throw new IllegalArgumentException("Cannot execute function [" + functionName + "] of type: " + function.getType());
-    };
+  /**
+   * Identical calls (same function, arguments and context) that are executed concurrently
+   * share the result of a single API request. If the shared request is cancelled because another
+   * interaction was cancelled, the call is executed on its own.
+   */
+  private String coalesce(String functionName, JsonNode variables, CancellationToken cancellationToken,
+      SingleFlight.Call<String> call) throws IOException {
+    try {
+      return inFlightCalls.execute(getCoalescingKey(functionName, variables), call,
+          () -> observability.callCoalesced(functionName));
+    } catch (CancellationException e) {
+      cancellationToken.throwIfCancelled();
+      return call.execute();
+    }
+  }
+
+  private CompletableFuture<String> coalesceAsync(String functionName, JsonNode variables,
+      CancellationToken cancellationToken, SingleFlight.AsyncCall<String> call) {
+    return inFlightCalls.executeAsync(getCoalescingKey(functionName, variables), call,
+            () -> observability.callCoalesced(functionName))
+        .exceptionallyCompose(e -> {
+          Throwable cause = unwrap(e);
+          if (!(cause instanceof CancellationException) || cancellationToken.isCancelled()) {
+            return CompletableFuture.failedFuture(cause);
+          }
+          try {
+            return call.execute();
+          } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+          }
+        });
+  }
+
+  private static String getCoalescingKey(String functionName, JsonNode variables) {
+    return functionName + ":" + JsonUtil.toCanonicalString(variables);
+  }
+
+  /**
+   * Executes the query against the API and enforces the timeout configured for the query, if any.
+   * The query is bounded by the deadline of the interaction and aborted when the interaction is cancelled.
+   */
+  private String executeQuery(String functionName, APIQuery query, JsonNode variables,
+      CancellationToken cancellationToken) throws IOException {
+    if (query.getTimeout() == null && !cancellationToken.isCancellable()) {
+      return getExecutor(query).executeQuery(query, variables);
+    }
+    CompletableFuture<String> future = executeQueryAsync(functionName, query, variables, cancellationToken);
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while executing function: " + functionName, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException ioException) throw ioException;
+      if (cause instanceof RuntimeException runtimeException) throw runtimeException;
+      throw new IOException("Function [" + functionName + "] failed", cause);
+    }
+  }
+
+  /**
+   * Executes the query against the API without blocking. The returned future fails with an {@link IOException}
+   * if the API call fails or exceeds the timeout of the query and with a {@link CancellationException}
+   * if the interaction is cancelled or reaches its deadline first. In both cases, the API call is aborted.
+   */
+  private CompletableFuture<String> executeQueryAsync(String functionName, APIQuery query, JsonNode variables,
+      CancellationToken cancellationToken) {
+    if (cancellationToken.isCancelled()) return CompletableFuture.failedFuture(cancellationToken.toException());
+    CompletableFuture<String> future;
+    try {
+      future = getExecutor(query).executeQueryAsync(query, variables);
+    } catch (IOException | RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    CompletableFuture<String> result = new CompletableFuture<>();
+    future.whenComplete((value, e) -> {
+      if (e == null) {
+        result.complete(value);
+      } else {
+        Throwable cause = unwrap(e);
+        if (cause instanceof RuntimeException && cause.getCause() instanceof IOException) cause = cause.getCause();
+        if (cause instanceof IOException || cause instanceof CancellationException) result.completeExceptionally(cause);
+        else result.completeExceptionally(new IOException("Function [" + functionName + "] failed", cause));
+      }
+    });
+    CancellationToken.Registration onCancel = cancellationToken.onCancel(() -> {
+      result.completeExceptionally(cancellationToken.toException());
+      future.cancel(true);
+    });
+    result.whenComplete((value, e) -> onCancel.remove());
+    long timeoutMs = query.getTimeout() == null ? Long.MAX_VALUE : query.getTimeout();
+    long waitMs = Math.min(timeoutMs, cancellationToken.getRemainingMillis().orElse(Long.MAX_VALUE));
+    if (waitMs != Long.MAX_VALUE) {
+      CompletableFuture.delayedExecutor(waitMs, TimeUnit.MILLISECONDS).execute(() -> {
+        if (result.isDone()) return;
+        if (waitMs < timeoutMs) {
+          //Deadline of the interaction has been reached before the timeout of the query
+          cancellationToken.cancel("Request exceeded its deadline");
+          result.completeExceptionally(cancellationToken.toException());
+        } else {
+          result.completeExceptionally(new IOException(String.format(
+              "Function [%s] did not return a result within %d ms. Try again with a more selective query "
+                  + "or tell the user that the data is not available right now.", functionName, query.getTimeout())));
+        }
+        future.cancel(true);
+      });
+    }
+    //Abort the API call when the caller gives up on the result
+    result.whenComplete((value, e) -> {
+      if (result.isCancelled()) future.cancel(true);
+    });
+    return result;
+  }
+
+  private static Throwable unwrap(Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
   }
 
   private JsonNode addOrOverrideContext(JsonNode arguments, RuntimeFunctionDefinition function, @NonNull Context context) {
@@ -44,7 +44,12 @@ public class ToolsBackendFactory {
 
   public static ToolsBackend of(@NonNull List<RuntimeFunctionDefinition> functions, @NonNull Map<String,APIExecutor> apiExecutors,
       @NonNull Set<String> globalContext) {
-    ToolsBackend backend = new ToolsBackend(apiExecutors, mapper);
+    return of(functions, apiExecutors, globalContext, ToolObservability.NOOP);
+  }
+
+  public static ToolsBackend of(@NonNull List<RuntimeFunctionDefinition> functions, @NonNull Map<String,APIExecutor> apiExecutors,
+      @NonNull Set<String> globalContext, @NonNull ToolObservability observability) {
+    ToolsBackend backend = new ToolsBackend(apiExecutors, mapper, observability);
     for (RuntimeFunctionDefinition function : functions) {
       function = setContextIfNotExists(function, globalContext);
       if (function.getName().equalsIgnoreCase(SAVE_CHAT_FUNCTION_NAME)) {
@@ -0,0 +1,182 @@
+package com.datasqrl.ai.util;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.Getter;
+
+/**
+ * Limits the number of requests that are processed concurrently. Requests beyond the limit wait in a bounded
+ * queue for a permit and are rejected when the queue is full or when they have waited for longer than the
+ * maximum queue time. Rejecting requests early sheds load when the model is slow instead of accumulating
+ * requests that time out after they have already spent tokens.
+ *
+ * Waiting for a permit does not block a thread. Permits are handed to queued requests in the order they arrived.
+ * Background requests (e.g. batch jobs) share the same permits at a lower priority: they only receive a permit
+ * when no regular request is waiting.
+ */
+public class AdmissionControl {
+
+  public enum RejectionReason {
+    /**
+     * The wait queue was full when the request arrived
+     */
+    QUEUE_FULL,
+    /**
+     * The request did not receive a permit within the maximum queue time
+     */
+    QUEUE_TIMEOUT
+  }
+
+  @Getter
+  private final int maxInFlight;
+  @Getter
+  private final int maxQueued;
+  private final Duration maxQueueTime;
+
+  private final ArrayDeque<CompletableFuture<Permit>> queue = new ArrayDeque<>();
+  private final ArrayDeque<CompletableFuture<Permit>> backgroundQueue = new ArrayDeque<>();
+  private int inFlight = 0;
+
+  /**
+   * @param maxInFlight the maximum number of requests that hold a permit at the same time
+   * @param maxQueued the maximum number of requests waiting for a permit, 0 to reject all requests beyond the limit
+   * @param maxQueueTime the maximum time a request waits for a permit
+   */
+  public AdmissionControl(int maxInFlight, int maxQueued, Duration maxQueueTime) {
+    ErrorHandling.checkArgument(maxInFlight > 0, "Invalid maximum number of in-flight requests: %s", maxInFlight);
+    ErrorHandling.checkArgument(maxQueued >= 0, "Invalid maximum number of queued requests: %s", maxQueued);
+    ErrorHandling.checkArgument(!maxQueueTime.isNegative(), "Invalid maximum queue time: %s", maxQueueTime);
+    this.maxInFlight = maxInFlight;
+    this.maxQueued = maxQueued;
+    this.maxQueueTime = maxQueueTime;
+  }
+
+  /**
+   * Requests a permit. The returned future completes with the permit once the request is admitted or fails with
+   * an {@link AdmissionRejectedException} if the request is rejected. The permit must be released once the
+   * request has been processed. Cancelling the future removes the request from the queue.
+   *
+   * @return A future for the permit
+   */
+  public CompletableFuture<Permit> acquire() {
+    CompletableFuture<Permit> waiter = new CompletableFuture<>();
+    synchronized (this) {
+      if (inFlight < maxInFlight) {
+        inFlight++;
+        return CompletableFuture.completedFuture(new Permit());
+      }
+      if (queue.size() >= maxQueued) {
+        return CompletableFuture.failedFuture(new AdmissionRejectedException(RejectionReason.QUEUE_FULL));
+      }
+      queue.add(waiter);
+    }
+    waiter.whenComplete((permit, e) -> {
+      if (e != null) {
+        synchronized (this) {
+          queue.remove(waiter);
+        }
+      }
+    });
+    CompletableFuture.delayedExecutor(maxQueueTime.toMillis(), TimeUnit.MILLISECONDS).execute(
+        () -> waiter.completeExceptionally(new AdmissionRejectedException(RejectionReason.QUEUE_TIMEOUT)));
+    return waiter;
+  }
+
+  /**
+   * Requests a permit for a background request. Background requests receive permits only when no regular request
+   * is waiting. They are not subject to the queue limits since the caller bounds the number of background
+   * requests, and they are not rejected. Cancelling the future removes the request from the queue.
+   *
+   * @return A future for the permit
+   */
+  public CompletableFuture<Permit> acquireBackground() {
+    CompletableFuture<Permit> waiter = new CompletableFuture<>();
+    synchronized (this) {
+      if (inFlight < maxInFlight && queue.isEmpty()) {
+        inFlight++;
+        return CompletableFuture.completedFuture(new Permit());
+      }
+      backgroundQueue.add(waiter);
+    }
+    waiter.whenComplete((permit, e) -> {
+      if (e != null) {
+        synchronized (this) {
+          backgroundQueue.remove(waiter);
+        }
+      }
+    });
+    return waiter;
+  }
+
+  /**
+   * @return The number of requests that currently hold a permit
+   */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * @return The number of requests that currently wait for a permit
+   */
+  public synchronized int getQueued() {
+    return queue.size();
+  }
+
+  /**
+   * @return The number of background requests that currently wait for a permit
+   */
+  public synchronized int getBackgroundQueued() {
+    return backgroundQueue.size();
+  }
+
+  private void release() {
+    //Hand the permit to the next waiting request. Waiters are completed outside the lock since completing
+    //runs their dependent actions. A waiter that timed out or was cancelled in the meantime is skipped.
+    while (true) {
+      CompletableFuture<Permit> next;
+      synchronized (this) {
+        next = queue.poll();
+        if (next == null) next = backgroundQueue.poll();
+        if (next == null) {
+          inFlight--;
+          return;
+        }
+      }
+      if (next.complete(new Permit())) return;
+    }
+  }
+
+  /**
+   * A permit to process a request. Releasing a permit more than once has no effect.
+   */
+  public class Permit implements AutoCloseable {
+
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    public void release() {
+      if (released.compareAndSet(false, true)) AdmissionControl.this.release();
+    }
+
+    @Override
+    public void close() {
+      release();
+    }
+
+  }
+
+  public static class AdmissionRejectedException extends RuntimeException {
+
+    @Getter
+    private final RejectionReason reason;
+
+    public AdmissionRejectedException(RejectionReason reason) {
+      super("Request rejected: " + reason.name().toLowerCase());
+      this.reason = reason;
+    }
+
+  }
+
+}
@@ -0,0 +1,134 @@
+package com.datasqrl.ai.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Provides the executor for blocking work that is run asynchronously, e.g. synchronous API calls
+ * behind {@link com.datasqrl.ai.api.APIExecutor#executeQueryAsync} or chat loops behind
+ * {@link com.datasqrl.ai.models.ChatProvider#chatAsync}. Blocking work must not run on the common
+ * fork-join pool since it is sized to the number of cores.
+ *
+ * By default, blocking work runs on a cached pool of platform threads. With {@link #useVirtualThreads()}
+ * every task runs on its own virtual thread, which requires Java 21 or later. The project compiles
+ * against Java 17, so virtual threads are accessed reflectively.
+ */
+@Slf4j
+public class BlockingExecutor {
+
+  private static final MethodHandle NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+  private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+  private static final ExecutorService PLATFORM_THREADS = newPlatformThreadPool();
+
+  private static volatile ExecutorService executor = PLATFORM_THREADS;
+  private static volatile boolean virtualThreads = false;
+
+  /**
+   * @return The executor for blocking work
+   */
+  public static ExecutorService get() {
+    return executor;
+  }
+
+  /**
+   * @return The executor for blocking work that would pin a virtual thread to its carrier thread,
+   * e.g. I/O inside synchronized blocks of client libraries. Always runs on platform threads.
+   */
+  public static ExecutorService getPlatformThreads() {
+    return PLATFORM_THREADS;
+  }
+
+  /**
+   * @return true if the JVM supports virtual threads (Java 21+)
+   */
+  public static boolean isVirtualThreadsSupported() {
+    return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+  }
+
+  /**
+   * @return true if blocking work runs on virtual threads
+   */
+  public static boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * Runs all subsequently submitted blocking work on virtual threads.
+   *
+   * @throws IllegalStateException if the JVM does not support virtual threads
+   */
+  public static void useVirtualThreads() {
+    checkVirtualThreadsSupported();
+    if (virtualThreads) return;
+    executor = newVirtualThreadPerTaskExecutor();
+    virtualThreads = true;
+    log.info("Running blocking work on virtual threads");
+  }
+
+  /**
+   * @return A new executor that starts a virtual thread for each task
+   * @throws IllegalStateException if the JVM does not support virtual threads
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor() {
+    checkVirtualThreadsSupported();
+    try {
+      return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke();
+    } catch (Throwable e) {
+      throw new IllegalStateException("Could not create virtual thread executor", e);
+    }
+  }
+
+  /**
+   * @return true if the current thread is a virtual thread
+   */
+  public static boolean isVirtualThread() {
+    if (IS_VIRTUAL == null) return false;
+    try {
+      return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+    } catch (Throwable e) {
+      return false;
+    }
+  }
+
+  private static void checkVirtualThreadsSupported() {
+    if (!isVirtualThreadsSupported()) {
+      throw new IllegalStateException(String.format("Virtual threads require Java 21 or later, but running on Java %s",
+          Runtime.version().feature()));
+    }
+  }
+
+  private static ExecutorService newPlatformThreadPool() {
+    AtomicInteger counter = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "acorn-blocking-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    return Executors.newCachedThreadPool(threadFactory);
+  }
+
+  private static MethodHandle findVirtualThreadExecutor() {
+    try {
+      return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+          MethodType.methodType(ExecutorService.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  private static MethodHandle findIsVirtual() {
+    try {
+      return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+
+}
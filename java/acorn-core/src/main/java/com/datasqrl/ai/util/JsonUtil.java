@@ -1,7 +1,11 @@
 package com.datasqrl.ai.util;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.cfg.JsonNodeFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.Optional;
@@ -13,6 +17,11 @@ public class JsonUtil {
 
   private static final ObjectMapper mapper = new ObjectMapper();
 
+  private static final ObjectMapper canonicalMapper = JsonMapper.builder()
+      .enable(JsonNodeFeature.WRITE_PROPERTIES_SORTED)
+      .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+      .build();
+
   public static Optional<JsonNode> parseJson(String json) {
     try {
       return Optional.of(mapper.readTree(json));
@@ -35,6 +44,18 @@ public class JsonUtil {
     return mapper.valueToTree(map);
   }
 
+  /**
+   * Serializes the given node with all object properties sorted by name, so that equal
+   * JSON values produce the same string regardless of the order in which properties were added.
+   */
+  public static String toCanonicalString(JsonNode node) {
+    try {
+      return canonicalMapper.writeValueAsString(node);
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException("Could not serialize json: " + node, e);
+    }
+  }
+
 
 
 }
@@ -0,0 +1,74 @@
+package com.datasqrl.ai.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Runs asynchronous tasks with the same key one after another in the order they are submitted,
+ * while tasks with different keys run concurrently. A task is started once the future of the
+ * previous task for the same key has completed.
+ *
+ * This is used to process the messages of a user in order, since each message continues the
+ * chat history of the previous one. Keys are only retained while they have outstanding tasks.
+ *
+ * @param <K> the type of key
+ */
+public class KeyedSequencer<K> {
+
+  private final ConcurrentHashMap<K, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+  /**
+   * Submits the task to run after all previously submitted tasks with the same key have completed.
+   * If the returned future is completed (e.g. cancelled) before the task starts, the task is skipped.
+   * If it is cancelled after the task has started, the future of the task is cancelled.
+   *
+   * @param key the key to sequence tasks by
+   * @param task starts the task and returns a future for its result
+   * @return A future for the result of the task
+   */
+  public <T> CompletableFuture<T> submit(K key, Supplier<CompletableFuture<T>> task) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    CompletableFuture<Void> previous = tails.put(key, done);
+    Runnable start = () -> {
+      if (result.isDone()) {
+        release(key, done);
+        return;
+      }
+      CompletableFuture<T> future;
+      try {
+        future = task.get();
+      } catch (RuntimeException e) {
+        future = CompletableFuture.failedFuture(e);
+      }
+      future.whenComplete((value, e) -> {
+        // The key is removed before the result completes, so it is not retained once the result is observed
+        tails.remove(key, done);
+        if (e == null) result.complete(value);
+        else result.completeExceptionally(e);
+        done.complete(null);
+      });
+      CompletableFuture<T> started = future;
+      result.whenComplete((value, e) -> {
+        if (result.isCancelled()) started.cancel(true);
+      });
+    };
+    if (previous == null) start.run();
+    else previous.thenRun(start);
+    return result;
+  }
+
+  /**
+   * @return The number of keys that have outstanding tasks
+   */
+  public int size() {
+    return tails.size();
+  }
+
+  private void release(K key, CompletableFuture<Void> done) {
+    tails.remove(key, done);
+    done.complete(null);
+  }
+
+}
@@ -0,0 +1,22 @@
+package com.datasqrl.ai.util;
+
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.ServiceLoader.Provider;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the service implementations found by {@link ServiceLoader}, so that the classpath is scanned
+ * once per service type instead of on every factory lookup.
+ */
+public class Services {
+
+  private static final ConcurrentHashMap<Class<?>, List<?>> services = new ConcurrentHashMap<>();
+
+  @SuppressWarnings("unchecked")
+  public static <S> List<S> load(Class<S> serviceClass) {
+    return (List<S>) services.computeIfAbsent(serviceClass,
+        clazz -> ServiceLoader.load(clazz).stream().map(Provider::get).toList());
+  }
+
+}
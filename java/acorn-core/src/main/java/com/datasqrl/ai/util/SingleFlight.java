@@ -0,0 +1,118 @@
+package com.datasqrl.ai.util;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces concurrent calls with the same key: the first caller executes the call and all
+ * callers that arrive with the same key while the call is in flight share its result.
+ * Once the call completes, the key is released and the next call executes again, i.e. results are not cached.
+ *
+ * @param <K> type of the key that identifies identical calls
+ * @param <V> type of the result
+ */
+public class SingleFlight<K, V> {
+
+  private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  public interface Call<V> {
+
+    V execute() throws IOException;
+  }
+
+  public interface AsyncCall<V> {
+
+    CompletableFuture<V> execute() throws IOException;
+  }
+
+  /**
+   * Executes the call or joins the identical call that is currently in flight.
+   *
+   * @param key identifies identical calls
+   * @param call the call to execute
+   * @return the result of the call
+   * @throws IOException if the call failed
+   */
+  public V execute(K key, Call<V> call) throws IOException {
+    return execute(key, call, () -> {});
+  }
+
+  /**
+   * Executes the call or joins the identical call that is currently in flight.
+   *
+   * @param key identifies identical calls
+   * @param call the call to execute
+   * @param onJoin invoked when this call joins a call that is in flight
+   * @return the result of the call
+   * @throws IOException if the call failed
+   */
+  public V execute(K key, Call<V> call, Runnable onJoin) throws IOException {
+    CompletableFuture<V> future = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      onJoin.run();
+      return join(existing);
+    }
+    try {
+      V result = call.execute();
+      future.complete(result);
+      return result;
+    } catch (Throwable e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+  /**
+   * Executes the asynchronous call or joins the identical call that is currently in flight.
+   * Cancelling the future returned to a joining caller does not affect the shared call, cancelling
+   * the future returned to the caller that executes the call cancels it for all callers.
+   *
+   * @param key identifies identical calls
+   * @param call the call to execute
+   * @param onJoin invoked when this call joins a call that is in flight
+   * @return A future for the result of the call
+   */
+  public CompletableFuture<V> executeAsync(K key, AsyncCall<V> call, Runnable onJoin) {
+    CompletableFuture<V> future = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      onJoin.run();
+      return existing.copy();
+    }
+    CompletableFuture<V> result;
+    try {
+      result = call.execute();
+    } catch (IOException | RuntimeException e) {
+      result = CompletableFuture.failedFuture(e);
+    }
+    result.whenComplete((value, e) -> {
+      inFlight.remove(key, future);
+      if (e == null) future.complete(value);
+      else future.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+    });
+    return result;
+  }
+
+  private static <V> V join(CompletableFuture<V> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for in-flight call", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException ioException) throw ioException;
+      if (cause instanceof RuntimeException runtimeException) throw runtimeException;
+      if (cause instanceof Error error) throw error;
+      throw new IOException(cause);
+    }
+  }
+
+}
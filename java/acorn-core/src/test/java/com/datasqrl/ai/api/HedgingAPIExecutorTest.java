@@ -0,0 +1,130 @@
+package com.datasqrl.ai.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datasqrl.ai.api.APIExecutorFactory.HedgingConfiguration;
+import com.datasqrl.ai.api.APIExecutorFactory.ResilienceConfiguration;
+import com.datasqrl.ai.tool.ToolObservability;
+import com.datasqrl.ai.tool.ToolObservability.CircuitState;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class HedgingAPIExecutorTest {
+
+  private static final APIQuery QUERY = new APIQuery(null, "query", null, null, null, true);
+
+  private final AtomicInteger issued = new AtomicInteger();
+  private final AtomicInteger won = new AtomicInteger();
+
+  private final ToolObservability observability = new ToolObservability() {
+    @Override
+    public ToolCall start(String toolName) {
+      return NOOP.start(toolName);
+    }
+
+    @Override
+    public void hedgeIssued(String apiName) {
+      issued.incrementAndGet();
+    }
+
+    @Override
+    public void hedgeWon(String apiName) {
+      won.incrementAndGet();
+    }
+  };
+
+  @Test
+  public void testHedgeWins() throws Exception {
+    ControlledExecutor api = new ControlledExecutor();
+    HedgingAPIExecutor executor = new HedgingAPIExecutor("test", api,
+        new HedgingConfiguration(0.5, 1.0, 0, 2), observability);
+    warmup(executor, api, 2);
+
+    CompletableFuture<String> slow = new CompletableFuture<>();
+    api.responses.add(slow);
+    api.responses.add(CompletableFuture.completedFuture("hedge"));
+    assertEquals("hedge", executor.executeQueryAsync(QUERY, null).get(5, TimeUnit.SECONDS));
+    assertEquals(1, issued.get());
+    assertEquals(1, won.get());
+    assertTrue(slow.isCancelled());
+  }
+
+  @Test
+  public void testNoHedging() throws Exception {
+    ControlledExecutor api = new ControlledExecutor();
+    HedgingAPIExecutor executor = new HedgingAPIExecutor("test", api,
+        new HedgingConfiguration(0.5, 0.05, 0, 2), observability);
+    warmup(executor, api, 2);
+
+    //Budget is exhausted
+    CompletableFuture<String> slow = new CompletableFuture<>();
+    api.responses.add(slow);
+    CompletableFuture<String> result = executor.executeQueryAsync(QUERY, null);
+    Thread.sleep(50);
+    slow.complete("primary");
+    assertEquals("primary", result.get(5, TimeUnit.SECONDS));
+    //Query is not idempotent
+    CompletableFuture<String> nonIdempotent = new CompletableFuture<>();
+    api.responses.add(nonIdempotent);
+    assertSame(nonIdempotent, executor.executeQueryAsync(new APIQuery(null, "mutation", null, null), null));
+    assertEquals(0, issued.get());
+    assertEquals(4, api.calls.get());
+  }
+
+  @Test
+  public void testHedgingResilientExecutor() throws Exception {
+    ControlledExecutor api = new ControlledExecutor();
+    ResilientAPIExecutor resilient = new ResilientAPIExecutor("test", api,
+        new ResilienceConfiguration(1, 4, 4, 10_000, 0, 1, 10_000), observability);
+    HedgingAPIExecutor executor = new HedgingAPIExecutor("test", resilient,
+        new HedgingConfiguration(0.5, 1.0, 0, 2), observability);
+    warmup(executor, api, 2);
+
+    // The losing primary is cancelled, which must neither lower the limit nor trip the circuit breaker
+    CompletableFuture<String> slow = new CompletableFuture<>();
+    api.responses.add(slow);
+    api.responses.add(CompletableFuture.completedFuture("hedge"));
+    assertEquals("hedge", executor.executeQueryAsync(QUERY, null).get(5, TimeUnit.SECONDS));
+    assertTrue(slow.isCancelled());
+    assertEquals(1, won.get());
+    assertEquals(4, resilient.getConcurrencyLimit().getLimit());
+    assertEquals(0, resilient.getConcurrencyLimit().getInFlight());
+    assertEquals(CircuitState.CLOSED, resilient.getCircuitBreaker().getState());
+  }
+
+  private static void warmup(HedgingAPIExecutor executor, ControlledExecutor api, int numQueries) throws Exception {
+    for (int i = 0; i < numQueries; i++) {
+      api.responses.add(CompletableFuture.completedFuture("warmup"));
+      assertEquals("warmup", executor.executeQuery(QUERY, null));
+    }
+  }
+
+  static class ControlledExecutor implements APIExecutor {
+
+    final List<CompletableFuture<String>> responses = new ArrayList<>();
+    final AtomicInteger calls = new AtomicInteger();
+
+    @Override
+    public void validate(APIQuery query) throws IllegalArgumentException {
+    }
+
+    @Override
+    public String executeQuery(APIQuery query, JsonNode arguments) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) {
+      return responses.get(calls.getAndIncrement());
+    }
+  }
+
+}
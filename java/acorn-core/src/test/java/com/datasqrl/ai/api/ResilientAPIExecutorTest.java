@@ -0,0 +1,230 @@
+package com.datasqrl.ai.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datasqrl.ai.api.APIExecutorFactory.ResilienceConfiguration;
+import com.datasqrl.ai.tool.ToolObservability;
+import com.datasqrl.ai.tool.ToolObservability.CircuitState;
+import com.datasqrl.ai.tool.ToolObservability.RejectionReason;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.configuration2.MapConfiguration;
+import org.junit.jupiter.api.Test;
+
+public class ResilientAPIExecutorTest {
+
+  private static final APIQuery QUERY = new APIQuery(null, "query", null, null);
+
+  private final List<String> events = new ArrayList<>();
+
+  private final ToolObservability observability = new ToolObservability() {
+    @Override
+    public ToolCall start(String toolName) {
+      return NOOP.start(toolName);
+    }
+
+    @Override
+    public void concurrencyLimitChanged(String apiName, int limit) {
+      events.add("limit:" + limit);
+    }
+
+    @Override
+    public void callRejected(String apiName, RejectionReason reason) {
+      events.add("rejected:" + reason);
+    }
+
+    @Override
+    public void circuitStateChanged(String apiName, CircuitState state) {
+      events.add("circuit:" + state);
+    }
+  };
+
+  @Test
+  public void testCircuitBreaker() throws Exception {
+    AtomicBoolean failing = new AtomicBoolean(true);
+    AtomicLong clock = new AtomicLong(0);
+    APIExecutor api = new TestExecutor(() -> {
+      if (failing.get()) throw new IOException("API down");
+      return "ok";
+    });
+    ResilienceConfiguration config = new ResilienceConfiguration(1, 10, 5, 1000, 0, 3, 1000);
+    ResilientAPIExecutor executor = new ResilientAPIExecutor("test", api, config, observability,
+        new CircuitBreaker(config.failureThreshold(), config.openDurationMs(), clock::get,
+            state -> observability.circuitStateChanged("test", state)));
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals("API down", assertThrows(IOException.class, () -> executor.executeQuery(QUERY, null)).getMessage());
+    }
+    assertEquals(CircuitState.OPEN, executor.getCircuitBreaker().getState());
+    failing.set(false);
+    IOException rejected = assertThrows(IOException.class, () -> executor.executeQuery(QUERY, null));
+    assertTrue(rejected.getMessage().contains("temporarily unavailable"));
+    assertTrue(events.contains("rejected:" + RejectionReason.CIRCUIT_OPEN));
+
+    //A single trial call is let through after the open duration
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+    assertEquals("ok", executor.executeQuery(QUERY, null));
+    assertEquals(CircuitState.CLOSED, executor.getCircuitBreaker().getState());
+    assertEquals(List.of("circuit:OPEN", "circuit:HALF_OPEN", "circuit:CLOSED"),
+        events.stream().filter(e -> e.startsWith("circuit")).toList());
+  }
+
+  @Test
+  public void testBulkhead() throws Exception {
+    CompletableFuture<String> pending = new CompletableFuture<>();
+    APIExecutor api = new TestExecutor(() -> "ok") {
+      @Override
+      public CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) {
+        return pending;
+      }
+    };
+    ResilientAPIExecutor executor = new ResilientAPIExecutor("test", api,
+        new ResilienceConfiguration(1, 1, 1, 1000, 10, 3, 1000), observability);
+
+    CompletableFuture<String> first = executor.executeQueryAsync(QUERY, null);
+    IOException rejected = assertThrows(IOException.class, () -> executor.executeQuery(QUERY, null));
+    assertTrue(rejected.getMessage().contains("overloaded"));
+    assertTrue(events.contains("rejected:" + RejectionReason.CONCURRENCY_LIMIT));
+    //Cancelling the pending call releases the permit
+    first.cancel(true);
+    assertEquals(0, executor.getConcurrencyLimit().getInFlight());
+    assertEquals("ok", executor.executeQuery(QUERY, null));
+    assertEquals(CircuitState.CLOSED, executor.getCircuitBreaker().getState());
+  }
+
+  @Test
+  public void testAsyncBulkhead() throws Exception {
+    List<CompletableFuture<String>> calls = new ArrayList<>();
+    APIExecutor api = new TestExecutor(() -> "ok") {
+      @Override
+      public synchronized CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        calls.add(call);
+        return call;
+      }
+    };
+    ResilientAPIExecutor executor = new ResilientAPIExecutor("test", api,
+        new ResilienceConfiguration(1, 1, 1, 1000, 5000, 3, 1000), observability);
+
+    CompletableFuture<String> first = executor.executeQueryAsync(QUERY, null);
+    //Waits for a permit without blocking and is sent once the first call completes
+    CompletableFuture<String> second = executor.executeQueryAsync(QUERY, null);
+    assertEquals(1, calls.size());
+    calls.get(0).complete("first");
+    assertEquals("first", first.get(5, TimeUnit.SECONDS));
+    assertEquals(2, calls.size());
+    //Cancelling the result aborts the call and releases the permit
+    second.cancel(true);
+    assertTrue(calls.get(1).isCancelled());
+    assertEquals(0, executor.getConcurrencyLimit().getInFlight());
+    //Waiting calls are rejected after the maximum wait time
+    ResilientAPIExecutor noWait = new ResilientAPIExecutor("test", api,
+        new ResilienceConfiguration(1, 1, 1, 1000, 10, 3, 1000), observability);
+    noWait.executeQueryAsync(QUERY, null);
+    ExecutionException e = assertThrows(ExecutionException.class,
+        () -> noWait.executeQueryAsync(QUERY, null).get(5, TimeUnit.SECONDS));
+    assertTrue(e.getCause().getMessage().contains("overloaded"));
+  }
+
+  @Test
+  public void testCancelledCalls() throws Exception {
+    List<CompletableFuture<String>> calls = new ArrayList<>();
+    APIExecutor api = new TestExecutor(() -> "ok") {
+      @Override
+      public synchronized CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        calls.add(call);
+        return call;
+      }
+    };
+    ResilientAPIExecutor executor = new ResilientAPIExecutor("test", api,
+        new ResilienceConfiguration(1, 8, 4, 1000, 0, 2, 1000), observability);
+
+    // Cancelled calls neither lower the concurrency limit nor count as failures
+    for (int i = 0; i < 5; i++) {
+      CompletableFuture<String> result = executor.executeQueryAsync(QUERY, null);
+      result.cancel(true);
+      assertTrue(calls.get(i).isCancelled());
+    }
+    assertEquals(4, executor.getConcurrencyLimit().getLimit());
+    assertEquals(0, executor.getConcurrencyLimit().getInFlight());
+    assertEquals(CircuitState.CLOSED, executor.getCircuitBreaker().getState());
+    assertTrue(events.isEmpty(), events.toString());
+  }
+
+  @Test
+  public void testAdaptiveLimit() throws Exception {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 12, 100,
+        l -> events.add("limit:" + l));
+    long fast = TimeUnit.MILLISECONDS.toNanos(10), slow = TimeUnit.MILLISECONDS.toNanos(500);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(limit.acquire(0));
+    }
+    limit.release(fast, false);
+    assertEquals(11, limit.getLimit());
+    limit.release(slow, false);
+    assertEquals(9, limit.getLimit());
+    limit.release(fast, true);
+    assertEquals(8, limit.getLimit());
+    //Limit is not increased when it is not being used
+    limit.release(fast, false);
+    limit.release(fast, false);
+    assertEquals(8, limit.getLimit());
+    for (int i = 0; i < 20; i++) {
+      assertTrue(limit.acquire(0));
+      limit.release(slow, false);
+    }
+    assertEquals(2, limit.getLimit());
+    assertEquals(List.of("limit:11", "limit:9", "limit:8"), events.subList(0, 3));
+  }
+
+  @Test
+  public void testFactoryConfiguration() {
+    APIExecutor plain = APIExecutorFactory.getAPIExecutor(new MapConfiguration(Map.of(
+        "type", MockAPIExecutorFactory.TYPE_NAME, "url", "http://localhost")), "test", observability);
+    assertInstanceOf(MockAPIExecutor.class, plain);
+    APIExecutor resilient = APIExecutorFactory.getAPIExecutor(new MapConfiguration(Map.of(
+        "type", MockAPIExecutorFactory.TYPE_NAME, "url", "http://localhost",
+        "resilience.max_concurrency", 8)), "test", observability);
+    ResilientAPIExecutor executor = assertInstanceOf(ResilientAPIExecutor.class, resilient);
+    assertEquals(8, executor.getConfiguration().maxConcurrency());
+    assertEquals(ResilienceConfiguration.DEFAULT.failureThreshold(), executor.getConfiguration().failureThreshold());
+    assertThrows(IllegalArgumentException.class, () -> APIExecutorFactory.getAPIExecutor(new MapConfiguration(Map.of(
+        "type", MockAPIExecutorFactory.TYPE_NAME, "url", "http://localhost",
+        "resilience.min_concurrency", 0)), "test", observability));
+  }
+
+  interface Result {
+    String get() throws IOException;
+  }
+
+  static class TestExecutor implements APIExecutor {
+
+    private final Result result;
+
+    TestExecutor(Result result) {
+      this.result = result;
+    }
+
+    @Override
+    public void validate(APIQuery query) throws IllegalArgumentException {
+    }
+
+    @Override
+    public String executeQuery(APIQuery query, JsonNode arguments) throws IOException {
+      return result.get();
+    }
+  }
+
+}
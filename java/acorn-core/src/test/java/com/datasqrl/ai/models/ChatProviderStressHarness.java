@@ -0,0 +1,241 @@
+package com.datasqrl.ai.models;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datasqrl.ai.api.APIExecutor;
+import com.datasqrl.ai.api.APIExecutorFactory;
+import com.datasqrl.ai.api.APIQuery;
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.tool.ToolsBackend;
+import com.datasqrl.ai.tool.ToolsBackendFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reusable harness that runs many concurrent chat sessions against a {@link ChatProvider} whose model API is
+ * replaced by a local {@link StubModelAPI}. Each session asks for the secret of its own session id. The stub
+ * model calls the {@link #LOOKUP_FUNCTION} tool with the session id it finds in the request and answers with the
+ * tool result. The harness checks that every answer refers to its own session, so that per-request state which
+ * is shared between concurrent calls shows up as answers for the wrong session.
+ *
+ * Provider modules use the harness in their tests with a stub handler for the protocol of the model API.
+ */
+@Slf4j
+public class ChatProviderStressHarness {
+
+  public static final String LOOKUP_FUNCTION = "lookup";
+  public static final Pattern SESSION_PATTERN = Pattern.compile("session-\\d+");
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private static final String TOOLS = """
+      [{
+        "type": "api",
+        "function": {
+          "name": "lookup",
+          "description": "Returns the secret for a session",
+          "parameters": {
+            "type": "object",
+            "properties": {
+              "session": { "type": "string", "description": "The id of the session" }
+            },
+            "required": ["session"]
+          }
+        },
+        "api": { "query": "query Lookup($session: String!) { lookup(session: $session) }" }
+      }]
+      """;
+
+  /**
+   * @param toolLatencyMs the time it takes the lookup tool to answer
+   * @return A tool backend with the {@link #LOOKUP_FUNCTION} tool that returns the secret of the session in its arguments
+   */
+  @SneakyThrows
+  public static ToolsBackend createTools(long toolLatencyMs) {
+    APIExecutor lookup = new APIExecutor() {
+      @Override
+      public void validate(APIQuery query) throws IllegalArgumentException {
+      }
+
+      @Override
+      @SneakyThrows
+      public String executeQuery(APIQuery query, JsonNode arguments) {
+        Thread.sleep(toolLatencyMs);
+        return lookup(arguments);
+      }
+
+      @Override
+      public CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) {
+        return CompletableFuture.supplyAsync(() -> lookup(arguments),
+            CompletableFuture.delayedExecutor(toolLatencyMs, TimeUnit.MILLISECONDS));
+      }
+    };
+    return ToolsBackendFactory.of(ToolsBackendFactory.readTools(TOOLS), Map.of(APIExecutorFactory.DEFAULT_NAME, lookup));
+  }
+
+  private static String lookup(JsonNode arguments) {
+    String session = arguments.get("session").asText();
+    return mapper.createObjectNode().putObject("data").put("lookup", "secret of " + session).toString();
+  }
+
+  /**
+   * @return The first session id in the text or null if the text does not contain a session id
+   */
+  public static String findSession(String text) {
+    if (text == null) return null;
+    Matcher matcher = SESSION_PATTERN.matcher(text);
+    return matcher.find() ? matcher.group() : null;
+  }
+
+  public static String getMessage(int session) {
+    return "What is the secret of session-" + session + "?";
+  }
+
+  /**
+   * Runs the sessions concurrently and checks the answer of each session.
+   *
+   * @param provider the chat provider under test
+   * @param sessions the number of sessions
+   * @param concurrency the maximum number of concurrent sessions
+   * @param async whether to use {@link ChatProvider#chatAsync} instead of {@link ChatProvider#chat}
+   * @return The result of the run
+   */
+  public static Result run(ChatProvider provider, int sessions, int concurrency, boolean async) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(async ? 1 : concurrency);
+    Semaphore inFlight = new Semaphore(concurrency);
+    List<String> failures = Collections.synchronizedList(new ArrayList<>());
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    long start = System.nanoTime();
+    try {
+      for (int i = 0; i < sessions; i++) {
+        String session = "session-" + i;
+        String message = getMessage(i);
+        CompletableFuture<GenericChatMessage> answer;
+        if (async) {
+          inFlight.acquire();
+          answer = provider.chatAsync(message, Context.of());
+          answer.whenComplete((r, e) -> inFlight.release());
+        } else {
+          answer = CompletableFuture.supplyAsync(() -> provider.chat(message, Context.of()), executor);
+        }
+        futures.add(answer.handle((response, e) -> {
+          if (e != null) {
+            failures.add(session + " failed: " + e);
+          } else if (!check(session, response.getContent())) {
+            failures.add(session + " received: " + response.getContent());
+          }
+          return null;
+        }));
+      }
+      CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.MINUTES);
+    } finally {
+      executor.shutdownNow();
+    }
+    Result result = new Result(sessions, List.copyOf(failures), sessions / ((System.nanoTime() - start) / 1e9));
+    log.info("Ran {} {} sessions at {} sessions/s with {} failures", sessions, async ? "async" : "sync",
+        String.format("%.1f", result.throughput()), failures.size());
+    return result;
+  }
+
+  private static boolean check(String session, String content) {
+    if (content == null || !content.contains("secret of " + session)) return false;
+    Matcher matcher = SESSION_PATTERN.matcher(content);
+    while (matcher.find()) {
+      if (!matcher.group().equals(session)) return false;
+    }
+    return true;
+  }
+
+  public record Result(int sessions, List<String> failures, double throughput) {
+
+    public void assertAllCorrect() {
+      assertTrue(failures.isEmpty(), () -> failures.size() + " of " + sessions + " sessions failed, e.g. "
+          + failures.subList(0, Math.min(5, failures.size())));
+    }
+
+  }
+
+  public record StubResponse(int status, String body) {
+
+  }
+
+  /**
+   * A local HTTP server that answers each request with the response of the handler after a fixed latency.
+   * Responses are delayed without holding a thread, so the stub serves hundreds of concurrent requests.
+   */
+  public static class StubModelAPI implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    private final ExecutorService requestExecutor = Executors.newFixedThreadPool(8);
+
+    @SneakyThrows
+    public StubModelAPI(Function<JsonNode, StubResponse> handler, long latencyMs) {
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 1000);
+      server.createContext("/", exchange -> {
+        StubResponse response;
+        try {
+          response = handler.apply(mapper.readTree(exchange.getRequestBody()));
+        } catch (RuntimeException e) {
+          log.error("Stub handler failed", e);
+          response = new StubResponse(500, "{}");
+        }
+        StubResponse stubResponse = response;
+        scheduler.schedule(() -> respond(exchange, stubResponse), latencyMs, TimeUnit.MILLISECONDS);
+      });
+      server.setExecutor(requestExecutor);
+      server.start();
+    }
+
+    /**
+     * @return The base URL of the stub, ending with a slash
+     */
+    public String getUrl() {
+      return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    private static void respond(HttpExchange exchange, StubResponse response) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        byte[] body = response.body().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(response.status(), body.length);
+        out.write(body);
+      } catch (IOException e) {
+        log.error("Could not respond", e);
+      } finally {
+        exchange.close();
+      }
+    }
+
+    @Override
+    public void close() {
+      server.stop(0);
+      scheduler.shutdownNow();
+      requestExecutor.shutdownNow();
+    }
+
+  }
+
+}
@@ -0,0 +1,217 @@
+package com.datasqrl.ai.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datasqrl.ai.api.APIExecutor;
+import com.datasqrl.ai.api.APIExecutorFactory;
+import com.datasqrl.ai.api.APIQuery;
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.FunctionDefinition;
+import com.datasqrl.ai.tool.FunctionType;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.tool.GenericFunctionCall;
+import com.datasqrl.ai.tool.ModelObservability;
+import com.datasqrl.ai.tool.RuntimeFunctionDefinition;
+import com.datasqrl.ai.tool.ToolsBackend;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class ChatSessionTest {
+
+  @Test
+  public void testRepeatedFunctionResults() {
+    //The function result has 80 tokens
+    String result = "order details for customer 42 ".repeat(16).trim();
+    Instant start = Instant.parse("2024-06-01T10:00:00Z");
+    List<GenericChatMessage> history = new ArrayList<>();
+    history.add(message("user", null, "Who is customer 42", start));
+    history.add(message("function", "lookup", result, start.plusSeconds(1)));
+    history.add(message("assistant", null, "Customer 42 ordered nuts", start.plusSeconds(2)));
+    history.add(message("user", null, "Show it again", start.plusSeconds(3)));
+    history.add(message("function", "lookup", result, start.plusSeconds(4)));
+    history.add(message("assistant", null, "Here it is", start.plusSeconds(5)));
+    ChatSession<GenericChatMessage, GenericFunctionCall> session = new ChatSession<>(
+        new ToolsBackend(Map.of(), new ObjectMapper()), Context.of(), "Be helpful", new WordCountBindings(),
+        new PromptPrefixCache(), null, ResultTruncator.NONE, ModelObservability.NOOP, history);
+
+    //The later copy refers to the earlier result, so the whole history fits
+    ContextWindow<GenericChatMessage> window = session.getContextWindow(120, WordCountBindings.ANALYZER);
+    List<GenericChatMessage> messages = window.getMessages();
+    assertEquals(7, messages.size());
+    assertEquals(result, messages.get(2).getContent());
+    assertEquals("[Identical to the earlier result of lookup at 2024-06-01T10:00:01Z]", messages.get(5).getContent());
+    assertEquals("lookup", messages.get(5).getName());
+    assertEquals(105, window.getNumTokens());
+    //The stored history is not modified
+    assertEquals(result, history.get(4).getContent());
+
+    //When the earlier result does not fit, the later copy keeps the full result
+    window = session.getContextWindow(100, WordCountBindings.ANALYZER);
+    messages = window.getMessages();
+    assertEquals(5, messages.size());
+    assertEquals(result, messages.get(3).getContent());
+    assertTrue(messages.stream().noneMatch(message -> message.getContent().startsWith("[Identical")));
+  }
+
+  @Test
+  public void testDispatchedFunctionCall() throws Exception {
+    AtomicInteger executions = new AtomicInteger(), apiExecutions = new AtomicInteger();
+    List<CompletableFuture<String>> pending = new ArrayList<>();
+    APIExecutor api = new APIExecutor() {
+      @Override
+      public void validate(APIQuery query) {
+      }
+
+      @Override
+      public String executeQuery(APIQuery query, JsonNode arguments) {
+        apiExecutions.incrementAndGet();
+        return "order " + arguments.get("id").asInt();
+      }
+
+      @Override
+      public CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) {
+        if (!query.getQuery().startsWith("query Slow")) {
+          return CompletableFuture.completedFuture(executeQuery(query, arguments));
+        }
+        CompletableFuture<String> result = new CompletableFuture<>();
+        pending.add(result);
+        return result;
+      }
+    };
+    ToolsBackend backend = new ToolsBackend(Map.of(APIExecutorFactory.DEFAULT_NAME, api), new ObjectMapper());
+    FunctionDefinition.Argument id = FunctionDefinition.Argument.builder().type("integer").build();
+    backend.addFunction(RuntimeFunctionDefinition.builder()
+        .type(FunctionType.local)
+        .function(FunctionDefinition.builder().name("lookup").description("Looks up a customer")
+            .parameters(FunctionDefinition.Parameters.builder().type("object").properties(Map.of("id", id))
+                .required(List.of("id")).build())
+            .build())
+        .context(List.of())
+        .idempotent(true)
+        .executable(arguments -> {
+          executions.incrementAndGet();
+          return "customer " + arguments.get("id").asInt();
+        })
+        .build());
+    ChatSession<GenericChatMessage, GenericFunctionCall> session = new ChatSession<>(backend, Context.of(),
+        "Be helpful", new WordCountBindings(), new PromptPrefixCache(), null, ResultTruncator.NONE,
+        ModelObservability.NOOP, List.of());
+
+    //The function is executed once the parameters are complete, before the response is complete,
+    //and the result is used for the complete response
+    StreamingFunctionCallParser parser = new StreamingFunctionCallParser(session::dispatchFunctionCall);
+    String response = "{\"function\": \"lookup\", \"parameters\": {\"id\": 42}}";
+    for (char c : response.toCharArray()) {
+      parser.append(String.valueOf(c));
+      assertEquals(parser.getText().length() < response.length() - 1 ? 0 : 1, executions.get());
+    }
+    JsonNode arguments = new ObjectMapper().readTree("{\"id\": 42}");
+    ChatSession.FunctionExecutionOutcome<GenericChatMessage> outcome = session.validateAndExecuteFunctionCallAsync(
+        new GenericFunctionCall("lookup", arguments), false).get(10, TimeUnit.SECONDS);
+    assertEquals(ChatSession.FunctionExecutionOutcome.Status.EXECUTED, outcome.status());
+    assertEquals("customer 42", outcome.functionResponse().getContent());
+    assertEquals(1, executions.get());
+
+    //The dispatched call is discarded when the complete response requests a different call
+    assertTrue(session.dispatchFunctionCall("lookup", arguments));
+    outcome = session.validateAndExecuteFunctionCallAsync(
+        new GenericFunctionCall("lookup", new ObjectMapper().readTree("{\"id\": 7}")), false).get(10, TimeUnit.SECONDS);
+    assertEquals("customer 7", outcome.functionResponse().getContent());
+    assertEquals(3, executions.get());
+    //Invalid calls are not dispatched
+    assertFalse(session.dispatchFunctionCall("lookup", new ObjectMapper().readTree("{\"name\": \"Alice\"}")));
+    //Local functions are only dispatched if they are marked as idempotent
+    backend.getFunctions().get("lookup").setIdempotent(null);
+    assertFalse(session.dispatchFunctionCall("lookup", arguments));
+    assertEquals(3, executions.get());
+    //Mutations are not dispatched since they might be executed twice
+    APIQuery mutation = new APIQuery(null, "mutation AddOrder($id: Int!) { AddOrder(id: $id) { id } }", null, null);
+    backend.addFunction(RuntimeFunctionDefinition.builder()
+        .type(FunctionType.api)
+        .function(FunctionDefinition.builder().name("addOrder").description("Adds an order for a customer")
+            .parameters(FunctionDefinition.Parameters.builder().type("object").properties(Map.of("id", id))
+                .required(List.of("id")).build())
+            .build())
+        .context(List.of())
+        .api(mutation)
+        .build());
+    assertTrue(backend.validateFunctionCall("addOrder", arguments).isValid());
+    assertFalse(session.dispatchFunctionCall("addOrder", arguments));
+    assertEquals(0, apiExecutions.get());
+    //unless they are marked as idempotent
+    mutation.setIdempotent(true);
+    assertTrue(session.dispatchFunctionCall("addOrder", arguments));
+    outcome = session.validateAndExecuteFunctionCallAsync(new GenericFunctionCall("addOrder", arguments), false)
+        .get(10, TimeUnit.SECONDS);
+    assertEquals("order 42", outcome.functionResponse().getContent());
+    assertEquals(1, apiExecutions.get());
+
+    //Dispatched calls that are not used are cancelled
+    backend.addFunction(RuntimeFunctionDefinition.builder()
+        .type(FunctionType.api)
+        .function(FunctionDefinition.builder().name("orders").description("Lists the orders of a customer")
+            .parameters(FunctionDefinition.Parameters.builder().type("object").properties(Map.of("id", id))
+                .required(List.of("id")).build())
+            .build())
+        .context(List.of())
+        .api(new APIQuery(null, "query Slow($id: Int!) { Orders(id: $id) { id } }", null, null))
+        .build());
+    assertTrue(session.dispatchFunctionCall("orders", arguments));
+    outcome = session.validateAndExecuteFunctionCallAsync(new GenericFunctionCall("lookup", arguments), false)
+        .get(10, TimeUnit.SECONDS);
+    assertEquals("customer 42", outcome.functionResponse().getContent());
+    assertTrue(pending.get(0).isCancelled());
+    assertTrue(session.dispatchFunctionCall("orders", arguments));
+    session.getContextWindow();
+    assertTrue(pending.get(1).isCancelled());
+  }
+
+  @Test
+  public void testResultTruncationInFullWindow() throws Exception {
+    String result = "item ".repeat(20).trim();
+    ToolsBackend backend = new ToolsBackend(Map.of(), new ObjectMapper());
+    backend.addFunction(RuntimeFunctionDefinition.builder()
+        .type(FunctionType.local)
+        .function(FunctionDefinition.builder().name("items").description("Lists the items")
+            .parameters(FunctionDefinition.Parameters.builder().type("object").properties(Map.of())
+                .required(List.of()).build())
+            .build())
+        .context(List.of())
+        .executable(arguments -> result)
+        .build());
+    //The history does not fit into the context window of 61 tokens
+    Instant start = Instant.parse("2024-06-01T10:00:00Z");
+    List<GenericChatMessage> history = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      history.add(message(i % 2 == 0 ? "user" : "assistant", null,
+          "message " + i + " about the orders of the customer and more", start.plusSeconds(i)));
+    }
+    ChatSession<GenericChatMessage, GenericFunctionCall> session = new ChatSession<>(backend, Context.of(),
+        "Be helpful", new WordCountBindings(), new PromptPrefixCache(), null,
+        new ResultTruncator(ResultTruncator.DEFAULT_MAX_SHARE), ModelObservability.NOOP, history);
+    ContextWindow<GenericChatMessage> window = session.getContextWindow();
+    assertTrue(window.getMessages().size() < history.size());
+    assertFalse(window.getNumTokens() > 61);
+
+    //The result is truncated against the tokens available for the history, not the tokens left in the full window
+    ChatSession.FunctionExecutionOutcome<GenericChatMessage> outcome = session.validateAndExecuteFunctionCallAsync(
+        new GenericFunctionCall("items", new ObjectMapper().createObjectNode()), false).get(10, TimeUnit.SECONDS);
+    assertEquals(result, outcome.functionResponse().getContent());
+  }
+
+  private static GenericChatMessage message(String role, String name, String content, Instant timestamp) {
+    return GenericChatMessage.builder().role(role).name(name).content(content).timestamp(timestamp.toString())
+        .build();
+  }
+
+}
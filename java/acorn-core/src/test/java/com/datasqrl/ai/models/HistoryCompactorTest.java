@@ -0,0 +1,138 @@
+package com.datasqrl.ai.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datasqrl.ai.tool.CancellationToken;
+import com.datasqrl.ai.tool.ChatMessageInterface;
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.tool.GenericFunctionCall;
+import com.datasqrl.ai.tool.ModelObservability;
+import com.datasqrl.ai.tool.ToolsBackend;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class HistoryCompactorTest {
+
+  private static final Instant START = Instant.parse("2024-06-01T10:00:00Z");
+
+  private final BlockingQueue<ChatMessageInterface> saved = new LinkedBlockingQueue<>();
+  private final List<String> transcripts = new CopyOnWriteArrayList<>();
+  private final List<CancellationToken> tokens = new CopyOnWriteArrayList<>();
+  private final HistoryCompactor compactor = new HistoryCompactor(new ChatProvider() {
+    @Override
+    public GenericChatMessage chat(String message, Context context) {
+      transcripts.add(message);
+      tokens.add(context.getCancellationToken());
+      return GenericChatMessage.builder().role("assistant").content("The user asked about orders.").build();
+    }
+
+    @Override
+    public List<GenericChatMessage> getHistory(Context sessionContext, boolean includeFunctionCalls) {
+      return List.of();
+    }
+  }, 0.5);
+
+  @Test
+  public void testCompaction() throws Exception {
+    ToolsBackend backend = new ToolsBackend(Map.of(), new ObjectMapper()) {
+      @Override
+      public CompletableFuture<String> saveChatMessage(ChatMessageInterface message) {
+        saved.add(message);
+        return CompletableFuture.completedFuture("saved");
+      }
+    };
+    CancellationToken cancellationToken = CancellationToken.create();
+    ChatSession<GenericChatMessage, GenericFunctionCall> session = newSession(backend,
+        Context.of(Map.of("customerid", 1), cancellationToken), getHistory());
+
+    ContextWindow<GenericChatMessage> window = session.getContextWindow(61, WordCountBindings.ANALYZER);
+    //The system message and the 5 most recent messages fit into the window
+    assertEquals(6, window.getMessages().size());
+    GenericChatMessage summary = (GenericChatMessage) saved.poll(10, TimeUnit.SECONDS);
+    assertTrue(HistoryCompactor.isSummary(summary));
+    //The messages beyond half of the available tokens are summarized
+    assertEquals(START.plusSeconds(7), HistoryCompactor.getCoveredUntil(summary));
+    assertTrue(transcripts.get(0).contains("message 7") && !transcripts.get(0).contains("message 8"));
+    assertSame(cancellationToken, tokens.get(0));
+
+    window = session.getContextWindow(61, WordCountBindings.ANALYZER);
+    List<GenericChatMessage> messages = window.getMessages();
+    assertEquals(4, messages.size());
+    assertEquals(summary, messages.get(1));
+    assertTrue(messages.get(2).getContent().startsWith("message 8"));
+    assertFalse(window.getNumTokens() > 61);
+  }
+
+  @Test
+  public void testSavedSummary() throws Exception {
+    //The backend assigns the timestamp when a message is saved, which is after all summarized messages
+    List<GenericChatMessage> stored = new CopyOnWriteArrayList<>(getHistory());
+    ToolsBackend backend = new ToolsBackend(Map.of(), new ObjectMapper()) {
+      @Override
+      public CompletableFuture<String> saveChatMessage(ChatMessageInterface message) {
+        GenericChatMessage summary = (GenericChatMessage) message;
+        GenericChatMessage copy = GenericChatMessage.builder().role(summary.getRole()).name(summary.getName())
+            .content(summary.getContent()).timestamp(START.plusSeconds(3600).toString()).build();
+        stored.add(copy);
+        saved.add(copy);
+        return CompletableFuture.completedFuture("saved");
+      }
+    };
+    Context context = Context.of(Map.of("customerid", 1));
+    newSession(backend, context, List.copyOf(stored)).getContextWindow(61, WordCountBindings.ANALYZER);
+    GenericChatMessage summary = (GenericChatMessage) saved.poll(10, TimeUnit.SECONDS);
+    assertTrue(HistoryCompactor.isSummary(summary));
+
+    //The messages after the last summarized message are kept
+    List<GenericChatMessage> messages = newSession(backend, Context.of(Map.of("customerid", 1)), List.copyOf(stored))
+        .getContextWindow(61, WordCountBindings.ANALYZER).getMessages();
+    assertEquals(4, messages.size());
+    assertEquals(summary.getContent(), messages.get(1).getContent());
+    assertTrue(messages.get(2).getContent().startsWith("message 8"));
+    assertTrue(messages.get(3).getContent().startsWith("message 9"));
+
+    //Sessions of the conversation that are created before the summary is retrieved use the summary of the compactor
+    messages = newSession(backend, Context.of(Map.of("customerid", 1)), getHistory())
+        .getContextWindow(61, WordCountBindings.ANALYZER).getMessages();
+    assertEquals(4, messages.size());
+    assertEquals(1, transcripts.size());
+    //Other conversations are not affected
+    newSession(backend, Context.of(Map.of("customerid", 2)), getHistory())
+        .getContextWindow(61, WordCountBindings.ANALYZER);
+    assertTrue(saved.poll(10, TimeUnit.SECONDS) != null);
+    assertEquals(2, transcripts.size());
+  }
+
+  /**
+   * @return A chat history of 10 messages with 10 tokens each
+   */
+  private static List<GenericChatMessage> getHistory() {
+    List<GenericChatMessage> history = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      history.add(GenericChatMessage.builder().role(i % 2 == 0 ? "user" : "assistant")
+          .content("message " + i + " about the orders of the customer and more")
+          .timestamp(START.plusSeconds(i).toString()).build());
+    }
+    return history;
+  }
+
+  private ChatSession<GenericChatMessage, GenericFunctionCall> newSession(ToolsBackend backend, Context context,
+      List<GenericChatMessage> history) {
+    return new ChatSession<>(backend, context, "Be helpful", new WordCountBindings(), new PromptPrefixCache(),
+        compactor, ResultTruncator.NONE, ModelObservability.NOOP, history);
+  }
+
+}
@@ -0,0 +1,47 @@
+package com.datasqrl.ai.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.FunctionDefinition;
+import com.datasqrl.ai.tool.FunctionType;
+import com.datasqrl.ai.tool.RuntimeFunctionDefinition;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class PromptPrefixCacheTest {
+
+  @Test
+  public void testFunctionSets() {
+    PromptPrefixCache cache = new PromptPrefixCache(2);
+    WordCountBindings bindings = new WordCountBindings();
+    RuntimeFunctionDefinition orders = function("orders"), products = function("products"),
+        customers = function("customers");
+    PromptPrefix first = cache.get("Be helpful", List.of(orders, products), bindings, Context.of());
+    PromptPrefix second = cache.get("Be helpful", List.of(customers), bindings, Context.of());
+    //Alternating function sets keep their prefix, independent of the order of the functions
+    assertSame(first, cache.get("Be helpful", List.of(products, orders), bindings, Context.of()));
+    assertSame(second, cache.get("Be helpful", List.of(customers), bindings, Context.of()));
+    assertEquals(List.of("orders", "products"), first.getFunctions().stream().map(FunctionDefinition::getName).toList());
+    //The least recently used prefix is evicted
+    cache.get("Be brief", List.of(customers), bindings, Context.of());
+    assertSame(second, cache.get("Be helpful", List.of(customers), bindings, Context.of()));
+    assertNotSame(first, cache.get("Be helpful", List.of(orders, products), bindings, Context.of()));
+    //Changing a function definition rebuilds the prefix
+    PromptPrefix rebuilt = cache.get("Be helpful", List.of(customers), bindings, Context.of());
+    customers.setFunction(customers.getFunction().toBuilder().description("Lists all customers").build());
+    assertNotSame(rebuilt, cache.get("Be helpful", List.of(customers), bindings, Context.of()));
+  }
+
+  private static RuntimeFunctionDefinition function(String name) {
+    return RuntimeFunctionDefinition.builder()
+        .type(FunctionType.local)
+        .function(FunctionDefinition.builder().name(name).description("Lists the " + name)
+            .parameters(FunctionDefinition.Parameters.builder().type("object").build()).build())
+        .context(List.of())
+        .build();
+  }
+
+}
@@ -0,0 +1,74 @@
+package com.datasqrl.ai.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datasqrl.ai.tool.FunctionDefinition;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+public class ResultTruncatorTest {
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  /**
+   * Counts one token per three characters
+   */
+  private static final ModelAnalyzer<Object> ANALYZER = new ModelAnalyzer<>() {
+    @Override
+    public int countTokens(FunctionDefinition function) {
+      return 0;
+    }
+
+    @Override
+    public int countTokens(Object message) {
+      return countTokens(message.toString());
+    }
+
+    @Override
+    public int countTokens(String text) {
+      return (text.length() + 2) / 3;
+    }
+  };
+
+  @Test
+  public void testTruncateJson() throws Exception {
+    ObjectNode result = mapper.createObjectNode();
+    ArrayNode orders = result.putObject("data").putArray("orders");
+    for (int i = 0; i < 1000; i++) {
+      orders.addObject().put("id", i).put("customer", "customer " + i).putArray("items").add("nuts").add("seeds");
+    }
+    ResultTruncator truncator = new ResultTruncator(0.5);
+    String truncated = truncator.truncate(result.toString(), 4000, ANALYZER);
+    assertTrue(ANALYZER.countTokens(truncated) <= 2000);
+    //The result is valid JSON and the trimmed array ends with a marker for the omitted items
+    JsonNode trimmed = mapper.readTree(truncated).path("data").path("orders");
+    String marker = trimmed.get(trimmed.size() - 1).asText();
+    int omitted = Integer.parseInt(marker.replaceAll("\\D", ""));
+    assertEquals(1000, trimmed.size() - 1 + omitted);
+    assertEquals(orders.get(0), trimmed.get(0));
+
+    String small = mapper.writeValueAsString(orders.get(0));
+    assertSame(small, truncator.truncate(small, 4000, ANALYZER));
+    String full = result.toString();
+    assertSame(full, ResultTruncator.NONE.truncate(full, 10, ANALYZER));
+  }
+
+  @Test
+  public void testTruncateText() throws Exception {
+    String text = "line of text ".repeat(500);
+    String truncated = new ResultTruncator(0.5).truncate(text, 400, ANALYZER);
+    assertTrue(ANALYZER.countTokens(truncated) <= 200);
+    assertTrue(truncated.endsWith("more characters omitted]"));
+
+    //Long strings in JSON are cut off
+    String json = mapper.createObjectNode().put("description", text).toString();
+    JsonNode trimmed = mapper.readTree(new ResultTruncator(0.5).truncate(json, 400, ANALYZER));
+    assertTrue(trimmed.get("description").asText().endsWith("more characters omitted"));
+  }
+
+}
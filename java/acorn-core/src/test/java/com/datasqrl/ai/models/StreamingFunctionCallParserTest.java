@@ -0,0 +1,51 @@
+package com.datasqrl.ai.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class StreamingFunctionCallParserTest {
+
+  @Test
+  public void testFunctionCall() throws Exception {
+    List<String> calls = new ArrayList<>();
+    StreamingFunctionCallParser parser = new StreamingFunctionCallParser(
+        (name, parameters) -> calls.add(name + parameters));
+    parser.append("<|start_header_id|>assistant<|end_header_id|>\n{\"func");
+    parser.append("tion\": \"orders\", \"parameters\": {\"customerid\": 42, \"fil");
+    parser.append("ter\": {\"status\": \"open\", \"tags\": [\"a\", \"}\"]}");
+    assertTrue(calls.isEmpty());
+    parser.append("}");
+    //The function call is complete before the closing brace of the response
+    assertEquals(List.of("orders{\"customerid\":42,\"filter\":{\"status\":\"open\",\"tags\":[\"a\",\"}\"]}}"), calls);
+    parser.append("}<|eot_id|>");
+    assertEquals(1, calls.size());
+    assertTrue(parser.getText().endsWith("}}<|eot_id|>"));
+
+    //The parameters can come first
+    calls.clear();
+    parser = new StreamingFunctionCallParser((name, parameters) -> calls.add(name + parameters));
+    parser.append("{\"parameters\": {}, \"function\": \"orders\"}");
+    assertEquals(List.of("orders{}"), calls);
+  }
+
+  @Test
+  public void testNoFunctionCall() {
+    List<JsonNode> calls = new ArrayList<>();
+    for (String text : List.of("The total is 42.", "{\"answer\": \"yes\", \"function\": \"orders\", \"parameters\": {}}",
+        "Use {braces} like {\"function\": \"orders\", \"parameters\": {}}", "{\"function\": \"orders\"}")) {
+      StreamingFunctionCallParser parser = new StreamingFunctionCallParser((name, parameters) -> calls.add(parameters));
+      for (String chunk : text.split("(?<= )")) {
+        parser.append(chunk);
+      }
+      assertEquals(text, parser.getText());
+    }
+    assertTrue(calls.isEmpty());
+  }
+
+}
@@ -0,0 +1,87 @@
+package com.datasqrl.ai.models;
+
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.tool.ModelObservability;
+import com.datasqrl.ai.tool.ToolManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.auto.service.AutoService;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import lombok.SneakyThrows;
+import org.apache.commons.configuration2.Configuration;
+
+/**
+ * A chat provider for load tests that simulates a chat without a model: each message takes two model invocations
+ * with a fixed latency and calls one function of the tool manager in between. The answer is the function result.
+ *
+ * {@link #chat} blocks the calling thread while waiting for the simulated model, and {@link #chatAsync} does not
+ * hold a thread, like the chat providers for real models. The provider is configured with `provider: stub`,
+ * the model latency in `latency_ms`, and the name of the function to call in `function`. Without a function,
+ * the message is answered after a single model invocation.
+ */
+public class StubChatProvider implements ChatProvider {
+
+  public static final String PROVIDER_NAME = "stub";
+  public static final String LATENCY_KEY = "latency_ms";
+  public static final String FUNCTION_KEY = "function";
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private final ToolManager toolManager;
+  private final long latencyMs;
+  private final String function;
+
+  public StubChatProvider(ToolManager toolManager, long latencyMs, String function) {
+    this.toolManager = toolManager;
+    this.latencyMs = latencyMs;
+    this.function = function;
+  }
+
+  @Override
+  @SneakyThrows
+  public GenericChatMessage chat(String message, Context context) {
+    Thread.sleep(latencyMs);
+    if (function == null) return answer(message);
+    String result = toolManager.executeFunctionCall(function, mapper.createObjectNode(), context);
+    Thread.sleep(latencyMs);
+    return answer(result);
+  }
+
+  @Override
+  public CompletableFuture<GenericChatMessage> chatAsync(String message, Context context) {
+    Executor model = CompletableFuture.delayedExecutor(latencyMs, TimeUnit.MILLISECONDS);
+    if (function == null) return CompletableFuture.supplyAsync(() -> answer(message), model);
+    return CompletableFuture.runAsync(() -> { }, model)
+        .thenCompose(x -> toolManager.executeFunctionCallAsync(function, mapper.createObjectNode(), context))
+        .thenApplyAsync(this::answer, model);
+  }
+
+  @Override
+  public List<GenericChatMessage> getHistory(Context sessionContext, boolean includeFunctionCalls) {
+    return List.of();
+  }
+
+  private GenericChatMessage answer(String content) {
+    return GenericChatMessage.builder().role("assistant").content(content).build();
+  }
+
+  @AutoService(ChatProviderFactory.class)
+  public static class Factory implements ChatProviderFactory {
+
+    @Override
+    public String getProviderName() {
+      return PROVIDER_NAME;
+    }
+
+    @Override
+    public ChatProvider create(Configuration modelConfiguration, ToolManager backend, String prompt,
+        ModelObservability observability) {
+      return new StubChatProvider(backend, modelConfiguration.getLong(LATENCY_KEY, 500),
+          modelConfiguration.getString(FUNCTION_KEY, null));
+    }
+  }
+
+}
@@ -0,0 +1,92 @@
+package com.datasqrl.ai.models;
+
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.FunctionDefinition;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.tool.GenericFunctionCall;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Model bindings for {@link GenericChatMessage} that count one token per word
+ */
+class WordCountBindings implements ModelBindings<GenericChatMessage, GenericFunctionCall> {
+
+  static final ModelAnalyzer<GenericChatMessage> ANALYZER = new ModelAnalyzer<>() {
+    @Override
+    public int countTokens(FunctionDefinition function) {
+      return 0;
+    }
+
+    @Override
+    public int countTokens(GenericChatMessage message) {
+      return countTokens(message.getContent());
+    }
+
+    @Override
+    public int countTokens(String generation) {
+      return generation.split(" ").length;
+    }
+  };
+
+  @Override
+  public GenericChatMessage convertMessage(GenericChatMessage message) {
+    return message;
+  }
+
+  @Override
+  public GenericChatMessage convertMessage(GenericChatMessage message, Context sessionContext) {
+    message.setContext(sessionContext.asMap());
+    message.setNumTokens(ANALYZER.countTokens(message));
+    return message;
+  }
+
+  @Override
+  public boolean isUserOrAssistantMessage(GenericChatMessage message) {
+    return true;
+  }
+
+  @Override
+  public ModelAnalyzer<GenericChatMessage> getTokenCounter() {
+    return ANALYZER;
+  }
+
+  @Override
+  public int getMaxInputTokens() {
+    return 61;
+  }
+
+  @Override
+  public GenericChatMessage createSystemMessage(String systemMessage) {
+    return GenericChatMessage.builder().role("system").content(systemMessage).build();
+  }
+
+  @Override
+  public String getFunctionName(GenericFunctionCall functionCall) {
+    return functionCall.getName();
+  }
+
+  @Override
+  public JsonNode getFunctionArguments(GenericFunctionCall functionCall) {
+    return functionCall.getArguments();
+  }
+
+  @Override
+  public GenericChatMessage newFunctionResultMessage(String functionName, String functionResult) {
+    return GenericChatMessage.builder().role("function").name(functionName).content(functionResult).build();
+  }
+
+  @Override
+  public GenericChatMessage convertExceptionToMessage(String s) {
+    return GenericChatMessage.builder().role("function").content(s).build();
+  }
+
+  @Override
+  public String getTextContent(GenericChatMessage message) {
+    return message.getContent();
+  }
+
+  @Override
+  public GenericChatMessage newUserMessage(String text) {
+    return GenericChatMessage.builder().role("user").content(text).build();
+  }
+}
@@ -0,0 +1,57 @@
+package com.datasqrl.ai.tool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ArgumentRepairTest {
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private static final String SCHEMA = """
+      {"type": "object", "required": ["customerId"], "properties": {
+        "customerId": {"type": "integer"},
+        "minTotal": {"type": "number"},
+        "expand": {"type": "boolean"},
+        "status": {"type": "string", "enum": ["OPEN", "SHIPPED"]},
+        "tags": {"type": "array", "items": {"type": "string"}},
+        "filter": {"type": "object", "properties": {"fromDate": {"type": "string"}}}
+      }}""";
+
+  @Test
+  public void testRepair() throws Exception {
+    List<String> repairs = new ArrayList<>();
+    JsonNode repaired = ArgumentRepair.repair(mapper.readTree(SCHEMA), mapper.readTree("""
+        {"customer_id": "42", "minTotal": "10.5", "expand": "True", "status": "shipped", "tags": 7,
+         "fromDate": "2024-01-01", "limit": null}"""), repairs);
+    assertEquals(mapper.readTree("""
+        {"customerId": 42, "minTotal": 10.5, "expand": true, "status": "SHIPPED", "tags": ["7"],
+         "filter": {"fromDate": "2024-01-01"}}"""), repaired);
+    assertEquals(9, repairs.size(), repairs.toString());
+
+    //Arguments that are wrapped or sent as a JSON string
+    repairs.clear();
+    assertEquals(mapper.readTree("{\"customerId\": 42, \"tags\": [\"a\"]}"), ArgumentRepair.repair(
+        mapper.readTree(SCHEMA), mapper.readTree("{\"arguments\": \"{\\\"customerId\\\": 42, \\\"tags\\\": [\\\"a\\\"]}\"}"),
+        repairs));
+    assertEquals(2, repairs.size(), repairs.toString());
+  }
+
+  @Test
+  public void testNoRepair() throws Exception {
+    List<String> repairs = new ArrayList<>();
+    JsonNode valid = mapper.readTree("{\"customerId\": 42, \"status\": \"OPEN\", \"tags\": [\"a\"]}");
+    assertSame(valid, ArgumentRepair.repair(mapper.readTree(SCHEMA), valid, repairs));
+    //Values that cannot be converted are left for the validation to report
+    JsonNode invalid = mapper.readTree("{\"customerId\": \"forty-two\", \"status\": \"closed\"}");
+    assertSame(invalid, ArgumentRepair.repair(mapper.readTree(SCHEMA), invalid, repairs));
+    assertTrue(repairs.isEmpty());
+  }
+
+}
@@ -0,0 +1,43 @@
+package com.datasqrl.ai.tool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+public class ResultEncoderTest {
+
+  private static final String ORDERS = """
+      {"data": {"orders": [
+        {"__typename": "Order", "id": 1, "customer": "Alice, Inc.", "total": 10.5, "note": null},
+        {"__typename": "Order", "id": 2, "customer": "Bob", "total": 3, "items": [{"name": "nuts"}]}
+      ]}}""";
+
+  @Test
+  public void testTableEncoding() {
+    assertEquals("""
+        data.orders:
+        id,customer,total,items
+        1,"Alice, Inc.",10.5,
+        2,Bob,3,"[{""name"":""nuts""}]"
+        """, ResultEncoder.encode(ORDERS, ResultFormat.csv));
+    assertEquals("""
+        data.orders:
+        id\tcustomer\ttotal\titems
+        1\tAlice, Inc.\t10.5\t
+        2\tBob\t3\t[{"name":"nuts"}]
+        """, ResultEncoder.encode(ORDERS, ResultFormat.tsv));
+  }
+
+  @Test
+  public void testOtherResults() {
+    //Results that are not arrays of objects are stripped and passed as compact JSON
+    assertEquals("{\"data\":{\"customer\":{\"id\":1,\"tags\":[\"a\",null]}}}", ResultEncoder.encode(
+        "{\"data\": {\"customer\": {\"__typename\": \"Customer\", \"id\": 1, \"email\": null, \"tags\": [\"a\", null]}}}",
+        ResultFormat.tsv));
+    String text = "Could not find customer";
+    assertSame(text, ResultEncoder.encode(text, ResultFormat.csv));
+    assertSame(ORDERS, ResultEncoder.encode(ORDERS, ResultFormat.json));
+  }
+
+}
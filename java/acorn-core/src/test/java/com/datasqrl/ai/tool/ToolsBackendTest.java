@@ -4,6 +4,7 @@ import com.datasqrl.ai.api.APIExecutor;
 import com.datasqrl.ai.api.APIExecutorFactory;
 import com.datasqrl.ai.api.APIQuery;
 import com.datasqrl.ai.api.MockAPIExecutor;
+import com.datasqrl.ai.models.ModelAnalyzer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -15,13 +16,25 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -148,7 +161,303 @@ public class ToolsBackendTest {
   }
 
 
+  @Test
+  public void testCoalescing() throws Exception {
+    AtomicInteger apiCalls = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+    CountDownLatch joined = new CountDownLatch(3);
+    APIExecutor api = new MockAPIExecutor(query -> {
+      apiCalls.incrementAndGet();
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return "result";
+    });
+    ToolObservability observability = new ToolObservability() {
+      @Override
+      public ToolCall start(String toolName) {
+        return NOOP.start(toolName);
+      }
+
+      @Override
+      public void callCoalesced(String toolName) {
+        joined.countDown();
+      }
+    };
+    ToolsBackend backend = ToolsBackendFactory.of(getNutshopFunctions(),
+        Map.of(APIExecutorFactory.DEFAULT_NAME, api), Set.of(), observability);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      results.add(executor.submit(() -> backend.executeFunctionCall("orders",
+          convert(Map.of("limit", 10)), Context.of(Map.of("customerid", 1)))));
+      started.await();
+      for (int i = 0; i < 3; i++) {
+        //Identical calls from other requests share the in-flight call
+        results.add(executor.submit(() -> backend.executeFunctionCall("orders",
+            objectMapper.createObjectNode().put("limit", 10), Context.of(Map.of("customerid", 1)))));
+      }
+      assertTrue(joined.await(5, TimeUnit.SECONDS));
+      release.countDown();
+      for (Future<String> result : results) {
+        assertEquals("result", result.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(1, apiCalls.get());
+      //Different context executes a separate call
+      assertEquals("result", backend.executeFunctionCall("orders",
+          convert(Map.of("limit", 10)), Context.of(Map.of("customerid", 2))));
+      assertEquals(2, apiCalls.get());
+      //Coalescing can be disabled per function
+      backend.getFunctions().get("orders").setCoalesce(false);
+      assertEquals("result", backend.executeFunctionCall("orders",
+          convert(Map.of("limit", 10)), Context.of(Map.of("customerid", 2))));
+      assertEquals(3, apiCalls.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testCancellation() throws Exception {
+    List<CompletableFuture<String>> calls = new ArrayList<>();
+    APIExecutor api = new APIExecutor() {
+      @Override
+      public void validate(APIQuery query) throws IllegalArgumentException {
+      }
+
+      @Override
+      public String executeQuery(APIQuery query, JsonNode arguments) {
+        return "result";
+      }
+
+      @Override
+      public synchronized CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        calls.add(call);
+        return call;
+      }
+    };
+    ToolsBackend backend = ToolsBackendFactory.of(getNutshopFunctions(), Map.of(APIExecutorFactory.DEFAULT_NAME, api));
+    //Deadline bounds the call and cancels it
+    Context context = Context.of(Map.of("customerid", 1), CancellationToken.withTimeout(Duration.ofMillis(100)));
+    assertThrows(CancellationException.class, () -> backend.executeFunctionCall("orders",
+        convert(Map.of("limit", 10)), context));
+    assertTrue(calls.get(0).isCancelled());
+    assertTrue(context.getCancellationToken().isCancelled());
+    //Explicit cancellation aborts the call
+    CancellationToken token = CancellationToken.create();
+    CompletableFuture<String> result = CompletableFuture.supplyAsync(() -> {
+      try {
+        return backend.executeFunctionCall("orders", convert(Map.of("limit", 5)), Context.of(Map.of("customerid", 1), token));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    while (calls.size() < 2) Thread.sleep(5);
+    token.cancel("Client disconnected");
+    ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+    assertInstanceOf(CancellationException.class, e.getCause());
+    assertTrue(calls.get(1).isCancelled());
+    //Without cancellation, calls are executed synchronously
+    assertEquals("result", backend.executeFunctionCall("orders", convert(Map.of("limit", 5)), Context.of(Map.of("customerid", 1))));
+  }
+
+  @Test
+  public void testAsyncExecution() throws Exception {
+    List<CompletableFuture<String>> calls = new ArrayList<>();
+    APIExecutor api = new APIExecutor() {
+      @Override
+      public void validate(APIQuery query) throws IllegalArgumentException {
+      }
+
+      @Override
+      public String executeQuery(APIQuery query, JsonNode arguments) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public synchronized CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        calls.add(call);
+        return call;
+      }
+    };
+    ToolsBackend backend = ToolsBackendFactory.of(getNutshopFunctions(), Map.of(APIExecutorFactory.DEFAULT_NAME, api));
+    //Identical calls share the in-flight call without blocking
+    Context context = Context.of(Map.of("customerid", 1));
+    CompletableFuture<String> first = backend.executeFunctionCallAsync("orders", convert(Map.of("limit", 10)), context);
+    CompletableFuture<String> second = backend.executeFunctionCallAsync("orders", convert(Map.of("limit", 10)), context);
+    assertEquals(1, calls.size());
+    assertFalse(first.isDone());
+    calls.get(0).complete("result");
+    assertEquals("result", first.get(5, TimeUnit.SECONDS));
+    assertEquals("result", second.get(5, TimeUnit.SECONDS));
+    //API errors fail the future with the IOException
+    CompletableFuture<String> failed = backend.executeFunctionCallAsync("orders", convert(Map.of("limit", 5)), context);
+    calls.get(1).completeExceptionally(new IOException("API down"));
+    ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+    assertInstanceOf(IOException.class, e.getCause());
+    //Cancellation aborts the call
+    CancellationToken token = CancellationToken.create();
+    CompletableFuture<String> cancelled = backend.executeFunctionCallAsync("orders", convert(Map.of("limit", 5)),
+        Context.of(Map.of("customerid", 1), token));
+    token.cancel("Client disconnected");
+    e = assertThrows(ExecutionException.class, () -> cancelled.get(5, TimeUnit.SECONDS));
+    assertInstanceOf(CancellationException.class, e.getCause());
+    assertTrue(calls.get(2).isCancelled());
+    // Mutations are not coalesced by default
+    RuntimeFunctionDefinition orders = backend.getFunctions().get("orders");
+    orders.setApi(new APIQuery(null, "mutation AddOrder($customerid: Int!) { AddOrder(customerid: $customerid) { id } }", null, null));
+    assertFalse(orders.isCoalesced());
+    backend.executeFunctionCallAsync("orders", convert(Map.of("limit", 10)), context);
+    backend.executeFunctionCallAsync("orders", convert(Map.of("limit", 10)), context);
+    assertEquals(5, calls.size());
+  }
+
   @SneakyThrows
+  @Test
+  public void testToolSelection() {
+    ToolsBackend backend = new ToolsBackend(Map.of(), objectMapper);
+    backend.addFunction(localFunction("Orders", "Returns the orders of the customer with their items"));
+    backend.addFunction(localFunction("Products", "Looks up products by name or category"));
+    backend.addFunction(localFunction("CustomerAddress", "Returns the shipping address of the customer"));
+    for (int i = 0; i < 20; i++) {
+      backend.addFunction(localFunction("Metric" + i, "Returns the value of metric " + i + " for a week"));
+    }
+    backend.setToolSelector(new ToolSelector(3, 2, 10));
+
+    List<GenericChatMessage> messages = new ArrayList<>();
+    messages.add(GenericChatMessage.builder().role("user").content("Which products are nuts?").build());
+    messages.add(GenericChatMessage.builder().role("assistant")
+        .functionCall(new GenericFunctionCall("Products", objectMapper.createObjectNode())).build());
+    messages.add(GenericChatMessage.builder().role("function").name("Products").content("[]").build());
+    messages.add(GenericChatMessage.builder().role("user").content("What did I order last week?").build());
+    Set<String> selected = names(backend.selectFunctions(messages));
+    assertEquals(3, selected.size());
+    //Recently called functions stay selected
+    assertTrue(selected.containsAll(Set.of("Products", "Orders")), selected.toString());
+
+    messages.add(GenericChatMessage.builder().role("user").content("What is my shipping address?").build());
+    assertEquals(Set.of("Products", "Orders", "CustomerAddress"), names(backend.selectFunctions(messages)));
+    //Without a selector, all functions are offered
+    backend.setToolSelector(null);
+    assertEquals(23, backend.selectFunctions(messages).size());
+  }
+
+  @Test
+  public void testRepairFunctionCall() throws Exception {
+    ToolsBackend backend = ToolsBackendFactory.of(getNutshopFunctions(),
+        Map.of(APIExecutorFactory.DEFAULT_NAME, MockAPIExecutor.of("none")));
+    JsonNode arguments = objectMapper.readTree("{\"Limit\": \"5\"}");
+    assertFalse(backend.validateFunctionCall("functions.Orders", arguments).isValid());
+    FunctionCallRepair repair = backend.repairFunctionCall("functions.Orders", arguments);
+    assertEquals("orders", repair.functionName());
+    assertEquals(objectMapper.readTree("{\"limit\": 5}"), repair.arguments());
+    assertEquals(3, repair.repairs().size());
+    assertTrue(backend.validateFunctionCall(repair.functionName(), repair.arguments()).isValid());
+    //Calls that cannot be matched to a single function are not repaired
+    assertNull(backend.repairFunctionCall("customer", arguments));
+  }
+
+  @Test
+  public void testCanonicalFunctionOrder() throws Exception {
+    List<String> serialized = new ArrayList<>();
+    for (List<String> order : List.of(List.of("orders", "limit", "customerid", "products"),
+        List.of("products", "customerid", "limit", "orders"))) {
+      ToolsBackend backend = new ToolsBackend(Map.of(), objectMapper);
+      for (String name : List.of(order.get(0), order.get(3))) {
+        Map<String, FunctionDefinition.Argument> properties = new LinkedHashMap<>();
+        List<String> required = new ArrayList<>();
+        for (String parameter : order) {
+          properties.put(parameter, FunctionDefinition.Argument.builder().type("string").build());
+          required.add(parameter);
+        }
+        backend.addFunction(RuntimeFunctionDefinition.builder()
+            .type(FunctionType.local)
+            .function(FunctionDefinition.builder().name(name).description("Returns " + name)
+                .parameters(FunctionDefinition.Parameters.builder().type("object").properties(properties)
+                    .required(required).build())
+                .build())
+            .context(List.of("customerid"))
+            .executable(arguments -> "")
+            .build());
+      }
+      serialized.add(objectMapper.writeValueAsString(backend.selectFunctions(List.of()).stream()
+          .map(RuntimeFunctionDefinition::getChatFunction).toList()));
+    }
+    //Functions and parameters are serialized in the same order regardless of the order they were defined in
+    assertEquals(serialized.get(0), serialized.get(1));
+    assertFalse(serialized.get(0).contains("customerid"));
+  }
+
+  @Test
+  public void testChatFunctionView() {
+    RuntimeFunctionDefinition function = getNutshopFunctions().stream()
+        .filter(f -> f.getName().equalsIgnoreCase("orders")).findFirst().orElseThrow();
+    FunctionDefinition chatFunction = function.getChatFunction();
+    assertSame(chatFunction, function.getChatFunction());
+    assertThrows(UnsupportedOperationException.class, () -> chatFunction.getParameters().getProperties().clear());
+    //The view does not share arguments with the function
+    assertEquals(function.getFunction().getParameters().getProperties().get("limit"),
+        chatFunction.getParameters().getProperties().get("limit"));
+    assertNotSame(function.getFunction().getParameters().getProperties().get("limit"),
+        chatFunction.getParameters().getProperties().get("limit"));
+    //Token counts are cached per tokenizer
+    ModelAnalyzer<String> small = new FixedAnalyzer(10), large = new FixedAnalyzer(20);
+    assertEquals(10, function.getNumTokens(small));
+    assertEquals(20, function.getNumTokens(large));
+    function.setNumTokens(small.getTokenizerName(), 15);
+    assertEquals(15, function.getNumTokens(new FixedAnalyzer(10)));
+    //Replacing the context recomputes the view
+    function.setContext(List.of());
+    assertNotSame(chatFunction, function.getChatFunction());
+    assertTrue(function.getChatFunction().getParameters().getProperties().containsKey("customerid"));
+    assertEquals(20, function.getNumTokens(large));
+    //Modifying the context in place recomputes the view
+    List<String> context = new ArrayList<>();
+    function.setContext(context);
+    FunctionDefinition withoutContext = function.getChatFunction();
+    context.add("customerid");
+    assertNotSame(withoutContext, function.getChatFunction());
+    assertFalse(function.getChatFunction().getParameters().getProperties().containsKey("customerid"));
+  }
+
+  private record FixedAnalyzer(int numTokens) implements ModelAnalyzer<String> {
+
+    @Override
+    public int countTokens(FunctionDefinition function) {
+      return numTokens;
+    }
+
+    @Override
+    public int countTokens(String message) {
+      return numTokens;
+    }
+
+    @Override
+    public String getTokenizerName() {
+      return "fixed" + numTokens;
+    }
+  }
+
+  private static Set<String> names(Collection<RuntimeFunctionDefinition> functions) {
+    return functions.stream().map(RuntimeFunctionDefinition::getName).collect(Collectors.toSet());
+  }
+
+  private static RuntimeFunctionDefinition localFunction(String name, String description) {
+    return RuntimeFunctionDefinition.builder()
+        .type(FunctionType.local)
+        .function(FunctionDefinition.builder().name(name).description(description)
+            .parameters(FunctionDefinition.Parameters.builder().type("object").properties(Map.of()).required(List.of()).build())
+            .build())
+        .context(List.of())
+        .executable(arguments -> "")
+        .build();
+  }
+
   private static JsonNode backendSerialize(GenericChatMessage... messages) {
     ArrayNode arrayNode = objectMapper.createArrayNode();
     for (GenericChatMessage msg: messages) {
@@ -0,0 +1,115 @@
+package com.datasqrl.ai.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datasqrl.ai.util.AdmissionControl.AdmissionRejectedException;
+import com.datasqrl.ai.util.AdmissionControl.Permit;
+import com.datasqrl.ai.util.AdmissionControl.RejectionReason;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class AdmissionControlTest {
+
+  @Test
+  public void testQueueing() throws Exception {
+    AdmissionControl admission = new AdmissionControl(2, 2, Duration.ofMinutes(1));
+    Permit first = admission.acquire().getNow(null);
+    Permit second = admission.acquire().getNow(null);
+    CompletableFuture<Permit> third = admission.acquire();
+    CompletableFuture<Permit> fourth = admission.acquire();
+    assertFalse(third.isDone());
+    assertEquals(2, admission.getInFlight());
+    assertEquals(2, admission.getQueued());
+    assertRejected(RejectionReason.QUEUE_FULL, admission.acquire());
+
+    //Cancelled requests leave the queue and are skipped
+    third.cancel(false);
+    assertEquals(1, admission.getQueued());
+    first.release();
+    first.release();
+    assertTrue(fourth.isDone());
+    assertEquals(0, admission.getQueued());
+    assertEquals(2, admission.getInFlight());
+
+    second.release();
+    fourth.get().release();
+    assertEquals(0, admission.getInFlight());
+  }
+
+  @Test
+  public void testQueueTimeout() throws Exception {
+    AdmissionControl admission = new AdmissionControl(1, 1, Duration.ofMillis(50));
+    Permit permit = admission.acquire().get();
+    assertRejected(RejectionReason.QUEUE_TIMEOUT, admission.acquire());
+    assertEquals(0, admission.getQueued());
+    permit.release();
+    assertEquals(0, admission.getInFlight());
+  }
+
+  @Test
+  public void testBackgroundPriority() throws Exception {
+    AdmissionControl admission = new AdmissionControl(1, 1, Duration.ofMinutes(1));
+    Permit first = admission.acquireBackground().get();
+    CompletableFuture<Permit> background = admission.acquireBackground();
+    CompletableFuture<Permit> regular = admission.acquire();
+    assertEquals(1, admission.getBackgroundQueued());
+    //Regular requests are admitted before background requests that arrived earlier
+    first.release();
+    assertTrue(regular.isDone());
+    assertFalse(background.isDone());
+    //Background requests are not admitted while regular requests wait
+    assertFalse(admission.acquireBackground().isDone());
+    regular.get().release();
+    assertTrue(background.isDone());
+    background.get().release();
+    assertEquals(1, admission.getInFlight());
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+    int maxInFlight = 8;
+    AdmissionControl admission = new AdmissionControl(maxInFlight, 1000, Duration.ofMinutes(1));
+    ExecutorService workers = Executors.newFixedThreadPool(32);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<CompletableFuture<Void>> requests = new ArrayList<>();
+    try {
+      for (int i = 0; i < 1000; i++) {
+        requests.add(admission.acquire().thenAcceptAsync(permit -> {
+          try (permit) {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(1);
+            running.decrementAndGet();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }, workers));
+      }
+      CompletableFuture.allOf(requests.toArray(CompletableFuture[]::new)).get(1, TimeUnit.MINUTES);
+    } finally {
+      workers.shutdownNow();
+    }
+    assertTrue(maxRunning.get() <= maxInFlight, "Exceeded limit: " + maxRunning.get());
+    assertEquals(0, admission.getInFlight());
+    assertEquals(0, admission.getQueued());
+  }
+
+  private static void assertRejected(RejectionReason reason, CompletableFuture<Permit> request) {
+    ExecutionException e = assertThrows(ExecutionException.class, () -> request.get(1, TimeUnit.SECONDS));
+    assertInstanceOf(AdmissionRejectedException.class, e.getCause());
+    assertEquals(reason, ((AdmissionRejectedException) e.getCause()).getReason());
+  }
+
+}
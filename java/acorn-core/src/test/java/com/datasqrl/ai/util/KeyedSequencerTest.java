@@ -0,0 +1,122 @@
+package com.datasqrl.ai.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class KeyedSequencerTest {
+
+  private static final int USERS = 64;
+  private static final int MESSAGES_PER_USER = 50;
+  private static final int SUBMITTING_THREADS = 16;
+
+  @Test
+  public void testStress() throws Exception {
+    KeyedSequencer<String> sequencer = new KeyedSequencer<>();
+    ExecutorService submitters = Executors.newFixedThreadPool(SUBMITTING_THREADS);
+    ExecutorService workers = Executors.newFixedThreadPool(32);
+    Map<String, List<Integer>> processed = new ConcurrentHashMap<>();
+    Map<String, AtomicBoolean> running = new ConcurrentHashMap<>();
+    AtomicInteger overlaps = new AtomicInteger();
+    AtomicInteger concurrent = new AtomicInteger();
+    AtomicInteger maxConcurrent = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<List<CompletableFuture<Integer>>>> submissions = new ArrayList<>();
+      for (int t = 0; t < SUBMITTING_THREADS; t++) {
+        int thread = t;
+        submissions.add(submitters.submit(() -> {
+          start.await();
+          List<CompletableFuture<Integer>> results = new ArrayList<>();
+          //Each user is submitted by one thread so that the submission order is defined
+          for (int m = 0; m < MESSAGES_PER_USER; m++) {
+            for (int u = thread; u < USERS; u += SUBMITTING_THREADS) {
+              String user = "user" + u;
+              int message = m;
+              results.add(sequencer.submit(user, () -> CompletableFuture.supplyAsync(() -> {
+                AtomicBoolean userRunning = running.computeIfAbsent(user, k -> new AtomicBoolean());
+                if (!userRunning.compareAndSet(false, true)) overlaps.incrementAndGet();
+                maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                try {
+                  Thread.sleep(1);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+                processed.computeIfAbsent(user, k -> new CopyOnWriteArrayList<>()).add(message);
+                concurrent.decrementAndGet();
+                userRunning.set(false);
+                return message;
+              }, workers)));
+            }
+          }
+          return results;
+        }));
+      }
+      start.countDown();
+      for (Future<List<CompletableFuture<Integer>>> submission : submissions) {
+        for (CompletableFuture<Integer> result : submission.get(1, TimeUnit.MINUTES)) {
+          result.get(1, TimeUnit.MINUTES);
+        }
+      }
+    } finally {
+      submitters.shutdownNow();
+      workers.shutdownNow();
+    }
+    assertEquals(0, overlaps.get(), "Messages of the same user must not be processed concurrently");
+    assertTrue(maxConcurrent.get() > 1, "Messages of different users should be processed concurrently");
+    assertEquals(USERS, processed.size());
+    List<Integer> expected = new ArrayList<>();
+    for (int m = 0; m < MESSAGES_PER_USER; m++) expected.add(m);
+    processed.forEach((user, messages) -> assertEquals(expected, messages, "Order of " + user));
+    assertEquals(0, sequencer.size());
+  }
+
+  @Test
+  public void testCancelledAndFailedTasks() throws Exception {
+    KeyedSequencer<String> sequencer = new KeyedSequencer<>();
+    CompletableFuture<String> first = new CompletableFuture<>();
+    CompletableFuture<String> firstResult = sequencer.submit("user", () -> first);
+    AtomicBoolean secondStarted = new AtomicBoolean(false);
+    CompletableFuture<String> secondResult = sequencer.submit("user", () -> {
+      secondStarted.set(true);
+      return CompletableFuture.completedFuture("second");
+    });
+    CompletableFuture<String> thirdResult = sequencer.submit("user", () -> {
+      throw new IllegalStateException("failed");
+    });
+    CompletableFuture<String> fourthResult = sequencer.submit("user", () -> CompletableFuture.completedFuture("fourth"));
+    //Queued tasks that are cancelled are skipped
+    secondResult.cancel(false);
+    assertFalse(fourthResult.isDone());
+    first.complete("first");
+    assertEquals("first", firstResult.get());
+    assertFalse(secondStarted.get());
+    assertTrue(thirdResult.isCompletedExceptionally());
+    assertEquals("fourth", fourthResult.get(1, TimeUnit.SECONDS));
+    assertEquals(0, sequencer.size());
+    // Cancelling a started task cancels its future and starts the next task
+    CompletableFuture<String> running = new CompletableFuture<>();
+    CompletableFuture<String> runningResult = sequencer.submit("user", () -> running);
+    CompletableFuture<String> nextResult = sequencer.submit("user", () -> CompletableFuture.completedFuture("next"));
+    runningResult.cancel(false);
+    assertTrue(running.isCancelled());
+    assertEquals("next", nextResult.get(1, TimeUnit.SECONDS));
+    assertEquals(0, sequencer.size());
+  }
+
+}
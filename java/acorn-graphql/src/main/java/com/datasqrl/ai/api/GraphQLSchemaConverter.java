@@ -1,13 +1,13 @@
 package com.datasqrl.ai.api;
 
-import static graphql.Scalars.GraphQLString;
-
 import com.datasqrl.ai.tool.FunctionDefinition;
 import com.datasqrl.ai.tool.FunctionDefinition.Argument;
 import com.datasqrl.ai.tool.FunctionDefinition.Parameters;
 import com.datasqrl.ai.tool.FunctionType;
 import com.datasqrl.ai.tool.RuntimeFunctionDefinition;
-import com.datasqrl.ai.util.ErrorHandling;
+import graphql.GraphQLContext;
+import graphql.execution.ValuesResolver;
+import graphql.language.AstPrinter;
 import graphql.schema.GraphQLArgument;
 import graphql.schema.GraphQLEnumType;
 import graphql.schema.GraphQLEnumValueDefinition;
@@ -21,20 +21,19 @@ import graphql.schema.GraphQLObjectType;
 import graphql.schema.GraphQLOutputType;
 import graphql.schema.GraphQLScalarType;
 import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLTypeUtil;
+import graphql.schema.InputValueWithState;
 import graphql.schema.idl.RuntimeWiring;
 import graphql.schema.idl.SchemaGenerator;
 import graphql.schema.idl.SchemaParser;
-import graphql.schema.idl.SchemaPrinter;
 import graphql.schema.idl.TypeDefinitionRegistry;
 import graphql.scalars.ExtendedScalars;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Locale;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.Value;
@@ -45,37 +44,48 @@ import org.apache.commons.lang3.tuple.Pair;
 /**
  * Converts a given GraphQL Schema to a tools configuration for the function backend.
  * It extracts all queries and mutations and converts them into {@link com.datasqrl.ai.tool.RuntimeFunctionDefinition}.
+ *
+ * The root fields are converted independently of each other and in parallel unless the {@link #PARALLEL_KEY}
+ * option is set to false.
  */
 @Value
 @Slf4j
 public class GraphQLSchemaConverter {
 
+  public static final String PARALLEL_KEY = "parallel";
+  /**
+   * Version of the conversion, must be incremented whenever the functions generated for a schema change so that
+   * cached conversions (e.g. tool catalogs) are rebuilt
+   */
+  public static final int VERSION = 1;
+
   Configuration configuration;
   String apiName;
 
-  SchemaPrinter schemaPrinter = new SchemaPrinter(SchemaPrinter.Options.defaultOptions().descriptionsAsHashComments(true));
-
   public List<RuntimeFunctionDefinition> convert(String schemaString) {
     TypeDefinitionRegistry typeRegistry = new SchemaParser().parse(schemaString);
     RuntimeWiring.Builder runtimeWiringBuilder = RuntimeWiring.newRuntimeWiring();
     getExtendedScalars().forEach(runtimeWiringBuilder::scalar);
     GraphQLSchema graphQLSchema = new SchemaGenerator().makeExecutableSchema(typeRegistry, runtimeWiringBuilder.build());
 
-    List<RuntimeFunctionDefinition> functions = new ArrayList<>();
-
     GraphQLObjectType queryType = graphQLSchema.getQueryType();
     GraphQLObjectType mutationType = graphQLSchema.getMutationType();
-    Stream.concat(queryType.getFieldDefinitions().stream().map(fieldDef -> Pair.of("query", fieldDef))
-            ,mutationType.getFieldDefinitions().stream().map(fieldDef -> Pair.of("mutation", fieldDef)))
-        .flatMap(input -> {
+    List<Pair<String, GraphQLFieldDefinition>> rootFields = new ArrayList<>();
+    queryType.getFieldDefinitions().forEach(fieldDef -> rootFields.add(Pair.of("query", fieldDef)));
+    if (mutationType != null) {
+      mutationType.getFieldDefinitions().forEach(fieldDef -> rootFields.add(Pair.of("mutation", fieldDef)));
+    }
+    Stream<Pair<String, GraphQLFieldDefinition>> fields = configuration.getBoolean(PARALLEL_KEY, true)
+        ? rootFields.parallelStream() : rootFields.stream();
+    //Parallel streams preserve the order of the root fields
+    return fields.flatMap(input -> {
       try {
         return Stream.of(convert(input.getKey(), input.getValue()));
       } catch (Exception e) {
         log.error("Error converting query: {}", input.getValue(), e);
         return Stream.of();
       }
-    }).forEach(functions::add);
-    return functions;
+    }).toList();
   }
 
   public static List<GraphQLScalarType> getExtendedScalars() {
@@ -100,14 +110,11 @@ public class GraphQLSchemaConverter {
   private record Context(String prefix, int numArgs) {}
 
   public RuntimeFunctionDefinition convert(String prefix, GraphQLFieldDefinition fieldDef) {
-    FunctionDefinition funcDef = new FunctionDefinition();
-    Parameters params = new Parameters();
-    params.setType("object");
-    params.setProperties(new HashMap<>());
-    params.setRequired(new ArrayList<>());
-    funcDef.setDescription(fieldDef.getDescription());
-    funcDef.setName(fieldDef.getName());
-    funcDef.setParameters(params);
+    Parameters params = Parameters.builder()
+        .type("object")
+        .properties(new HashMap<>())
+        .required(new ArrayList<>())
+        .build();
 
     StringBuilder queryHeader = new StringBuilder(prefix).append(" ").append(fieldDef.getName()).append("(");
     StringBuilder queryBody = new StringBuilder();
@@ -115,6 +122,11 @@ public class GraphQLSchemaConverter {
     visit(fieldDef, queryBody, queryHeader, params, new Context("", 0));
 
     queryHeader.append(") {\n").append(queryBody).append("\n}");
+    FunctionDefinition funcDef = FunctionDefinition.builder()
+        .name(fieldDef.getName())
+        .description(fieldDef.getDescription())
+        .parameters(params)
+        .build();
     APIQuery apiQuery = new APIQuery();
     apiQuery.setQuery(queryHeader.toString());
     apiQuery.setName(apiName);
@@ -141,20 +153,20 @@ public class GraphQLSchemaConverter {
     return new UnwrappedType(type, required);
   }
 
-  private Argument convert(GraphQLInputType graphQLInputType) {
-    Argument argument = new Argument();
+  private Argument convert(GraphQLInputType graphQLInputType, String description) {
+    Argument.ArgumentBuilder argument = Argument.builder().description(description);
     if (graphQLInputType instanceof GraphQLScalarType) {
-      argument.setType(convertScalarTypeToJsonType((GraphQLScalarType) graphQLInputType));
+      argument.type(convertScalarTypeToJsonType((GraphQLScalarType) graphQLInputType));
     } else if (graphQLInputType instanceof GraphQLEnumType enumType) {
-      argument.setType("string");
-      argument.setEnumValues(enumType.getValues().stream().map(GraphQLEnumValueDefinition::getName).collect(Collectors.toSet()));
+      argument.type("string");
+      argument.enumValues(enumType.getValues().stream().map(GraphQLEnumValueDefinition::getName).collect(Collectors.toSet()));
     } else if (graphQLInputType instanceof GraphQLList) {
-      argument.setType("array");
-      argument.setItems(convert(convertRequired((GraphQLInputType) ((GraphQLList) graphQLInputType).getWrappedType()).type()));
+      argument.type("array");
+      argument.items(convert(convertRequired((GraphQLInputType) ((GraphQLList) graphQLInputType).getWrappedType()).type(), null));
     } else {
       throw new UnsupportedOperationException("Unsupported type: " + graphQLInputType);
     }
-    return argument;
+    return argument.build();
   }
 
   public String convertScalarTypeToJsonType(GraphQLScalarType scalarType) {
@@ -184,7 +196,7 @@ public class GraphQLSchemaConverter {
             unwrappedType = convertRequired(nestedField.getType());
             argName = processField(queryBody, queryHeader, params, ctx, numArgs, unwrappedType,
                 argName, nestedField.getName(), nestedField.getDescription());
-            String typeString = printFieldType(nestedField);
+            String typeString = printType(nestedField.getType(), nestedField.getInputFieldDefaultValue());
             queryHeader.append(argName).append(": ").append(typeString);
             numArgs++;
           }
@@ -193,7 +205,7 @@ public class GraphQLSchemaConverter {
           String argName = combineStrings(ctx.prefix(), arg.getName());
           argName = processField(queryBody, queryHeader, params, ctx, numArgs, unwrappedType, argName,
               arg.getName(), arg.getDescription());
-          String typeString = printArgumentType(arg);
+          String typeString = printType(arg.getType(), arg.getArgumentDefaultValue());
           queryHeader.append(argName).append(": ").append(typeString);
           numArgs++;
         }
@@ -215,8 +227,7 @@ public class GraphQLSchemaConverter {
   private String processField(StringBuilder queryBody, StringBuilder queryHeader, Parameters params,
       Context ctx, int numArgs, UnwrappedType unwrappedType, String argName, String originalName,
       String description) {
-    Argument argDef = convert(unwrappedType.type());
-    argDef.setDescription(description);
+    Argument argDef = convert(unwrappedType.type(), description);
     if (numArgs>0) queryBody.append(", ");
     if (ctx.numArgs() + numArgs > 0) queryHeader.append(", ");
     if (unwrappedType.required()) params.getRequired().add(argName);
@@ -226,43 +237,16 @@ public class GraphQLSchemaConverter {
     return argName;
   }
 
-  private String printFieldType(GraphQLInputObjectField field) {
-    GraphQLInputObjectType type = GraphQLInputObjectType.newInputObject()
-        .name("DummyType")
-        .field(field)
-        .build();
-    // Print argument as part of a dummy field in a dummy schema
-    String output = schemaPrinter.print(type);
-    return extractTypeFromDummy(output, field.getName());
-  }
-
-  private String printArgumentType(GraphQLArgument argument) {
-    GraphQLArgument argumentWithoutDescription = argument.transform(builder -> builder.description(null));
-    GraphQLObjectType type = GraphQLObjectType.newObject()
-        .name("DummyType")
-        .field(field -> field
-            .name("dummyField")
-            .type(GraphQLString)
-            .argument(argumentWithoutDescription)
-        )
-        .build();
-    // Print argument as part of a dummy field in a dummy schema
-    String output = schemaPrinter.print(type);
-    return extractTypeFromDummy(output, argument.getName());
+  /**
+   * Renders the type of an argument or input field as used in a variable definition, including its default value.
+   */
+  private static String printType(GraphQLInputType type, InputValueWithState defaultValue) {
+    String typeString = GraphQLTypeUtil.simplePrint(type);
+    if (defaultValue.isNotSet()) return typeString;
+    return typeString + " = " + AstPrinter.printAst(
+        ValuesResolver.valueToLiteral(defaultValue, type, GraphQLContext.getDefault(), Locale.getDefault()));
   }
 
-  private String extractTypeFromDummy(String output, String fieldName) {
-    //Remove comments
-    output = Arrays.stream(output.split("\n"))
-        .filter(line -> !line.trim().startsWith("#")).collect(Collectors.joining("\n"));
-    Pattern pattern = Pattern.compile(fieldName + "\\s*:\\s*([^)}]+)");
-    // Print argument as part of a dummy field in a dummy schema
-    Matcher matcher = pattern.matcher(output);
-    ErrorHandling.checkArgument(matcher.find(), "Could not find type in: %s", output);
-    return matcher.group(1).trim();
-  }
-
-
   private static GraphQLOutputType unwrapType(GraphQLOutputType type) {
     if (type instanceof GraphQLList) {
       return unwrapType((GraphQLOutputType) ((GraphQLList) type).getWrappedType());
@@ -0,0 +1,75 @@
+package com.datasqrl.ai.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.configuration2.BaseConfiguration;
+import org.apache.commons.configuration2.Configuration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Benchmarks the conversion of generated GraphQL schemas with an increasing number of root fields, with sequential
+ * and parallel conversion of the root fields. Each root field has scalar, list, enum, and input object arguments
+ * with default values and returns a nested object type.
+ *
+ * Run with: {@code mvn test -pl acorn-graphql -Dtest=GraphQLSchemaConverterBenchmark -Dbenchmark=true}
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class GraphQLSchemaConverterBenchmark {
+
+  private static final List<Integer> SIZES = List.of(100, 1_000, 10_000);
+  private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 5);
+  private static final int NUM_TYPES = 50;
+
+  @Test
+  public void benchmarkConversion() {
+    StringBuilder report = new StringBuilder(String.format("%n%10s %15s %15s%n", "fields", "sequential ms", "parallel ms"));
+    for (int size : SIZES) {
+      String schema = generateSchema(size);
+      long sequential = measure(schema, size, false);
+      long parallel = measure(schema, size, true);
+      report.append(String.format("%10d %15d %15d%n", size, sequential, parallel));
+    }
+    System.out.printf("Median conversion time over %d iterations:%s", ITERATIONS, report);
+  }
+
+  private static long measure(String schema, int size, boolean parallel) {
+    Configuration configuration = new BaseConfiguration();
+    configuration.setProperty(GraphQLSchemaConverter.PARALLEL_KEY, parallel);
+    GraphQLSchemaConverter converter = new GraphQLSchemaConverter(configuration, APIExecutorFactory.DEFAULT_NAME);
+    //Warm up
+    assertEquals(size, converter.convert(schema).size());
+    long[] times = new long[ITERATIONS];
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      converter.convert(schema);
+      times[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+    Arrays.sort(times);
+    return times[ITERATIONS / 2];
+  }
+
+  private static String generateSchema(int numFields) {
+    StringBuilder schema = new StringBuilder("enum Kind { A, B, C }\n");
+    for (int t = 0; t < NUM_TYPES; t++) {
+      schema.append(String.format("""
+          input Filter%1$d { name: String = "n%1$d", minValue: Float, kinds: [Kind!] }
+          type Detail%1$d { key: String!, value: Float, updated: String }
+          type Entity%1$d { id: Int!, name: String, kind: Kind, details(limit: Int = 5): [Detail%1$d] }
+          """, t));
+    }
+    schema.append("type Mutation {\n  addEntity(name: String!, kind: Kind = A): Entity0\n}\n");
+    schema.append("type Query {\n");
+    for (int f = 1; f < numFields; f++) {
+      int t = f % NUM_TYPES;
+      schema.append(String.format("  \"Returns entities %1$d\"%n  field%1$d(id: Int!, filter: Filter%2$d, "
+          + "ids: [Int!] = [1, 2], kind: Kind = A, limit: Int = 10, offset: Int = 0): [Entity%2$d]%n", f, t));
+    }
+    schema.append("}\n");
+    return schema.toString();
+  }
+
+}
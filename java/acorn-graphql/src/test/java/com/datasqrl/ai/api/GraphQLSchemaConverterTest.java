@@ -67,6 +67,25 @@ public class GraphQLSchemaConverterTest {
     assertEquals(7, functions.size());
   }
 
+  @Test
+  public void testVariableTypes() {
+    String schemaString = """
+        enum Kind { A, B }
+        input Filter { name: String = "a", minPrice: Float! }
+        type Item { id: Int! }
+        type Query {
+          search(filter: Filter!, ids: [Int!] = [1, 2], kind: Kind = A, limit: Int @deprecated): [Item]
+        }
+        """;
+    GraphQLSchemaConverter converter = new GraphQLSchemaConverter(new PropertiesConfiguration(), APIExecutorFactory.DEFAULT_NAME);
+    List<RuntimeFunctionDefinition> functions = converter.convert(schemaString);
+    assertEquals(1, functions.size());
+    assertEquals("query search($name: String = \"a\", $minPrice: Float!, $ids: [Int!] = [1, 2], $kind: Kind = A, "
+        + "$limit: Int) {\nsearch(filter: { name: $name, minPrice: $minPrice }, ids: $ids, kind: $kind, limit: $limit) {\nid\n}\n\n}",
+        functions.get(0).getApi().getQuery());
+    assertEquals(List.of("minPrice"), functions.get(0).getFunction().getParameters().getRequired());
+  }
+
   @Test
   @Disabled
   public void testSchemaConversion() throws IOException {
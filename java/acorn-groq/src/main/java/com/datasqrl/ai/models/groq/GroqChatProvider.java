@@ -8,19 +8,23 @@ import com.datasqrl.ai.tool.GenericChatMessage;
 import com.datasqrl.ai.tool.ModelObservability;
 import com.datasqrl.ai.tool.ModelObservability.ModelInvocation;
 import com.datasqrl.ai.tool.ToolManager;
+import com.datasqrl.ai.util.BlockingExecutor;
 import com.datasqrl.ai.util.ConfigurationUtil;
 import com.datasqrl.ai.util.JsonUtil;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theokanning.openai.OpenAiError;
 import com.theokanning.openai.OpenAiHttpException;
 import com.theokanning.openai.client.OpenAiApi;
 import com.theokanning.openai.completion.chat.AssistantMessage;
 import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
 import com.theokanning.openai.completion.chat.ChatFunctionCall;
 import com.theokanning.openai.completion.chat.ChatMessage;
 import com.theokanning.openai.completion.chat.UserMessage;
 import com.theokanning.openai.service.OpenAiService;
+import io.reactivex.disposables.Disposable;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
@@ -31,6 +35,7 @@ import okhttp3.logging.HttpLoggingInterceptor;
 import okio.Buffer;
 import okio.BufferedSource;
 import org.jetbrains.annotations.NotNull;
+import retrofit2.HttpException;
 import retrofit2.Retrofit;
 import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
 import retrofit2.converter.jackson.JacksonConverterFactory;
@@ -41,6 +46,8 @@ import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 
 import static com.theokanning.openai.service.OpenAiService.defaultClient;
@@ -51,8 +58,9 @@ public class GroqChatProvider extends AbstractChatProvider<ChatMessage, ChatFunc
 
   private final GroqModelConfiguration config;
   private final OpenAiService service;
+  private final OpenAiApi asyncApi;
+  private final ObjectMapper mapper = defaultObjectMapper();
   private final String systemPrompt;
-  private ChatFunctionCall errorFunctionCall = null;
   public static final String GROQ_URL = "https://api.groq.com/openai/v1/";
 
   public GroqChatProvider(GroqModelConfiguration config, ToolManager backend, String systemPrompt, ModelObservability observability) {
@@ -60,7 +68,6 @@ public class GroqChatProvider extends AbstractChatProvider<ChatMessage, ChatFunc
     this.config = config;
     this.systemPrompt = systemPrompt;
     String groqApiKey = ConfigurationUtil.getEnvOrSystemVariable("GROQ_API_KEY");
-    ObjectMapper mapper = defaultObjectMapper();
     HttpLoggingInterceptor logging = new HttpLoggingInterceptor();
     logging.setLevel(HttpLoggingInterceptor.Level.NONE); // Change to .BODY to see the request body
     OkHttpClient client = defaultClient(groqApiKey, Duration.ofSeconds(60))
@@ -68,67 +75,47 @@ public class GroqChatProvider extends AbstractChatProvider<ChatMessage, ChatFunc
         .addInterceptor(logging)
         .addInterceptor(new MyInterceptor())
         .build();
-    Retrofit retrofit = new Retrofit.Builder().baseUrl(GROQ_URL)
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(config.getUrl())
         .client(client)
         .addConverterFactory(JacksonConverterFactory.create(mapper))
         .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
         .build();
     this.service = new OpenAiService(retrofit.create(OpenAiApi.class));
+    this.asyncApi = new Retrofit.Builder().baseUrl(config.getUrl())
+        .client(client)
+        .addConverterFactory(JacksonConverterFactory.create(mapper))
+        .addCallAdapterFactory(RxJava2CallAdapterFactory.createAsync())
+        .build()
+        .create(OpenAiApi.class);
   }
 
   @Override
   public GenericChatMessage chat(String message, Context context) {
-    ChatSession<ChatMessage, ChatFunctionCall> session = new ChatSession<>(backend, context, systemPrompt, bindings);
+    ChatSession<ChatMessage, ChatFunctionCall> session = new ChatSession<>(this, context, systemPrompt);
     ChatMessage chatMessage = new UserMessage(message);
     session.addMessage(chatMessage);
 
     int retryCount = 0;
     while (true) {
+      context.getCancellationToken().throwIfCancelled();
       log.info("Calling GROQ with model {}", config.getModelName());
       ContextWindow<ChatMessage> contextWindow = session.getContextWindow();
       log.debug("Calling GROQ with messages: {}", contextWindow.getMessages());
-      ChatCompletionRequest.ChatCompletionRequestBuilder builder = ChatCompletionRequest
-          .builder()
-          .model(config.getModelName())
-          .messages(contextWindow.getMessages())
-          .functions(contextWindow.getFunctions())
-          .n(1)
-          .temperature(config.getTemperature())
-          .topP(config.getTopP())
-          .logitBias(new HashMap<>());
-      if (config.hasMaxOutputTokens()) {
-        builder.maxTokens(config.getMaxOutputTokens());
-      }
-      ChatCompletionRequest chatCompletionRequest = builder.build();
+      ChatCompletionRequest chatCompletionRequest = buildRequest(contextWindow);
       AssistantMessage responseMessage;
       context.nextInvocation();
       ModelInvocation invocation = observability.start();
       try {
-        responseMessage = service.createChatCompletion(chatCompletionRequest).getChoices().get(0).getMessage();
-      } catch (OpenAiHttpException e) {
+        responseMessage = createChatCompletion(chatCompletionRequest).getChoices().get(0).getMessage();
+      } catch (RuntimeException e) {
         invocation.fail(e);
         // Workaround for groq API bug that throws 400 on some function calls
-        if (e.statusCode == 400 && errorFunctionCall != null) {
-          responseMessage = new AssistantMessage("", "", null, errorFunctionCall);
-          errorFunctionCall = null;
-        } else {
-          throw e;
-        }
+        ChatFunctionCall errorFunctionCall = getFailedFunctionCall(e).orElseThrow(() -> e);
+        responseMessage = new AssistantMessage("", "", null, errorFunctionCall);
       }
-      invocation.stop(contextWindow.getNumTokens(), bindings.getTokenCounter().countTokens(responseMessage));
+      invocation.stop(contextWindow.getNumTokens(), contextWindow.getNumPrefixTokens(), bindings.getTokenCounter().countTokens(responseMessage));
       log.debug("Response:\n{}", responseMessage);
-      String res = responseMessage.getTextContent();
-      // Workaround for openai4j who doesn't recognize some function calls
-      if (res != null) {
-        String responseText = res.trim();
-        if (responseText.startsWith("{\"function\"") && responseMessage.getFunctionCall() == null) {
-          ChatFunctionCall functionCall = getFunctionCallFromText(responseText).orElse(null);
-          if (functionCall != null) {
-            responseMessage = new AssistantMessage("", functionCall.getName(), null, functionCall);
-            log.info("!!!Remapped content to function call");
-          }
-        }
-      }
+      responseMessage = remapFunctionCall(responseMessage);
       GenericChatMessage genericResponse = session.addMessage(responseMessage);
       ChatFunctionCall functionCall = responseMessage.getFunctionCall();
       if (functionCall != null) {
@@ -155,6 +142,110 @@ public class GroqChatProvider extends AbstractChatProvider<ChatMessage, ChatFunc
     }
   }
 
+  /**
+   * Runs the agent loop without blocking: GROQ is called through an asynchronous HTTP call and
+   * functions are executed asynchronously.
+   */
+  @Override
+  public CompletableFuture<GenericChatMessage> chatAsync(String message, Context context) {
+    return runAgentLoopAsync(new UserMessage(message), context, systemPrompt, contextWindow -> {
+      log.info("Calling GROQ with model {}", config.getModelName());
+      log.debug("Calling GROQ with messages: {}", contextWindow.getMessages());
+      ModelInvocation invocation = observability.start();
+      return createChatCompletionAsync(buildRequest(contextWindow)).handle((result, e) -> {
+        AssistantMessage responseMessage;
+        if (e == null) {
+          responseMessage = result.getChoices().get(0).getMessage();
+        } else {
+          invocation.fail(e instanceof Exception exception ? exception : new RuntimeException(e));
+          // Workaround for groq API bug that throws 400 on some function calls
+          ChatFunctionCall errorFunctionCall = getFailedFunctionCall(e).orElseThrow(() -> new CompletionException(e));
+          responseMessage = new AssistantMessage("", "", null, errorFunctionCall);
+        }
+        invocation.stop(contextWindow.getNumTokens(), contextWindow.getNumPrefixTokens(), bindings.getTokenCounter().countTokens(responseMessage));
+        log.debug("Response:\n{}", responseMessage);
+        responseMessage = remapFunctionCall(responseMessage);
+        return new ModelResponse<>(responseMessage, responseMessage.getFunctionCall(), invocation);
+      });
+    });
+  }
+
+  private ChatCompletionRequest buildRequest(ContextWindow<ChatMessage> contextWindow) {
+    ChatCompletionRequest.ChatCompletionRequestBuilder builder = ChatCompletionRequest
+        .builder()
+        .model(config.getModelName())
+        .messages(contextWindow.getMessages())
+        .n(1)
+        .temperature(config.getTemperature())
+        .topP(config.getTopP())
+        .logitBias(new HashMap<>());
+    //The API rejects an empty list of functions, e.g. for the summarizer of the history
+    if (!contextWindow.getFunctions().isEmpty()) {
+      builder.functions(contextWindow.getFunctions());
+    }
+    if (config.hasMaxOutputTokens()) {
+      builder.maxTokens(config.getMaxOutputTokens());
+    }
+    return builder.build();
+  }
+
+  /**
+   * OkHttp waits for HTTP/2 responses inside synchronized blocks, which pins virtual threads to their carrier.
+   * On a virtual thread, the request is therefore sent asynchronously while the virtual thread waits for the result.
+   */
+  private ChatCompletionResult createChatCompletion(ChatCompletionRequest request) {
+    if (!BlockingExecutor.isVirtualThread()) return service.createChatCompletion(request);
+    try {
+      return createChatCompletionAsync(request).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+      throw e;
+    }
+  }
+
+  /**
+   * Sends the request without blocking. Disposing the subscription when the future is cancelled aborts the HTTP call.
+   */
+  private CompletableFuture<ChatCompletionResult> createChatCompletionAsync(ChatCompletionRequest request) {
+    CompletableFuture<ChatCompletionResult> future = new CompletableFuture<>();
+    Disposable subscription = asyncApi.createChatCompletion(request)
+        .subscribe(future::complete, e -> future.completeExceptionally(toOpenAiException(e)));
+    future.whenComplete((result, e) -> {
+      if (future.isCancelled()) subscription.dispose();
+    });
+    return future;
+  }
+
+  /**
+   * Maps HTTP errors to {@link OpenAiHttpException} like {@link OpenAiService} does for synchronous calls
+   */
+  private Throwable toOpenAiException(Throwable e) {
+    if (!(e instanceof HttpException httpException) || httpException.response() == null
+        || httpException.response().errorBody() == null) return e;
+    try {
+      OpenAiError error = mapper.readValue(httpException.response().errorBody().string(), OpenAiError.class);
+      return new OpenAiHttpException(error, httpException, httpException.code());
+    } catch (IOException | RuntimeException ex) {
+      return e;
+    }
+  }
+
+  // Workaround for openai4j who doesn't recognize some function calls
+  private static AssistantMessage remapFunctionCall(AssistantMessage responseMessage) {
+    String res = responseMessage.getTextContent();
+    if (res != null) {
+      String responseText = res.trim();
+      if (responseText.startsWith("{\"function\"") && responseMessage.getFunctionCall() == null) {
+        ChatFunctionCall functionCall = getFunctionCallFromText(responseText).orElse(null);
+        if (functionCall != null) {
+          log.info("!!!Remapped content to function call");
+          return new AssistantMessage("", functionCall.getName(), null, functionCall);
+        }
+      }
+    }
+    return responseMessage;
+  }
+
   // Workaround for groq API bug that throws 400 on some function calls
   class MyInterceptor implements Interceptor {
     @NotNull
@@ -173,15 +264,39 @@ public class GroqChatProvider extends AbstractChatProvider<ChatMessage, ChatFunc
         // Clone the existing buffer is they can only read once so we still want to pass
         // the original one to the chain.
         String jsonText = buffer.clone().readString(charset);
-        errorFunctionCall = getFunctionCallFromGroqError(jsonText);
+        ChatFunctionCall errorFunctionCall = getFunctionCallFromGroqError(jsonText);
         if (errorFunctionCall != null) {
           log.info("!!!Extracted function call from 400");
+          response.close();
+          throw new FailedFunctionCallException(errorFunctionCall);
         }
       }
       return response;
     }
   }
 
+  /**
+   * Fails the call that GROQ rejected with the function call extracted from the error. The function call
+   * travels with the failure of its own call, since the provider is shared by concurrent chats.
+   */
+  static class FailedFunctionCallException extends IOException {
+
+    private final ChatFunctionCall functionCall;
+
+    FailedFunctionCallException(ChatFunctionCall functionCall) {
+      super("GROQ rejected function call: " + functionCall.getName());
+      this.functionCall = functionCall;
+    }
+
+  }
+
+  private static Optional<ChatFunctionCall> getFailedFunctionCall(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof FailedFunctionCallException failed) return Optional.of(failed.functionCall);
+    }
+    return Optional.empty();
+  }
+
   private ChatFunctionCall getFunctionCallFromGroqError(String errorText) {
     try {
       ObjectMapper mapper = new ObjectMapper();
@@ -37,4 +37,11 @@ public class GroqModelConfiguration extends AbstractModelConfiguration {
     return configuration.getString(AbstractModelConfiguration.TOKENIZER_KEY, modelType.getTokenizerName());
   }
 
+  /**
+   * @return The base URL of the GROQ API
+   */
+  public String getUrl() {
+    return configuration.getString(AbstractModelConfiguration.URL_KEY, GroqChatProvider.GROQ_URL);
+  }
+
 }
@@ -12,7 +12,7 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
-public record GroqTokenCounter(HuggingFaceTokenizer tokenizer) implements ModelAnalyzer<ChatMessage> {
+public record GroqTokenCounter(String name, HuggingFaceTokenizer tokenizer) implements ModelAnalyzer<ChatMessage> {
 
   @Override
   public int countTokens(ChatMessage message) {
@@ -44,14 +44,20 @@ public record GroqTokenCounter(HuggingFaceTokenizer tokenizer) implements ModelA
     return countTokens(jsonString);
   }
 
+  @Override
+  public String getTokenizerName() {
+    return GroqChatProviderFactory.PROVIDER_NAME + ":" + name;
+  }
+
   public static GroqTokenCounter of(GroqModelConfiguration modelConfig) {
     try {
       HuggingFaceTokenizer huggingFaceTokenizer = HuggingFaceTokenizer.newInstance(modelConfig.getTokenizerName());
-      return new GroqTokenCounter(huggingFaceTokenizer);
+      return new GroqTokenCounter(modelConfig.getTokenizerName(), huggingFaceTokenizer);
     } catch (Exception e) {
       log.warn("Unrecognized tokenizer name: {}. Using [{}] tokenizer as backup.",
           modelConfig.getTokenizerName(), GroqModelConfiguration.DEFAULT_MODEL.getTokenizerName());
-      return new GroqTokenCounter(HuggingFaceTokenizer.newInstance(GroqModelConfiguration.DEFAULT_MODEL.getTokenizerName()));
+      String defaultName = GroqModelConfiguration.DEFAULT_MODEL.getTokenizerName();
+      return new GroqTokenCounter(defaultName, HuggingFaceTokenizer.newInstance(defaultName));
     }
   }
 }
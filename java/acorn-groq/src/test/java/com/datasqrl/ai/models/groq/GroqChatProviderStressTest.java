@@ -0,0 +1,82 @@
+package com.datasqrl.ai.models.groq;
+
+import com.datasqrl.ai.models.AbstractModelConfiguration;
+import com.datasqrl.ai.models.ChatProviderStressHarness;
+import com.datasqrl.ai.models.ChatProviderStressHarness.StubModelAPI;
+import com.datasqrl.ai.models.ChatProviderStressHarness.StubResponse;
+import com.datasqrl.ai.tool.ModelObservability;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.Map;
+import org.apache.commons.configuration2.MapConfiguration;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that function calls which GROQ rejects with status 400 are recovered for the session that made the call,
+ * while hundreds of sessions share the provider. The tokenizer is downloaded from Hugging Face.
+ */
+public class GroqChatProviderStressTest {
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  @BeforeAll
+  public static void setApiKey() {
+    if (System.getenv("GROQ_API_KEY") == null) System.setProperty("GROQ_API_KEY", "stub");
+  }
+
+  @Test
+  public void testConcurrentFailedFunctionCalls() throws Exception {
+    try (StubModelAPI api = new StubModelAPI(GroqChatProviderStressTest::respond, 20)) {
+      GroqModelConfiguration config = new GroqModelConfiguration(new MapConfiguration(Map.of(
+          AbstractModelConfiguration.MODEL_NAME_KEY, GroqModelType.LLAMA3_8B.getModelName(),
+          AbstractModelConfiguration.TOKENIZER_KEY, "gpt2",
+          AbstractModelConfiguration.URL_KEY, api.getUrl())));
+      GroqChatProvider provider = new GroqChatProvider(config, ChatProviderStressHarness.createTools(10),
+          "You are a helpful assistant", ModelObservability.NOOP);
+      ChatProviderStressHarness.run(provider, 300, 200, false).assertAllCorrect();
+      ChatProviderStressHarness.run(provider, 300, 200, true).assertAllCorrect();
+    }
+  }
+
+  /**
+   * Rejects the function call for the session in the user message like GROQ does with status 400
+   * and answers with the function result once it has been executed.
+   */
+  private static StubResponse respond(JsonNode request) {
+    String session = null;
+    String functionResult = null;
+    for (JsonNode message : request.get("messages")) {
+      String role = message.get("role").asText();
+      if (role.equals("user") && session == null) {
+        session = ChatProviderStressHarness.findSession(message.get("content").asText());
+      } else if (role.equals("function")) {
+        functionResult = message.get("content").asText();
+      }
+    }
+    if (functionResult == null) {
+      ObjectNode toolCall = mapper.createObjectNode();
+      toolCall.putObject("tool_call").putObject("function").put("name", ChatProviderStressHarness.LOOKUP_FUNCTION);
+      ((ObjectNode) toolCall.get("tool_call")).putObject("parameters").put("session", session);
+      ObjectNode error = mapper.createObjectNode();
+      error.putObject("error")
+          .put("message", "Failed to call a function. Please adjust your prompt.")
+          .put("type", "invalid_request_error")
+          .put("code", "tool_use_failed")
+          .put("failed_generation", "<function=lookup>" + toolCall + "</function>");
+      return new StubResponse(400, error.toString());
+    }
+    ObjectNode message = mapper.createObjectNode().put("role", "assistant")
+        .put("content", "The answer is: " + functionResult);
+    ObjectNode completion = mapper.createObjectNode()
+        .put("id", "stub")
+        .put("object", "chat.completion")
+        .put("created", 0)
+        .put("model", "stub");
+    completion.putArray("choices").addObject().put("index", 0).put("finish_reason", "stop").set("message", message);
+    completion.putObject("usage").put("prompt_tokens", 1).put("completion_tokens", 1).put("total_tokens", 2);
+    return new StubResponse(200, completion.toString());
+  }
+
+}
@@ -37,4 +37,11 @@ public class OpenAIModelConfiguration extends AbstractModelConfiguration {
   public String getTokenizerName() {
     return configuration.getString(AbstractModelConfiguration.TOKENIZER_KEY, modelType.getEncodingType().getName());
   }
+
+  /**
+   * @return The base URL of the OpenAI compatible API
+   */
+  public String getUrl() {
+    return configuration.getString(AbstractModelConfiguration.URL_KEY, OpenAiChatProvider.OPENAI_URL);
+  }
 }
@@ -46,6 +46,11 @@ public record OpenAITokenCounter(Encoding encoding) implements ModelAnalyzer<Cha
     return countTokens(jsonString);
   }
 
+  @Override
+  public String getTokenizerName() {
+    return OpenAiChatProviderFactory.PROVIDER_NAME + ":" + encoding.getName();
+  }
+
   public static OpenAITokenCounter of(OpenAIModelConfiguration modelConfig) {
     Optional<EncodingType> encodingType = EncodingType.fromName(modelConfig.getTokenizerName());
     if (encodingType.isEmpty()) {
@@ -8,28 +8,49 @@ import com.datasqrl.ai.tool.GenericChatMessage;
 import com.datasqrl.ai.tool.ModelObservability;
 import com.datasqrl.ai.tool.ModelObservability.ModelInvocation;
 import com.datasqrl.ai.tool.ToolManager;
+import com.datasqrl.ai.util.BlockingExecutor;
 import com.datasqrl.ai.util.ConfigurationUtil;
 import com.datasqrl.ai.util.JsonUtil;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theokanning.openai.OpenAiError;
 import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.client.OpenAiApi;
 import com.theokanning.openai.completion.chat.AssistantMessage;
 import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
 import com.theokanning.openai.completion.chat.ChatFunctionCall;
 import com.theokanning.openai.completion.chat.ChatMessage;
 import com.theokanning.openai.completion.chat.UserMessage;
 import com.theokanning.openai.service.OpenAiService;
+import io.reactivex.disposables.Disposable;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import retrofit2.HttpException;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
+import retrofit2.converter.jackson.JacksonConverterFactory;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 
+import static com.theokanning.openai.service.OpenAiService.defaultClient;
+import static com.theokanning.openai.service.OpenAiService.defaultObjectMapper;
+
 @Slf4j
 public class OpenAiChatProvider extends AbstractChatProvider<ChatMessage, ChatFunctionCall> {
 
+  public static final String OPENAI_URL = "https://api.openai.com/";
+
   private final OpenAIModelConfiguration config;
   private final OpenAiService service;
+  private final OpenAiApi asyncApi;
+  private final ObjectMapper mapper = defaultObjectMapper();
   private final String systemPrompt;
 
   public OpenAiChatProvider(OpenAIModelConfiguration config, ToolManager backend, String systemPrompt, ModelObservability observability) {
@@ -37,56 +58,46 @@ public class OpenAiChatProvider extends AbstractChatProvider<ChatMessage, ChatFu
     this.config = config;
     this.systemPrompt = systemPrompt;
     String openAIToken = ConfigurationUtil.getEnvOrSystemVariable("OPENAI_API_KEY");
-    this.service = new OpenAiService(openAIToken, Duration.ofSeconds(60));
+    OkHttpClient client = defaultClient(openAIToken, Duration.ofSeconds(60));
+    this.service = new OpenAiService(new Retrofit.Builder().baseUrl(config.getUrl())
+        .client(client)
+        .addConverterFactory(JacksonConverterFactory.create(mapper))
+        .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
+        .build()
+        .create(OpenAiApi.class));
+    this.asyncApi = new Retrofit.Builder().baseUrl(config.getUrl())
+        .client(client)
+        .addConverterFactory(JacksonConverterFactory.create(mapper))
+        .addCallAdapterFactory(RxJava2CallAdapterFactory.createAsync())
+        .build()
+        .create(OpenAiApi.class);
   }
 
   @Override
   public GenericChatMessage chat(String message, Context context) {
-    ChatSession<ChatMessage, ChatFunctionCall> session = new ChatSession<>(backend, context, systemPrompt, bindings);
+    ChatSession<ChatMessage, ChatFunctionCall> session = new ChatSession<>(this, context, systemPrompt);
     ChatMessage chatMessage = new UserMessage(message);
     session.addMessage(chatMessage);
 
     int retryCount = 0;
     while (true) {
+      context.getCancellationToken().throwIfCancelled();
       log.info("Calling OpenAI with model {}", config.getModelName());
       ContextWindow<ChatMessage> contextWindow = session.getContextWindow();
       log.debug("Calling OpenAI with messages: {}", contextWindow.getMessages());
-      ChatCompletionRequest.ChatCompletionRequestBuilder builder = ChatCompletionRequest
-          .builder()
-          .model(config.getModelName())
-          .messages(contextWindow.getMessages())
-          .functions(contextWindow.getFunctions())
-          .n(1)
-          .temperature(config.getTemperature())
-          .topP(config.getTopP())
-          .logitBias(new HashMap<>());
-      if (config.hasMaxOutputTokens()) {
-        builder.maxTokens(config.getMaxOutputTokens());
-      }
-      ChatCompletionRequest chatCompletionRequest = builder.build();
+      ChatCompletionRequest chatCompletionRequest = buildRequest(contextWindow);
       AssistantMessage responseMessage;
       context.nextInvocation();
       ModelInvocation invocation = observability.start();
       try {
-        responseMessage = service.createChatCompletion(chatCompletionRequest).getChoices().get(0).getMessage();
+        responseMessage = createChatCompletion(chatCompletionRequest).getChoices().get(0).getMessage();
       } catch (OpenAiHttpException e) {
         invocation.fail(e);
         throw e;
       }
-      invocation.stop(contextWindow.getNumTokens(), bindings.getTokenCounter().countTokens(responseMessage));
+      invocation.stop(contextWindow.getNumTokens(), contextWindow.getNumPrefixTokens(), bindings.getTokenCounter().countTokens(responseMessage));
       log.debug("Response:\n{}", responseMessage);
-      String res = responseMessage.getTextContent();
-      // Workaround for openai4j who doesn't recognize some function calls
-      if (res != null) {
-        String responseText = res.trim();
-        if (responseText.startsWith("{\"function\"") && responseMessage.getFunctionCall() == null) {
-          ChatFunctionCall functionCall = getFunctionCallFromText(responseText).orElse(null);
-          if (functionCall != null) {
-            responseMessage = new AssistantMessage("", functionCall.getName(), null, functionCall);
-            log.info("!!!Remapped content to function call");
-          }
-        }
-      }
+      responseMessage = remapFunctionCall(responseMessage);
       GenericChatMessage genericResponse = session.addMessage(responseMessage);
       ChatFunctionCall functionCall = responseMessage.getFunctionCall();
       if (functionCall != null) {
@@ -114,6 +125,106 @@ public class OpenAiChatProvider extends AbstractChatProvider<ChatMessage, ChatFu
     }
   }
 
+  /**
+   * Runs the agent loop without blocking: OpenAI is called through an asynchronous HTTP call and
+   * functions are executed asynchronously.
+   */
+  @Override
+  public CompletableFuture<GenericChatMessage> chatAsync(String message, Context context) {
+    return runAgentLoopAsync(new UserMessage(message), context, systemPrompt, contextWindow -> {
+      log.info("Calling OpenAI with model {}", config.getModelName());
+      log.debug("Calling OpenAI with messages: {}", contextWindow.getMessages());
+      ModelInvocation invocation = observability.start();
+      return createChatCompletionAsync(buildRequest(contextWindow)).handle((result, e) -> {
+        if (e != null) {
+          invocation.fail(e instanceof Exception exception ? exception : new RuntimeException(e));
+          throw new CompletionException(e);
+        }
+        AssistantMessage responseMessage = result.getChoices().get(0).getMessage();
+        invocation.stop(contextWindow.getNumTokens(), contextWindow.getNumPrefixTokens(), bindings.getTokenCounter().countTokens(responseMessage));
+        log.debug("Response:\n{}", responseMessage);
+        responseMessage = remapFunctionCall(responseMessage);
+        return new ModelResponse<>(responseMessage, responseMessage.getFunctionCall(), invocation);
+      });
+    });
+  }
+
+  private ChatCompletionRequest buildRequest(ContextWindow<ChatMessage> contextWindow) {
+    ChatCompletionRequest.ChatCompletionRequestBuilder builder = ChatCompletionRequest
+        .builder()
+        .model(config.getModelName())
+        .messages(contextWindow.getMessages())
+        .n(1)
+        .temperature(config.getTemperature())
+        .topP(config.getTopP())
+        .logitBias(new HashMap<>());
+    //The API rejects an empty list of functions, e.g. for the summarizer of the history
+    if (!contextWindow.getFunctions().isEmpty()) {
+      builder.functions(contextWindow.getFunctions());
+    }
+    if (config.hasMaxOutputTokens()) {
+      builder.maxTokens(config.getMaxOutputTokens());
+    }
+    return builder.build();
+  }
+
+  /**
+   * OkHttp waits for HTTP/2 responses inside synchronized blocks, which pins virtual threads to their carrier.
+   * On a virtual thread, the request is therefore sent asynchronously while the virtual thread waits for the result.
+   */
+  private ChatCompletionResult createChatCompletion(ChatCompletionRequest request) {
+    if (!BlockingExecutor.isVirtualThread()) return service.createChatCompletion(request);
+    try {
+      return createChatCompletionAsync(request).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+      throw e;
+    }
+  }
+
+  /**
+   * Sends the request without blocking. Disposing the subscription when the future is cancelled aborts the HTTP call.
+   */
+  private CompletableFuture<ChatCompletionResult> createChatCompletionAsync(ChatCompletionRequest request) {
+    CompletableFuture<ChatCompletionResult> future = new CompletableFuture<>();
+    Disposable subscription = asyncApi.createChatCompletion(request)
+        .subscribe(future::complete, e -> future.completeExceptionally(toOpenAiException(e)));
+    future.whenComplete((result, e) -> {
+      if (future.isCancelled()) subscription.dispose();
+    });
+    return future;
+  }
+
+  /**
+   * Maps HTTP errors to {@link OpenAiHttpException} like {@link OpenAiService} does for synchronous calls
+   */
+  private Throwable toOpenAiException(Throwable e) {
+    if (!(e instanceof HttpException httpException) || httpException.response() == null
+        || httpException.response().errorBody() == null) return e;
+    try {
+      OpenAiError error = mapper.readValue(httpException.response().errorBody().string(), OpenAiError.class);
+      return new OpenAiHttpException(error, httpException, httpException.code());
+    } catch (IOException | RuntimeException ex) {
+      return e;
+    }
+  }
+
+  // Workaround for openai4j who doesn't recognize some function calls
+  private static AssistantMessage remapFunctionCall(AssistantMessage responseMessage) {
+    String res = responseMessage.getTextContent();
+    if (res != null) {
+      String responseText = res.trim();
+      if (responseText.startsWith("{\"function\"") && responseMessage.getFunctionCall() == null) {
+        ChatFunctionCall functionCall = getFunctionCallFromText(responseText).orElse(null);
+        if (functionCall != null) {
+          log.info("!!!Remapped content to function call");
+          return new AssistantMessage("", functionCall.getName(), null, functionCall);
+        }
+      }
+    }
+    return responseMessage;
+  }
+
   private static Optional<ChatFunctionCall> getFunctionCallFromText(String text) {
     Optional<JsonNode> functionCall = JsonUtil.parseJson(text);
     if (functionCall.isEmpty()) {
@@ -0,0 +1,78 @@
+package com.datasqrl.ai.models.openai;
+
+import com.datasqrl.ai.models.ChatProviderStressHarness;
+import com.datasqrl.ai.models.ChatProviderStressHarness.StubModelAPI;
+import com.datasqrl.ai.models.ChatProviderStressHarness.StubResponse;
+import com.datasqrl.ai.models.AbstractModelConfiguration;
+import com.datasqrl.ai.tool.ModelObservability;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.Map;
+import org.apache.commons.configuration2.MapConfiguration;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class OpenAiChatProviderStressTest {
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  @BeforeAll
+  public static void setApiKey() {
+    if (System.getenv("OPENAI_API_KEY") == null) System.setProperty("OPENAI_API_KEY", "stub");
+  }
+
+  @Test
+  public void testConcurrentSessions() throws Exception {
+    try (StubModelAPI api = new StubModelAPI(OpenAiChatProviderStressTest::respond, 20)) {
+      OpenAIModelConfiguration config = new OpenAIModelConfiguration(new MapConfiguration(Map.of(
+          AbstractModelConfiguration.MODEL_NAME_KEY, "gpt-4o-mini",
+          AbstractModelConfiguration.URL_KEY, api.getUrl())));
+      OpenAiChatProvider provider = new OpenAiChatProvider(config, ChatProviderStressHarness.createTools(10),
+          "You are a helpful assistant", ModelObservability.NOOP);
+      ChatProviderStressHarness.run(provider, 300, 200, false).assertAllCorrect();
+      ChatProviderStressHarness.run(provider, 300, 200, true).assertAllCorrect();
+    }
+  }
+
+  /**
+   * Calls the lookup function for the session in the user message and answers with the function result.
+   */
+  private static StubResponse respond(JsonNode request) {
+    String session = null;
+    String functionResult = null;
+    for (JsonNode message : request.get("messages")) {
+      String role = message.get("role").asText();
+      if (role.equals("user") && session == null) {
+        session = ChatProviderStressHarness.findSession(message.get("content").asText());
+      } else if (role.equals("function")) {
+        functionResult = message.get("content").asText();
+      }
+    }
+    ObjectNode message = mapper.createObjectNode().put("role", "assistant");
+    if (functionResult == null) {
+      message.putNull("content");
+      message.putObject("function_call")
+          .put("name", ChatProviderStressHarness.LOOKUP_FUNCTION)
+          .put("arguments", mapper.createObjectNode().put("session", session).toString());
+    } else {
+      message.put("content", "The answer is: " + functionResult);
+    }
+    return new StubResponse(200, completion(message).toString());
+  }
+
+  private static ObjectNode completion(ObjectNode message) {
+    ObjectNode completion = mapper.createObjectNode()
+        .put("id", "stub")
+        .put("object", "chat.completion")
+        .put("created", 0)
+        .put("model", "stub");
+    completion.putArray("choices").addObject()
+        .put("index", 0)
+        .put("finish_reason", message.has("function_call") ? "function_call" : "stop")
+        .set("message", message);
+    completion.putObject("usage").put("prompt_tokens", 1).put("completion_tokens", 1).put("total_tokens", 2);
+    return completion;
+  }
+
+}
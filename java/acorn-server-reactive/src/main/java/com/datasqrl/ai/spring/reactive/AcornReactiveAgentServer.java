@@ -0,0 +1,134 @@
+package com.datasqrl.ai.spring.reactive;
+
+import com.datasqrl.ai.config.AcornAgentConfiguration;
+import com.datasqrl.ai.config.ContextConversion;
+import com.datasqrl.ai.models.ChatProvider;
+import com.datasqrl.ai.spring.InputMessage;
+import com.datasqrl.ai.spring.ResponseMessage;
+import com.datasqrl.ai.tool.CancellationToken;
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.util.KeyedSequencer;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Serves the same {@code /messages} API as the servlet based {@code AcornAgentServer} on Spring WebFlux.
+ * Messages are answered with {@link ChatProvider#chatAsync} so that no thread is held while
+ * waiting for the model or a tool.
+ */
+@SpringBootApplication
+@Slf4j
+public class AcornReactiveAgentServer {
+
+  public static void main(String[] args) {
+    try {
+      SpringApplication.run(AcornReactiveAgentServer.class, args);
+    } catch (Exception e) {
+      log.error("Application failed to start", e);
+    }
+  }
+
+  @RestController
+  public static class MessageController {
+
+    public static final int RETRY_AFTER_SECONDS = 1;
+
+    private final List<String> contextKeys;
+    private final ChatProvider chatProvider;
+    private final Duration requestTimeout;
+    private final Semaphore chatPermits;
+    private final KeyedSequencer<String> userSequencer = new KeyedSequencer<>();
+
+    @SneakyThrows
+    public MessageController(AcornReactiveAgentServerProperties props) {
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(props.getConfig()), "Need to provide a configuration file");
+      Preconditions.checkArgument(!Strings.isNullOrEmpty(props.getTools()), "Need to provide a tools file");
+      Preconditions.checkArgument(props.getMaxConcurrentChats() > 0, "Need to allow at least one concurrent chat");
+      AcornAgentConfiguration configuration = AcornAgentConfiguration.fromFile(Path.of(props.getConfig()),
+          Path.of(props.getTools()));
+      this.contextKeys = configuration.getContext();
+      this.chatProvider = configuration.getChatProvider(configuration.getToolManager());
+      this.requestTimeout = Duration.ofMillis(props.getRequestTimeoutMs());
+      this.chatPermits = new Semaphore(props.getMaxConcurrentChats());
+    }
+
+    /**
+     * Returns the history as a JSON array or, with {@code Accept: application/x-ndjson}, streams the
+     * messages as they are requested by the client.
+     */
+    @GetMapping(value = "/messages", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<ResponseMessage> getMessages(@RequestParam String userId) {
+      Context context = getContext(userId, CancellationToken.NONE);
+      return Mono.fromFuture(() -> chatProvider.getHistoryAsync(context, false))
+          .flatMapIterable(messages -> messages)
+          .map(ResponseMessage::from);
+    }
+
+    /**
+     * Answers the message asynchronously. The interaction is cancelled when the client disconnects
+     * or the request timeout elapses, which aborts all outstanding model and tool calls.
+     * When the maximum number of concurrent chats is reached, the message is rejected with status 503
+     * and a {@code Retry-After} header instead of queueing up work the server cannot keep up with.
+     * Messages of the same user are answered one after another in the order they are received.
+     */
+    @PostMapping("/messages")
+    public Mono<ResponseEntity<ResponseMessage>> postMessage(@RequestBody InputMessage message) {
+      return Mono.defer(() -> {
+        log.info("\nUser #{}: {}", message.getUserId(), message.getContent());
+        if (!chatPermits.tryAcquire()) {
+          log.warn("Rejecting message for user #{}: too many concurrent chats", message.getUserId());
+          return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+              .header(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS)).<ResponseMessage>build());
+        }
+        CancellationToken cancellationToken = CancellationToken.withTimeout(requestTimeout);
+        Context context = getContext(message.getUserId(), cancellationToken);
+        return Mono.fromFuture(() -> userSequencer.submit(message.getUserId(),
+                () -> chatProvider.chatAsync(message.getContent(), context)))
+            .timeout(requestTimeout)
+            .map(response -> ResponseEntity.ok(ResponseMessage.from(response)))
+            .onErrorResume(MessageController::isCancelled, e -> {
+              log.info("Cancelled message for user #{}: {}", message.getUserId(), e.getMessage());
+              return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).<ResponseMessage>build());
+            })
+            .doOnCancel(() -> cancellationToken.cancel("Client disconnected"))
+            .doFinally(signal -> {
+              cancellationToken.cancel("Request completed");
+              chatPermits.release();
+            });
+      });
+    }
+
+    private Context getContext(String userId, CancellationToken cancellationToken) {
+      return ContextConversion.getContextFromUserId(userId, contextKeys, cancellationToken);
+    }
+
+    private static boolean isCancelled(Throwable e) {
+      if (e instanceof CompletionException && e.getCause() != null) e = e.getCause();
+      return e instanceof CancellationException || e instanceof TimeoutException;
+    }
+
+  }
+
+}
@@ -0,0 +1,24 @@
+package com.datasqrl.ai.spring.reactive;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "agent")
+@Data
+public class AcornReactiveAgentServerProperties {
+
+  private String config;
+  private String tools;
+  /**
+   * Maximum time in milliseconds for answering a message, including all model and tool calls.
+   */
+  private long requestTimeoutMs = 120_000;
+  /**
+   * Maximum number of messages that are answered concurrently. Additional messages are rejected
+   * with status 503 until a chat completes.
+   */
+  private int maxConcurrentChats = 1000;
+
+}
@@ -0,0 +1,207 @@
+package com.datasqrl.ai.spring.reactive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.datasqrl.ai.models.ChatProviderStressHarness.StubModelAPI;
+import com.datasqrl.ai.models.ChatProviderStressHarness.StubResponse;
+import com.datasqrl.ai.models.StubChatProvider;
+import com.datasqrl.ai.spring.AcornAgentServer;
+import com.datasqrl.ai.spring.InputMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+
+/**
+ * Side-by-side load test of the servlet based {@link AcornAgentServer} and the {@link AcornReactiveAgentServer}.
+ * Both servers run in-process with the same configuration, which answers messages with the {@link StubChatProvider}
+ * of the {@code ThreadingModeBenchmark}: two simulated model invocations with a fixed latency and one tool call
+ * against a local stub API. Each session posts a message for a new user and waits for the answer. Sessions are sent
+ * concurrently by a non-blocking client, so the client does not limit the throughput of the servers.
+ *
+ * Both servers admit up to {@code benchmark.concurrency} messages at once, so that neither rejects messages
+ * the other would answer.
+ *
+ * Run with: {@code mvn test -pl acorn-server-reactive -am -Dtest=ServerComparisonBenchmark -Dbenchmark=true
+ * -Dsurefire.failIfNoSpecifiedTests=false}
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class ServerComparisonBenchmark {
+
+  private static final int SESSIONS = Integer.getInteger("benchmark.sessions", 1000);
+  private static final int CONCURRENCY = Integer.getInteger("benchmark.concurrency", 1000);
+  private static final int MODEL_LATENCY_MS = Integer.getInteger("benchmark.model_latency_ms", 500);
+  private static final int TOOL_LATENCY_MS = Integer.getInteger("benchmark.tool_latency_ms", 100);
+  private static final String MESSAGE = "Hello, what can you do for me?";
+
+  private static final String TOOLS = """
+      [{"type": "api", "function": {"name": "tool", "parameters": {"type": "object", "properties": {}}},
+        "api": {"query": "query { tool }"}}]
+      """;
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  @Test
+  public void compareServers(@TempDir Path directory) throws Exception {
+    try (StubModelAPI toolAPI = new StubModelAPI(
+        request -> new StubResponse(200, "{\"data\": {\"tool\": \"ok\"}}"), TOOL_LATENCY_MS)) {
+      Path config = directory.resolve("benchmark.config.json");
+      Files.writeString(config, mapper.writeValueAsString(Map.of(
+          "prompt", "You are a benchmark.",
+          "apis", Map.of("default", Map.of("type", "graphql", "url", toolAPI.getUrl() + "graphql")),
+          "model", Map.of(
+              "provider", StubChatProvider.PROVIDER_NAME,
+              StubChatProvider.LATENCY_KEY, MODEL_LATENCY_MS,
+              StubChatProvider.FUNCTION_KEY, "tool"))));
+      Path tools = directory.resolve("benchmark.tools.json");
+      Files.writeString(tools, TOOLS);
+      List<String> args = List.of("--server.port=0", "--agent.config=" + config, "--agent.tools=" + tools);
+      try (ConfigurableApplicationContext servlet = new SpringApplicationBuilder(AcornAgentServer.class)
+              .web(WebApplicationType.SERVLET)
+              // Both servers share the classpath, so the servlet server must not pick up the reactive controller
+              .initializers(context -> context.getBeanFactory().registerSingleton("excludeReactiveServer",
+                  new ExcludePackageFilter(AcornReactiveAgentServer.class.getPackageName())))
+              .run(concat(args, "--agent.jobs-directory=" + directory.resolve("jobs"),
+                  "--agent.max-in-flight-chats=" + CONCURRENCY, "--agent.max-queued-chats=" + CONCURRENCY));
+          ConfigurableApplicationContext reactive = new SpringApplicationBuilder(AcornReactiveAgentServer.class)
+              .web(WebApplicationType.REACTIVE)
+              .run(concat(args, "--agent.max-concurrent-chats=" + CONCURRENCY))) {
+        compare(getUrl(servlet), getUrl(reactive));
+      }
+    }
+  }
+
+  private static void compare(String servletUrl, String reactiveUrl) throws Exception {
+    HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    //Warm up connections and JIT
+    run("warmup", client, servletUrl, Math.min(SESSIONS, 20));
+    run("warmup", client, reactiveUrl, Math.min(SESSIONS, 20));
+    List<Result> results = List.of(run("servlet", client, servletUrl, SESSIONS),
+        run("reactive", client, reactiveUrl, SESSIONS));
+    StringBuilder report = new StringBuilder(String.format("%n%-10s %10s %10s %10s %12s %10s %10s%n",
+        "server", "sessions", "rejected", "failed", "sessions/s", "p50 ms", "p99 ms"));
+    results.forEach(r -> report.append(String.format("%-10s %10d %10d %10d %12.1f %10d %10d%n",
+        r.server, r.sessions, r.rejected, r.failed, r.throughput, r.p50Ms, r.p99Ms)));
+    log.info("Results for {} sessions with up to {} concurrent requests (model latency {} ms, tool latency {} ms):{}",
+        SESSIONS, CONCURRENCY, MODEL_LATENCY_MS, TOOL_LATENCY_MS, report);
+  }
+
+  private static String getUrl(ConfigurableApplicationContext context) {
+    return "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+  }
+
+  private static String[] concat(List<String> args, String... more) {
+    List<String> all = new ArrayList<>(args);
+    all.addAll(List.of(more));
+    return all.toArray(String[]::new);
+  }
+
+  private static Result run(String server, HttpClient client, String url, int sessions) throws Exception {
+    Semaphore inFlight = new Semaphore(CONCURRENCY);
+    AtomicInteger rejected = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int i = 0; i < sessions; i++) {
+      inFlight.acquire();
+      long sessionStart = System.nanoTime();
+      futures.add(client.sendAsync(buildRequest(url), BodyHandlers.discarding())
+          .handle((response, e) -> {
+            inFlight.release();
+            int status = e == null ? response.statusCode() : -1;
+            if (status == 200) return System.nanoTime() - sessionStart;
+            if (status == 503 || status == 429) rejected.incrementAndGet();
+            else failed.incrementAndGet();
+            return null;
+          }));
+    }
+    List<Long> latencies = new ArrayList<>();
+    for (CompletableFuture<Long> future : futures) {
+      Long latency = future.get(10, TimeUnit.MINUTES);
+      if (latency != null) latencies.add(latency);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    assertEquals(sessions, latencies.size() + rejected.get() + failed.get());
+    Collections.sort(latencies);
+    return new Result(server, sessions, rejected.get(), failed.get(), latencies.size() / seconds,
+        percentileMs(latencies, 0.5), percentileMs(latencies, 0.99));
+  }
+
+  @SneakyThrows
+  private static HttpRequest buildRequest(String url) {
+    InputMessage message = new InputMessage();
+    message.setUserId(UUID.randomUUID().toString());
+    message.setContent(MESSAGE);
+    return HttpRequest.newBuilder(URI.create(url + "/messages"))
+        .header("Content-Type", "application/json")
+        .timeout(Duration.ofMinutes(5))
+        .POST(BodyPublishers.ofByteArray(mapper.writeValueAsBytes(message)))
+        .build();
+  }
+
+  private static long percentileMs(List<Long> sorted, double percentile) {
+    if (sorted.isEmpty()) return 0;
+    int index = Math.max(0, (int) Math.ceil(percentile * sorted.size()) - 1);
+    return TimeUnit.NANOSECONDS.toMillis(sorted.get(index));
+  }
+
+  /**
+   * Excludes the classes of a package from component scanning
+   */
+  private static class ExcludePackageFilter extends TypeExcludeFilter {
+
+    private final String packageName;
+
+    ExcludePackageFilter(String packageName) {
+      this.packageName = packageName;
+    }
+
+    @Override
+    public boolean match(MetadataReader metadataReader, MetadataReaderFactory metadataReaderFactory) {
+      return metadataReader.getClassMetadata().getClassName().startsWith(packageName + ".");
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof ExcludePackageFilter other && packageName.equals(other.packageName);
+    }
+
+    @Override
+    public int hashCode() {
+      return packageName.hashCode();
+    }
+  }
+
+  private record Result(String server, int sessions, int rejected, int failed, double throughput, long p50Ms,
+                        long p99Ms) {
+
+  }
+
+}
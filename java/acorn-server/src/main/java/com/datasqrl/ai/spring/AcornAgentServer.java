@@ -3,28 +3,64 @@ package com.datasqrl.ai.spring;
 import com.datasqrl.ai.config.AcornAgentConfiguration;
 import com.datasqrl.ai.config.ContextConversion;
 import com.datasqrl.ai.models.ChatProvider;
+import com.datasqrl.ai.spring.jobs.ChatJob;
+import com.datasqrl.ai.spring.jobs.ChatJobRequest;
+import com.datasqrl.ai.spring.jobs.ChatJobResult;
+import com.datasqrl.ai.spring.jobs.ChatJobService;
+import com.datasqrl.ai.spring.jobs.ChatJobStatus;
+import com.datasqrl.ai.spring.jobs.FileChatJobStore;
+import com.datasqrl.ai.tool.CancellationToken;
 import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.GenericChatMessage;
 import com.datasqrl.ai.tool.ToolManager;
 import com.datasqrl.ai.trace.Trace;
 import com.datasqrl.ai.trace.TraceChatProvider;
 import com.datasqrl.ai.trace.TraceContext;
 import com.datasqrl.ai.trace.TraceRecordingToolManager;
+import com.datasqrl.ai.util.AdmissionControl;
+import com.datasqrl.ai.util.AdmissionControl.AdmissionRejectedException;
+import com.datasqrl.ai.util.BlockingExecutor;
+import com.datasqrl.ai.util.KeyedSequencer;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @SpringBootApplication
 @Slf4j
@@ -41,78 +77,394 @@ public class AcornAgentServer {
   @RestController
   public static class MessageController {
 
-    private final AcornAgentConfiguration configuration;
-    private final List<String> contextKeys;
-    private final ToolManager toolsManager;
+    private final Path configPath;
+    private final Path toolsPath;
+    private final boolean tracingEnabled;
+    private final boolean reloadEndpointEnabled;
+    private final Duration requestTimeout;
+    private final ExecutorService chatExecutor;
+    private final KeyedSequencer<String> userSequencer = new KeyedSequencer<>();
+    private final AdmissionControl admissionControl;
+    private final String modelProvider;
+    private final int retryAfterSeconds;
+    private final MeterRegistry meterRegistry;
+    private final ChatJobService jobService;
+    private final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "agent-reload");
+      thread.setDaemon(true);
+      return thread;
+    });
+    /**
+     * The reload that has been requested but not started yet, or null
+     */
+    private final AtomicReference<CompletableFuture<Void>> pendingReload = new AtomicReference<>();
+    private final ConfigurationWatcher watcher;
 
-    private ChatProvider chatProvider;
-    private Optional<Tracer> tracer;
+    /**
+     * The agent that answers messages. It is replaced as a whole when the configuration is reloaded, while
+     * requests that are in flight complete with the agent they started with.
+     */
+    private final AtomicReference<Agent> agent = new AtomicReference<>();
+    /**
+     * The tracer that records the current trace or null if tracing is disabled. It is replaced
+     * when the trace is written to file or the configuration is reloaded.
+     */
+    private final AtomicReference<Tracer> tracer = new AtomicReference<>();
 
 
+    /**
+     * With {@code spring.threads.virtual.enabled=true}, Spring Boot handles requests on virtual threads and
+     * chats as well as blocking tool executions also run on virtual threads.
+     */
     @SneakyThrows
-    public MessageController(AcornAgentServerProperties props) {
+    public MessageController(AcornAgentServerProperties props, MeterRegistry meterRegistry,
+        @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
       Preconditions.checkArgument(!Strings.isNullOrEmpty(props.getConfig()),"Need to provide a configuration file");
       Preconditions.checkArgument(!Strings.isNullOrEmpty(props.getTools()), "Need to provide a tools file");
-      this.configuration = AcornAgentConfiguration.fromFile(Path.of(props.getConfig()), Path.of(props.getTools()));
-      this.contextKeys = configuration.getContext();
-      this.toolsManager = configuration.getToolManager();
-
-      if (props.isTracingEnabled()) {
-        tracer = Optional.of(new Tracer());
-        this.chatProvider = tracer.get().getChatProvider();
-      } else {
-        this.tracer = Optional.empty();
-        this.chatProvider = configuration.getChatProvider(this.toolsManager);
+      if (virtualThreads) BlockingExecutor.useVirtualThreads();
+      this.chatExecutor = BlockingExecutor.get();
+      this.configPath = Path.of(props.getConfig());
+      this.toolsPath = Path.of(props.getTools());
+      this.tracingEnabled = props.isTracingEnabled();
+      this.reloadEndpointEnabled = props.isReloadEndpointEnabled();
+      Agent initialAgent = loadAgent();
+      this.agent.set(initialAgent);
+      if (tracingEnabled) this.tracer.set(new Tracer(initialAgent));
+      this.requestTimeout = Duration.ofMillis(props.getRequestTimeoutMs());
+      this.modelProvider = initialAgent.configuration().getModelProvider();
+      this.admissionControl = new AdmissionControl(props.getMaxInFlightChats(modelProvider),
+          props.getMaxQueuedChats(), Duration.ofMillis(props.getMaxQueueTimeMs()));
+      this.retryAfterSeconds = props.getRetryAfterSeconds();
+      this.meterRegistry = meterRegistry;
+      Gauge.builder("chat.admission.in_flight", admissionControl, AdmissionControl::getInFlight)
+          .tag("provider", modelProvider).register(meterRegistry);
+      Gauge.builder("chat.admission.queued", admissionControl, AdmissionControl::getQueued)
+          .tag("provider", modelProvider).register(meterRegistry);
+      Gauge.builder("chat.admission.background_queued", admissionControl, AdmissionControl::getBackgroundQueued)
+          .tag("provider", modelProvider).register(meterRegistry);
+
+      this.jobService = new ChatJobService(new FileChatJobStore(Path.of(props.getJobsDirectory())),
+          props.getJobWorkers(), props.getMaxQueuedJobMessages(), this::answerJobMessage);
+      Gauge.builder("chat.jobs.queued", jobService, ChatJobService::getQueuedMessages).register(meterRegistry);
+      this.jobService.start();
+      this.watcher = props.isWatchConfig()
+          ? new ConfigurationWatcher(List.of(configPath, toolsPath), this::requestReload) : null;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+      if (watcher != null) watcher.close();
+      reloadExecutor.shutdownNow();
+      jobService.close();
+    }
+
+    /**
+     * Reloads the configuration and tools files. The new agent is built and prewarmed in the background
+     * and swapped in once it is ready. Returns an error and keeps the current agent if the files are invalid.
+     */
+    @PostMapping("/admin/reload")
+    public CompletableFuture<ResponseEntity<String>> reloadConfiguration() {
+      if (!reloadEndpointEnabled) {
+        return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+      }
+      return requestReload().handle((result, e) -> e == null
+          ? ResponseEntity.ok("Configuration reloaded")
+          : ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+              .body("Reload failed: " + e.getMessage()));
+    }
+
+    /**
+     * Schedules a reload of the agent. Requests that arrive before the scheduled reload has started share it.
+     *
+     * @return A future that completes when the new agent has been swapped in
+     */
+    private CompletableFuture<Void> requestReload() {
+      CompletableFuture<Void> reload = new CompletableFuture<>();
+      CompletableFuture<Void> pending = pendingReload.compareAndExchange(null, reload);
+      if (pending != null) return pending;
+      reloadExecutor.execute(() -> {
+        //Changes after this point require another reload
+        pendingReload.compareAndSet(reload, null);
+        try {
+          swapAgent(loadAgent());
+          log.info("Reloaded configuration {} and tools {}", configPath, toolsPath);
+          reload.complete(null);
+        } catch (Exception e) {
+          log.error("Could not reload configuration, keeping the current one", e);
+          reload.completeExceptionally(e);
+        }
+      });
+      return reload;
+    }
+
+    /**
+     * Builds the agent from the configuration files and prewarms it (unless tracing is enabled, in which case the
+     * tracer prewarms its own chat provider).
+     */
+    private Agent loadAgent() throws IOException {
+      AcornAgentConfiguration configuration = AcornAgentConfiguration.fromFile(configPath, toolsPath);
+      ToolManager toolManager = configuration.getToolManager();
+      ChatProvider chatProvider = tracingEnabled ? null : configuration.getChatProvider(toolManager);
+      if (chatProvider != null) chatProvider.prewarm();
+      return new Agent(configuration, configuration.getContext(), toolManager, chatProvider);
+    }
+
+    private void swapAgent(Agent next) {
+      Tracer current = tracer.get();
+      if (current == null) {
+        agent.set(next);
+        return;
+      }
+      //The trace continues with the new agent
+      Tracer nextTracer = current.withAgent(next);
+      agent.set(next);
+      while (!tracer.compareAndSet(current, nextTracer)) {
+        current = tracer.get();
+        nextTracer = current.withAgent(next);
       }
     }
 
     @GetMapping("/messages")
     public List<ResponseMessage> getMessages(@RequestParam String userId) {
-      Context context = getContext(userId);
-      return chatProvider.getHistory(context, false).stream().map(ResponseMessage::from).toList();
+      Tracer activeTracer = tracer.get();
+      Agent activeAgent = getAgent(activeTracer);
+      Context context = getContext(userId, CancellationToken.NONE, activeAgent, activeTracer);
+      return getChatProvider(activeAgent, activeTracer).getHistory(context, false).stream()
+          .map(ResponseMessage::from).toList();
     }
 
+    /**
+     * Answers the message asynchronously. The interaction is cancelled when the client disconnects
+     * or the request timeout elapses, which aborts all outstanding model and tool calls.
+     * Messages of the same user are answered one after another in the order they are received, since
+     * each message continues the chat of the previous one. Messages of different users are answered concurrently.
+     * Messages are admitted through the {@link AdmissionControl} of the model provider once it is their turn and
+     * rejected with status 429 (queue full) or 503 (queue timeout or request timeout) and a {@code Retry-After}
+     * header when the server is overloaded.
+     */
     @PostMapping("/messages")
-    public ResponseMessage postMessage(@RequestBody InputMessage message) {
+    public DeferredResult<ResponseMessage> postMessage(@RequestBody InputMessage message) {
       log.info("\nUser #{}: {}", message.getUserId(), message.getContent());
-      if (tracer.isPresent() && message.getContent().equals("exit")) {
-        String filename = tracer.get().saveTraceToFile();
-        tracer = Optional.of(new Tracer());
-        this.chatProvider = tracer.get().getChatProvider();
-        return ResponseMessage.system(String.format("Trace written to file: %s. Session concluded.",filename));
-      } else {
-        Context context = getContext(message.getUserId());
-        return ResponseMessage.from(chatProvider.chat(message.getContent(), context));
+      DeferredResult<ResponseMessage> result = new DeferredResult<>(requestTimeout.toMillis());
+      Tracer activeTracer = tracer.get();
+      if (activeTracer != null && message.getContent().equals("exit")) {
+        if (tracer.compareAndSet(activeTracer, new Tracer(activeTracer.getAgent()))) {
+          String filename = activeTracer.saveTraceToFile();
+          result.setResult(ResponseMessage.system(String.format("Trace written to file: %s. Session concluded.",filename)));
+        } else {
+          result.setResult(ResponseMessage.system("Trace was concluded by a concurrent request."));
+        }
+        return result;
       }
+      CancellationToken cancellationToken = CancellationToken.withTimeout(requestTimeout);
+      Agent activeAgent = getAgent(activeTracer);
+      Context context = getContext(message.getUserId(), cancellationToken, activeAgent, activeTracer);
+      ChatProvider provider = getChatProvider(activeAgent, activeTracer);
+      CompletableFuture<GenericChatMessage> response = submitChat(message.getUserId(), admissionControl::acquire,
+          () -> CompletableFuture.supplyAsync(() -> provider.chat(message.getContent(), context), chatExecutor));
+      result.onTimeout(() -> {
+        cancellationToken.cancel("Request timed out");
+        response.cancel(false);
+        result.setErrorResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds)).build());
+      });
+      result.onError(e -> {
+        cancellationToken.cancel("Client disconnected");
+        response.cancel(false);
+      });
+      result.onCompletion(() -> cancellationToken.cancel("Request completed"));
+      response.whenComplete((answer, e) -> {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause == null) {
+          result.setResult(ResponseMessage.from(answer));
+        } else if (cause instanceof AdmissionRejectedException rejected) {
+          String reason = rejected.getReason().name().toLowerCase();
+          log.warn("Rejected message for user #{}: {}", message.getUserId(), reason);
+          meterRegistry.counter("chat.admission.rejected", "provider", modelProvider, "reason", reason).increment();
+          HttpStatus status = rejected.getReason() == AdmissionControl.RejectionReason.QUEUE_FULL
+              ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+          result.setErrorResult(ResponseEntity.status(status)
+              .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds)).build());
+        } else if (cause instanceof CancellationException) {
+          log.info("Cancelled message for user #{}: {}", message.getUserId(), cause.getMessage());
+        } else {
+          result.setErrorResult(cause);
+        }
+      });
+      return result;
+    }
+
+    /**
+     * Submits a job with one or many messages that are answered asynchronously. The job is rejected with status 429
+     * if the job queue cannot take all of its messages.
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<ChatJobStatus> submitJob(@RequestBody ChatJobRequest request) {
+      try {
+        ChatJob job = jobService.submit(request);
+        log.info("Submitted chat job {} with {} messages", job.getId(), job.getMessages().size());
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.getStatus(false));
+      } catch (AdmissionRejectedException e) {
+        meterRegistry.counter("chat.jobs.rejected").increment();
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds)).build();
+      } catch (IllegalArgumentException e) {
+        log.info("Invalid chat job: {}", e.getMessage());
+        return ResponseEntity.badRequest().build();
+      }
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<ChatJobStatus> getJob(@PathVariable String jobId,
+        @RequestParam(defaultValue = "true") boolean results) {
+      return ResponseEntity.of(jobService.getJob(jobId).map(job -> job.getStatus(results)));
+    }
+
+    /**
+     * Streams the results of the job as server-sent events, starting with the results that are already available.
+     * Each result is sent as a {@code result} event, followed by a final {@code status} event once the job is completed.
+     */
+    @GetMapping(value = "/jobs/{jobId}/results", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribeToJob(@PathVariable String jobId) {
+      Optional<ChatJob> job = jobService.getJob(jobId);
+      if (job.isEmpty()) return ResponseEntity.notFound().build();
+      //Jobs can run for hours, so the stream does not time out
+      SseEmitter emitter = new SseEmitter(0L);
+      int numMessages = job.get().getMessages().size();
+      AtomicInteger sent = new AtomicInteger();
+      Consumer<ChatJobResult> listener = new Consumer<>() {
+        @Override
+        public void accept(ChatJobResult result) {
+          try {
+            emitter.send(SseEmitter.event().name("result").data(result, MediaType.APPLICATION_JSON));
+            // Results are passed exactly once, so the last result to be sent completes the stream
+            if (sent.incrementAndGet() == numMessages) {
+              emitter.send(SseEmitter.event().name("status").data(job.get().getStatus(false), MediaType.APPLICATION_JSON));
+              emitter.complete();
+            }
+          } catch (IOException | IllegalStateException e) {
+            job.get().unsubscribe(this);
+          }
+        }
+      };
+      emitter.onCompletion(() -> job.get().unsubscribe(listener));
+      emitter.onError(e -> job.get().unsubscribe(listener));
+      job.get().subscribe(listener);
+      return ResponseEntity.ok(emitter);
+    }
+
+    @DeleteMapping("/jobs/{jobId}")
+    public ResponseEntity<Void> deleteJob(@PathVariable String jobId) throws IOException {
+      return jobService.delete(jobId) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Answers a message of a chat job. Job messages wait for a background permit of the admission control, so
+     * they use the capacity that interactive messages leave free, and the request timeout applies from admission.
+     */
+    private CompletableFuture<GenericChatMessage> answerJobMessage(InputMessage message) {
+      return submitChat(message.getUserId(), admissionControl::acquireBackground, () -> {
+        Tracer activeTracer = tracer.get();
+        Agent activeAgent = getAgent(activeTracer);
+        Context context = getContext(message.getUserId(), CancellationToken.withTimeout(requestTimeout),
+            activeAgent, activeTracer);
+        ChatProvider provider = getChatProvider(activeAgent, activeTracer);
+        return CompletableFuture.supplyAsync(() -> provider.chat(message.getContent(), context), chatExecutor);
+      });
+    }
+
+    /**
+     * Answers the message after all previous messages of the user have been answered. The admission permit is
+     * requested once it is the message's turn, so that messages waiting for an earlier message of the same user
+     * neither hold a permit nor take up a place in the admission queue. Cancelling the returned future cancels
+     * the admission request or the chat.
+     */
+    private CompletableFuture<GenericChatMessage> submitChat(String userId,
+        Supplier<CompletableFuture<AdmissionControl.Permit>> admission,
+        Supplier<CompletableFuture<GenericChatMessage>> chat) {
+      return userSequencer.submit(userId, () -> {
+        CompletableFuture<AdmissionControl.Permit> permit = admission.get();
+        CompletableFuture<GenericChatMessage> answer = permit.thenCompose(admitted -> {
+          CompletableFuture<GenericChatMessage> started = chat.get();
+          started.whenComplete((value, e) -> admitted.release());
+          return started;
+        });
+        answer.whenComplete((value, e) -> {
+          if (answer.isCancelled()) permit.cancel(false);
+        });
+        return answer;
+      });
+    }
+
+    private Agent getAgent(Tracer activeTracer) {
+      return activeTracer == null ? agent.get() : activeTracer.getAgent();
     }
 
-    private Context getContext(String userId) {
-      Context context = ContextConversion.getContextFromUserId(userId, contextKeys);
-      return tracer.map(t -> t.nextContext(context)).orElse(context);
+    private ChatProvider getChatProvider(Agent activeAgent, Tracer activeTracer) {
+      return activeTracer == null ? activeAgent.chatProvider() : activeTracer.getChatProvider();
     }
 
+    private Context getContext(String userId, CancellationToken cancellationToken, Agent activeAgent,
+        Tracer activeTracer) {
+      Context context = ContextConversion.getContextFromUserId(userId, activeAgent.contextKeys(), cancellationToken);
+      return activeTracer == null ? context : activeTracer.nextContext(context);
+    }
+
+    /**
+     * The configuration, tools, and chat provider that answer messages. The chat provider is null when tracing
+     * is enabled since the {@link Tracer} builds its own.
+     */
+    private record Agent(AcornAgentConfiguration configuration, List<String> contextKeys, ToolManager toolManager,
+                         ChatProvider chatProvider) {
+
+    }
+
+    /**
+     * Records the interactions of all users into one trace. Requests are recorded concurrently, so each
+     * request gets its own {@link TraceContext} with a unique request index.
+     */
     private class Tracer {
 
-      private final Trace.TraceBuilder traceBuilder = Trace.builder();
-      private int requestIndex = 0;
+      private final Trace.TraceBuilder traceBuilder;
+      private final AtomicInteger requestIndex;
+      @Getter
+      private final Agent agent;
+      @Getter
+      private final ChatProvider chatProvider;
+
+      private Tracer(Agent agent) {
+        this(agent, Trace.builder(), new AtomicInteger());
+      }
+
+      private Tracer(Agent agent, Trace.TraceBuilder traceBuilder, AtomicInteger requestIndex) {
+        this.traceBuilder = traceBuilder;
+        this.requestIndex = requestIndex;
+        this.agent = agent;
+        ToolManager tracingTools = new TraceRecordingToolManager(agent.toolManager(), traceBuilder, Optional.empty());
+        this.chatProvider = new TraceChatProvider(agent.configuration().getChatProvider(tracingTools), traceBuilder);
+        this.chatProvider.prewarm();
+      }
+
+      /**
+       * Returns a tracer that continues this trace with the given agent.
+       */
+      public Tracer withAgent(Agent agent) {
+        return new Tracer(agent, traceBuilder, requestIndex);
+      }
 
       public Context nextContext(Context context) {
         TraceContext tContext = TraceContext.of(context.asMap());
-        tContext.setRequestIndex(requestIndex++);
+        tContext.setRequestIndex(requestIndex.getAndIncrement());
+        tContext.setCancellationToken(context.getCancellationToken());
         return tContext;
       }
 
-      public ChatProvider getChatProvider() {
-        ToolManager tracingTools = new TraceRecordingToolManager(toolsManager, this.traceBuilder, Optional.empty());
-        return new TraceChatProvider(configuration.getChatProvider(tracingTools), this.traceBuilder);
-      }
-
       @SneakyThrows
       public String saveTraceToFile() {
-        if (tracer.isEmpty()) {
-          return null;
+        Trace trace;
+        synchronized (traceBuilder) {
+          trace = traceBuilder.id(UUID.randomUUID().toString()).build();
         }
-        Trace trace = tracer.get().traceBuilder.id(UUID.randomUUID().toString()).build();
         String filename = String.format("trace_%s.json", trace.getId());
         trace.writeToFile(Path.of(filename));
         return filename;
@@ -122,5 +474,4 @@ public class AcornAgentServer {
 
   }
 
-
 }
@@ -1,5 +1,7 @@
 package com.datasqrl.ai.spring;
 
+import java.util.HashMap;
+import java.util.Map;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
@@ -12,5 +14,55 @@ public class AcornAgentServerProperties {
   private String config;
   private String tools;
   private boolean tracingEnabled = false;
+  /**
+   * Maximum time in milliseconds for answering a message, including all model and tool calls.
+   */
+  private long requestTimeoutMs = 120_000;
+  /**
+   * Maximum number of messages that are answered concurrently by a model provider. Further messages wait in
+   * the admission queue.
+   */
+  private int maxInFlightChats = 100;
+  /**
+   * Overrides {@link #maxInFlightChats} for individual model providers, keyed by provider name (e.g. {@code openai}).
+   */
+  private Map<String, Integer> providerMaxInFlightChats = new HashMap<>();
+  /**
+   * Maximum number of messages waiting for admission. Messages are rejected with status 429 when the queue is full.
+   */
+  private int maxQueuedChats = 100;
+  /**
+   * Maximum time in milliseconds a message waits for admission before it is rejected with status 503.
+   */
+  private long maxQueueTimeMs = 5_000;
+  /**
+   * Value of the {@code Retry-After} header in seconds for rejected messages.
+   */
+  private int retryAfterSeconds = 1;
+  /**
+   * Directory in which chat jobs and their results are stored.
+   */
+  private String jobsDirectory = "jobs";
+  /**
+   * Number of workers that answer the messages of chat jobs concurrently. Job messages share the in-flight limit
+   * of the model provider with interactive messages at a lower priority.
+   */
+  private int jobWorkers = 16;
+  /**
+   * Maximum number of job messages waiting to be answered. Jobs that exceed it are rejected with status 429.
+   */
+  private int maxQueuedJobMessages = 100_000;
+  /**
+   * Reloads the agent when the configuration or tools file changes.
+   */
+  private boolean watchConfig = false;
+  /**
+   * Enables the {@code POST /admin/reload} endpoint that reloads the agent from the configuration and tools files.
+   */
+  private boolean reloadEndpointEnabled = false;
+
+  public int getMaxInFlightChats(String provider) {
+    return providerMaxInFlightChats.getOrDefault(provider, maxInFlightChats);
+  }
 
 }
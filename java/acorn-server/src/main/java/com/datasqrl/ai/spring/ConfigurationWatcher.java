@@ -0,0 +1,85 @@
+package com.datasqrl.ai.spring;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Watches a set of files and calls a callback when any of them is created or modified. Editors and deployment
+ * tools often write a file in several steps, so changes are debounced: the callback is called once the files
+ * have not changed for {@link #DEBOUNCE_MS}.
+ */
+@Slf4j
+public class ConfigurationWatcher implements AutoCloseable {
+
+  public static final long DEBOUNCE_MS = 500;
+
+  private final WatchService watchService;
+  private final Set<Path> files;
+  private final Runnable onChange;
+  private final Thread thread;
+
+  public ConfigurationWatcher(List<Path> files, Runnable onChange) throws IOException {
+    this.files = files.stream().map(file -> file.toAbsolutePath().normalize()).collect(Collectors.toSet());
+    this.onChange = onChange;
+    this.watchService = FileSystems.getDefault().newWatchService();
+    for (Path directory : this.files.stream().map(Path::getParent).collect(Collectors.toSet())) {
+      directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+    }
+    this.thread = new Thread(this::watch, "configuration-watcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+    log.info("Watching {} for changes", this.files);
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        if (!isRelevant(watchService.take())) continue;
+        //Wait until the files stop changing
+        WatchKey key;
+        while ((key = watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+          isRelevant(key);
+        }
+        try {
+          onChange.run();
+        } catch (RuntimeException e) {
+          log.error("Could not handle configuration change", e);
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      //Watcher was closed
+    }
+  }
+
+  private boolean isRelevant(WatchKey key) {
+    Path directory = (Path) key.watchable();
+    boolean relevant = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.context() instanceof Path file && files.contains(directory.resolve(file))) {
+        relevant = true;
+      }
+    }
+    key.reset();
+    return relevant;
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    thread.interrupt();
+  }
+
+}
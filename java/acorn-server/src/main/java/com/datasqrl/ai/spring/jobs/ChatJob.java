@@ -0,0 +1,95 @@
+package com.datasqrl.ai.spring.jobs;
+
+import com.datasqrl.ai.spring.InputMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import lombok.Getter;
+
+/**
+ * A batch of messages that are answered asynchronously. Results are added as the messages complete, in any order.
+ */
+public class ChatJob {
+
+  public enum State {PENDING, COMPLETED}
+
+  @Getter
+  private final String id;
+  @Getter
+  private final long created;
+  @Getter
+  private final List<InputMessage> messages;
+  private final ChatJobResult[] results;
+  private final List<Consumer<ChatJobResult>> listeners = new ArrayList<>();
+  private int completed = 0;
+  private int failed = 0;
+
+  public ChatJob(String id, long created, List<InputMessage> messages) {
+    this.id = id;
+    this.created = created;
+    this.messages = List.copyOf(messages);
+    this.results = new ChatJobResult[messages.size()];
+  }
+
+  /**
+   * Adds the result and notifies all subscribers. Results for messages that already have a result are ignored.
+   * Subscribers are notified without holding the lock of the job, so they may do I/O.
+   *
+   * @return true if the result was added
+   */
+  public boolean addResult(ChatJobResult result) {
+    List<Consumer<ChatJobResult>> subscribers;
+    synchronized (this) {
+      if (results[result.index()] != null) return false;
+      results[result.index()] = result;
+      completed++;
+      if (result.isFailed()) failed++;
+      subscribers = List.copyOf(listeners);
+    }
+    subscribers.forEach(listener -> listener.accept(result));
+    return true;
+  }
+
+  public synchronized boolean hasResult(int index) {
+    return results[index] != null;
+  }
+
+  public synchronized boolean isDone() {
+    return completed == results.length;
+  }
+
+  /**
+   * @return The results that are available so far, ordered by message index
+   */
+  public synchronized List<ChatJobResult> getResults() {
+    List<ChatJobResult> available = new ArrayList<>(completed);
+    for (ChatJobResult result : results) {
+      if (result != null) available.add(result);
+    }
+    return available;
+  }
+
+  public synchronized ChatJobStatus getStatus(boolean includeResults) {
+    return new ChatJobStatus(id, isDone() ? State.COMPLETED : State.PENDING, results.length, completed, failed,
+        includeResults ? getResults() : null);
+  }
+
+  /**
+   * Passes all results that are available so far and all future results to the listener. Each result is passed
+   * exactly once, but results that are added while the available results are passed may arrive concurrently and
+   * in any order. The listener is called without holding the lock of the job.
+   */
+  public void subscribe(Consumer<ChatJobResult> listener) {
+    List<ChatJobResult> available;
+    synchronized (this) {
+      available = getResults();
+      listeners.add(listener);
+    }
+    available.forEach(listener);
+  }
+
+  public synchronized void unsubscribe(Consumer<ChatJobResult> listener) {
+    listeners.remove(listener);
+  }
+
+}
@@ -0,0 +1,14 @@
+package com.datasqrl.ai.spring.jobs;
+
+import com.datasqrl.ai.spring.InputMessage;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+public class ChatJobRequest {
+
+  private List<InputMessage> messages;
+
+}
@@ -0,0 +1,27 @@
+package com.datasqrl.ai.spring.jobs;
+
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.time.Instant;
+
+/**
+ * The result of one message of a chat job: either the answer of the model or an error.
+ *
+ * @param index the index of the message in the job
+ */
+public record ChatJobResult(int index, String userId, String role, String content, String error, String timestamp) {
+
+  public static ChatJobResult success(int index, String userId, GenericChatMessage answer) {
+    return new ChatJobResult(index, userId, answer.getRole(), answer.getContent(), null, Instant.now().toString());
+  }
+
+  public static ChatJobResult failure(int index, String userId, String error) {
+    return new ChatJobResult(index, userId, null, null, error, Instant.now().toString());
+  }
+
+  @JsonIgnore
+  public boolean isFailed() {
+    return error != null;
+  }
+
+}
@@ -0,0 +1,186 @@
+package com.datasqrl.ai.spring.jobs;
+
+import com.datasqrl.ai.spring.InputMessage;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.util.AdmissionControl.AdmissionRejectedException;
+import com.datasqrl.ai.util.AdmissionControl.RejectionReason;
+import com.datasqrl.ai.util.ErrorHandling;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Answers the messages of chat jobs with a pool of workers. Messages of all jobs are queued in the order the jobs
+ * were submitted, and the number of queued messages is bounded. Jobs and their results are persisted in a
+ * {@link FileChatJobStore}, so that messages which were not answered before the server stopped are queued again
+ * when the service starts.
+ *
+ * The workers block while a message is answered, so the number of workers is the number of messages that are
+ * answered concurrently.
+ */
+@Slf4j
+public class ChatJobService implements AutoCloseable {
+
+  private final FileChatJobStore store;
+  private final int workers;
+  private final int maxQueuedMessages;
+  private final Function<InputMessage, CompletableFuture<GenericChatMessage>> chat;
+
+  private final ConcurrentHashMap<String, ChatJob> jobs = new ConcurrentHashMap<>();
+  /**
+   * Holds up to {@link #maxQueuedMessages}, unless more unanswered messages were loaded when the service started
+   */
+  private volatile LinkedBlockingQueue<Task> queue;
+  private final ExecutorService workerPool;
+
+  /**
+   * @param store the store that persists the jobs
+   * @param workers the number of messages that are answered concurrently
+   * @param maxQueuedMessages the maximum number of messages that are waiting to be answered
+   * @param chat answers a message
+   */
+  public ChatJobService(FileChatJobStore store, int workers, int maxQueuedMessages,
+      Function<InputMessage, CompletableFuture<GenericChatMessage>> chat) {
+    ErrorHandling.checkArgument(workers > 0, "Invalid number of job workers: %s", workers);
+    ErrorHandling.checkArgument(maxQueuedMessages > 0, "Invalid maximum number of queued job messages: %s",
+        maxQueuedMessages);
+    this.store = store;
+    this.workers = workers;
+    this.maxQueuedMessages = maxQueuedMessages;
+    this.chat = chat;
+    this.queue = new LinkedBlockingQueue<>(maxQueuedMessages);
+    AtomicInteger threadIndex = new AtomicInteger();
+    this.workerPool = Executors.newFixedThreadPool(workers, runnable -> {
+      Thread thread = new Thread(runnable, "chat-job-worker-" + threadIndex.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Loads the stored jobs, queues their unanswered messages, and starts the workers. If there are more unanswered
+   * messages than the queue holds, all of them are queued and new jobs are rejected until the queue has drained.
+   */
+  public synchronized void start() throws IOException {
+    List<Task> pending = new ArrayList<>();
+    for (ChatJob job : store.loadAll()) {
+      jobs.put(job.getId(), job);
+      for (int i = 0; i < job.getMessages().size(); i++) {
+        if (!job.hasResult(i)) pending.add(new Task(job, i));
+      }
+    }
+    if (pending.size() > queue.remainingCapacity()) {
+      log.warn("{} unanswered job messages exceed the maximum of {} queued messages", pending.size(), maxQueuedMessages);
+      queue = new LinkedBlockingQueue<>(pending.size());
+    }
+    queue.addAll(pending);
+    log.info("Loaded {} chat jobs with {} unanswered messages", jobs.size(), pending.size());
+    for (int i = 0; i < workers; i++) {
+      workerPool.execute(this::work);
+    }
+  }
+
+  /**
+   * Stores and queues the job.
+   *
+   * @throws AdmissionRejectedException if the queue cannot take all messages of the job
+   */
+  public synchronized ChatJob submit(ChatJobRequest request) {
+    List<InputMessage> messages = request.getMessages();
+    ErrorHandling.checkArgument(messages != null && !messages.isEmpty(), "Job needs to contain at least one message");
+    messages.forEach(message -> ErrorHandling.checkArgument(message.getUserId() != null && message.getContent() != null,
+        "Every message needs a userId and content"));
+    if (queue.size() + messages.size() > maxQueuedMessages) {
+      throw new AdmissionRejectedException(RejectionReason.QUEUE_FULL);
+    }
+    ChatJob job = new ChatJob(UUID.randomUUID().toString(), System.currentTimeMillis(), messages);
+    store.create(job);
+    jobs.put(job.getId(), job);
+    for (int i = 0; i < messages.size(); i++) {
+      queue.add(new Task(job, i));
+    }
+    return job;
+  }
+
+  public Optional<ChatJob> getJob(String jobId) {
+    return Optional.ofNullable(jobs.get(jobId));
+  }
+
+  /**
+   * Deletes the job and its results. Messages of the job that are still queued are removed from the queue.
+   *
+   * @return true if the job existed
+   */
+  public boolean delete(String jobId) throws IOException {
+    ChatJob job = jobs.remove(jobId);
+    if (job == null) return false;
+    queue.removeIf(task -> task.job() == job);
+    synchronized (job) {
+      store.delete(jobId);
+    }
+    return true;
+  }
+
+  public int getQueuedMessages() {
+    return queue.size();
+  }
+
+  private void work() {
+    while (!Thread.currentThread().isInterrupted()) {
+      Task task;
+      try {
+        task = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (jobs.get(task.job().getId()) != task.job()) continue;
+      try {
+        process(task);
+      } catch (RuntimeException e) {
+        log.error("Could not process message {} of job {}", task.index(), task.job().getId(), e);
+      }
+    }
+  }
+
+  private void process(Task task) {
+    ChatJob job = task.job();
+    InputMessage message = job.getMessages().get(task.index());
+    ChatJobResult result;
+    try {
+      GenericChatMessage answer = chat.apply(message).join();
+      result = ChatJobResult.success(task.index(), message.getUserId(), answer);
+    } catch (RuntimeException e) {
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      log.warn("Failed to answer message {} of job {}: {}", task.index(), job.getId(), cause.toString());
+      result = ChatJobResult.failure(task.index(), message.getUserId(), cause.toString());
+    }
+    synchronized (job) {
+      if (jobs.get(job.getId()) != job) return;
+      store.appendResult(job, result);
+    }
+    // Subscribers are notified outside the lock, since they stream the result to clients
+    job.addResult(result);
+    if (job.isDone()) log.info("Completed chat job {}", job.getId());
+  }
+
+  @Override
+  public void close() {
+    workerPool.shutdownNow();
+  }
+
+  private record Task(ChatJob job, int index) {
+
+  }
+
+}
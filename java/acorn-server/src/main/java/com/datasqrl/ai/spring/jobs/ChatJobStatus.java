@@ -0,0 +1,14 @@
+package com.datasqrl.ai.spring.jobs;
+
+import com.datasqrl.ai.spring.jobs.ChatJob.State;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+
+/**
+ * The progress of a chat job and, if requested, its results.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ChatJobStatus(String id, State state, int total, int completed, int failed,
+                            List<ChatJobResult> results) {
+
+}
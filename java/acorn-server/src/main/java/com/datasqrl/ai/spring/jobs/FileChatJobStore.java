@@ -0,0 +1,118 @@
+package com.datasqrl.ai.spring.jobs;
+
+import com.datasqrl.ai.spring.InputMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persists chat jobs in a local directory so that queued jobs survive a restart of the server. Each job is stored
+ * as a JSON file {@code <id>.job.json} with its messages, which is written once when the job is submitted, and a
+ * JSON lines file {@code <id>.results.jsonl} to which the result of each message is appended when it completes.
+ * Messages without a result are queued again when the jobs are loaded.
+ */
+@Slf4j
+public class FileChatJobStore {
+
+  private static final String JOB_SUFFIX = ".job.json";
+  private static final String RESULTS_SUFFIX = ".results.jsonl";
+
+  private final Path directory;
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  public FileChatJobStore(Path directory) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+  }
+
+  public void create(ChatJob job) {
+    try {
+      Path tmp = directory.resolve(job.getId() + JOB_SUFFIX + ".tmp");
+      mapper.writeValue(tmp.toFile(), new StoredJob(job.getId(), job.getCreated(), job.getMessages()));
+      Files.move(tmp, directory.resolve(job.getId() + JOB_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not store job " + job.getId(), e);
+    }
+  }
+
+  /**
+   * Appends the result to the results file of the job. The caller must not append results of the same job concurrently.
+   */
+  public void appendResult(ChatJob job, ChatJobResult result) {
+    try {
+      String line = mapper.writeValueAsString(result) + "\n";
+      Files.writeString(directory.resolve(job.getId() + RESULTS_SUFFIX), line, StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not store result of job " + job.getId(), e);
+    }
+  }
+
+  public void delete(String jobId) throws IOException {
+    Files.deleteIfExists(directory.resolve(jobId + JOB_SUFFIX));
+    Files.deleteIfExists(directory.resolve(jobId + RESULTS_SUFFIX));
+  }
+
+  /**
+   * @return All stored jobs with their results in the order they were submitted
+   */
+  public List<ChatJob> loadAll() throws IOException {
+    List<ChatJob> jobs = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : files.filter(f -> f.getFileName().toString().endsWith(JOB_SUFFIX)).toList()) {
+        StoredJob stored = mapper.readValue(file.toFile(), StoredJob.class);
+        ChatJob job = new ChatJob(stored.id(), stored.created(), stored.messages());
+        Path results = directory.resolve(stored.id() + RESULTS_SUFFIX);
+        if (Files.exists(results)) {
+          truncateIncompleteLine(results);
+          for (String line : Files.readAllLines(results, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) continue;
+            try {
+              job.addResult(mapper.readValue(line, ChatJobResult.class));
+            } catch (IOException e) {
+              log.warn("Skipping invalid result of job {}", stored.id());
+            }
+          }
+        }
+        jobs.add(job);
+      }
+    }
+    jobs.sort(Comparator.comparingLong(ChatJob::getCreated));
+    return jobs;
+  }
+
+  /**
+   * Removes the incomplete last line of the file that is left if the server stopped while appending a result,
+   * so that the next result is appended on its own line.
+   */
+  private static void truncateIncompleteLine(Path file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      long end = raf.length();
+      while (end > 0) {
+        raf.seek(end - 1);
+        if (raf.read() == '\n') break;
+        end--;
+      }
+      if (end < raf.length()) {
+        log.warn("Discarding incomplete last line of {}", file);
+        raf.setLength(end);
+      }
+    }
+  }
+
+  record StoredJob(String id, long created, List<InputMessage> messages) {
+
+  }
+
+}
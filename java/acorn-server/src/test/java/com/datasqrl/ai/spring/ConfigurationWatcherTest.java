@@ -0,0 +1,38 @@
+package com.datasqrl.ai.spring;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ConfigurationWatcherTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void testDebouncedChanges() throws Exception {
+    Path config = directory.resolve("config.json");
+    Path tools = directory.resolve("tools.graphql");
+    Files.writeString(config, "{}");
+    Files.writeString(tools, "type Query {}");
+    Semaphore changes = new Semaphore(0);
+    try (ConfigurationWatcher watcher = new ConfigurationWatcher(List.of(config, tools), changes::release)) {
+      Files.writeString(directory.resolve("other.txt"), "ignored");
+      assertFalse(changes.tryAcquire(2 * ConfigurationWatcher.DEBOUNCE_MS, TimeUnit.MILLISECONDS));
+      //Multiple writes in quick succession trigger a single change
+      Files.writeString(config, "{\"model\": 1}");
+      Files.writeString(tools, "type Query { a: Int }");
+      Files.writeString(config, "{\"model\": 2}");
+      assertTrue(changes.tryAcquire(1, TimeUnit.MINUTES));
+      assertFalse(changes.tryAcquire(2 * ConfigurationWatcher.DEBOUNCE_MS, TimeUnit.MILLISECONDS));
+    }
+  }
+
+}
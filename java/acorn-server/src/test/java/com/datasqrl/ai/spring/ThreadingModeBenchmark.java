@@ -0,0 +1,143 @@
+package com.datasqrl.ai.spring;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.datasqrl.ai.api.APIExecutorFactory;
+import com.datasqrl.ai.api.SpringGraphQLExecutor;
+import com.datasqrl.ai.models.ChatProvider;
+import com.datasqrl.ai.models.StubChatProvider;
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.ToolsBackendFactory;
+import com.datasqrl.ai.util.BlockingExecutor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Load benchmark that compares platform and virtual threads for the blocking chat execution of
+ * {@link AcornAgentServer}. Each session is a chat with the {@link StubChatProvider}, which simulates two model
+ * invocations with a fixed latency and calls one tool against a local stub API that answers after a fixed latency.
+ *
+ * Platform threads are capped at Tomcat's default of 200 threads. Virtual threads are only benchmarked
+ * when running on Java 21 or later.
+ *
+ * Run with: {@code mvn test -pl acorn-server -Dtest=ThreadingModeBenchmark -Dbenchmark=true}
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class ThreadingModeBenchmark {
+
+  private static final int SESSIONS = Integer.getInteger("benchmark.sessions", 2000);
+  private static final int MODEL_LATENCY_MS = Integer.getInteger("benchmark.model_latency_ms", 500);
+  private static final int TOOL_LATENCY_MS = Integer.getInteger("benchmark.tool_latency_ms", 100);
+  private static final int PLATFORM_THREADS = 200;
+
+  private static final String TOOLS = """
+      [{"type": "api", "function": {"name": "tool", "parameters": {"type": "object", "properties": {}}},
+        "api": {"query": "query { tool }"}}]
+      """;
+
+  @Test
+  public void compareThreadingModes() throws Exception {
+    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), SESSIONS);
+    server.createContext("/graphql",
+        exchange -> scheduler.schedule(() -> respond(exchange), TOOL_LATENCY_MS, TimeUnit.MILLISECONDS));
+    server.setExecutor(Executors.newFixedThreadPool(8));
+    server.start();
+    try {
+      SpringGraphQLExecutor api = new SpringGraphQLExecutor(
+          "http://localhost:" + server.getAddress().getPort() + "/graphql", Optional.empty());
+      ChatProvider provider = new StubChatProvider(ToolsBackendFactory.of(ToolsBackendFactory.readTools(TOOLS),
+          Map.of(APIExecutorFactory.DEFAULT_NAME, api)), MODEL_LATENCY_MS, "tool");
+      List<Result> results = new ArrayList<>();
+      //Warm up connections and JIT
+      run("warmup", Executors.newFixedThreadPool(PLATFORM_THREADS), provider, PLATFORM_THREADS);
+      results.add(run("platform", Executors.newFixedThreadPool(PLATFORM_THREADS), provider, SESSIONS));
+      if (BlockingExecutor.isVirtualThreadsSupported()) {
+        results.add(run("virtual", BlockingExecutor.newVirtualThreadPerTaskExecutor(), provider, SESSIONS));
+      } else {
+        log.warn("Skipping virtual threads which require Java 21 or later");
+      }
+      StringBuilder report = new StringBuilder(String.format("%n%-10s %10s %12s %10s %10s %12s%n",
+          "mode", "sessions", "sessions/s", "p50 ms", "p99 ms", "peak threads"));
+      results.forEach(r -> report.append(String.format("%-10s %10d %12.1f %10d %10d %12d%n",
+          r.mode, r.sessions, r.throughput, r.p50Ms, r.p99Ms, r.peakThreads)));
+      log.info("Results for {} concurrent sessions (model latency {} ms, tool latency {} ms):{}",
+          SESSIONS, MODEL_LATENCY_MS, TOOL_LATENCY_MS, report);
+    } finally {
+      server.stop(0);
+      scheduler.shutdownNow();
+    }
+  }
+
+  private static Result run(String mode, ExecutorService executor, ChatProvider provider, int sessions)
+      throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    threads.resetPeakThreadCount();
+    long start = System.nanoTime();
+    List<Future<Long>> futures = new ArrayList<>();
+    try {
+      for (int i = 0; i < sessions; i++) {
+        futures.add(executor.submit(() -> {
+          long sessionStart = System.nanoTime();
+          provider.chat("Hello", Context.of());
+          return System.nanoTime() - sessionStart;
+        }));
+      }
+      List<Long> latencies = new ArrayList<>();
+      for (Future<Long> future : futures) {
+        latencies.add(future.get(10, TimeUnit.MINUTES));
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      assertEquals(sessions, latencies.size());
+      Collections.sort(latencies);
+      return new Result(mode, sessions, sessions / seconds, percentileMs(latencies, 0.5),
+          percentileMs(latencies, 0.99), threads.getPeakThreadCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static long percentileMs(List<Long> sorted, double percentile) {
+    int index = Math.max(0, (int) Math.ceil(percentile * sorted.size()) - 1);
+    return TimeUnit.NANOSECONDS.toMillis(sorted.get(index));
+  }
+
+  private static void respond(HttpExchange exchange) {
+    try (OutputStream out = exchange.getResponseBody()) {
+      byte[] response = new ObjectMapper().writeValueAsBytes(
+          new ObjectMapper().createObjectNode().putObject("data").put("result", "ok"));
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, response.length);
+      out.write(response);
+    } catch (IOException e) {
+      log.error("Could not respond", e);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private record Result(String mode, int sessions, double throughput, long p50Ms, long p99Ms, int peakThreads) {
+
+  }
+
+}
@@ -0,0 +1,129 @@
+package com.datasqrl.ai.spring.jobs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datasqrl.ai.spring.InputMessage;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import com.datasqrl.ai.util.AdmissionControl.AdmissionRejectedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ChatJobServiceTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void testJobSurvivesRestart() throws Exception {
+    ChatJobRequest request = request(20);
+    String jobId;
+    //The first service answers 5 messages and fails one before it is stopped
+    CountDownLatch answered = new CountDownLatch(6);
+    try (ChatJobService service = new ChatJobService(new FileChatJobStore(directory), 1, 100, message -> {
+      if (answered.getCount() == 0) return new CompletableFuture<>();
+      answered.countDown();
+      if (message.getContent().equals("message 3")) return CompletableFuture.failedFuture(new IllegalStateException("model failed"));
+      return CompletableFuture.completedFuture(answer(message));
+    })) {
+      service.start();
+      jobId = service.submit(request).getId();
+      assertTrue(answered.await(1, TimeUnit.MINUTES));
+      ChatJob job = service.getJob(jobId).orElseThrow();
+      while (job.getStatus(false).completed() < 6) Thread.sleep(10);
+    }
+
+    try (ChatJobService service = new ChatJobService(new FileChatJobStore(directory), 4, 100,
+        message -> CompletableFuture.supplyAsync(() -> answer(message)))) {
+      service.start();
+      ChatJob job = service.getJob(jobId).orElseThrow();
+      List<ChatJobResult> streamed = new CopyOnWriteArrayList<>();
+      CountDownLatch done = new CountDownLatch(20);
+      job.subscribe(result -> {
+        streamed.add(result);
+        done.countDown();
+      });
+      assertTrue(done.await(1, TimeUnit.MINUTES));
+      assertEquals(20, streamed.size());
+      ChatJobStatus status = job.getStatus(true);
+      assertEquals(ChatJob.State.COMPLETED, status.state());
+      assertEquals(1, status.failed());
+      for (ChatJobResult result : status.results()) {
+        if (result.index() == 3) {
+          assertTrue(result.isFailed());
+        } else {
+          assertEquals("answer to message " + result.index(), result.content());
+        }
+      }
+      assertTrue(service.delete(jobId));
+    }
+    try (ChatJobService service = new ChatJobService(new FileChatJobStore(directory), 1, 100,
+        message -> new CompletableFuture<>())) {
+      service.start();
+      assertFalse(service.getJob(jobId).isPresent());
+    }
+  }
+
+  @Test
+  public void testBoundedQueue() throws Exception {
+    try (ChatJobService service = new ChatJobService(new FileChatJobStore(directory), 1, 10,
+        message -> new CompletableFuture<>())) {
+      service.start();
+      ChatJob job = service.submit(request(5));
+      assertThrows(AdmissionRejectedException.class, () -> service.submit(request(7)));
+      assertThrows(IllegalArgumentException.class, () -> service.submit(request(0)));
+      // Queued messages of deleted jobs no longer count towards the limit
+      assertTrue(service.delete(job.getId()));
+      assertEquals(0, service.getQueuedMessages());
+      service.submit(request(10));
+      assertThrows(AdmissionRejectedException.class, () -> service.submit(request(1)));
+    }
+  }
+
+  @Test
+  public void testIncompleteResult() throws Exception {
+    FileChatJobStore store = new FileChatJobStore(directory);
+    ChatJobRequest request = request(2);
+    ChatJob job = new ChatJob("job", 0, request.getMessages());
+    store.create(job);
+    store.appendResult(job, ChatJobResult.success(0, "user0", answer(request.getMessages().get(0))));
+    // The server stopped while appending the second result
+    Files.writeString(directory.resolve("job.results.jsonl"), "{\"index\":1,\"us", StandardOpenOption.APPEND);
+    ChatJob loaded = new FileChatJobStore(directory).loadAll().get(0);
+    assertEquals(1, loaded.getStatus(false).completed());
+    // The incomplete line is discarded, so the result that is appended after loading can be read
+    store.appendResult(loaded, ChatJobResult.success(1, "user1", answer(request.getMessages().get(1))));
+    loaded = new FileChatJobStore(directory).loadAll().get(0);
+    assertTrue(loaded.isDone());
+    assertEquals("answer to message 1", loaded.getResults().get(1).content());
+  }
+
+  private static ChatJobRequest request(int numMessages) {
+    List<InputMessage> messages = new ArrayList<>();
+    for (int i = 0; i < numMessages; i++) {
+      InputMessage message = new InputMessage();
+      message.setUserId("user" + i);
+      message.setContent("message " + i);
+      messages.add(message);
+    }
+    ChatJobRequest request = new ChatJobRequest();
+    request.setMessages(messages);
+    return request;
+  }
+
+  private static GenericChatMessage answer(InputMessage message) {
+    return GenericChatMessage.builder().role("assistant").content("answer to " + message.getContent()).build();
+  }
+
+}
@@ -1,5 +1,6 @@
 package com.datasqrl.ai.api;
 
+import com.datasqrl.ai.util.BlockingExecutor;
 import com.datasqrl.ai.util.ErrorHandling;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -60,7 +61,7 @@ public class SpringGraphQLExecutor implements APIExecutor {
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
-    });
+    }, BlockingExecutor.get());
   }
 
   private HttpEntity<String> buildRequest(String query, JsonNode arguments) throws IOException {
@@ -1,24 +1,43 @@
 package com.datasqrl.ai.api;
 
+import com.datasqrl.ai.util.BlockingExecutor;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
+/**
+ * Implements the {@link APIExecutor} interface for databases using Spring's JDBC support.
+ *
+ * Queries are executed with the timeout configured for the {@link APIQuery}, and asynchronous
+ * queries cancel the running statement when their future is cancelled.
+ */
+@Slf4j
 public class SpringJDBCExecutor implements APIExecutor {
 
   private static final ObjectMapper objectMapper = new ObjectMapper();
-  final NamedParameterJdbcTemplate jdbcTemplate;
+  final StatementAwareJdbcTemplate jdbcTemplate;
 
   public SpringJDBCExecutor(String url, String driverClass, String username, String password) {
     DataSource dataSource = createDataSource(url, driverClass, username, password);
-    this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    this.jdbcTemplate = new StatementAwareJdbcTemplate(dataSource);
   }
 
   private DataSource createDataSource(String url, String driverClass, String username, String password) {
@@ -37,10 +56,52 @@ public class SpringJDBCExecutor implements APIExecutor {
     }
   }
 
+  /**
+   * JDBC drivers commonly synchronize on the connection while waiting for the database, which pins
+   * virtual threads to their carrier. On a virtual thread, the query is therefore executed on a
+   * platform thread while the virtual thread waits for the result.
+   */
   @Override
   public String executeQuery(APIQuery query, JsonNode arguments) {
+    if (!BlockingExecutor.isVirtualThread()) return executeQuery(query, arguments, statement -> {});
+    try {
+      return executeQueryAsync(query, arguments).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+      throw e;
+    }
+  }
+
+  @Override
+  public CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    AtomicReference<Statement> runningStatement = new AtomicReference<>();
+    CompletableFuture.runAsync(() -> {
+      if (future.isDone()) return;
+      try {
+        future.complete(executeQuery(query, arguments, statement -> {
+          runningStatement.set(statement);
+          if (future.isCancelled()) cancel(statement);
+        }));
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+      }
+    }, BlockingExecutor.getPlatformThreads());
+    //Abort the running statement when the caller gives up on the result
+    future.whenComplete((result, e) -> {
+      if (future.isCancelled() && runningStatement.get() != null) cancel(runningStatement.get());
+    });
+    return future;
+  }
+
+  private String executeQuery(APIQuery query, JsonNode arguments, Consumer<Statement> onStatement) {
     Map<String, Object> paramMap = objectMapper.convertValue(arguments, Map.class);
-    List<Map<String, Object>> rows = jdbcTemplate.query(query.getQuery(), paramMap, new ColumnMapRowMapper());
+    List<Map<String, Object>> rows = jdbcTemplate.queryForRows(query.getQuery(), paramMap, statement -> {
+      if (query.getTimeout() != null) {
+        statement.setQueryTimeout((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(query.getTimeout() + 999)));
+      }
+      onStatement.accept(statement);
+    });
     ArrayNode arrayNode = objectMapper.createArrayNode();
 
     for (Map<String, Object> row : rows) {
@@ -50,4 +111,36 @@ public class SpringJDBCExecutor implements APIExecutor {
 
     return arrayNode.toString();
   }
-}
\ No newline at end of file
+
+  private static void cancel(Statement statement) {
+    try {
+      statement.cancel();
+    } catch (SQLException e) {
+      log.debug("Could not cancel statement", e);
+    }
+  }
+
+  interface StatementConfigurer {
+
+    void configure(PreparedStatement statement) throws SQLException;
+  }
+
+  /**
+   * Gives access to the prepared statements so they can be configured and cancelled.
+   */
+  static class StatementAwareJdbcTemplate extends NamedParameterJdbcTemplate {
+
+    StatementAwareJdbcTemplate(DataSource dataSource) {
+      super(dataSource);
+    }
+
+    List<Map<String, Object>> queryForRows(String sql, Map<String, ?> paramMap, StatementConfigurer configurer) {
+      PreparedStatementCreator creator = getPreparedStatementCreator(sql, new MapSqlParameterSource(paramMap));
+      return getJdbcOperations().query(connection -> {
+        PreparedStatement statement = creator.createPreparedStatement(connection);
+        configurer.configure(statement);
+        return statement;
+      }, new ColumnMapRowMapper());
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.datasqrl.ai.api;
 
 import com.datasqrl.ai.api.RestUtil.RestCall;
+import com.datasqrl.ai.util.BlockingExecutor;
 import com.datasqrl.ai.util.ErrorHandling;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -62,7 +63,7 @@ public class SpringRESTExecutor implements APIExecutor {
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
-    });
+    }, BlockingExecutor.get());
   }
 
   private HttpEntity<String> buildRequest(JsonNode requestBody) throws IOException {
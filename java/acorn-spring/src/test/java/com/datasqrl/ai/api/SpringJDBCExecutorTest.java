@@ -83,6 +83,20 @@ class SpringJDBCExecutorTest {
     assertTrue(result.contains("\"NAME\":\"John Doe\""));
   }
 
+  @Test
+  @SneakyThrows
+  void executeQueryAsync_withTimeout() {
+    APIQuery query = new APIQuery();
+    query.setQuery("SELECT * FROM USERS WHERE ID = :id");
+    query.setTimeout(500);
+    ObjectNode args = new ObjectMapper().createObjectNode();
+    args.put("id", 2);
+
+    String result = executor.executeQueryAsync(query, args).get();
+    assertEquals(executor.executeQuery(query, args), result);
+    assertTrue(result.contains("\"NAME\":\"Jane Smith\""));
+  }
+
   @Test
   @SneakyThrows
   void executeQuery_allUsersQuery() {
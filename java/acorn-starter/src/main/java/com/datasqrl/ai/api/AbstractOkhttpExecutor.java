@@ -1,11 +1,13 @@
 package com.datasqrl.ai.api;
 
+import com.datasqrl.ai.util.BlockingExecutor;
 import com.datasqrl.ai.util.ErrorHandling;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import lombok.AllArgsConstructor;
 import lombok.Builder.Default;
 import lombok.Getter;
@@ -16,6 +18,7 @@ import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
@@ -28,17 +31,26 @@ public abstract class AbstractOkhttpExecutor implements APIExecutor {
 
   protected static final ObjectMapper objectMapper = new ObjectMapper();
 
-  protected final OkHttpClient httpClient = new OkHttpClient();
+  @Default
+  protected final OkHttpClient httpClient = OkhttpClients.getDefault();
   protected final String endpoint;
   protected final String authHeader;
 
   protected abstract Request buildRequest(APIQuery query, JsonNode arguments) throws IOException;
 
 
+  /**
+   * OkHttp waits for HTTP/2 responses inside synchronized blocks, which pins virtual threads to their carrier.
+   * On a virtual thread, HTTP/2 capable requests are therefore executed by the dispatcher while the virtual
+   * thread waits for the result.
+   */
   @Override
   public String executeQuery(APIQuery query, JsonNode arguments) throws IOException {
     Request request = buildRequest(query, arguments);
     log.debug("Executing query: {}", request);
+    if (BlockingExecutor.isVirtualThread() && request.isHttps() && httpClient.protocols().contains(Protocol.HTTP_2)) {
+      return await(execute(request));
+    }
 
     try (Response response = httpClient.newCall(request).execute()) {
       if (!response.isSuccessful()) {
@@ -51,10 +63,14 @@ public abstract class AbstractOkhttpExecutor implements APIExecutor {
 
   @Override
   public CompletableFuture<String> executeQueryAsync(APIQuery query, JsonNode arguments) throws IOException {
-    Request request = buildRequest(query, arguments);
+    return execute(buildRequest(query, arguments));
+  }
+
+  private CompletableFuture<String> execute(Request request) {
     CompletableFuture<String> future = new CompletableFuture<>();
 
-    httpClient.newCall(request).enqueue(new Callback() {
+    Call httpCall = httpClient.newCall(request);
+    httpCall.enqueue(new Callback() {
       @Override
       public void onFailure(Call call, IOException e) {
         future.completeExceptionally(e);
@@ -62,15 +78,35 @@ public abstract class AbstractOkhttpExecutor implements APIExecutor {
 
       @Override
       public void onResponse(Call call, Response response) throws IOException {
-        if (!response.isSuccessful()) {
-          future.completeExceptionally(new IOException("Query failed: " + response));
-        } else {
-          future.complete(response.body().string());
+        try (response) {
+          if (!response.isSuccessful()) {
+            future.completeExceptionally(new IOException("Query failed: " + response));
+          } else {
+            future.complete(response.body().string());
+          }
         }
       }
     });
+    //Abort the HTTP call when the caller gives up on the result (e.g. on timeout)
+    future.whenComplete((result, e) -> {
+      if (future.isCancelled()) httpCall.cancel();
+    });
 
     return future;
   }
 
-}
\ No newline at end of file
+  private static String await(CompletableFuture<String> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while executing query", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException ioException) throw ioException;
+      if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+      throw new IOException("Query failed", e.getCause());
+    }
+  }
+
+}
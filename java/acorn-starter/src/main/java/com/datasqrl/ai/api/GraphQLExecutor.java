@@ -5,11 +5,13 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Strings;
 import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.experimental.SuperBuilder;
 import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 
@@ -17,7 +19,11 @@ import okhttp3.RequestBody;
 public class GraphQLExecutor extends AbstractOkhttpExecutor {
 
   public GraphQLExecutor(@NonNull String endpoint, String authHeader) {
-    super(endpoint, authHeader);
+    this(OkhttpClients.getDefault(), endpoint, authHeader);
+  }
+
+  public GraphQLExecutor(@NonNull OkHttpClient httpClient, @NonNull String endpoint, String authHeader) {
+    super(httpClient, endpoint, authHeader);
   }
 
   @Override
@@ -25,6 +31,19 @@ public class GraphQLExecutor extends AbstractOkhttpExecutor {
     ErrorHandling.checkNotNullOrEmpty(query.getQuery(), "`query` cannot be empty");
   }
 
+  /**
+   * Sends the introspection query {@code { __typename }}, which every GraphQL API answers without side effects.
+   */
+  @Override
+  public CompletableFuture<Void> warmUp() {
+    try {
+      return executeQueryAsync(new APIQuery(null, "{ __typename }", null, null), objectMapper.createObjectNode())
+          .thenApply(result -> null);
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
   protected Request buildRequest(APIQuery query, JsonNode arguments) throws IOException {
     JsonNode requestBody = objectMapper.createObjectNode()
         .put("query", query.getQuery())
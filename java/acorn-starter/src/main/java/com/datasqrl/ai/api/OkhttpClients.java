@@ -0,0 +1,115 @@
+package com.datasqrl.ai.api;
+
+import com.datasqrl.ai.api.APIExecutorFactory.BaseConfiguration;
+import com.datasqrl.ai.api.APIExecutorFactory.ConnectionConfiguration;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Maintains the {@link OkHttpClient}s used by the {@link AbstractOkhttpExecutor}s.
+ *
+ * All clients are derived from a single root client so they share one connection pool.
+ * Executors that point at the same host with the same {@link ConnectionConfiguration} share
+ * a client and therefore also the dispatcher that enforces the maximum number of requests per host.
+ *
+ * Response compression is handled transparently by OkHttp (it requests and decompresses gzip
+ * responses). Request compression is opt-in since not all APIs accept gzip encoded request bodies.
+ */
+public class OkhttpClients {
+
+  private static final OkHttpClient ROOT_CLIENT = new OkHttpClient();
+
+  private static final Map<ClientKey, OkHttpClient> clients = new ConcurrentHashMap<>();
+
+  private record ClientKey(String host, int port, ConnectionConfiguration connection) {}
+
+  public static OkHttpClient getDefault() {
+    return ROOT_CLIENT;
+  }
+
+  public static OkHttpClient get(BaseConfiguration configuration) {
+    return get(configuration.url(), configuration.connection());
+  }
+
+  public static OkHttpClient get(String url, ConnectionConfiguration connection) {
+    HttpUrl httpUrl = HttpUrl.get(url);
+    return clients.computeIfAbsent(new ClientKey(httpUrl.host(), httpUrl.port(), connection),
+        key -> createClient(key.connection()));
+  }
+
+  private static OkHttpClient createClient(ConnectionConfiguration connection) {
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), connection.maxRequestsPerHost()));
+    dispatcher.setMaxRequestsPerHost(connection.maxRequestsPerHost());
+    OkHttpClient.Builder builder = ROOT_CLIENT.newBuilder()
+        .dispatcher(dispatcher)
+        .connectTimeout(connection.connectTimeoutMs(), TimeUnit.MILLISECONDS)
+        .readTimeout(connection.readTimeoutMs(), TimeUnit.MILLISECONDS);
+    if (!connection.http2()) {
+      builder.protocols(List.of(Protocol.HTTP_1_1));
+    }
+    if (connection.compression()) {
+      builder.addInterceptor(new GzipRequestInterceptor());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Compresses request bodies with gzip.
+   */
+  static class GzipRequestInterceptor implements Interceptor {
+
+    @NotNull
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+      Request request = chain.request();
+      RequestBody body = request.body();
+      if (body == null || request.header("Content-Encoding") != null) {
+        return chain.proceed(request);
+      }
+      Request compressedRequest = request.newBuilder()
+          .header("Content-Encoding", "gzip")
+          .method(request.method(), gzip(body))
+          .build();
+      return chain.proceed(compressedRequest);
+    }
+
+    private static RequestBody gzip(RequestBody body) {
+      return new RequestBody() {
+        @Override
+        public MediaType contentType() {
+          return body.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+          return -1; // We don't know the compressed length in advance
+        }
+
+        @Override
+        public void writeTo(@NotNull BufferedSink sink) throws IOException {
+          try (BufferedSink gzipSink = Okio.buffer(new GzipSink(sink))) {
+            body.writeTo(gzipSink);
+          }
+        }
+      };
+    }
+  }
+
+}
@@ -7,6 +7,7 @@ import com.google.common.base.Strings;
 import lombok.NonNull;
 import lombok.experimental.SuperBuilder;
 import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 
@@ -16,7 +17,11 @@ import java.io.IOException;
 public class RESTExecutor extends AbstractOkhttpExecutor {
 
   public RESTExecutor(@NonNull String endpoint, String authHeader) {
-    super(endpoint, authHeader);
+    this(OkhttpClients.getDefault(), endpoint, authHeader);
+  }
+
+  public RESTExecutor(@NonNull OkHttpClient httpClient, @NonNull String endpoint, String authHeader) {
+    super(httpClient, endpoint, authHeader);
   }
 
   @Override
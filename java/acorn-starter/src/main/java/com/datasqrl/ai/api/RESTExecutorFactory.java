@@ -15,9 +15,17 @@ public class RESTExecutorFactory implements APIExecutorFactory {
     return TYPE;
   }
 
+  /**
+   * Takes precedence over the blocking Spring executors when both are on the classpath.
+   */
+  @Override
+  public int getPriority() {
+    return 1;
+  }
+
   @Override
   public APIExecutor create(Configuration configuration, String name) {
     BaseConfiguration baseConfiguration = APIExecutorFactory.readBaseConfiguration(configuration, name);
-    return new RESTExecutor(baseConfiguration.url(), configuration.getString(AUTH_HEADERS_KEY));
+    return new RESTExecutor(OkhttpClients.get(baseConfiguration), baseConfiguration.url(), configuration.getString(AUTH_HEADERS_KEY));
   }
 }
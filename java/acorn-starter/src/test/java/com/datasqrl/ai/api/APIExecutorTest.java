@@ -1,6 +1,15 @@
 package com.datasqrl.ai.api;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.datasqrl.ai.api.APIExecutorFactory.ConnectionConfiguration;
+import java.util.Map;
 import java.util.Optional;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.apache.commons.configuration2.MapConfiguration;
 import org.junit.jupiter.api.Test;
 
 public class APIExecutorTest {
@@ -11,4 +20,24 @@ public class APIExecutorTest {
     RESTExecutor rest = RESTExecutor.builder().endpoint("localhost").authHeader("test").build();
   }
 
+  @Test
+  public void testSharedClientPerHost() {
+    ConnectionConfiguration connection = APIExecutorFactory.readConnectionConfiguration(new MapConfiguration(Map.of(
+        APIExecutorFactory.CONNECT_TIMEOUT_KEY, 500,
+        APIExecutorFactory.READ_TIMEOUT_KEY, 2000,
+        APIExecutorFactory.MAX_REQUESTS_PER_HOST_KEY, 20,
+        APIExecutorFactory.HTTP2_KEY, false)), "test");
+    OkHttpClient client1 = OkhttpClients.get("https://localhost:8080/graphql", connection);
+    OkHttpClient client2 = OkhttpClients.get("https://localhost:8080/rest", connection);
+    assertSame(client1, client2);
+    assertNotSame(client1, OkhttpClients.get("https://localhost:8081/graphql", connection));
+    assertNotSame(client1, OkhttpClients.get("https://localhost:8080/graphql", ConnectionConfiguration.DEFAULT));
+    assertSame(OkhttpClients.getDefault().connectionPool(), client1.connectionPool());
+    assertEquals(500, client1.connectTimeoutMillis());
+    assertEquals(2000, client1.readTimeoutMillis());
+    assertEquals(20, client1.dispatcher().getMaxRequestsPerHost());
+    assertEquals(1, client1.protocols().size());
+    assertEquals(Protocol.HTTP_1_1, client1.protocols().get(0));
+  }
+
 }
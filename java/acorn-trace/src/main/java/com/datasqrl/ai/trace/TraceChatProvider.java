@@ -30,7 +30,7 @@ public class TraceChatProvider implements ChatProvider {
   @Override
   public GenericChatMessage chat(String message, Context context) {
     TraceContext tContext = TraceContext.convert(context);
-    traceBuilder.entry(new Trace.Message(tContext.getRequestId(), message));
+    record(new Trace.Message(tContext.getRequestId(), message));
     GenericChatMessage result;
     try {
       result = chatProvider.chat(message, context);
@@ -40,15 +40,26 @@ public class TraceChatProvider implements ChatProvider {
     }
       if (result.getFunctionCall() != null) {
         GenericFunctionCall fcall = result.getFunctionCall();
-        traceBuilder.entry(new Trace.FunctionCall(tContext.getRequestId(), tContext.getInvocationId(),
+        record(new Trace.FunctionCall(tContext.getRequestId(), tContext.getInvocationId(),
             fcall.getName(), false, fcall.getArguments(), ""));
       } else {
-        traceBuilder.entry(new Trace.Response(tContext.getRequestId(), result.getContent(), ""));
+        record(new Trace.Response(tContext.getRequestId(), result.getContent(), ""));
       }
     requestThrottler.observe(context);
     return result;
   }
 
+  @Override
+  public void prewarm() {
+    chatProvider.prewarm();
+  }
+
+  private void record(Trace.Entry entry) {
+    synchronized (traceBuilder) {
+      traceBuilder.entry(entry);
+    }
+  }
+
   @Override
   public List<GenericChatMessage> getHistory(Context sessionContext, boolean includeFunctionCalls) {
     throw new UnsupportedOperationException("Should not retrieve history during trace generation");
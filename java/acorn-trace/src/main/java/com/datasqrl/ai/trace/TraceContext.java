@@ -1,5 +1,6 @@
 package com.datasqrl.ai.trace;
 
+import com.datasqrl.ai.tool.CancellationToken;
 import com.datasqrl.ai.tool.Context;
 import com.google.common.base.Preconditions;
 
@@ -11,6 +12,7 @@ import java.util.function.BiConsumer;
 
 import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.Setter;
 
 @AllArgsConstructor
 @Getter
@@ -19,6 +21,12 @@ public class TraceContext implements Context {
   private int requestId;
   private int invocationId;
   private final Map<String, Object> secure;
+  @Setter
+  private CancellationToken cancellationToken;
+
+  public TraceContext(int requestId, int invocationId, Map<String, Object> secure) {
+    this(requestId, invocationId, secure, CancellationToken.NONE);
+  }
 
   public static TraceContext of() {
     return of(Collections.emptyMap());
@@ -59,7 +67,7 @@ public class TraceContext implements Context {
   }
 
   public TraceContext nextRequest() {
-    return new TraceContext(++requestId, 0, secure);
+    return new TraceContext(++requestId, 0, secure, cancellationToken);
   }
 
   public void setRequestIndex(int requestId) {
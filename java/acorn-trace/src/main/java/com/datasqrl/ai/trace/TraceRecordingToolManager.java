@@ -2,7 +2,9 @@ package com.datasqrl.ai.trace;
 
 import com.datasqrl.ai.tool.ChatMessageInterface;
 import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.FunctionCallRepair;
 import com.datasqrl.ai.tool.FunctionValidation;
+import com.datasqrl.ai.tool.GenericChatMessage;
 import com.datasqrl.ai.tool.RuntimeFunctionDefinition;
 import com.datasqrl.ai.tool.ToolManager;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -10,6 +12,7 @@ import lombok.NonNull;
 import lombok.Value;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -41,11 +44,16 @@ public class TraceRecordingToolManager implements ToolManager {
     return manager.validateFunctionCall(functionName, arguments);
   }
 
+  @Override
+  public FunctionCallRepair repairFunctionCall(String functionName, JsonNode arguments) {
+    return manager.repairFunctionCall(functionName, arguments);
+  }
+
   @Override
   public String executeFunctionCall(String functionName, JsonNode arguments,
       @NonNull Context context) throws IOException {
     TraceContext tContext = TraceContext.convert(context);
-    traceBuilder.entry(new Trace.FunctionCall(tContext.getRequestId(), tContext.getInvocationId(),
+    record(new Trace.FunctionCall(tContext.getRequestId(), tContext.getInvocationId(),
         functionName, true, arguments, ""));
     String result;
     if (referenceTrace.isEmpty()) {
@@ -55,10 +63,39 @@ public class TraceRecordingToolManager implements ToolManager {
       result = response.response();
     }
     observer.observe(context);
-    traceBuilder.entry(new Trace.FunctionResponse(tContext.getRequestId(), tContext.getInvocationId(),functionName, result));
+    record(new Trace.FunctionResponse(tContext.getRequestId(), tContext.getInvocationId(),functionName, result));
     return result;
   }
 
+  @Override
+  public CompletableFuture<String> executeFunctionCallAsync(String functionName, JsonNode arguments,
+      @NonNull Context context) {
+    TraceContext tContext = TraceContext.convert(context);
+    record(new Trace.FunctionCall(tContext.getRequestId(), tContext.getInvocationId(),
+        functionName, true, arguments, ""));
+    CompletableFuture<String> result;
+    if (referenceTrace.isEmpty()) {
+      result = manager.executeFunctionCallAsync(functionName, arguments, context);
+    } else {
+      result = CompletableFuture.completedFuture(findResponse(tContext).response());
+    }
+    return result.thenApply(response -> {
+      observer.observe(context);
+      record(new Trace.FunctionResponse(tContext.getRequestId(), tContext.getInvocationId(), functionName, response));
+      return response;
+    });
+  }
+
+  /**
+   * Entries are recorded concurrently when multiple requests share the trace builder, so
+   * recording synchronizes on the builder.
+   */
+  private void record(Trace.Entry entry) {
+    synchronized (traceBuilder) {
+      traceBuilder.entry(entry);
+    }
+  }
+
   private Trace.FunctionResponse findResponse(TraceContext tContext) {
     //For now, we make the assumption that invocation produces a single response
     return referenceTrace.get().getEntries().stream().filter(e -> e instanceof Trace.FunctionResponse)
@@ -73,6 +110,16 @@ public class TraceRecordingToolManager implements ToolManager {
     return manager.getFunctions();
   }
 
+  @Override
+  public Collection<RuntimeFunctionDefinition> selectFunctions(List<GenericChatMessage> messages) {
+    return manager.selectFunctions(messages);
+  }
+
+  @Override
+  public void prewarm() {
+    manager.prewarm();
+  }
+
   //We don't use history during trace recording
 
   @Override
@@ -86,5 +133,11 @@ public class TraceRecordingToolManager implements ToolManager {
     return List.of();
   }
 
+  @Override
+  public <ChatMessage extends ChatMessageInterface> CompletableFuture<List<ChatMessage>> getChatMessagesAsync(
+      @NonNull Context context, int limit, @NonNull Class<ChatMessage> clazz) {
+    return CompletableFuture.completedFuture(List.of());
+  }
+
 
 }
@@ -0,0 +1,54 @@
+package com.datasqrl.ai.trace;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.datasqrl.ai.models.ChatProvider;
+import com.datasqrl.ai.tool.Context;
+import com.datasqrl.ai.tool.GenericChatMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class TraceChatProviderTest {
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    int requests = 2000;
+    ChatProvider echo = new ChatProvider() {
+      @Override
+      public GenericChatMessage chat(String message, Context context) {
+        return GenericChatMessage.builder().role("assistant").content(message).build();
+      }
+
+      @Override
+      public List<GenericChatMessage> getHistory(Context sessionContext, boolean includeFunctionCalls) {
+        return List.of();
+      }
+    };
+    Trace.TraceBuilder traceBuilder = Trace.builder();
+    ChatProvider provider = new TraceChatProvider(echo, traceBuilder);
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      List<Future<GenericChatMessage>> futures = new ArrayList<>();
+      for (int i = 0; i < requests; i++) {
+        TraceContext context = new TraceContext(i, 0, Map.of());
+        String message = "message" + i;
+        futures.add(executor.submit(() -> provider.chat(message, context)));
+      }
+      for (Future<GenericChatMessage> future : futures) future.get(1, TimeUnit.MINUTES);
+    } finally {
+      executor.shutdownNow();
+    }
+    Trace trace = traceBuilder.build();
+    assertEquals(2 * requests, trace.size());
+    for (int i = 0; i < requests; i++) {
+      assertEquals("message" + i, trace.getResponse(i).content());
+    }
+  }
+
+}
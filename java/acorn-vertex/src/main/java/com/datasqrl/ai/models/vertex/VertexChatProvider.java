@@ -80,16 +80,18 @@ public class VertexChatProvider extends AbstractChatProvider<Content, FunctionCa
           }
         })
         .forEach(toolBuilder::addFunctionDeclarations);
-    return List.of(toolBuilder.build());
+    //Gemini rejects tools without function declarations, e.g. for the summarizer of the history
+    return toolBuilder.getFunctionDeclarationsCount() == 0 ? List.of() : List.of(toolBuilder.build());
   }
 
   @Override
   public GenericChatMessage chat(String message, Context context) {
-    ChatSession<Content, FunctionCall> session = new ChatSession<>(backend, context, systemPrompt, bindings);
+    ChatSession<Content, FunctionCall> session = new ChatSession<>(this, context, systemPrompt);
     Content chatMessage = ContentMaker.fromString(message);
 
     int retryCount = 0;
     while (true) {
+      context.getCancellationToken().throwIfCancelled();
       ContextWindow<Content> contextWindow = session.getContextWindow();
       com.google.cloud.vertexai.generativeai.ChatSession chatSession = chatModel.startChat();
       List<Content> messageHistory = contextWindow.getMessages().stream().filter(m -> !m.getRole().equals("system")).toList();
@@ -104,7 +106,7 @@ public class VertexChatProvider extends AbstractChatProvider<Content, FunctionCa
       try {
         generatedResponse = chatSession.sendMessage(chatMessage);
         response = ResponseHandler.getContent(generatedResponse);
-        invocation.stop(contextWindow.getNumTokens(), bindings.getTokenCounter().countTokens(response));
+        invocation.stop(contextWindow.getNumTokens(), contextWindow.getNumPrefixTokens(), bindings.getTokenCounter().countTokens(response));
       } catch (Exception e) {
         invocation.fail(e);
         throw new RuntimeException(e);
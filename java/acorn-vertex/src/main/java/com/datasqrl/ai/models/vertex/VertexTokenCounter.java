@@ -33,6 +33,11 @@ public record VertexTokenCounter(GenerativeModel model) implements ModelAnalyzer
     return model.countTokens(message).getTotalTokens();
   }
 
+  @Override
+  public String getTokenizerName() {
+    return VertexChatProviderFactory.PROVIDER_NAME + ":" + model.getModelName();
+  }
+
   public static VertexTokenCounter of(VertexModelConfiguration modelConfig) {
     VertexAI vertexAI = new VertexAI(modelConfig.getProjectId(), modelConfig.getLocation());
     try {